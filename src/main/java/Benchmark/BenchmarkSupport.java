@@ -0,0 +1,44 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Clase BenchmarkSupport
+ * ----------------------
+ * Utilidades comunes de los benchmarks: esperar a que el servidor abra su
+ * puerto y calcular percentiles de latencia.
+ */
+
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Espera (hasta 10 s) a que algo acepte conexiones en el puerto.
+     *
+     * @throws IllegalStateException si el puerto no se abre a tiempo
+     */
+
+    static void waitForPort(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("El servidor no abrió el puerto " + port);
+    }
+
+    /**
+     * Percentil p (0 a 1) de latencias ya ordenadas; 0 si no hay muestras.
+     */
+
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+}
@@ -0,0 +1,167 @@
+package Benchmark;
+
+import Server.ExecutorFactory;
+import Server.Server;
+import Server.ServerConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Clase ConcurrencyBenchmark
+ * ----------------------
+ * Compara el servidor bloqueante con hilos de plataforma y con hilos virtuales
+ * para distintas cantidades de clientes conectados al mismo tiempo.
+ *
+ * Para cada modo y cada cantidad de clientes:
+ * - Levanta un Server en el mismo proceso, en un puerto nuevo.
+ * - Abre todas las conexiones y las deja abiertas.
+ * - Un grupo fijo de hilos "conductores" recorre las conexiones enviando
+ *   RETRIEVE_PATIENT y esperando la respuesta, varias rondas.
+ * - Informa conexiones logradas, rendimiento (req/s), latencias p50/p99,
+ *   hilos vivos y memoria usada.
+ *
+ * Uso (desde una copia de la carpeta de trabajo, porque escribe en data/):
+ *   java -cp SecureGenomicServer.jar Benchmark.ConcurrencyBenchmark [clientes] [rondas] [puerto]
+ *   ej: ... Benchmark.ConcurrencyBenchmark 1000,10000,50000 3 9700
+ *
+ * Con 50k clientes, cliente y servidor comparten proceso, así que se necesitan
+ * unos 100k descriptores de archivo (ulimit -n). Los hilos virtuales
+ * requieren ejecutar con Java 21 o superior.
+ */
+
+public class ConcurrencyBenchmark {
+    private static final int DRIVER_THREADS = 64;
+
+    public static void main(String[] args) throws Exception {
+        int[] clientCounts = Arrays.stream((args.length > 0 ? args[0] : "1000,5000,10000,50000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 9700;
+
+        List<String> modes = new ArrayList<>();
+        modes.add(ExecutorFactory.PLATFORM);
+        if (ExecutorFactory.virtualThreadsAvailable()) {
+            modes.add(ExecutorFactory.VIRTUAL);
+        } else {
+            System.out.println("JVM " + Runtime.version() + " sin hilos virtuales: solo se mide el modo platform.");
+        }
+
+        System.out.printf("%-9s %8s %8s %10s %9s %9s %8s %9s%n",
+                "modo", "clientes", "abiertos", "req/s", "p50(ms)", "p99(ms)", "hilos", "heap(MB)");
+        for (String mode : modes) {
+            for (int clients : clientCounts) {
+                run(mode, clients, rounds, port++);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int clients, int rounds, int port) throws Exception {
+        // Límites de admisión holgados: se mide el modelo de hilos, no el rechazo con 503
+        ServerConfig config = ServerConfig.load()
+                .set("server.executor", mode)
+                .set("server.max_threads", String.valueOf(clients + 16))
+                .set("admission.max_connections", String.valueOf(clients + 16))
+                .set("admission.max_lookups", String.valueOf(DRIVER_THREADS));
+        Server server = new Server(port, config);
+        Thread serverThread = new Thread(server::start, "bench-server-" + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        BenchmarkSupport.waitForPort(port);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        // Abrir todas las conexiones y dejarlas abiertas
+        List<Socket> sockets = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            try {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress("localhost", port), 5000);
+                socket.setSoTimeout(30000);
+                sockets.add(socket);
+            } catch (IOException e) {
+                System.err.println("Solo se pudieron abrir " + sockets.size() + " conexiones: " + e.getMessage());
+                break;
+            }
+        }
+
+        // Los conductores recorren las conexiones; cada una hace "rounds" solicitudes
+        int total = sockets.size() * rounds;
+        long[] latencies = new long[total];
+        AtomicInteger nextSlot = new AtomicInteger();
+        ExecutorService drivers = Executors.newFixedThreadPool(DRIVER_THREADS);
+        byte[] request = "RETRIEVE_PATIENT 0\n".getBytes(StandardCharsets.UTF_8);
+
+        long start = System.nanoTime();
+        List<Future<?>> pending = new ArrayList<>();
+        for (int d = 0; d < DRIVER_THREADS; d++) {
+            pending.add(drivers.submit(() -> {
+                int slot;
+                while ((slot = nextSlot.getAndIncrement()) < total) {
+                    Socket socket = sockets.get(slot % sockets.size());
+                    long t0 = System.nanoTime();
+                    synchronized (socket) {
+                        OutputStream out = socket.getOutputStream();
+                        out.write(request);
+                        out.flush();
+                        readLine(socket.getInputStream());
+                    }
+                    latencies[slot] = System.nanoTime() - t0;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : pending) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        drivers.shutdown();
+
+        int liveThreads = threads.getPeakThreadCount();
+        Runtime rt = Runtime.getRuntime();
+        long heapMb = (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024);
+
+        Arrays.sort(latencies);
+        System.out.printf("%-9s %8d %8d %10.0f %9.2f %9.2f %8d %9d%n",
+                mode, clients, sockets.size(),
+                total / (elapsed / 1e9),
+                BenchmarkSupport.percentile(latencies, 0.50) / 1e6,
+                BenchmarkSupport.percentile(latencies, 0.99) / 1e6,
+                liveThreads, heapMb);
+
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignorar
+            }
+        }
+        System.gc();
+    }
+
+    /**
+     * Lee una línea de respuesta byte a byte (sin BufferedReader, para no reservar
+     * un buffer de 8 KB por cada una de las miles de conexiones).
+     */
+
+    private static void readLine(InputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            // descartar
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package Benchmark;
+
+import Server.Server;
+import Server.ServerConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Clase HttpBenchmark
+ * ----------------------
+ * Compara el gateway HTTP/JSON (HttpGateway) con el protocolo de texto nativo
+ * sobre el mismo servidor.
+ *
+ * Levanta en el mismo proceso un Server en "puerto" con el gateway en
+ * "puerto + 1" y, con "clientes" hilos a la vez:
+ * - Consulta: cada cliente hace "consultas" GET /patients/{id} (HTTP, con
+ *   conexiones persistentes de HttpClient) o RETRIEVE_PATIENT id (una conexión
+ *   de texto por cliente) sobre un paciente que existe.
+ * - Alta: cada cliente crea "altas" pacientes con un FASTA de 64 KB, por POST
+ *   /patients o por CREATE_PATIENT.
+ * Informa solicitudes por segundo y latencias p50/p99 de cada camino.
+ *
+ * Uso (desde una copia de la carpeta de trabajo, porque escribe en data/):
+ *   java -cp SecureGenomicServer.jar Benchmark.HttpBenchmark [clientes] [consultas] [altas] [puerto]
+ *   ej: ... Benchmark.HttpBenchmark 32 2000 20 9900
+ */
+
+public class HttpBenchmark {
+    private static final int FASTA_BYTES = 64 * 1024;
+
+    /**
+     * Una solicitud de un cliente; i es el número de solicitud de ese cliente.
+     */
+    @FunctionalInterface
+    private interface Call {
+        void run(int client, int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int creates = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 9900;
+        int httpPort = port + 1;
+
+        // Límites de admisión holgados: se mide el transporte, no el rechazo con 503
+        ServerConfig config = ServerConfig.load()
+                .set("http.port", String.valueOf(httpPort))
+                .set("http.max_threads", String.valueOf(clients * 2))
+                .set("admission.max_connections", String.valueOf(clients * 4))
+                .set("admission.max_lookups", String.valueOf(clients * 2))
+                .set("admission.max_uploads", String.valueOf(clients * 2))
+                .set("server.shutdown_hook", "false");
+        Server server = new Server(port, config);
+        Thread serverThread = new Thread(server::start, "bench-server-" + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        BenchmarkSupport.waitForPort(port);
+        BenchmarkSupport.waitForPort(httpPort);
+
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        byte[] fasta = randomFasta();
+        long base = System.currentTimeMillis() / 1000 % 20_000_000 * 100;   // documentos nuevos en cada corrida (caben en int)
+        AtomicInteger nextDocument = new AtomicInteger();
+
+        // Un paciente para las consultas
+        String patientId = String.valueOf(base);
+        HttpResponse<String> created = http.send(HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + httpPort + "/patients?" + metadataQuery(patientId)))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(fasta)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (created.statusCode() != 201) {
+            throw new IllegalStateException("No se pudo crear el paciente de prueba: " + created.body());
+        }
+        nextDocument.set(1);
+
+        List<Socket> sockets = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress("localhost", port), 5000);
+            socket.setSoTimeout(30000);
+            sockets.add(socket);
+        }
+        URI lookupUri = URI.create("http://localhost:" + httpPort + "/patients/" + patientId);
+        byte[] retrieve = ("RETRIEVE_PATIENT " + patientId + "\n").getBytes(StandardCharsets.UTF_8);
+
+        System.out.printf("%n%-10s %-8s %8s %10s %9s %9s%n", "operación", "camino", "total", "req/s", "p50(ms)", "p99(ms)");
+        run("consulta", "texto", clients, lookups, (c, i) -> {
+            Socket socket = sockets.get(c);
+            socket.getOutputStream().write(retrieve);
+            socket.getOutputStream().flush();
+            expect(readLine(socket.getInputStream()), "OK");
+            readLine(socket.getInputStream());   // el paciente
+        });
+        run("consulta", "http", clients, lookups, (c, i) -> {
+            HttpResponse<byte[]> response = http.send(HttpRequest.newBuilder(lookupUri).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            expect(String.valueOf(response.statusCode()), "200");
+        });
+        run("alta", "texto", clients, creates, (c, i) -> {
+            String document = String.valueOf(base + nextDocument.getAndIncrement());
+            String request = "CREATE_PATIENT\nfull_name: Bench\ndocument_id: " + document + "\nage: 40\nsex: F\n"
+                    + "contact_email: bench" + document + "@x.com\nclinical_notes: benchmark\n"
+                    + "file_size_bytes: " + fasta.length + "\nEND_METADATA\nSTART_FASTA " + fasta.length + "\n";
+            OutputStream out = sockets.get(c).getOutputStream();
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.write(fasta);
+            out.flush();
+            expect(readLine(sockets.get(c).getInputStream()), "201");
+        });
+        run("alta", "http", clients, creates, (c, i) -> {
+            String document = String.valueOf(base + nextDocument.getAndIncrement());
+            HttpResponse<String> response = http.send(HttpRequest.newBuilder(
+                            URI.create("http://localhost:" + httpPort + "/patients?" + metadataQuery(document)))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(fasta)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            expect(String.valueOf(response.statusCode()), "201");
+        });
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Ejecuta perClient llamadas en cada uno de los clientes a la vez e imprime una fila.
+     */
+
+    private static void run(String operation, String path, int clients, int perClient, Call call) throws Exception {
+        long[] latencies = new long[clients * perClient];
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<?>> pending = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            pending.add(pool.submit(() -> {
+                for (int i = 0; i < perClient; i++) {
+                    long t0 = System.nanoTime();
+                    call.run(client, i);
+                    latencies[client * perClient + i] = System.nanoTime() - t0;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : pending) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-10s %-8s %8d %10.0f %9.2f %9.2f%n", operation, path, latencies.length,
+                latencies.length / (elapsed / 1e9),
+                BenchmarkSupport.percentile(latencies, 0.50) / 1e6, BenchmarkSupport.percentile(latencies, 0.99) / 1e6);
+    }
+
+    private static String metadataQuery(String document) {
+        return "document_id=" + document + "&full_name=Bench&age=40&sex=F&contact_email=bench" + document
+                + "%40x.com&clinical_notes=benchmark";
+    }
+
+    /**
+     * FASTA de una secuencia al azar (sin patrones de enfermedades: el alta
+     * responde una sola línea en el protocolo de texto).
+     */
+
+    private static byte[] randomFasta() {
+        byte[] bases = "ACGT".getBytes(StandardCharsets.US_ASCII);
+        byte[] header = ">bench\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] fasta = new byte[FASTA_BYTES];
+        System.arraycopy(header, 0, fasta, 0, header.length);
+        Random random = new Random(7);
+        for (int i = header.length; i < fasta.length - 1; i++) {
+            fasta[i] = bases[random.nextInt(4)];
+        }
+        fasta[fasta.length - 1] = '\n';
+        return fasta;
+    }
+
+    private static void expect(String actual, String prefix) {
+        if (!actual.startsWith(prefix)) {
+            throw new IllegalStateException("Respuesta inesperada: " + actual);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.append((char) b);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,190 @@
+package Benchmark;
+
+import Protocol.Tls;
+import Server.Server;
+import Server.ServerConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Clase TlsBenchmark
+ * ----------------------
+ * Mide cuánto cuesta TLS frente a texto plano.
+ *
+ * - Conexión: abrir una conexión nueva y recibir la primera respuesta
+ *   (RETRIEVE_PATIENT 0), en texto plano, con handshake TLS completo (cada
+ *   conexión con un contexto nuevo, sin sesiones guardadas) y con sesión
+ *   reanudada (todas con el mismo contexto, como hacen Client y AsyncClient).
+ * - Volumen: enviar "megas" MB en pedazos de 8 MB por una sola conexión. Los
+ *   pedazos van a una subida inexistente (UPLOAD_CHUNK), así el servidor los
+ *   lee y los descarta: se mide el transporte, no el disco.
+ *
+ * Levanta en el mismo proceso un Server en texto plano en "puerto" y uno con
+ * TLS en "puerto + 1". Si el keystore no existe lo crea con keytool
+ * (certificado autofirmado para localhost, clave "changeit").
+ *
+ * Uso (desde una copia de la carpeta de trabajo, porque escribe en data/):
+ *   java -cp SecureGenomicServer.jar Benchmark.TlsBenchmark [conexiones] [megas] [puerto] [keystore]
+ *   ej: ... Benchmark.TlsBenchmark 500 512 9800 data/bench.p12
+ */
+
+public class TlsBenchmark {
+    private static final String PASSWORD = "changeit";
+    private static final int CHUNK_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Abre una conexión (plana o TLS) lista para usar.
+     */
+    @FunctionalInterface
+    private interface Connector {
+        Socket open(int index) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 9800;
+        String keystore = args.length > 3 ? args[3] : "data/bench.p12";
+
+        ensureKeyStore(keystore);
+        startServer(port, ServerConfig.load().set("tls.enabled", "false"));
+        startServer(port + 1, ServerConfig.load()
+                .set("tls.enabled", "true")
+                .set("tls.keystore", keystore)
+                .set("tls.keystore_password", PASSWORD));
+
+        // Handshake completo: un contexto por conexión (se crean antes de medir)
+        List<SSLContext> fresh = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            fresh.add(Tls.clientContext(keystore, PASSWORD.toCharArray()));
+        }
+        SSLContext shared = Tls.clientContext(keystore, PASSWORD.toCharArray());
+        Tls.connect(shared, "localhost", port + 1, 5000).close(); // deja una sesión para reanudar
+
+        System.out.printf("%n%-15s %10s %9s %9s %9s %11s%n",
+                "conexión", "conexiones", "prom(ms)", "p50(ms)", "p99(ms)", "reanudadas");
+        connect("plano", connections, i -> plain(port));
+        connect("tls completo", connections, i -> Tls.connect(fresh.get(i), "localhost", port + 1, 5000));
+        connect("tls reanudado", connections, i -> Tls.connect(shared, "localhost", port + 1, 5000));
+
+        System.out.printf("%n%-15s %10s %9s %9s%n", "volumen", "MB", "seg", "MB/s");
+        double plainRate = bulk("plano", megabytes, plain(port));
+        double tlsRate = bulk("tls", megabytes, Tls.connect(shared, "localhost", port + 1, 5000));
+        System.out.printf("%nTLS rinde el %.0f%% del texto plano en volumen.%n", 100 * tlsRate / plainRate);
+        System.exit(0);
+    }
+
+    /**
+     * Abre "count" conexiones de a una; en cada una mide hasta la primera respuesta.
+     */
+
+    private static void connect(String name, int count, Connector connector) throws IOException {
+        byte[] request = "RETRIEVE_PATIENT 0\n".getBytes(StandardCharsets.UTF_8);
+        long[] latencies = new long[count];
+        int resumed = 0;
+        for (int i = 0; i < count; i++) {
+            long startMillis = System.currentTimeMillis();
+            long start = System.nanoTime();
+            try (Socket socket = connector.open(i)) {
+                OutputStream out = socket.getOutputStream();
+                out.write(request);
+                out.flush();
+                readLine(socket.getInputStream());
+                latencies[i] = System.nanoTime() - start;
+                if (socket instanceof SSLSocket
+                        && ((SSLSocket) socket).getSession().getCreationTime() < startMillis) {
+                    resumed++;
+                }
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-15s %10d %9.2f %9.2f %9.2f %11d%n", name, count,
+                Arrays.stream(latencies).average().orElse(0) / 1e6,
+                BenchmarkSupport.percentile(latencies, 0.50) / 1e6, BenchmarkSupport.percentile(latencies, 0.99) / 1e6, resumed);
+    }
+
+    /**
+     * Envía los pedazos por la conexión, esperando cada respuesta.
+     *
+     * @return MB/s
+     */
+
+    private static double bulk(String name, int megabytes, Socket socket) throws IOException {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        byte[] bases = "ACGT".getBytes(StandardCharsets.US_ASCII);
+        Random random = new Random(42);
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = bases[random.nextInt(4)];
+        }
+        byte[] header = ("UPLOAD_CHUNK benchmark 0 0\nSTART_FASTA " + CHUNK_BYTES + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        int chunks = Math.max(1, megabytes * 1024 * 1024 / CHUNK_BYTES);
+
+        try (Socket s = socket) {
+            OutputStream out = s.getOutputStream();
+            InputStream in = s.getInputStream();
+            long start = System.nanoTime();
+            for (int i = 0; i < chunks; i++) {
+                out.write(header);
+                out.write(chunk);
+                out.flush();
+                readLine(in);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double mb = (double) chunks * CHUNK_BYTES / (1024 * 1024);
+            System.out.printf("%-15s %10.0f %9.2f %9.1f%n", name, mb, seconds, mb / seconds);
+            return mb / seconds;
+        }
+    }
+
+    private static Socket plain(int port) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("localhost", port), 5000);
+        return socket;
+    }
+
+    private static void startServer(int port, ServerConfig config) throws InterruptedException {
+        Server server = new Server(port, config);
+        Thread thread = new Thread(server::start, "bench-server-" + port);
+        thread.setDaemon(true);
+        thread.start();
+        BenchmarkSupport.waitForPort(port);
+    }
+
+    /**
+     * Crea un keystore autofirmado para localhost con keytool, si no existe.
+     */
+
+    private static void ensureKeyStore(String keystore) throws IOException, InterruptedException {
+        if (Files.exists(Paths.get(keystore))) return;
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "sgs",
+                "-keyalg", "EC", "-groupname", "secp256r1", "-validity", "365",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-storetype", "PKCS12", "-keystore", keystore,
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool no pudo crear " + keystore);
+        }
+    }
+
+    private static void readLine(InputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            // descartar
+        }
+    }
+}
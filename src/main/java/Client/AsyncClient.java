@@ -0,0 +1,696 @@
+package Client;
+
+import Protocol.Compression;
+import Protocol.Frame;
+import Protocol.FrameCodec;
+import Protocol.ResponseAssembler;
+import Protocol.Tls;
+import validation.FastaValidator;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Clase AsyncClient
+ * ------------------
+ * Cliente para usar desde programas (no interactivo): cada operación devuelve
+ * un CompletableFuture con el texto de la respuesta del servidor.
+ *
+ * Usa siempre el protocolo binario, así cada respuesta llega completa en su
+ * trama RESPONSE y se entrega por su requestId, sin esperar tiempos ni usar
+ * input.ready(). Si el servidor no acepta el binario (ej: modo NIO), conectar falla.
+ *
+ * Mantiene un pool de conexiones que se reutilizan por turnos. En cada conexión
+ * se pueden enviar varias solicitudes sin esperar respuestas (pipelining); un
+ * hilo lector por conexión completa los futuros a medida que llegan.
+ * Las conexiones se abren la primera vez que se usan y se reemplazan si se caen.
+ * Las que pasan un minuto sin uso envían PING: así el servidor no las cierra por
+ * inactivas y una conexión caída se descubre antes de mandarle una solicitud.
+ *
+ * Tiempo límite y reintentos:
+ * - Cada solicitud tiene un tiempo límite; si se vence, el futuro falla con TimeoutException.
+ * - Las respuestas con "retry_after_ms:N" (ej: 503 BUSY) se reintentan después de
+ *   N ms, duplicando la espera en cada intento y con algo de azar.
+ * - Si falla el envío (la solicitud no llegó completa) se reintenta en otra conexión.
+ * - Si se pierde la respuesta (conexión caída o tiempo vencido) solo se reintentan
+ *   las consultas, porque una creación podría haberse aplicado.
+ * En todos los casos hasta maxRetries veces; después el futuro falla o queda con
+ * la última respuesta. Al cerrar el cliente fallan todos los futuros sin completar,
+ * incluso los que esperaban un reintento.
+ *
+ * Con -Dsgs.tls.enabled=true las conexiones son TLS (ver Protocol.Tls) y las
+ * nuevas conexiones del pool reanudan la sesión de las anteriores.
+ *
+ * Si el servidor acepta compresión (se pide al negociar el protocolo), los FASTA
+ * de más de 4 KB se envían comprimidos con deflate mientras se leen del disco;
+ * si no, van con transferTo sin pasar por el heap (salvo con TLS).
+ *
+ * Para archivos grandes, uploadResumableAsync sube el FASTA en pedazos con su
+ * CRC32C (UPLOAD_OPEN / UPLOAD_CHUNK / UPLOAD_COMMIT). Si se corta, se vuelve a
+ * llamar con el mismo upload_id y solo se envían los pedazos que faltan; después
+ * createPatientFromUploadAsync crea el paciente sin volver a enviar el archivo.
+ */
+public class AsyncClient implements AutoCloseable {
+    private static final int DATA_FRAME_BYTES = 8 * 1024 * 1024;   // Tamaño de cada trama DATA
+    private static final long RETRY_DELAY_MS = 200;                // Espera base entre reintentos (se duplica)
+    private static final long KEEP_ALIVE_MS = 60_000;              // PING a las conexiones sin uso por este tiempo
+
+    private final String host;
+    private final int port;
+    private final long timeoutMs;
+    private final int maxRetries;
+    private final boolean compress;                 // Pedir compresión de los FASTA al conectar
+    private final PooledConnection[] pool;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final ExecutorService senders;          // Escriben las solicitudes (y calculan checksums)
+    private final ScheduledExecutorService timer;   // Tiempos límite y reintentos diferidos
+    private final Set<CompletableFuture<String>> unfinished = ConcurrentHashMap.newKeySet();   // Para fallarlas al cerrar
+    private volatile boolean closed;
+
+    /**
+     * Cliente con 4 conexiones, 30 s de tiempo límite, 3 reintentos y compresión.
+     */
+    public AsyncClient(String host, int port) {
+        this(host, port, 4, 30_000, 3);
+    }
+
+    /**
+     * Cliente que pide compresión de los FASTA (ver el constructor completo).
+     */
+    public AsyncClient(String host, int port, int connections, long timeoutMs, int maxRetries) {
+        this(host, port, connections, timeoutMs, maxRetries, true);
+    }
+
+    /**
+     * @param host        dirección del servidor
+     * @param port        puerto del servidor
+     * @param connections tamaño del pool de conexiones
+     * @param timeoutMs   tiempo máximo por solicitud, desde que se envía hasta que llega la respuesta
+     * @param maxRetries  reintentos por solicitud (0 = ninguno)
+     * @param compress    pedir compresión de los FASTA (conviene si la red es más lenta que la CPU)
+     */
+    public AsyncClient(String host, int port, int connections, long timeoutMs, int maxRetries, boolean compress) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMs = timeoutMs;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.compress = compress;
+        this.pool = new PooledConnection[Math.max(1, connections)];
+        this.senders = Executors.newFixedThreadPool(pool.length, daemon("async-client-sender"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemon("async-client-timer"));
+        timer.scheduleWithFixedDelay(this::keepAlive, KEEP_ALIVE_MS, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Crea un paciente con su FASTA. Si la metadata no trae file_size_bytes ni
+     * checksum_fasta, se calculan del archivo.
+     *
+     * @param metadata pares clave/valor (full_name, document_id, age, sex, contact_email, clinical_notes...)
+     * @param fasta    archivo FASTA del paciente
+     * @return respuesta del servidor (ej: "201 CREATED patient_id: X" y sus DETECTION)
+     */
+    public CompletableFuture<String> createPatientAsync(Map<String, String> metadata, Path fasta) {
+        return withFastaMetadata(metadata, fasta).thenCompose(full ->
+                submit(false, (conn, id) -> {
+                    conn.writeCommand(id, "CREATE_PATIENT");
+                    conn.writeMetadata(id, full);
+                    conn.writeFasta(id, fasta);
+                }));
+    }
+
+    /**
+     * Consulta un paciente por ID.
+     *
+     * @return "OK" y el paciente, o "ERROR 404 NOT_FOUND"
+     */
+    public CompletableFuture<String> retrievePatientAsync(String patientId) {
+        return submit(true, (conn, id) -> conn.writeCommand(id, "RETRIEVE_PATIENT " + patientId));
+    }
+
+    /**
+     * Reemplaza el FASTA de un paciente existente (UPDATE_PATIENT solo con el archivo).
+     *
+     * @return "OK patient updated" o el error
+     */
+    public CompletableFuture<String> uploadFastaAsync(String patientId, Path fasta) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("patient_id", patientId);
+        return withFastaMetadata(metadata, fasta).thenCompose(full ->
+                submit(false, (conn, id) -> {
+                    conn.writeCommand(id, "UPDATE_PATIENT");
+                    conn.writeMetadata(id, full);
+                    if (Long.parseLong(full.get("file_size_bytes")) > 0) {
+                        conn.writeFasta(id, fasta);
+                    }
+                }));
+    }
+
+    /**
+     * Sube un FASTA en pedazos y confirma la subida con su SHA-256.
+     *
+     * @param fasta    archivo a subir (no vacío)
+     * @param uploadId sesión a retomar (se consulta qué pedazos faltan), o null para abrir una nueva
+     * @return upload_id de la subida confirmada, para usar en createPatientFromUploadAsync;
+     *         falla con IllegalArgumentException si el archivo está vacío
+     */
+    public CompletableFuture<String> uploadResumableAsync(Path fasta, String uploadId) {
+        return withFastaMetadata(new LinkedHashMap<>(), fasta).thenCompose(info -> {
+            if (Long.parseLong(info.get("file_size_bytes")) == 0) {
+                throw new CompletionException(new IllegalArgumentException("El archivo " + fasta + " está vacío"));
+            }
+            CompletableFuture<String> session = uploadId == null
+                    ? submit(false, (conn, id) -> conn.writeCommand(id, "UPLOAD_OPEN " + info.get("file_size_bytes")))
+                    : submit(true, (conn, id) -> conn.writeCommand(id, "UPLOAD_STATUS " + uploadId));
+            return session.thenCompose(response -> {
+                String upload = field(response, "upload_id");
+                String chunkBytes = field(response, "chunk_bytes");
+                if (upload == null || chunkBytes == null) {
+                    throw new CompletionException(new IOException("No se pudo abrir la subida: " + response));
+                }
+                List<Integer> missing = uploadId == null
+                        ? parseRanges("0-" + (Long.parseLong(field(response, "chunks")) - 1))
+                        : parseRanges(field(response, "missing"));
+                long size = Long.parseLong(info.get("file_size_bytes"));
+                int chunk = Integer.parseInt(chunkBytes);
+
+                List<CompletableFuture<String>> chunks = new ArrayList<>();
+                for (int index : missing) {
+                    long offset = (long) index * chunk;
+                    long length = Math.min(chunk, size - offset);
+                    chunks.add(CompletableFuture.supplyAsync(() -> crc32c(fasta, offset, length), senders)
+                            .thenCompose(crc -> submit(true, (conn, id) -> {
+                                conn.writeCommand(id, "UPLOAD_CHUNK " + upload + " " + index + " " + crc);
+                                conn.writeFastaRange(id, fasta, offset, length);
+                            })));
+                }
+                return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenCompose(done -> {
+                    for (CompletableFuture<String> sent : chunks) {
+                        if (!sent.join().startsWith("OK CHUNK")) {
+                            throw new CompletionException(new IOException("Pedazo rechazado: " + sent.join()));
+                        }
+                    }
+                    return submit(true, (conn, id) ->
+                            conn.writeCommand(id, "UPLOAD_COMMIT " + upload + " " + info.get("checksum_fasta")));
+                }).thenApply(commit -> {
+                    if (!commit.startsWith("OK UPLOAD_COMMIT")) {
+                        throw new CompletionException(new IOException("No se pudo confirmar la subida: " + commit));
+                    }
+                    return upload;
+                });
+            });
+        });
+    }
+
+    /**
+     * Crea un paciente cuyo FASTA ya se subió con uploadResumableAsync.
+     *
+     * @return respuesta del servidor (ej: "201 CREATED patient_id: X" y sus DETECTION)
+     */
+    public CompletableFuture<String> createPatientFromUploadAsync(Map<String, String> metadata, String uploadId) {
+        Map<String, String> full = new LinkedHashMap<>(metadata);
+        full.put("upload_id", uploadId);
+        return submit(false, (conn, id) -> {
+            conn.writeCommand(id, "CREATE_PATIENT");
+            conn.writeMetadata(id, full);
+        });
+    }
+
+    /**
+     * Envía un comando de una línea, sin metadata ni FASTA (ej: LIST_PATIENTS, DELETE_PATIENT).
+     * No se reintenta si se pierde la respuesta.
+     */
+    public CompletableFuture<String> sendAsync(String command) {
+        return submit(false, (conn, id) -> conn.writeCommand(id, command));
+    }
+
+    /**
+     * Cierra todas las conexiones; las solicitudes pendientes fallan.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        senders.shutdownNow();
+        timer.shutdownNow();
+        synchronized (pool) {
+            for (PooledConnection conn : pool) {
+                if (conn != null) conn.fail(new IOException("Cliente cerrado"));
+            }
+        }
+        // Las que esperaban turno en senders o un reintento en timer ya no van a correr
+        for (CompletableFuture<String> result : unfinished) {
+            result.completeExceptionally(new IOException("Cliente cerrado"));
+        }
+    }
+
+    /**
+     * Completa file_size_bytes y checksum_fasta (en un hilo del pool, no en el del llamador).
+     */
+    private CompletableFuture<Map<String, String>> withFastaMetadata(Map<String, String> metadata, Path fasta) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, String> full = new LinkedHashMap<>(metadata);
+            try {
+                full.putIfAbsent("file_size_bytes", String.valueOf(Files.size(fasta)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (!full.containsKey("checksum_fasta")) {
+                String checksum = FastaValidator.calculateChecksum(fasta.toString());
+                if (checksum != null) full.put("checksum_fasta", checksum);
+            }
+            return full;
+        }, senders);
+    }
+
+    /**
+     * CRC32C en hexadecimal de un rango del archivo.
+     */
+    private static String crc32c(Path file, long offset, long length) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = offset;
+            while (position < offset + length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), offset + length - position));
+                int n = fc.read(buffer, position);
+                if (n < 0) throw new EOFException("El archivo " + file + " es más corto de lo esperado");
+                buffer.flip();
+                crc.update(buffer);
+                position += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Valor de "clave:valor" en una respuesta, o null.
+     */
+    private static String field(String response, String key) {
+        for (String token : response.trim().split("\\s+")) {
+            if (token.startsWith(key + ":")) return token.substring(key.length() + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Números de pedazo de rangos como "0,3-5" ("-" es ninguno).
+     */
+    private static List<Integer> parseRanges(String ranges) {
+        List<Integer> numbers = new ArrayList<>();
+        if (ranges == null || ranges.equals("-")) return numbers;
+        for (String range : ranges.split(",")) {
+            String[] ends = range.split("-");
+            int first = Integer.parseInt(ends[0]);
+            int last = ends.length > 1 ? Integer.parseInt(ends[1]) : first;
+            for (int i = first; i <= last; i++) numbers.add(i);
+        }
+        return numbers;
+    }
+
+    /**
+     * Escribe las tramas de una solicitud con el requestId asignado.
+     */
+    @FunctionalInterface
+    private interface RequestWriter {
+        void write(PooledConnection conn, int requestId) throws IOException;
+    }
+
+    private CompletableFuture<String> submit(boolean idempotent, RequestWriter writer) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        unfinished.add(result);
+        result.whenComplete((text, error) -> unfinished.remove(result));
+        attempt(idempotent, writer, 0, result);
+        return result;
+    }
+
+    private void attempt(boolean idempotent, RequestWriter writer, int attempt, CompletableFuture<String> result) {
+        if (closed) {
+            result.completeExceptionally(new IOException("Cliente cerrado"));
+            return;
+        }
+        try {
+            senders.execute(() -> send(idempotent, writer, attempt, result));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void send(boolean idempotent, RequestWriter writer, int attempt, CompletableFuture<String> result) {
+        if (result.isDone()) return;   // cerrado mientras esperaba turno
+        CompletableFuture<String> response;
+        try {
+            response = connection().send(writer);
+        } catch (IOException e) {
+            // La solicitud no llegó completa: el servidor no la ejecutó
+            retryOrFail(idempotent, writer, attempt, result, e, backoff(attempt));
+            return;
+        } catch (RuntimeException e) {
+            // Error al armar la solicitud (ej: archivo ilegible): reintentar daría lo mismo
+            result.completeExceptionally(e);
+            return;
+        }
+
+        ScheduledFuture<?> timeout = schedule(() -> response.completeExceptionally(
+                new TimeoutException("Sin respuesta en " + timeoutMs + " ms")), timeoutMs, response);
+
+        response.whenComplete((text, error) -> {
+            if (timeout != null) timeout.cancel(false);
+            if (error != null) {
+                if (idempotent) {
+                    retryOrFail(true, writer, attempt, result, error, backoff(attempt));
+                } else {
+                    result.completeExceptionally(error);
+                }
+                return;
+            }
+            long retryAfter = retryAfter(text);
+            if (retryAfter >= 0 && attempt < maxRetries) {
+                long delay = jitter(retryAfter << Math.min(attempt, 6));
+                schedule(() -> attempt(idempotent, writer, attempt + 1, result), delay, result);
+                return;
+            }
+            result.complete(text);
+        });
+    }
+
+    private void retryOrFail(boolean idempotent, RequestWriter writer, int attempt,
+                             CompletableFuture<String> result, Throwable error, long delayMs) {
+        if (attempt >= maxRetries || closed) {
+            result.completeExceptionally(error);
+            return;
+        }
+        schedule(() -> attempt(idempotent, writer, attempt + 1, result), jitter(delayMs), result);
+    }
+
+    /**
+     * Programa una tarea en el timer. Si el cliente ya se cerró, el timer la
+     * rechaza: entonces falla el futuro, que si no quedaría sin completar.
+     *
+     * @return la tarea programada, o null si se rechazó
+     */
+    private ScheduledFuture<?> schedule(Runnable task, long delayMs, CompletableFuture<String> onRejected) {
+        try {
+            return timer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            onRejected.completeExceptionally(new IOException("Cliente cerrado", e));
+            return null;
+        }
+    }
+
+    /**
+     * Espera antes del reintento número attempt + 1: RETRY_DELAY_MS duplicado en cada intento (hasta 64 veces).
+     */
+    static long backoff(int attempt) {
+        return RETRY_DELAY_MS << Math.min(attempt, 6);
+    }
+
+    /**
+     * Suma hasta un 50% al azar, para que las solicitudes rechazadas juntas no vuelvan todas a la vez.
+     */
+    static long jitter(long delayMs) {
+        return delayMs + ThreadLocalRandom.current().nextLong(delayMs / 2 + 1);
+    }
+
+    /**
+     * Espera pedida por el servidor en respuestas como "ERROR 503 BUSY retry_after_ms:500", o -1.
+     */
+    private static long retryAfter(String response) {
+        if (!response.startsWith("ERROR")) return -1;
+        int idx = response.indexOf("retry_after_ms:");
+        if (idx < 0) return -1;
+        int start = idx + "retry_after_ms:".length();
+        int end = start;
+        while (end < response.length() && Character.isDigit(response.charAt(end))) end++;
+        try {
+            return Long.parseLong(response.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Toma la siguiente conexión del pool por turnos, abriéndola o reemplazándola si hace falta.
+     */
+    private PooledConnection connection() throws IOException {
+        int slot = Math.floorMod(nextConnection.getAndIncrement(), pool.length);
+        synchronized (pool) {
+            PooledConnection conn = pool[slot];
+            if (conn == null || conn.broken) {
+                if (closed) throw new IOException("Cliente cerrado");
+                conn = new PooledConnection();
+                pool[slot] = conn;
+            }
+            return conn;
+        }
+    }
+
+    /**
+     * Envía PING por cada conexión del pool que no se usó en KEEP_ALIVE_MS. Si no
+     * hay PONG a tiempo la conexión se descarta y la próxima solicitud abre otra.
+     */
+    private void keepAlive() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> idle = new ArrayList<>();
+        synchronized (pool) {
+            for (PooledConnection conn : pool) {
+                if (conn != null && !conn.broken && now - conn.lastUsed >= KEEP_ALIVE_MS) idle.add(conn);
+            }
+        }
+        for (PooledConnection conn : idle) {
+            try {
+                senders.execute(() -> {
+                    try {
+                        conn.send((c, id) -> c.writeCommand(id, "PING"))
+                                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                                .exceptionally(error -> {
+                                    conn.fail(error);
+                                    return null;
+                                });
+                    } catch (IOException e) {
+                        // send ya descartó la conexión
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                return; // cliente cerrado
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Una conexión del pool: escrituras serializadas con un candado y un hilo
+     * lector que entrega cada RESPONSE al futuro de su requestId.
+     */
+    private final class PooledConnection {
+        private final Socket socket;
+        private final SocketChannel channel;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final Map<Integer, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+        private String codec = Compression.IDENTITY;   // Compresión aceptada por el servidor
+        private int nextRequestId;
+        private volatile boolean broken;
+        private volatile long lastUsed = System.currentTimeMillis();   // Último envío o respuesta
+
+        PooledConnection() throws IOException {
+            SSLContext tls = Tls.clientContextFromSystem();
+            int connectTimeout = (int) Math.min(timeoutMs, Integer.MAX_VALUE);
+            if (tls != null) {
+                socket = Tls.connect(tls, host, port, connectTimeout);
+                channel = null; // con TLS el FASTA va por el flujo cifrado
+            } else {
+                channel = SocketChannel.open();
+                socket = channel.socket();
+            }
+            try {
+                if (channel != null) socket.connect(new InetSocketAddress(host, port), connectTimeout);
+                InputStream raw = socket.getInputStream();
+                OutputStream rawOut = socket.getOutputStream();
+                String negotiation = Frame.NEGOTIATION + (compress ? " COMPRESSION " + Compression.DEFLATE : "");
+                rawOut.write((negotiation + "\n").getBytes(StandardCharsets.UTF_8));
+                rawOut.flush();
+                String answer = readLine(raw);
+                if (!answer.startsWith("OK " + Frame.NEGOTIATION)) {
+                    throw new IOException("El servidor no acepta el protocolo binario (" + answer + ")");
+                }
+                int at = answer.indexOf(" COMPRESSION ");
+                if (at >= 0) codec = answer.substring(at + " COMPRESSION ".length()).trim();
+                out = new DataOutputStream(new BufferedOutputStream(rawOut, 64 * 1024));
+                in = new DataInputStream(new BufferedInputStream(raw, 64 * 1024));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            Thread reader = new Thread(this::readResponses, "async-client-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Envía una solicitud y devuelve el futuro de su respuesta.
+         *
+         * @throws IOException si no se pudo escribir completa (la conexión queda descartada)
+         */
+        CompletableFuture<String> send(RequestWriter writer) throws IOException {
+            writeLock.lock();
+            try {
+                if (broken) throw new IOException("Conexión cerrada");
+                int requestId = ++nextRequestId;
+                lastUsed = System.currentTimeMillis();
+                CompletableFuture<String> response = new CompletableFuture<>();
+                pending.put(requestId, response);
+                // Si se vence el tiempo, una respuesta tardía ya no encuentra el futuro
+                response.whenComplete((text, error) -> pending.remove(requestId));
+                try {
+                    writer.write(this, requestId);
+                    out.flush();
+                } catch (IOException | RuntimeException e) {
+                    // La solicitud quedó a medio escribir: la conexión ya no sirve
+                    pending.remove(requestId);
+                    fail(e);
+                    throw e;
+                }
+                return response;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        void writeCommand(int requestId, String command) throws IOException {
+            FrameCodec.writeText(out, Frame.TYPE_COMMAND, requestId, command);
+        }
+
+        void writeMetadata(int requestId, Map<String, String> metadata) throws IOException {
+            FrameCodec.writeFrame(out, Frame.TYPE_METADATA, requestId, FrameCodec.encodeMetadata(metadata));
+        }
+
+        /**
+         * FASTA_START con el tamaño y tramas DATA de hasta 8 MB enviadas con transferTo.
+         */
+        void writeFasta(int requestId, Path fasta) throws IOException {
+            writeFastaRange(requestId, fasta, 0, Files.size(fasta));
+        }
+
+        /**
+         * Igual que writeFasta, pero solo "length" bytes desde "offset" (un pedazo de una subida).
+         * Con compresión negociada, FASTA_START lleva FLAG_COMPRESSED y las tramas
+         * DATA los bloques que va entregando el compresor.
+         */
+        void writeFastaRange(int requestId, Path fasta, long offset, long length) throws IOException {
+            try (FileChannel fc = FileChannel.open(fasta, StandardOpenOption.READ)) {
+                if (Compression.isSupported(codec) && length >= Compression.MIN_BYTES) {
+                    FrameCodec.writeFrame(out, Frame.TYPE_FASTA_START, Frame.FLAG_COMPRESSED, requestId,
+                            FrameCodec.encodeLength(length), 0, 8);
+                    Compression.compress(codec, fc, offset, length, (block, n, last) ->
+                            FrameCodec.writeFrame(out, Frame.TYPE_DATA, last ? Frame.FLAG_END : 0, requestId, block, 0, n));
+                    return;
+                }
+                FrameCodec.writeFrame(out, Frame.TYPE_FASTA_START, requestId, FrameCodec.encodeLength(length));
+                long position = 0;
+                while (position < length) {
+                    int chunk = (int) Math.min(DATA_FRAME_BYTES, length - position);
+                    int flags = position + chunk == length ? Frame.FLAG_END : 0;
+                    FrameCodec.writeHeader(out, Frame.TYPE_DATA, flags, requestId, chunk);
+                    out.flush();
+                    if (channel == null) {
+                        Client.copyToStream(fc, offset + position, chunk, out);
+                        position += chunk;
+                        continue;
+                    }
+                    long sent = 0;
+                    while (sent < chunk) {
+                        long n = fc.transferTo(offset + position + sent, chunk - sent, channel);
+                        if (n <= 0 && offset + position + sent >= fc.size()) {
+                            throw new EOFException("El archivo " + fasta + " terminó antes de enviarlo completo");
+                        }
+                        sent += n;
+                    }
+                    position += chunk;
+                }
+            }
+        }
+
+        private void readResponses() {
+            Frame frame = new Frame();
+            ResponseAssembler responses = new ResponseAssembler();
+            try {
+                while (FrameCodec.readHeader(in, frame)) {
+                    byte[] payload = FrameCodec.readPayload(in, frame);
+                    if (frame.getType() != Frame.TYPE_RESPONSE) continue;
+                    lastUsed = System.currentTimeMillis();
+                    String text = responses.add(frame, payload);
+                    if (text == null) continue;
+                    CompletableFuture<String> response = pending.remove(frame.getRequestId());
+                    if (response != null) {
+                        response.complete(text.trim());
+                    }
+                }
+                fail(new EOFException("El servidor cerró la conexión"));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Descarta la conexión y hace fallar las solicitudes que esperaban respuesta.
+         */
+        void fail(Throwable cause) {
+            broken = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ya estaba cerrada
+            }
+            for (Integer requestId : pending.keySet()) {
+                CompletableFuture<String> response = pending.remove(requestId);
+                if (response != null) response.completeExceptionally(cause);
+            }
+        }
+
+        private String readLine(InputStream raw) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = raw.read()) != -1 && b != '\n') {
+                line.write(b);
+            }
+            return line.toString(StandardCharsets.UTF_8).trim();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package Client;
+
+import validation.FastaValidator;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Clase BulkUploader
+ * ------------------
+ * Carga masiva de pacientes sin el menú interactivo, para cargar de una vez
+ * miles de muestras.
+ *
+ * El origen puede ser:
+ * - Un manifiesto CSV con encabezado y las columnas full_name, document_id, age,
+ *   sex, contact_email, clinical_notes y fasta_path (en cualquier orden; la ruta
+ *   del FASTA es relativa a la carpeta del manifiesto). Los campos no pueden
+ *   tener comas, igual que en los CSV del servidor.
+ * - Una carpeta con archivos .fasta / .fa cuyo nombre (sin extensión) es el
+ *   document_id; el resto de la metadata queda vacía.
+ *
+ * Los checksums se calculan en paralelo (un hilo por núcleo) y las subidas van
+ * por AsyncClient con a lo sumo "concurrencia" solicitudes en vuelo.
+ *
+ * Cada resultado se agrega a un archivo de progreso ("document_id,estado,respuesta")
+ * apenas llega. Al volver a ejecutar con el mismo origen se saltan los que ya
+ * quedaron OK o EXISTS (el servidor ya los tenía), así que una carga cortada
+ * se retoma donde quedó.
+ *
+ * Al final informa archivos por segundo, MB/s, latencias p50/p90/p99/máx y las
+ * fallas agrupadas por motivo. Termina con código 1 si hubo fallas.
+ *
+ * Uso:
+ *   java -cp SecureGenomicServer.jar Client.BulkUploader <manifiesto.csv|carpeta> [host] [puerto] [concurrencia] [progreso]
+ *   ej: ... Client.BulkUploader muestras/ localhost 8443 32
+ *   (el progreso por defecto es el origen con ".progress" al final)
+ */
+public class BulkUploader {
+    private static final String[] COLUMNS = {
+        "full_name", "document_id", "age", "sex", "contact_email", "clinical_notes", "fasta_path"
+    };
+
+    /**
+     * Un paciente a subir.
+     */
+    private static class Entry {
+        final Map<String, String> metadata;
+        final Path fasta;
+
+        Entry(Map<String, String> metadata, Path fasta) {
+            this.metadata = metadata;
+            this.fasta = fasta;
+        }
+
+        String documentId() {
+            return metadata.get("document_id");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Uso: BulkUploader <manifiesto.csv|carpeta> [host] [puerto] [concurrencia] [progreso]");
+            System.exit(2);
+        }
+        Path source = Paths.get(args[0]);
+        String host = args.length > 1 ? args[1] : "localhost";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8443;
+        int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        Path progress = args.length > 4 ? Paths.get(args[4]) : Paths.get(source.toString() + ".progress");
+
+        List<Entry> entries = Files.isDirectory(source) ? readDirectory(source) : readManifest(source);
+        Set<String> done = readProgress(progress);
+        List<Entry> pending = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!done.contains(entry.documentId())) pending.add(entry);
+        }
+        System.out.println(entries.size() + " pacientes en el origen, " + (entries.size() - pending.size())
+                + " ya cargados según " + progress + ", " + pending.size() + " por subir.");
+
+        boolean ok = upload(pending, host, port, Math.max(1, concurrency), progress);
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Sube los pacientes e imprime el resumen.
+     *
+     * @return true si no hubo fallas
+     */
+    private static boolean upload(List<Entry> entries, String host, int port, int concurrency, Path progressFile)
+            throws IOException, InterruptedException {
+        int connections = Math.min(concurrency, Math.max(1, Runtime.getRuntime().availableProcessors()));
+        ExecutorService checksums = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch finished = new CountDownLatch(entries.size());
+
+        long[] latencies = new long[entries.size()];
+        AtomicInteger latencyCount = new AtomicInteger();
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger existing = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        Map<String, Integer> failures = new TreeMap<>();
+
+        long start = System.nanoTime();
+        try (AsyncClient client = new AsyncClient(host, port, connections, 120_000, 5);
+             BufferedWriter progress = Files.newBufferedWriter(progressFile, StandardCharsets.UTF_8,
+                     StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+
+            for (Entry entry : entries) {
+                checksums.execute(() -> {
+                    Map<String, String> metadata = new LinkedHashMap<>(entry.metadata);
+                    long size;
+                    try {
+                        size = Files.size(entry.fasta);
+                    } catch (IOException e) {
+                        record(progress, entry, "FAILED", "ERROR FASTA_NOT_READABLE", failures);
+                        finished.countDown();
+                        return;
+                    }
+                    metadata.put("file_size_bytes", String.valueOf(size));
+                    String checksum = FastaValidator.calculateChecksum(entry.fasta.toString());
+                    if (checksum != null) metadata.put("checksum_fasta", checksum);
+
+                    inFlight.acquireUninterruptibly();
+                    long sent = System.nanoTime();
+                    client.createPatientAsync(metadata, entry.fasta).whenComplete((response, error) -> {
+                        inFlight.release();
+                        latencies[latencyCount.getAndIncrement()] = System.nanoTime() - sent;
+                        if (error != null) {
+                            record(progress, entry, "FAILED", "ERROR " + error.getClass().getSimpleName(), failures);
+                        } else if (response.startsWith("201")) {
+                            created.incrementAndGet();
+                            bytes.addAndGet(size);
+                            record(progress, entry, "OK", firstLine(response), null);
+                        } else if (response.contains("409 DUPLICATE_DOCUMENT_ID") || response.contains("409 DUPLICATE_PATIENT_ID")) {
+                            existing.incrementAndGet();
+                            record(progress, entry, "EXISTS", firstLine(response), null);
+                        } else {
+                            record(progress, entry, "FAILED", firstLine(response), failures);
+                        }
+                        finished.countDown();
+                    });
+                });
+            }
+            finished.await();
+        } finally {
+            checksums.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int failed = entries.size() - created.get() - existing.get();
+        System.out.printf("Creados: %d, ya existían: %d, fallas: %d en %.1f s%n",
+                created.get(), existing.get(), failed, seconds);
+        System.out.printf("Rendimiento: %.1f pacientes/s, %.1f MB/s%n",
+                created.get() / seconds, bytes.get() / 1e6 / seconds);
+
+        long[] sorted = Arrays.copyOf(latencies, latencyCount.get());
+        Arrays.sort(sorted);
+        if (sorted.length > 0) {
+            System.out.printf("Latencia (ms): p50 %.1f, p90 %.1f, p99 %.1f, máx %.1f%n",
+                    percentile(sorted, 0.50), percentile(sorted, 0.90),
+                    percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+        }
+        for (Map.Entry<String, Integer> failure : failures.entrySet()) {
+            System.out.println("  " + failure.getValue() + " x " + failure.getKey());
+        }
+        return failed == 0;
+    }
+
+    /**
+     * Agrega una línea al progreso (y la escribe al disco de una vez, por si el proceso se corta).
+     */
+    private static void record(BufferedWriter progress, Entry entry, String status, String detail,
+                               Map<String, Integer> failures) {
+        synchronized (progress) {
+            if (failures != null) failures.merge(detail, 1, Integer::sum);
+            try {
+                progress.write(entry.documentId() + "," + status + "," + detail.replace(",", ";"));
+                progress.newLine();
+                progress.flush();
+            } catch (IOException e) {
+                System.err.println("No se pudo escribir el progreso: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * document_id que ya no hay que subir (OK o EXISTS) según el archivo de progreso.
+     */
+    private static Set<String> readProgress(Path progress) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(progress)) return done;
+        try (BufferedReader reader = Files.newBufferedReader(progress, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", 3);
+                if (parts.length >= 2 && (parts[1].equals("OK") || parts[1].equals("EXISTS"))) {
+                    done.add(parts[0]);
+                }
+            }
+        }
+        return done;
+    }
+
+    private static List<Entry> readManifest(Path manifest) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Path baseDir = manifest.toAbsolutePath().getParent();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) return entries;
+            List<String> names = Arrays.asList(header.trim().split(",", -1));
+            for (String column : COLUMNS) {
+                if (!names.contains(column)) {
+                    throw new IOException("Al manifiesto le falta la columna " + column);
+                }
+            }
+
+            String line;
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+                String[] values = line.split(",", -1);
+                if (values.length != names.size()) {
+                    System.err.println("Línea " + lineNumber + " ignorada: tiene " + values.length
+                            + " campos y el encabezado " + names.size());
+                    continue;
+                }
+                Map<String, String> metadata = new LinkedHashMap<>();
+                Path fasta = null;
+                for (int i = 0; i < values.length; i++) {
+                    if (names.get(i).equals("fasta_path")) {
+                        fasta = baseDir.resolve(values[i].trim());
+                    } else {
+                        metadata.put(names.get(i), values[i].trim());
+                    }
+                }
+                entries.add(new Entry(metadata, fasta));
+            }
+        }
+        return entries;
+    }
+
+    private static List<Entry> readDirectory(Path dir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(f -> f.toString().endsWith(".fasta") || f.toString().endsWith(".fa"))
+                 .sorted()
+                 .forEach(f -> {
+                     String name = f.getFileName().toString();
+                     String documentId = name.substring(0, name.lastIndexOf('.'));
+                     Map<String, String> metadata = new LinkedHashMap<>();
+                     metadata.put("full_name", documentId);
+                     metadata.put("document_id", documentId);
+                     metadata.put("age", "0");
+                     metadata.put("sex", "");
+                     metadata.put("contact_email", "");
+                     metadata.put("clinical_notes", "");
+                     entries.add(new Entry(metadata, f));
+                 });
+        }
+        return entries;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static String firstLine(String response) {
+        int newline = response.indexOf('\n');
+        return newline < 0 ? response : response.substring(0, newline);
+    }
+}
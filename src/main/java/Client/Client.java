@@ -1,9 +1,27 @@
 
 package Client;
 
+import Protocol.Compression;
+import Protocol.Frame;
+import Protocol.FrameCodec;
+import Protocol.ResponseAssembler;
+import Protocol.Tls;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import javax.net.ssl.SSLContext;
 
 /**
  * Clase Client
@@ -19,6 +37,15 @@ import java.util.Scanner;
  * Cerrar la conexión de manera segura.
  *
  * Este seria el puente que permite que el cliente hable con el servidor.
+ *
+ * Puede usar el protocolo de texto o el binario por tramas (Protocol.Frame);
+ * en binario se pueden enviar varias solicitudes seguidas y pedir cada
+ * respuesta con receiveResponse(id), aunque lleguen en otro orden.
+ * Los FASTA se envían con transferTo, o comprimidos si el servidor lo acepta.
+ * Con -Dsgs.tls.enabled=true la conexión es TLS (ver Protocol.Tls).
+ *
+ * Para usar el servidor desde otro programa, con varias conexiones y
+ * resultados asíncronos, ver AsyncClient.
  */
 public class Client {
     private String nombreClient;     
@@ -26,6 +53,14 @@ public class Client {
     private Scanner consola;         
     private PrintWriter output;      
     private BufferedReader input;   
+    private boolean binary;              // Se negoció el protocolo binario
+    private String compression = Compression.IDENTITY;   // Compresión aceptada por el servidor
+    private DataOutputStream frameOut;   // Salida por tramas (modo binario)
+    private DataInputStream frameIn;     // Entrada por tramas (modo binario)
+    private int lastRequestId;           // requestId de la última solicitud enviada
+    private final Map<Integer, String> earlyResponses = new HashMap<>();   // Respuestas que llegaron antes de pedirlas
+    private final ResponseAssembler responses = new ResponseAssembler();  // Respuestas partidas en varias tramas
+    private static final int DATA_FRAME_BYTES = 8 * 1024 * 1024;   // Tamaño de cada trama DATA
 
     /**
      * Constructor del cliente.
@@ -37,31 +72,136 @@ public class Client {
      * Intenta conectarse al servidor. Si algo falla, muestra el error.
      */
     public Client(String nombreClient, String host, int port) {
+        this(nombreClient, host, port, false);
+    }
+
+    /**
+     * Constructor del cliente eligiendo protocolo.
+     *
+     * @param binary true para negociar el protocolo binario; si el servidor no lo
+     *               acepta, el cliente sigue en texto.
+     */
+    public Client(String nombreClient, String host, int port, boolean binary) {
         this.nombreClient = nombreClient;
         this.consola = new Scanner(System.in);
         try {
-            // Crear el socket y establecer conexión
-            this.socket = new Socket(host, port);
+            // Crear el socket y establecer conexión (TLS si está activado)
+            SSLContext tls = Tls.clientContextFromSystem();
+            this.socket = tls != null
+                    ? Tls.connect(tls, host, port, 10_000)
+                    : SocketChannel.open(new InetSocketAddress(host, port)).socket();
 
             // Inicializar canales de comunicación
             this.output = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
-            this.input = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            if (binary) {
+                negotiateBinary();
+            }
+            if (!this.binary) {
+                this.input = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                negotiateCompression();
+            }
 
-            System.out.println("Cliente " + nombreClient + " conectado al servidor " + host + ":" + port);
+            System.out.println("Cliente " + nombreClient + " conectado al servidor " + host + ":" + port
+                    + (this.binary ? " (protocolo binario)" : "")
+                    + (Compression.isSupported(compression) ? " (compresión " + compression + ")" : ""));
         } catch (Exception e) {
             e.printStackTrace();
             System.err.println("Error conectando al servidor: " + e.getMessage());
         }
     }
 
+    /**
+     * Pide el protocolo binario. La respuesta se lee byte a byte del socket para
+     * no dejar tramas atrapadas en el buffer de un lector de texto.
+     */
+    private void negotiateBinary() throws IOException {
+        output.println(Frame.NEGOTIATION + " COMPRESSION " + Compression.DEFLATE);
+        InputStream raw = socket.getInputStream();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = raw.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        String answer = line.toString(StandardCharsets.UTF_8).trim();
+        if (answer.startsWith("OK " + Frame.NEGOTIATION)) {
+            this.binary = true;
+            int at = answer.indexOf(" COMPRESSION ");
+            if (at >= 0) compression = answer.substring(at + " COMPRESSION ".length()).trim();
+            this.frameOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            this.frameIn = new DataInputStream(new BufferedInputStream(raw, 64 * 1024));
+        } else {
+            System.out.println("El servidor no acepta el protocolo binario (" + answer + "); se usa texto.");
+        }
+    }
+
+    /**
+     * Pide compresión en el protocolo de texto. Si el servidor no la conoce
+     * (responde un error), los FASTA van sin comprimir.
+     */
+    private void negotiateCompression() throws IOException {
+        output.println("COMPRESSION " + Compression.DEFLATE);
+        String answer = input.readLine();
+        if (answer != null && answer.startsWith("OK COMPRESSION ")) {
+            compression = answer.substring("OK COMPRESSION ".length()).trim();
+        }
+    }
+
     /**
      * Envía metadatos (información textual) al servidor.
      * 
      * @param metadata String con la metadata a enviar (ej: "CREATE_PATIENT ...").
+     *
+     * En modo binario la primera línea va como trama COMMAND y las líneas
+     * "clave: valor" siguientes (hasta END_METADATA) como una trama METADATA.
      */
     public void sendMetadata(String metadata) {
-        output.println(metadata);
-        output.flush();
+        if (!binary) {
+            output.println(metadata);
+            output.flush();
+            return;
+        }
+        try {
+            List<String> lines = Arrays.asList(metadata.split("\n"));
+            lastRequestId++;
+            FrameCodec.writeText(frameOut, Frame.TYPE_COMMAND, lastRequestId, lines.get(0).trim());
+            if (lines.size() > 1) {
+                Map<String, String> pairs = FrameCodec.parseTextMetadata(lines.subList(1, lines.size()));
+                FrameCodec.writeFrame(frameOut, Frame.TYPE_METADATA, lastRequestId, FrameCodec.encodeMetadata(pairs));
+            }
+            frameOut.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error enviando solicitud: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Envía uno de los pacientes de un lote, después de sendMetadata("CREATE_PATIENTS n").
+     * Se llama n veces, una por paciente.
+     *
+     * @param metadata  líneas "clave: valor" del paciente (END_METADATA es opcional)
+     * @param fastaPath ruta del archivo FASTA del paciente
+     */
+    public void sendBatchItem(String metadata, String fastaPath) {
+        List<String> lines = Arrays.asList(metadata.split("\n"));
+        try {
+            if (binary) {
+                Map<String, String> pairs = FrameCodec.parseTextMetadata(lines);
+                FrameCodec.writeFrame(frameOut, Frame.TYPE_METADATA, lastRequestId, FrameCodec.encodeMetadata(pairs));
+                frameOut.flush();
+            } else {
+                output.println(metadata);
+                if (!lines.get(lines.size() - 1).trim().equals("END_METADATA")) {
+                    output.println("END_METADATA");
+                }
+                output.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error enviando solicitud: " + e.getMessage());
+            return;
+        }
+        sendFasta(fastaPath);
     }
 
     /**
@@ -70,36 +210,140 @@ public class Client {
      * @param filePath Ruta del archivo FASTA a enviar.
      *
      * Primero avisa al servidor del tamaño del archivo, luego envía el contenido en bloques.
+     * Sin TLS los bytes van con FileChannel.transferTo (sendfile), sin pasar por
+     * la memoria del programa. Si se negoció compresión, los FASTA de más de 4 KB
+     * van comprimidos: en texto primero a un temporal (hay que anunciar el
+     * tamaño); en binario mientras se envían.
      */
     public void sendFasta(String filePath) {
         File file = new File(filePath);
         long length = file.length();
 
+        if (binary) {
+            sendFastaFrames(file, length);
+            return;
+        }
+        if (Compression.isSupported(compression) && length >= Compression.MIN_BYTES) {
+            sendCompressedFasta(file, length);
+            return;
+        }
+
         try {
             // Avisar al servidor que viene un archivo y su tamaño
             output.println("START_FASTA " + length);
             output.flush();
 
-            // Enviar en bloques de 4KB
-            try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
-                OutputStream os = socket.getOutputStream();
-                byte[] buffer = new byte[4096];
-                long remaining = length;
-                int read;
+            // Enviar directo del archivo al socket (sendfile)
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                transferFile(fc, 0, length);
+            }
 
-                while (remaining > 0 && (read = bis.read(buffer, 0, (int)Math.min(buffer.length, remaining))) != -1) {
-                    os.write(buffer, 0, read);
-                    remaining -= read;
-                }
-                os.flush(); // asegurar que todo llegó
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error enviando FASTA: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Envía el FASTA comprimido en texto: "START_FASTA n codec m" con n bytes
+     * comprimidos y m sin comprimir. Se comprime antes a un temporal porque el
+     * encabezado lleva el tamaño comprimido.
+     */
+    private void sendCompressedFasta(File file, long length) {
+        Path compressed = null;
+        try {
+            compressed = Files.createTempFile("fasta-", "." + compression);
+            long wire;
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 FileChannel tmp = FileChannel.open(compressed, StandardOpenOption.WRITE)) {
+                wire = Compression.compress(compression, in, 0, length, (block, n, last) -> {
+                    ByteBuffer buffer = ByteBuffer.wrap(block, 0, n);
+                    while (buffer.hasRemaining()) tmp.write(buffer);
+                });
+            }
+            output.println("START_FASTA " + wire + " " + compression + " " + length);
+            output.flush();
+            try (FileChannel fc = FileChannel.open(compressed, StandardOpenOption.READ)) {
+                transferFile(fc, 0, wire);
             }
+            System.out.printf("FASTA comprimido: %d -> %d bytes (%.1fx)%n", length, wire, (double) length / Math.max(1, wire));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error enviando FASTA: " + e.getMessage());
+        } finally {
+            if (compressed != null) compressed.toFile().delete();
+        }
+    }
 
+    /**
+     * Envía el FASTA como una trama FASTA_START con el tamaño y tramas DATA
+     * de hasta 8 MB; la última lleva FLAG_END. De cada trama DATA solo se
+     * escribe el encabezado por el flujo; el payload va con transferTo.
+     */
+    private void sendFastaFrames(File file, long length) {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (Compression.isSupported(compression) && length >= Compression.MIN_BYTES) {
+                // Comprimido: FLAG_COMPRESSED con el tamaño sin comprimir y los bloques del compresor
+                FrameCodec.writeFrame(frameOut, Frame.TYPE_FASTA_START, Frame.FLAG_COMPRESSED, lastRequestId,
+                        FrameCodec.encodeLength(length), 0, 8);
+                Compression.compress(compression, fc, 0, length, (block, n, last) ->
+                        FrameCodec.writeFrame(frameOut, Frame.TYPE_DATA, last ? Frame.FLAG_END : 0, lastRequestId, block, 0, n));
+                frameOut.flush();
+                return;
+            }
+            FrameCodec.writeFrame(frameOut, Frame.TYPE_FASTA_START, lastRequestId, FrameCodec.encodeLength(length));
+            long position = 0;
+            while (position < length) {
+                int chunk = (int) Math.min(DATA_FRAME_BYTES, length - position);
+                int flags = position + chunk == length ? Frame.FLAG_END : 0;
+                FrameCodec.writeHeader(frameOut, Frame.TYPE_DATA, flags, lastRequestId, chunk);
+                frameOut.flush();
+                transferFile(fc, position, chunk);
+                position += chunk;
+            }
+            frameOut.flush();
         } catch (IOException e) {
             e.printStackTrace();
             System.err.println("Error enviando FASTA: " + e.getMessage());
         }
     }
 
+    /**
+     * Copia count bytes del archivo al socket con transferTo (o por el flujo, si
+     * el socket no tiene canal, como con TLS).
+     */
+    private void transferFile(FileChannel fc, long position, long count) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        if (channel == null) {
+            copyToStream(fc, position, count, socket.getOutputStream());
+            return;
+        }
+        long sent = 0;
+        while (sent < count) {
+            long n = fc.transferTo(position + sent, count - sent, channel);
+            if (n <= 0 && position + sent >= fc.size()) {
+                throw new EOFException("El archivo terminó antes de enviar " + count + " bytes");
+            }
+            sent += n;
+        }
+    }
+
+    /**
+     * Copia count bytes del archivo a un flujo, con un buffer de 64 KB.
+     */
+    static void copyToStream(FileChannel fc, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long sent = 0;
+        while (sent < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - sent));
+            int n = fc.read(buffer, position + sent);
+            if (n < 0) throw new EOFException("El archivo terminó antes de enviar " + count + " bytes");
+            out.write(buffer.array(), 0, n);
+            sent += n;
+        }
+        out.flush();
+    }
+
     /**
      * Recibe la respuesta completa del servidor.
      * 
@@ -110,11 +354,20 @@ public class Client {
     public String receiveFullResponse() {
         try {
             StringBuilder sb = new StringBuilder();
-            String line;
 
-            // Leer mientras haya datos disponibles
-            while (input.ready() && (line = input.readLine()) != null) {
-                sb.append(line).append("\n");
+            if (binary) {
+                sb.append(readResponseFrame(lastRequestId));
+            } else {
+                // Esperar la primera línea (toda solicitud tiene respuesta) y después
+                // leer las que ya hayan llegado. El texto no marca el fin de una respuesta
+                // de varias líneas; para eso está el protocolo binario (o AsyncClient).
+                String line = input.readLine();
+                if (line != null) {
+                    sb.append(line).append("\n");
+                    while (input.ready() && (line = input.readLine()) != null) {
+                        sb.append(line).append("\n");
+                    }
+                }
             }
 
             String response = sb.toString().trim();
@@ -128,6 +381,48 @@ public class Client {
         }
     }
 
+    /**
+     * requestId de la última solicitud enviada (modo binario), para pedir su
+     * respuesta más tarde con receiveResponse.
+     */
+    public int getLastRequestId() {
+        return lastRequestId;
+    }
+
+    /**
+     * Espera la respuesta de una solicitud concreta (modo binario con pipelining).
+     *
+     * @param requestId valor de getLastRequestId justo después de enviarla
+     * @return la respuesta, o "" si la conexión se cerró antes
+     */
+    public String receiveResponse(int requestId) {
+        try {
+            return readResponseFrame(requestId).trim();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return "Error recibiendo respuesta";
+        }
+    }
+
+    /**
+     * Lee tramas RESPONSE hasta completar la del requestId pedido, guardando las demás.
+     */
+    private String readResponseFrame(int requestId) throws IOException {
+        String early = earlyResponses.remove(requestId);
+        if (early != null) return early;
+
+        Frame frame = new Frame();
+        while (FrameCodec.readHeader(frameIn, frame)) {
+            byte[] payload = FrameCodec.readPayload(frameIn, frame);
+            if (frame.getType() != Frame.TYPE_RESPONSE) continue;
+            String text = responses.add(frame, payload);
+            if (text == null) continue;
+            if (frame.getRequestId() == requestId) return text;
+            earlyResponses.put(frame.getRequestId(), text);
+        }
+        return "";
+    }
+
     /**
      * Cierra la conexión con el servidor.
      * Siempre se debe llamar al final para liberar recursos.
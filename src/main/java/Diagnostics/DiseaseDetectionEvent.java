@@ -0,0 +1,55 @@
+package Diagnostics;
+
+import Logging.LogContext;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Clase DiseaseDetectionEvent
+ * ----------------------
+ * Evento JFR: detección de enfermedades sobre la secuencia de un paciente
+ * (lectura, normalización y comparación con todo el panel).
+ */
+
+@Name("sgs.DiseaseDetection")
+@Label("Disease Detection")
+@Category({"SecureGenomicServer", "Detection"})
+@Description("Comparación de una secuencia con el panel de enfermedades")
+@Threshold("10 ms")
+@StackTrace(false)
+public class DiseaseDetectionEvent extends Event {
+    @Label("Request ID")
+    @Description("ID de la solicitud en el log (LogContext)")
+    public String requestId;
+
+    @Label("Patient ID")
+    public int patientId;
+
+    @Label("Panel Size")
+    @Description("Enfermedades comparadas")
+    public int panelSize;
+
+    @Label("Sequence Length")
+    @Description("Bases de la secuencia normalizada")
+    public long sequenceLength;
+
+    @Label("Matches")
+    public int matches;
+
+    public void finish(int patientId, int panelSize, long sequenceLength, int matches) {
+        end();
+        if (shouldCommit()) {
+            this.requestId = LogContext.currentRequestId();
+            this.patientId = patientId;
+            this.panelSize = panelSize;
+            this.sequenceLength = sequenceLength;
+            this.matches = matches;
+            commit();
+        }
+    }
+}
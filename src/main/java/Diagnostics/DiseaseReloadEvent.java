@@ -0,0 +1,42 @@
+package Diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Clase DiseaseReloadEvent
+ * ----------------------
+ * Evento JFR: carga (o recarga) del panel de enfermedades desde su carpeta.
+ * Sin umbral: son pocas y siempre interesan.
+ */
+
+@Name("sgs.DiseaseReload")
+@Label("Disease Reload")
+@Category({"SecureGenomicServer", "Detection"})
+@Description("Carga del panel de enfermedades")
+@StackTrace(false)
+public class DiseaseReloadEvent extends Event {
+    @Label("Folder")
+    public String folder;
+
+    @Label("Diseases")
+    public int diseases;
+
+    @Label("Total Bases")
+    @Description("Suma del largo de las secuencias cargadas")
+    public long totalBases;
+
+    public void finish(String folder, int diseases, long totalBases) {
+        end();
+        if (shouldCommit()) {
+            this.folder = folder;
+            this.diseases = diseases;
+            this.totalBases = totalBases;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package Diagnostics;
+
+import Logging.LogContext;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Clase FastaReceiveEvent
+ * ----------------------
+ * Evento JFR: recepción de los bytes de un FASTA, desde el primer byte hasta
+ * el último (bloqueante, NIO o HTTP). Una recepción lenta apunta a la red o al
+ * cliente; el resto de la solicitud se ve en los demás eventos de la categoría.
+ */
+
+@Name("sgs.FastaReceive")
+@Label("FASTA Receive")
+@Category({"SecureGenomicServer", "Upload"})
+@Description("Recepción de los bytes de un FASTA")
+@Threshold("20 ms")
+@StackTrace(false)
+public class FastaReceiveEvent extends Event {
+    @Label("Request ID")
+    @Description("ID de la solicitud en el log (LogContext)")
+    public String requestId;
+
+    @Label("Transport")
+    @Description("text, text+tls, nio o http")
+    public String transport;
+
+    @Label("Client")
+    public String client;
+
+    @Label("Codec")
+    @Description("Compresión en la red (identity si no tiene)")
+    public String codec;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    /**
+     * Termina el evento y lo registra si superó su umbral.
+     */
+
+    public void finish(String requestId, String transport, String client, String codec, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.requestId = requestId != null ? requestId : LogContext.currentRequestId();
+            this.transport = transport;
+            this.client = client;
+            this.codec = codec;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package Diagnostics;
+
+import Logging.LogContext;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Clase FastaValidationEvent
+ * ----------------------
+ * Evento JFR: una pasada de FastaValidator sobre un FASTA ("format",
+ * "checksum" o "normalize").
+ */
+
+@Name("sgs.FastaValidation")
+@Label("FASTA Validation")
+@Category({"SecureGenomicServer", "Validation"})
+@Description("Una pasada de FastaValidator")
+@Threshold("10 ms")
+@StackTrace(false)
+public class FastaValidationEvent extends Event {
+    @Label("Request ID")
+    @Description("ID de la solicitud en el log (LogContext)")
+    public String requestId;
+
+    @Label("Pass")
+    @Description("format, checksum o normalize")
+    public String pass;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Valid")
+    public boolean valid;
+
+    public void finish(String pass, long bytes, boolean valid) {
+        end();
+        if (shouldCommit()) {
+            this.requestId = LogContext.currentRequestId();
+            this.pass = pass;
+            this.bytes = bytes;
+            this.valid = valid;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package Diagnostics;
+
+import Logging.LogContext;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Clase StorageEvent
+ * ----------------------
+ * Evento JFR: una operación de CsvManager, con las filas que tuvo que leer o
+ * escribir (una actualización reescribe el shard entero; una consulta por ID
+ * usa el índice y no lee ninguna). Incluye la espera por el candado.
+ */
+
+@Name("sgs.StorageOperation")
+@Label("Storage Operation")
+@Category({"SecureGenomicServer", "Storage"})
+@Description("Operación de CsvManager")
+@Threshold("5 ms")
+@StackTrace(false)
+public class StorageEvent extends Event {
+    @Label("Request ID")
+    @Description("ID de la solicitud en el log (LogContext)")
+    public String requestId;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Shard")
+    @Description("Shard tocado, o -1 si fueron varios o ninguno")
+    public int shard;
+
+    @Label("Rows Scanned")
+    @Description("Filas leídas o escritas del CSV")
+    public long rowsScanned;
+
+    @Label("Patients")
+    @Description("Pacientes afectados o devueltos")
+    public int patients;
+
+    @Label("Result")
+    public String result;
+
+    /**
+     * Empieza un evento para la operación dada.
+     */
+
+    public static StorageEvent start(String operation) {
+        StorageEvent event = new StorageEvent();
+        event.operation = operation;
+        event.shard = -1;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Suma filas leídas o escritas (una operación puede tocar varios archivos).
+     */
+
+    public void scanned(long rows) {
+        rowsScanned += rows;
+    }
+
+    public void finish(int shard, int patients, String result) {
+        end();
+        if (shouldCommit()) {
+            this.requestId = LogContext.currentRequestId();
+            this.shard = shard;
+            this.patients = patients;
+            this.result = result;
+            commit();
+        }
+    }
+}
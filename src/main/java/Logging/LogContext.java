@@ -0,0 +1,108 @@
+package Logging;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Clase LogContext
+ * -------------------
+ * Identidad de la solicitud que atiende el hilo actual: ID de solicitud,
+ * cliente y (cuando se conoce) ID del paciente. LogManager la agrega a cada
+ * línea y los eventos JFR la copian, así todo lo que hizo una solicitud se
+ * puede juntar aunque haya muchas en paralelo.
+ *
+ * Quien recibe la solicitud abre el contexto (open) y lo cierra al terminar
+ * (clear). El trabajo que sigue en otro hilo (ej: la detección de un lote) se
+ * envuelve con wrap para llevarlo.
+ *
+ * Los IDs son "prefijo-n": el prefijo se sortea al arrancar y n cuenta en
+ * base 36, así son cortos, ordenados dentro de una corrida y no se repiten
+ * entre reinicios.
+ */
+public final class LogContext {
+    private static final ThreadLocal<LogContext> CURRENT = new ThreadLocal<>();
+    private static final String PREFIX = Long.toString(ThreadLocalRandom.current().nextLong(36L * 36 * 36 * 36), 36);
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final String requestId;
+    private final String client;
+    private volatile String patientId;
+
+    private LogContext(String requestId, String client) {
+        this.requestId = requestId;
+        this.client = client;
+    }
+
+    /**
+     * Un ID de solicitud nuevo.
+     */
+    public static String newRequestId() {
+        return PREFIX + "-" + Long.toString(NEXT_ID.incrementAndGet(), 36);
+    }
+
+    /**
+     * Abre el contexto de una solicitud en el hilo actual (reemplaza al que hubiera).
+     */
+    public static LogContext open(String requestId, String client) {
+        LogContext context = new LogContext(requestId, client);
+        CURRENT.set(context);
+        return context;
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Contexto del hilo actual, o null si no está atendiendo una solicitud.
+     */
+    public static LogContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * ID de la solicitud del hilo actual, o null.
+     */
+    public static String currentRequestId() {
+        LogContext context = CURRENT.get();
+        return context == null ? null : context.requestId;
+    }
+
+    /**
+     * Anota el paciente de la solicitud actual (si hay contexto).
+     */
+    public static void setPatientId(Object patientId) {
+        LogContext context = CURRENT.get();
+        if (context != null && patientId != null) context.patientId = String.valueOf(patientId);
+    }
+
+    /**
+     * Envuelve una tarea para que corra con el contexto del hilo que la crea.
+     */
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        LogContext context = CURRENT.get();
+        if (context == null) return task;
+        return () -> {
+            LogContext previous = CURRENT.get();
+            CURRENT.set(context);
+            try {
+                return task.get();
+            } finally {
+                if (previous == null) CURRENT.remove(); else CURRENT.set(previous);
+            }
+        };
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+}
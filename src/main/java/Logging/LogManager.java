@@ -3,20 +3,173 @@ package Logging;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Clase LogManager
  * -------------------
  * Esta clase se encarga de manejar un archivo de logs (registro de eventos).
- * 
+ *
  * Funciona como un diario del sistema, guardando:
  * Mensajes informativos (INFO)
  * Mensajes de error (ERROR)
- * 
+ *
+ * Los hilos que registran no tocan el archivo: dejan el mensaje en un buffer
+ * circular acotado y sin locks, y un único hilo escritor ("log-writer") lo
+ * vacía en lotes sobre un canal que queda abierto, con un flush por lote.
+ * Así una solicitud no paga abrir y cerrar el archivo por cada línea, y las
+ * líneas de distintas conexiones no se mezclan.
+ *
+ * Si el buffer se llena, la política decide (Overflow):
+ * - BLOCK: el hilo espera a que haya lugar (no se pierde nada; por defecto).
+ * - DROP: el mensaje se descarta.
+ * - SAMPLE: pasada la mitad del buffer, solo entra uno de cada "sampleEvery"
+ *   INFO; los ERROR siempre entran (esperando si hace falta).
+ * Lo descartado se cuenta y el escritor deja constancia en el log.
+ *
+ * sync() y close() esperan a que el escritor haya vaciado todo lo registrado
+ * antes de forzar el archivo al disco.
+ *
+ * El archivo se escribe en UTF-8 y rota por tamaño y por día (LogRotation);
+ * como solo el escritor lo tiene abierto, rotar no compite con nadie, y el
+ * gzip de los rotados corre en otro hilo.
+ *
+ * Cada línea lleva el ID de la solicitud del hilo que la registró (LogContext).
+ * Además de los mensajes libres hay eventos con campos fijos: uno por solicitud
+ * terminada (logRequest, INFO) y uno por etapa (logStage, DEBUG), con duración,
+ * paciente, bytes y resultado. En formato TEXT son "clave=valor"; en JSON cada
+ * línea es un objeto, para indexarlas sin expresiones regulares.
+ *
+ * Muestreo por nivel: de los INFO y los DEBUG se guarda uno de cada N (0 = ninguno).
+ * Se decide por ID de solicitud, así de una solicitud muestreada quedan todas
+ * sus líneas de ese nivel. Los ERROR se guardan siempre.
  */
 public class LogManager {
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_SAMPLE_EVERY = 10;
+    private static final int SPINS_BEFORE_PARK = 64;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+
+    /**
+     * Formato de las líneas: "fecha [NIVEL] [solicitud] mensaje" o un objeto JSON por línea.
+     */
+    public enum Format {
+        TEXT, JSON;
+
+        /**
+         * Formato por nombre ("text" o "json"); TEXT si no se reconoce.
+         */
+        public static Format parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (RuntimeException e) {
+                return TEXT;
+            }
+        }
+    }
+
+    /**
+     * Qué hacer con un mensaje cuando el buffer está lleno.
+     */
+    public enum Overflow {
+        BLOCK, DROP, SAMPLE;
+
+        /**
+         * Política por nombre ("block", "drop" o "sample"); BLOCK si no se reconoce.
+         */
+        public static Overflow parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (RuntimeException e) {
+                return BLOCK;
+            }
+        }
+    }
+
+    /**
+     * Un mensaje en el buffer; la hora y el contexto son los del registro, no
+     * los de escritura. Los eventos llevan "stage" (el resto de los campos se
+     * formatea recién en el escritor).
+     */
+    private static final class Entry {
+        final LocalDateTime time;
+        final String level;
+        final String msg;           // Mensaje, o comando en los eventos "request"
+        final String requestId;
+        final String client;
+        final String patientId;
+        String stage;               // null = mensaje libre
+        long nanos;
+        long bytes = -1;
+        String outcome;
+
+        Entry(LocalDateTime time, String level, String msg, LogContext context) {
+            this(time, level, msg, context, null);
+        }
+
+        /**
+         * @param patientId paciente del evento; null = el del contexto
+         */
+        Entry(LocalDateTime time, String level, String msg, LogContext context, String patientId) {
+            this.time = time;
+            this.level = level;
+            this.msg = msg;
+            this.requestId = context == null ? null : context.getRequestId();
+            this.client = context == null ? null : context.getClient();
+            this.patientId = patientId != null || context == null ? patientId : context.getPatientId();
+        }
+    }
+
     private String logFile; // Ruta del archivo donde se escriben los logs
+    final ReentrantLock lock = new ReentrantLock();   // Canal (escritor, sync y close); los tests lo toman para detener al escritor
+    private final Overflow overflow;
+    private final int sampleEvery;
+    private final Format format;
+    private final int infoSampleEvery;    // 1 = todos, N = uno de cada N, 0 = ninguno
+    private final int debugSampleEvery;
+
+    // Buffer circular de varios productores y un consumidor: cada casilla lleva un
+    // número de secuencia que dice si está libre para la vuelta "pos" o ya publicada
+    private final int mask;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();        // Próxima posición a reservar
+    private long head;                                        // Próxima posición a escribir (con el lock)
+    private volatile long written;                            // Posiciones ya escritas y con flush
+
+    private final AtomicLong dropped = new AtomicLong();      // Descartados por buffer lleno
+    private final AtomicLong sampled = new AtomicLong();      // Descartados por muestreo
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong levelSampled = new AtomicLong();  // Descartados por el muestreo por nivel
+    private final AtomicLong levelCounter = new AtomicLong();  // Para muestrear líneas sin solicitud
+    private long reportedLost;                                // Descartes ya informados en el log (con el lock)
+
+    private final Thread writer;
+    private volatile boolean writerWaiting;
+    private volatile boolean closed;
+    private FileChannel channel;
+    private Writer out;
+    private final LogRotation rotation;   // null = el archivo crece sin rotar
+    private LocalDate openedDay;          // Día de las líneas del archivo abierto
+    private long size;                    // Bytes del archivo (exacto en cada flush)
 
     /**
      * Constructor
@@ -24,41 +177,477 @@ public class LogManager {
      * @param logFile Ruta (path) del archivo donde se guardarán los logs.
      */
     public LogManager(String logFile) {
+        this(logFile, DEFAULT_CAPACITY, Overflow.BLOCK, DEFAULT_SAMPLE_EVERY, LogRotation.defaults());
+    }
+
+    /**
+     * Constructor con el tamaño del buffer y la política de desborde.
+     *
+     * @param capacity    mensajes en el buffer (se redondea a potencia de 2)
+     * @param overflow    qué hacer con el buffer lleno
+     * @param sampleEvery con SAMPLE, uno de cada cuántos INFO entra bajo presión
+     * @param rotation    rotación del archivo, o null para no rotar
+     */
+    public LogManager(String logFile, int capacity, Overflow overflow, int sampleEvery, LogRotation rotation) {
+        this(logFile, capacity, overflow, sampleEvery, rotation, Format.TEXT, 1, 0);
+    }
+
+    /**
+     * Constructor completo: además, formato de las líneas y muestreo por nivel.
+     *
+     * @param format           TEXT o JSON
+     * @param infoSampleEvery  se guarda uno de cada tantos INFO (1 = todos, 0 = ninguno)
+     * @param debugSampleEvery se guarda uno de cada tantos DEBUG (1 = todos, 0 = ninguno)
+     */
+    public LogManager(String logFile, int capacity, Overflow overflow, int sampleEvery, LogRotation rotation,
+                      Format format, int infoSampleEvery, int debugSampleEvery) {
         this.logFile = logFile;
+        this.rotation = rotation;
+        this.overflow = overflow;
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.format = format;
+        this.infoSampleEvery = Math.max(0, infoSampleEvery);
+        this.debugSampleEvery = Math.max(0, debugSampleEvery);
+        int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 20)) * 2 - 1);
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        if (rotation != null) rotation.cleanUp(Paths.get(logFile));
+        this.writer = new Thread(this::runWriter, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
     }
 
     /**
      * Registra un mensaje de tipo INFO en el log.
-     * 
+     *
      * @param msg Mensaje a registrarse
      */
-    public synchronized void logInfo(String msg) {
+    public void logInfo(String msg) {
         writeLog("INFO", msg);
     }
 
     /**
      * Registra un mensaje de tipo ERROR en el log.
- 
+
      * @param msg Mensaje a registrarse
      */
-    public synchronized void logError(String msg) {
+    public void logError(String msg) {
         writeLog("ERROR", msg);
     }
 
     /**
-     * Método privado que realmente escribe en el archivo.
+     * Registra un mensaje de tipo DEBUG (por defecto no se guarda; ver debugSampleEvery).
+     */
+    public void logDebug(String msg) {
+        writeLog("DEBUG", msg);
+    }
+
+    /**
+     * Evento INFO de una solicitud terminada.
+     *
+     * @param command nombre del comando
+     * @param nanos   desde que llegó su línea hasta que se respondió
+     * @param bytes   bytes FASTA recibidos (0 si no trajo)
+     * @param outcome resultado (ej: "OK", "201", "ERROR 404")
+     */
+    public void logRequest(String command, long nanos, long bytes, String outcome) {
+        Entry entry = new Entry(LocalDateTime.now(), "INFO", command, LogContext.current());
+        entry.stage = "request";
+        entry.nanos = nanos;
+        entry.bytes = bytes;
+        entry.outcome = outcome;
+        publish(entry);
+    }
+
+    /**
+     * Evento DEBUG de una etapa de una solicitud (validación, almacenamiento, detección...).
+     *
+     * @param patientId paciente, o null para tomar el del contexto
+     * @param bytes     bytes procesados, o -1 si no aplica
+     */
+    public void logStage(String stage, long nanos, Object patientId, long bytes, String outcome) {
+        Entry entry = new Entry(LocalDateTime.now(), "DEBUG", null, LogContext.current(),
+                patientId == null ? null : String.valueOf(patientId));
+        entry.stage = stage;
+        entry.nanos = nanos;
+        entry.bytes = bytes;
+        entry.outcome = outcome;
+        publish(entry);
+    }
+
+    /**
+     * Espera a que se escriba todo lo registrado hasta ahora y lo fuerza al
+     * disco (al apagar el servidor).
+     */
+    public void sync() {
+        awaitWritten(tail.get());
+        lock.lock();
+        try {
+            if (out != null) {
+                out.flush();
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Vacía el buffer, fuerza el archivo al disco y detiene el escritor.
+     * Lo que se registre después se escribe directamente, línea por línea.
+     */
+    public void close() {
+        sync();
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();   // lo que alguien publicó mientras el escritor terminaba
+        lock.lock();
+        try {
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+        if (rotation != null) rotation.close(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSampledCount() {
+        return sampled.get();
+    }
+
+    /**
+     * Líneas INFO y DEBUG que no se guardaron por el muestreo por nivel.
+     */
+    public long getLevelSampledCount() {
+        return levelSampled.get();
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * Mensajes en el buffer, todavía sin escribir.
+     */
+    public long getPendingCount() {
+        return Math.max(0, tail.get() - written);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    public LogRotation getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Deja el mensaje en el buffer (o lo descarta según la política).
      * Añade la fecha, el nivel de log si es INFO o ERROR y el mensaje.
      *
-     * @param level 
-     * @param msg  
+     * @param level
+     * @param msg
      */
     private void writeLog(String level, String msg) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFile, true))) {
-            writer.write(LocalDateTime.now() + " [" + level + "] " + msg);
-            writer.newLine(); // salto de línea para cada entrada
+        publish(new Entry(LocalDateTime.now(), level, msg, LogContext.current()));
+    }
+
+    private void publish(Entry entry) {
+        String level = entry.level;
+        if (!keepLevel(level, entry.requestId)) {
+            levelSampled.incrementAndGet();
+            return;
+        }
+        if (closed) {
+            writeDirect(entry);
+            return;
+        }
+        if (overflow == Overflow.SAMPLE && !level.equals("ERROR")
+                && tail.get() - written > (mask + 1) / 2
+                && sampleCounter.incrementAndGet() % sampleEvery != 0) {
+            sampled.incrementAndGet();
+            return;
+        }
+        int spins = 0;
+        while (!offer(entry)) {
+            if (overflow == Overflow.DROP || closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            // BLOCK (y los ERROR de SAMPLE): esperar a que el escritor libere lugar
+            LockSupport.unpark(writer);
+            if (++spins < SPINS_BEFORE_PARK) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        if (writerWaiting) {
+            writerWaiting = false;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Muestreo por nivel: con la solicitud, por su ID (todas sus líneas o
+     * ninguna); sin ella, una de cada N por contador.
+     */
+    private boolean keepLevel(String level, String requestId) {
+        int every = level.equals("INFO") ? infoSampleEvery : level.equals("DEBUG") ? debugSampleEvery : 1;
+        if (every == 1) return true;
+        if (every == 0) return false;
+        long n = requestId != null ? requestId.hashCode() * 0x9E3779B9L >>> 16 : levelCounter.incrementAndGet();
+        return Math.floorMod(n, every) == 0;
+    }
+
+    /**
+     * Reserva una casilla libre y publica el mensaje; false si el buffer está lleno.
+     */
+    private boolean offer(Entry entry) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long seq = sequences.get(index);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.set(index, entry);
+                    sequences.set(index, pos + 1);   // publicada
+                    return true;
+                }
+            } else if (seq < pos) {
+                return false;                        // todavía ocupada de la vuelta anterior
+            }
+            // Otro productor ganó la posición: reintentar con la siguiente
+        }
+    }
+
+    /**
+     * Bucle del hilo escritor: vacía lo publicado, hace flush una vez por lote
+     * y se duerme hasta que llegue algo.
+     */
+    private void runWriter() {
+        while (true) {
+            int count = drain();
+            if (count > 0) continue;
+            if (closed && head == tail.get()) return;
+            writerWaiting = true;
+            if (head == tail.get()) {   // volver a mirar: un productor pudo publicar recién
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerWaiting = false;
+        }
+    }
+
+    /**
+     * Escribe en el canal todos los mensajes publicados en orden y hace flush.
+     *
+     * @return cuántos mensajes escribió
+     */
+    private int drain() {
+        int count = 0;
+        lock.lock();
+        try {
+            while (true) {
+                int index = (int) (head & mask);
+                if (sequences.get(index) != head + 1) break;   // no publicada todavía
+                Entry entry = slots.get(index);
+                slots.set(index, null);
+                sequences.set(index, head + mask + 1);          // libre para la próxima vuelta
+                head++;
+                count++;
+                write(entry);
+            }
+            if (count > 0) {
+                long lost = dropped.get() + sampled.get();
+                if (lost > reportedLost) {
+                    write(new Entry(LocalDateTime.now(), "ERROR", "Log saturado: " + (lost - reportedLost)
+                            + " mensajes descartados (" + overflow.name().toLowerCase() + ")", null));
+                    reportedLost = lost;
+                }
+                if (out != null) {
+                    out.flush();
+                    size = channel.size();
+                }
+                written = head;
+            }
         } catch (IOException e) {
             e.printStackTrace();
+            closeChannel();   // se reabre en el próximo lote
+            written = head;
+        } finally {
+            lock.unlock();
         }
+        return count;
+    }
+
+    /**
+     * Escribe una línea en el canal, abriéndolo si hace falta. Requiere el lock.
+     */
+    private void write(Entry entry) throws IOException {
+        if (out == null) open();
+        // Por tamaño, o porque la línea es de otro día: va a un archivo nuevo
+        if (rotation != null && rotation.shouldRotate(size, openedDay, entry.time.toLocalDate())) {
+            rollOver();
+            open();
+        }
+        String line = format(entry);
+        out.write(line);
+        out.write(System.lineSeparator()); // salto de línea para cada entrada
+        size += line.length() + 1;         // aproximado (caracteres); se corrige en cada flush
+    }
+
+    private void open() throws IOException {
+        Path path = Paths.get(logFile);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                StandardCharsets.UTF_8), WRITE_BUFFER_CHARS);
+        size = channel.size();
+        openedDay = size > 0 ? LogRotation.dayOf(path) : LocalDate.now();
     }
-}
 
+    /**
+     * Cierra el archivo y lo pasa a rotación; el próximo write abre uno nuevo.
+     * Si no se puede renombrar, se sigue escribiendo en el mismo. Requiere el lock.
+     */
+    private void rollOver() throws IOException {
+        LocalDate day = openedDay;
+        closeChannel();
+        try {
+            rotation.rotate(Paths.get(logFile), day);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            if (out != null) {
+                out.flush();
+                channel.force(true);
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            out = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Espera a que el escritor haya escrito hasta la posición dada.
+     */
+    private void awaitWritten(long target) {
+        while (written < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Escritura directa, para lo que llega después de close().
+     */
+    private void writeDirect(Entry entry) {
+        lock.lock();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFile, StandardCharsets.UTF_8, true))) {
+            writer.write(format(entry));
+            writer.newLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String format(Entry entry) {
+        return format == Format.JSON ? formatJson(entry) : formatText(entry);
+    }
+
+    /**
+     * "fecha [NIVEL] [solicitud] mensaje"; los eventos, como "clave=valor".
+     */
+    private static String formatText(Entry entry) {
+        StringBuilder line = new StringBuilder(128).append(entry.time).append(" [").append(entry.level).append("] ");
+        if (entry.requestId != null) line.append('[').append(entry.requestId).append("] ");
+        if (entry.stage == null) return line.append(entry.msg).toString();
+
+        if (entry.stage.equals("request")) {
+            line.append("request=").append(entry.msg);
+            if (entry.client != null) line.append(" client=").append(entry.client);
+        } else {
+            line.append("stage=").append(entry.stage);
+        }
+        line.append(" duration_ms=").append(millis(entry.nanos));
+        if (entry.patientId != null) line.append(" patient_id=").append(entry.patientId);
+        if (entry.bytes >= 0) line.append(" bytes=").append(entry.bytes);
+        if (entry.outcome != null) line.append(" outcome=").append(entry.outcome.replace(' ', '_'));
+        return line.toString();
+    }
+
+    /**
+     * Un objeto JSON por línea: ts, level, request_id, client, patient_id y
+     * "msg", o en los eventos stage, command, duration_ms, bytes y outcome.
+     */
+    private static String formatJson(Entry entry) {
+        StringBuilder line = new StringBuilder(192).append("{\"ts\":\"").append(entry.time)
+                .append("\",\"level\":\"").append(entry.level).append('"');
+        field(line, "request_id", entry.requestId);
+        field(line, "client", entry.client);
+        field(line, "patient_id", entry.patientId);
+        if (entry.stage == null) {
+            field(line, "msg", entry.msg);
+        } else {
+            field(line, "stage", entry.stage);
+            field(line, "command", entry.msg);
+            line.append(",\"duration_ms\":").append(millis(entry.nanos));
+            if (entry.bytes >= 0) line.append(",\"bytes\":").append(entry.bytes);
+            field(line, "outcome", entry.outcome);
+        }
+        return line.append('}').toString();
+    }
+
+    private static void field(StringBuilder line, String name, String value) {
+        if (value == null) return;
+        line.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': line.append("\\\""); break;
+                case '\\': line.append("\\\\"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                case '\t': line.append("\\t"); break;
+                default:
+                    if (c < 0x20) line.append(String.format("\\u%04x", (int) c));
+                    else line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,254 @@
+package Logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Clase LogRotation
+ * -------------------
+ * Rotación del archivo de log por tamaño y por día, con compresión y retención.
+ *
+ * Al rotar, el escritor de LogManager cierra el archivo y lo renombra a
+ * "server-AAAA-MM-DD.N.log" (la fecha de sus líneas); eso es solo un rename.
+ * La compresión a ".log.gz" y el borrado de los viejos se hacen en un hilo
+ * aparte ("log-compress"), así ni el escritor ni las solicitudes esperan al gzip.
+ *
+ * Retención: se conservan los "maxFiles" rotados más nuevos y ninguno con más
+ * de "maxAgeDays" días (0 = sin ese límite).
+ */
+public class LogRotation {
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 14;
+    public static final int DEFAULT_MAX_AGE_DAYS = 30;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final long maxBytes;
+    private final boolean daily;
+    private final int maxFiles;
+    private final int maxAgeDays;
+    private final boolean compress;
+    private final ExecutorService background;
+    private final AtomicLong rotations = new AtomicLong();
+    private final AtomicLong compressedFiles = new AtomicLong();
+    private final AtomicLong deletedFiles = new AtomicLong();
+
+    /**
+     * @param maxBytes   tamaño a partir del cual se rota (0 = sin límite)
+     * @param daily      rotar cuando cambia el día
+     * @param maxFiles   archivos rotados a conservar (0 = sin límite)
+     * @param maxAgeDays antigüedad máxima de un rotado (0 = sin límite)
+     * @param compress   comprimir con gzip los rotados
+     */
+    public LogRotation(long maxBytes, boolean daily, int maxFiles, int maxAgeDays, boolean compress) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.daily = daily;
+        this.maxFiles = Math.max(0, maxFiles);
+        this.maxAgeDays = Math.max(0, maxAgeDays);
+        this.compress = compress;
+        // Un hilo y cola sin límite: las tareas son pocas (una por rotación)
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "log-compress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.background = pool;
+    }
+
+    /**
+     * Rotación con los valores por defecto: 10 MB, diaria, 14 archivos, 30 días, gzip.
+     */
+    public static LogRotation defaults() {
+        return new LogRotation(DEFAULT_MAX_BYTES, true, DEFAULT_MAX_FILES, DEFAULT_MAX_AGE_DAYS, true);
+    }
+
+    /**
+     * Hay que rotar un archivo de "size" bytes con líneas del día "openedDay"
+     * antes de escribir una línea del día "day".
+     */
+    public boolean shouldRotate(long size, LocalDate openedDay, LocalDate day) {
+        if (size <= 0) return false;
+        return (maxBytes > 0 && size >= maxBytes) || (daily && !day.equals(openedDay));
+    }
+
+    /**
+     * Día de las líneas de un log ya existente (el de su última modificación).
+     */
+    public static LocalDate dayOf(Path file) throws IOException {
+        return LocalDate.ofInstant(Files.getLastModifiedTime(file).toInstant(), ZoneId.systemDefault());
+    }
+
+    /**
+     * Renombra el log (ya cerrado) y encarga la compresión y la retención.
+     * Lo llama el escritor del log.
+     *
+     * @param file log actual
+     * @param day  fecha de sus líneas
+     */
+    public void rotate(Path file, LocalDate day) throws IOException {
+        if (!Files.exists(file)) return;
+        Path rolled = rolledName(file, day);
+        Files.move(file, rolled, StandardCopyOption.ATOMIC_MOVE);
+        rotations.incrementAndGet();
+        background.execute(() -> {
+            if (compress) gzip(rolled);
+            applyRetention(file);
+        });
+    }
+
+    /**
+     * Al arrancar: comprime los rotados que quedaron sin comprimir (ej: por un
+     * corte) y aplica la retención, en segundo plano.
+     */
+    public void cleanUp(Path file) {
+        background.execute(() -> {
+            if (compress) {
+                for (Rolled rolled : listRolled(file)) {
+                    if (rolled.path.getFileName().toString().endsWith(".log")) gzip(rolled.path);
+                }
+            }
+            applyRetention(file);
+        });
+    }
+
+    /**
+     * Espera (hasta timeoutMs) a que termine la compresión en curso y detiene el hilo.
+     */
+    public void close(long timeoutMs) {
+        background.shutdown();
+        try {
+            background.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getRotations() {
+        return rotations.get();
+    }
+
+    public long getCompressedFiles() {
+        return compressedFiles.get();
+    }
+
+    public long getDeletedFiles() {
+        return deletedFiles.get();
+    }
+
+    /**
+     * "server-2026-10-19.N.log", con N uno más que el último rotado de ese día.
+     */
+    private static Path rolledName(Path file, LocalDate day) {
+        int last = 0;
+        for (Rolled rolled : listRolled(file)) {
+            if (rolled.day.equals(day)) last = Math.max(last, rolled.n);
+        }
+        return file.resolveSibling(baseName(file) + "-" + day + "." + (last + 1) + ".log");
+    }
+
+    private static String baseName(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".log") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    /**
+     * Comprime a "archivo.gz" (pasando por ".gz.part") y borra el original.
+     */
+    private void gzip(Path rolled) {
+        Path target = rolled.resolveSibling(rolled.getFileName() + ".gz");
+        Path part = rolled.resolveSibling(rolled.getFileName() + ".gz.part");
+        try {
+            try (InputStream in = Files.newInputStream(rolled);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(part), COPY_BUFFER_BYTES)) {
+                in.transferTo(out);
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(rolled);
+            compressedFiles.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("No se pudo comprimir " + rolled + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException ignored) {
+                // Se reintenta en el próximo arranque
+            }
+        }
+    }
+
+    /**
+     * Borra los rotados que sobran (más de maxFiles) o son muy viejos (más de
+     * maxAgeDays), según la fecha y el número de su nombre.
+     */
+    private void applyRetention(Path file) {
+        List<Rolled> rolled = listRolled(file);
+        rolled.sort(Comparator.comparing((Rolled r) -> r.day).thenComparingInt(r -> r.n).reversed());
+        LocalDate oldest = maxAgeDays > 0 ? LocalDate.now().minusDays(maxAgeDays) : null;
+        for (int i = 0; i < rolled.size(); i++) {
+            Rolled r = rolled.get(i);
+            boolean tooMany = maxFiles > 0 && i >= maxFiles;
+            boolean tooOld = oldest != null && r.day.isBefore(oldest);
+            if (tooMany || tooOld) {
+                try {
+                    Files.deleteIfExists(r.path);
+                    deletedFiles.incrementAndGet();
+                } catch (IOException e) {
+                    System.err.println("No se pudo borrar " + r.path + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotados del log: "server-AAAA-MM-DD.N.log" y "server-AAAA-MM-DD.N.log.gz" en su carpeta.
+     */
+    private static List<Rolled> listRolled(Path file) {
+        List<Rolled> rolled = new ArrayList<>();
+        Path dir = file.toAbsolutePath().getParent();
+        String base = baseName(file);
+        Pattern pattern = Pattern.compile(Pattern.quote(base) + "-(\\d{4}-\\d{2}-\\d{2})\\.(\\d+)\\.log(\\.gz)?");
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, base + "-*")) {
+            for (Path path : stream) {
+                Matcher m = pattern.matcher(path.getFileName().toString());
+                if (m.matches()) {
+                    rolled.add(new Rolled(path, LocalDate.parse(m.group(1)), Integer.parseInt(m.group(2))));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudo listar " + dir + ": " + e.getMessage());
+        }
+        return rolled;
+    }
+
+    /**
+     * Un archivo rotado: fecha de sus líneas y número dentro del día.
+     */
+    private static final class Rolled {
+        final Path path;
+        final LocalDate day;
+        final int n;
+
+        Rolled(Path path, LocalDate day, int n) {
+            this.path = path;
+            this.day = day;
+            this.n = n;
+        }
+    }
+}
@@ -22,7 +22,8 @@ import validation.FastaValidator;
  *   4. Consultar Paciente
  *   5. Actualizar Paciente
  *   6. Eliminar Paciente
- *   7. Salir
+ *   7. Listar Pacientes
+ *   8. Salir
  *
  * Aquí se integra todo como el servidor (Server), el cliente (Client)
  * y la lógica para manejar pacientes (Patient).
@@ -34,7 +35,8 @@ public class Main {
     private static Client client;
 
     public static void main(String[] args) {
-        while (true) {
+        boolean running = true;
+        while (running) {
             System.out.println("=====================================");
             System.out.println("      SISTEMA GENÓMICO SEGURO         ");
             System.out.println("=====================================");
@@ -44,8 +46,9 @@ public class Main {
             System.out.println("4) Consultar Paciente (desde Cliente)");
             System.out.println("5) Actualizar Paciente (desde Cliente)");
             System.out.println("6) Eliminar Paciente (desde Cliente)");
+            System.out.println("7) Listar Pacientes (desde Cliente)");
 
-            System.out.println("7) Salir");
+            System.out.println("8) Salir");
             System.out.print("Seleccione una opción: ");
             String opcion = scanner.nextLine();
 
@@ -69,14 +72,21 @@ public class Main {
                     eliminarPaciente();
                     break;
                 case "7":
-                    System.out.println("Saliendo del sistema...");
-                    if (client != null) client.close();
-                    scanner.close();
-                    System.exit(0);
+                    listarPacientes();
+                    break;
+                case "8":
+                    running = false;
+                    break;
                 default:
                     System.out.println("Opción inválida. Intente de nuevo.");
             }
         }
+
+        System.out.println("Saliendo del sistema...");
+        if (client != null) client.close();
+        if (server != null) server.shutdown(); // termina lo que está en curso y fuerza los datos a disco
+        scanner.close();
+        System.exit(0);
     }
 
      /**
@@ -92,7 +102,13 @@ public class Main {
         System.out.print("Ingrese puerto para el servidor (ej: 8443): ");
         int port = Integer.parseInt(scanner.nextLine());
 
-        server = new Server(port);
+        try {
+            server = new Server(port);
+        } catch (IllegalStateException e) {
+            // Ej: storage.shards no coincide con los shards en disco
+            System.out.println("No se pudo iniciar el servidor: " + e.getMessage());
+            return;
+        }
 
         // Se arranca en un hilo aparte para que no bloquee el menú principal
         new Thread(new Runnable() {
@@ -118,8 +134,10 @@ public class Main {
         String host = scanner.nextLine();
         System.out.print("Ingrese puerto: ");
         int port = Integer.parseInt(scanner.nextLine());
+        System.out.print("¿Usar protocolo binario? (s/n): ");
+        boolean binary = scanner.nextLine().equalsIgnoreCase("s");
 
-        client = new Client("Cliente-1", host, port);
+        client = new Client("Cliente-1", host, port, binary);
     }
 
      /**
@@ -240,9 +258,8 @@ public class Main {
 
         client.sendMetadata(metadata.toString());
 
+        // sendFasta ya envía el encabezado START_FASTA con el tamaño
         if (!fastaPath.isEmpty()) {
-            File file = new File(fastaPath);
-            client.sendMetadata("START_FASTA " + file.length());
             client.sendFasta(fastaPath);
         }
         
@@ -266,4 +283,37 @@ public class Main {
         client.receiveFullResponse();
 
     }
+
+    /**
+     * Opción 7: Listar pacientes página por página.
+     * Usa el cursor que devuelve el servidor para pedir la siguiente página.
+     */
+    private static void listarPacientes() {
+        if (client == null) {
+            System.out.println("Primero debe conectar un cliente.");
+            return;
+        }
+
+        System.out.print("Tamaño de página (dejar vacío para 100): ");
+        String limit = scanner.nextLine();
+        System.out.print("Filtro (dejar vacío para todos): ");
+        String filter = scanner.nextLine();
+
+        String cursor = "0";
+        while (true) {
+            StringBuilder command = new StringBuilder("LIST_PATIENTS ").append(cursor);
+            command.append(" ").append(limit.isEmpty() ? "100" : limit);
+            if (!filter.isEmpty()) command.append(" ").append(filter);
+
+            client.sendMetadata(command.toString());
+            String response = client.receiveFullResponse();
+
+            int idx = response.lastIndexOf("NEXT_CURSOR ");
+            if (idx < 0) break;
+            cursor = response.substring(idx + "NEXT_CURSOR ".length()).trim();
+
+            System.out.print("¿Ver siguiente página? (s/n): ");
+            if (!scanner.nextLine().equalsIgnoreCase("s")) break;
+        }
+    }
 }
@@ -32,6 +32,18 @@ public class DetectionReport {
         this.detectedAt = LocalDateTime.now(); // Se asigna la fecha/hora automáticamente
     }
 
+    /**
+     * Reconstruye un reporte ya guardado, con su fecha de detección original.
+     * @param detectedAt Fecha y hora en que se detectó
+     */
+    public DetectionReport(String patientId, String diseaseId, int severity, LocalDateTime detectedAt, String description) {
+        this.patientId = patientId;
+        this.diseaseId = diseaseId;
+        this.severity = severity;
+        this.description = description;
+        this.detectedAt = detectedAt;
+    }
+
    
     // Getters
 
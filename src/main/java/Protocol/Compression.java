@@ -0,0 +1,239 @@
+package Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Clase Compression
+ * ----------------------
+ * Compresión de los FASTA en la red (son texto y se comprimen mucho).
+ *
+ * Se negocia al conectar:
+ * - Texto: el cliente envía "COMPRESSION deflate" (puede ofrecer varios separados
+ *   por coma, en orden de preferencia) y el servidor contesta "OK COMPRESSION x",
+ *   con x = "identity" si no acepta ninguno.
+ * - Binario: la línea de negociación lleva el mismo pedido,
+ *   "PROTOCOL BINARY 1 COMPRESSION deflate", y la respuesta el elegido.
+ *
+ * Después cada FASTA puede ir comprimido o no (los muy chicos no valen la pena):
+ * - Texto: "START_FASTA n deflate m", con n bytes comprimidos en la red y m sin comprimir.
+ * - Binario: FASTA_START con FLAG_COMPRESSED y el tamaño sin comprimir; las
+ *   tramas DATA llevan los bytes comprimidos con el codec negociado, hasta FLAG_END.
+ *
+ * El servidor descomprime al recibir (Decoder), así que el archivo temporal, el
+ * checksum y la validación son siempre sobre el contenido sin comprimir.
+ *
+ * Por ahora el único codec es "deflate" (formato zlib); otro más rápido se
+ * agrega en SUPPORTED, en decoder y en compress.
+ */
+
+public class Compression {
+    public static final String IDENTITY = "identity";
+    public static final String DEFLATE = "deflate";
+    public static final long MIN_BYTES = 4 * 1024;          // Por debajo de esto no se comprime
+    private static final List<String> SUPPORTED = List.of(DEFLATE);
+    private static final int BLOCK_BYTES = 256 * 1024;
+
+    private Compression() {
+    }
+
+    public static boolean isSupported(String codec) {
+        return SUPPORTED.contains(codec);
+    }
+
+    /**
+     * Elige el primer codec soportado de una lista "a,b,c".
+     *
+     * @return el codec, o IDENTITY si ninguno sirve
+     */
+
+    public static String negotiate(String offered) {
+        if (offered == null) return IDENTITY;
+        for (String codec : offered.split(",")) {
+            if (isSupported(codec.trim())) return codec.trim();
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Máximo de bytes comprimidos aceptados para "rawBytes" sin comprimir
+     * (deflate agrega unos pocos bytes por bloque si los datos no se comprimen).
+     */
+
+    public static long maxCompressedBytes(long rawBytes) {
+        return rawBytes + (rawBytes >> 10) + 1024;
+    }
+
+    /**
+     * Canal que descomprime lo que recibe y lo escribe en el destino.
+     *
+     * @param rawBytes tamaño anunciado sin comprimir; producir más es un error
+     */
+
+    public static Decoder decoder(String codec, WritableByteChannel target, long rawBytes) {
+        if (!DEFLATE.equals(codec)) {
+            throw new IllegalArgumentException("Codec no soportado: " + codec);
+        }
+        return new Decoder(target, rawBytes);
+    }
+
+    /**
+     * Destino de los bloques comprimidos por compress.
+     */
+
+    @FunctionalInterface
+    public interface BlockSink {
+        void write(byte[] block, int length, boolean last) throws IOException;
+    }
+
+    /**
+     * Comprime "length" bytes del archivo desde "offset" a medida que los lee y
+     * entrega la salida en bloques de hasta 256 KB; el último va con last = true
+     * (puede estar vacío).
+     *
+     * @return bytes comprimidos en total
+     */
+
+    public static long compress(String codec, FileChannel file, long offset, long length, BlockSink sink)
+            throws IOException {
+        if (!DEFLATE.equals(codec)) {
+            throw new IllegalArgumentException("Codec no soportado: " + codec);
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        ByteBuffer input = ByteBuffer.allocateDirect(BLOCK_BYTES);
+        byte[] output = new byte[BLOCK_BYTES];
+        int filled = 0;
+        long total = 0;
+        try {
+            long position = offset;
+            while (!deflater.finished()) {
+                if (deflater.needsInput() && position < offset + length) {
+                    input.clear().limit((int) Math.min(BLOCK_BYTES, offset + length - position));
+                    int read = file.read(input, position);
+                    if (read < 0) throw new IOException("El archivo terminó antes de comprimir " + length + " bytes");
+                    position += read;
+                    input.flip();
+                    deflater.setInput(input);
+                    if (position == offset + length) deflater.finish();
+                } else if (deflater.needsInput()) {
+                    deflater.finish();   // length == 0
+                }
+                filled += deflater.deflate(output, filled, output.length - filled);
+                if (filled == output.length) {
+                    total += filled;
+                    sink.write(output, filled, deflater.finished());
+                    if (deflater.finished()) return total;
+                    filled = 0;
+                }
+            }
+            total += filled;
+            sink.write(output, filled, true);
+            return total;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Descompresor de un FASTA recibido. Nunca falla al escribir (para no perder
+     * el hilo del protocolo con datos corruptos): anota el error, descarta el
+     * resto y finish() lo informa.
+     */
+
+    public static class Decoder implements WritableByteChannel {
+        private final Inflater inflater = new Inflater();
+        private final WritableByteChannel target;
+        private final long rawLimit;
+        private final ByteBuffer output = ByteBuffer.allocate(64 * 1024);
+        private long compressedBytes;
+        private long rawBytes;
+        private String error;
+
+        Decoder(WritableByteChannel target, long rawLimit) {
+            this.target = target;
+            this.rawLimit = rawLimit;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n = src.remaining();
+            compressedBytes += n;
+            if (error == null && inflater.finished()) {
+                error = "sobran bytes después del fin de los datos comprimidos";
+            }
+            if (error != null) {
+                src.position(src.limit());
+                return n;
+            }
+            inflater.setInput(src);
+            try {
+                while (true) {
+                    output.clear();
+                    int produced = inflater.inflate(output);
+                    if (produced == 0) {
+                        if (inflater.needsDictionary()) error = "los datos comprimidos piden un diccionario";
+                        break;
+                    }
+                    rawBytes += produced;
+                    if (rawBytes > rawLimit) {
+                        error = "se descomprimen más de los " + rawLimit + " bytes anunciados";
+                        break;
+                    }
+                    output.flip();
+                    while (output.hasRemaining()) {
+                        target.write(output);
+                    }
+                }
+            } catch (DataFormatException e) {
+                error = "datos comprimidos inválidos (" + e.getMessage() + ")";
+            }
+            if (error == null && inflater.finished() && src.hasRemaining()) {
+                error = "sobran bytes después del fin de los datos comprimidos";
+            }
+            src.position(src.limit());
+            return n;
+        }
+
+        /**
+         * Verifica que los datos comprimidos estaban completos y dieron el tamaño anunciado.
+         *
+         * @return null si todo está bien, o el motivo del error
+         */
+
+        public String finish() {
+            if (error != null) return error;
+            if (!inflater.finished()) return "los datos comprimidos están incompletos";
+            if (rawBytes != rawLimit) return "se descomprimieron " + rawBytes + " de " + rawLimit + " bytes anunciados";
+            return null;
+        }
+
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+
+        public long getRawBytes() {
+            return rawBytes;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        /**
+         * Libera el descompresor y cierra el destino.
+         */
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            target.close();
+        }
+    }
+}
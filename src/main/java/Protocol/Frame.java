@@ -0,0 +1,108 @@
+package Protocol;
+
+/**
+ * Clase Frame
+ * ----------------------
+ * Encabezado de una trama del protocolo binario (versión 1).
+ *
+ * Formato de cada trama (big-endian, 12 bytes de encabezado):
+ *
+ *   | versión (1) | tipo (1) | flags (1) | reservado (1) | requestId (4) | largo (4) | payload (largo) |
+ *
+ * Una solicitud son varias tramas con el mismo requestId:
+ * - COMMAND:     la línea de comando en UTF-8 (ej: "RETRIEVE_PATIENT 123").
+ * - METADATA:    pares clave/valor codificados por FrameCodec (solo CREATE/UPDATE).
+ * - FASTA_START: 8 bytes con el tamaño total del FASTA. Con FLAG_COMPRESSED es el
+ *                tamaño sin comprimir y los DATA van comprimidos (ver Compression).
+ * - DATA:        un pedazo del FASTA; el último lleva FLAG_END.
+ * La respuesta son una o más tramas RESPONSE con el mismo requestId: cada una
+ * lleva hasta MAX_CONTROL_PAYLOAD bytes del texto y todas menos la última llevan
+ * FLAG_MORE. El cliente junta los pedazos (ResponseAssembler); como los pedazos
+ * de distintas respuestas pueden intercalarse, se juntan por requestId.
+ *
+ * El protocolo se negocia al conectar: el cliente envía la línea de texto
+ * "PROTOCOL BINARY 1" y, si el servidor contesta "OK PROTOCOL BINARY 1",
+ * desde ese momento ambos lados hablan solo con tramas.
+ */
+
+public class Frame {
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 12;
+    public static final String NEGOTIATION = "PROTOCOL BINARY " + VERSION;
+
+    public static final int TYPE_COMMAND = 1;
+    public static final int TYPE_METADATA = 2;
+    public static final int TYPE_FASTA_START = 3;
+    public static final int TYPE_DATA = 4;
+    public static final int TYPE_RESPONSE = 5;
+
+    public static final int FLAG_END = 0x01;          // Último pedazo de un FASTA
+    public static final int FLAG_COMPRESSED = 0x02;   // FASTA_START: DATA con el codec negociado
+    public static final int FLAG_MORE = 0x04;         // RESPONSE: siguen más pedazos de la misma respuesta
+
+    public static final int MAX_CONTROL_PAYLOAD = 1024 * 1024;       // COMMAND, METADATA, RESPONSE
+    public static final int MAX_DATA_PAYLOAD = 16 * 1024 * 1024;     // Un pedazo de FASTA
+
+    private int type;
+    private int flags;
+    private int requestId;
+    private int length;
+
+    public Frame() {
+    }
+
+    public Frame(int type, int flags, int requestId, int length) {
+        set(type, flags, requestId, length);
+    }
+
+    /**
+     * Reutiliza el mismo objeto para el siguiente encabezado (evita crear uno por trama).
+     */
+
+    void set(int type, int flags, int requestId, int length) {
+        this.type = type;
+        this.flags = flags;
+        this.requestId = requestId;
+        this.length = length;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isEnd() {
+        return (flags & FLAG_END) != 0;
+    }
+
+    public boolean hasMore() {
+        return (flags & FLAG_MORE) != 0;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public static String typeName(int type) {
+        switch (type) {
+            case TYPE_COMMAND: return "COMMAND";
+            case TYPE_METADATA: return "METADATA";
+            case TYPE_FASTA_START: return "FASTA_START";
+            case TYPE_DATA: return "DATA";
+            case TYPE_RESPONSE: return "RESPONSE";
+            default: return "TIPO_" + type;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return typeName(type) + "[id=" + requestId + ", largo=" + length + ", flags=" + flags + "]";
+    }
+}
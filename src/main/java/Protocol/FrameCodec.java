@@ -0,0 +1,194 @@
+package Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Clase FrameCodec
+ * ----------------------
+ * Lectura y escritura de tramas del protocolo binario (ver Frame).
+ *
+ * Lo comparten Client y ConnectionHandler. Las tramas de datos no se copian
+ * a un arreglo propio: quien lee el encabezado copia el payload directo del
+ * socket a su destino (ej: el archivo temporal del FASTA), y quien escribe
+ * puede mandar solo el encabezado con writeHeader y el payload con transferTo.
+ *
+ * La metadata se codifica como:
+ *   | cantidad (2) | { largoClave (2) | clave | largoValor (4) | valor } ... |
+ * así se lee por largos, sin buscar ':' ni saltos de línea.
+ */
+
+public class FrameCodec {
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Lee el siguiente encabezado de trama.
+     *
+     * @param in     flujo de entrada
+     * @param header objeto donde se deja el encabezado leído (se reutiliza)
+     * @return false si el flujo terminó limpio justo antes de una trama
+     * @throws IOException si el encabezado está cortado, la versión no coincide o el largo es inválido
+     */
+
+    public static boolean readHeader(DataInputStream in, Frame header) throws IOException {
+        int version = in.read();
+        if (version == -1) return false;
+        if (version != Frame.VERSION) {
+            throw new IOException("Versión de trama no soportada: " + version);
+        }
+        int type = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        in.readUnsignedByte(); // reservado
+        int requestId = in.readInt();
+        int length = in.readInt();
+        int max = type == Frame.TYPE_DATA ? Frame.MAX_DATA_PAYLOAD : Frame.MAX_CONTROL_PAYLOAD;
+        if (length < 0 || length > max) {
+            throw new IOException("Largo de trama inválido (" + length + ") en " + Frame.typeName(type));
+        }
+        header.set(type, flags, requestId, length);
+        return true;
+    }
+
+    /**
+     * Lee el payload completo de una trama de control (comando, metadata, respuesta).
+     */
+
+    public static byte[] readPayload(DataInputStream in, Frame header) throws IOException {
+        byte[] payload = new byte[header.getLength()];
+        in.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Descarta el payload de la trama actual.
+     */
+
+    public static void skipPayload(DataInputStream in, Frame header) throws IOException {
+        int remaining = header.getLength();
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) throw new EOFException("Trama " + header + " cortada");
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Escribe solo el encabezado; el llamador envía después exactamente length bytes.
+     */
+
+    public static void writeHeader(DataOutputStream out, int type, int flags, int requestId, int length) throws IOException {
+        out.writeByte(Frame.VERSION);
+        out.writeByte(type);
+        out.writeByte(flags);
+        out.writeByte(0);
+        out.writeInt(requestId);
+        out.writeInt(length);
+    }
+
+    /**
+     * Escribe una trama completa (encabezado y payload). No hace flush.
+     */
+
+    public static void writeFrame(DataOutputStream out, int type, int flags, int requestId,
+                                  byte[] payload, int offset, int length) throws IOException {
+        writeHeader(out, type, flags, requestId, length);
+        out.write(payload, offset, length);
+    }
+
+    public static void writeFrame(DataOutputStream out, int type, int requestId, byte[] payload) throws IOException {
+        writeFrame(out, type, 0, requestId, payload, 0, payload.length);
+    }
+
+    public static void writeText(DataOutputStream out, int type, int requestId, String text) throws IOException {
+        writeFrame(out, type, requestId, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Payload de FASTA_START: el tamaño total anunciado.
+     */
+
+    public static byte[] encodeLength(long length) {
+        return ByteBuffer.allocate(8).putLong(length).array();
+    }
+
+    public static long decodeLength(byte[] payload) throws IOException {
+        if (payload.length != 8) throw new IOException("FASTA_START debe tener 8 bytes");
+        return ByteBuffer.wrap(payload).getLong();
+    }
+
+    /**
+     * Codifica pares clave/valor en el formato de una trama METADATA.
+     */
+
+    public static byte[] encodeMetadata(Map<String, String> metadata) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(metadata.size());
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(key.length);
+                out.write(key);
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // no ocurre escribiendo a memoria
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Recorre los pares de una trama METADATA sin copiar el payload.
+     *
+     * @throws IOException si los largos no cuadran con el payload
+     */
+
+    public static void decodeMetadata(byte[] payload, BiConsumer<String, String> sink) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        try {
+            int count = buffer.getShort() & 0xFFFF;
+            for (int i = 0; i < count; i++) {
+                int keyLength = buffer.getShort() & 0xFFFF;
+                String key = new String(payload, buffer.position(), keyLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + keyLength);
+                int valueLength = buffer.getInt();
+                String value = new String(payload, buffer.position(), valueLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + valueLength);
+                sink.accept(key, value);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Trama METADATA mal formada", e);
+        }
+    }
+
+    /**
+     * Convierte el bloque de texto "clave: valor" del protocolo de texto en un mapa,
+     * para que los clientes que arman la metadata como texto puedan usar tramas.
+     */
+
+    public static Map<String, String> parseTextMetadata(Iterable<String> lines) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for (String line : lines) {
+            if (line.equals("END_METADATA")) break;
+            int idx = line.indexOf(':');
+            if (idx <= 0) continue;
+            metadata.put(line.substring(0, idx).trim(), line.substring(idx + 1).trim());
+        }
+        return metadata;
+    }
+}
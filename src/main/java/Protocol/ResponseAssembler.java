@@ -0,0 +1,47 @@
+package Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Clase ResponseAssembler
+ * ----------------------
+ * Junta los pedazos de las respuestas del protocolo binario. Una respuesta
+ * más grande que Frame.MAX_CONTROL_PAYLOAD llega en varias tramas RESPONSE
+ * (todas menos la última con FLAG_MORE), que pueden intercalarse con las de
+ * otras solicitudes; por eso se juntan por requestId.
+ *
+ * Los bytes se juntan antes de decodificar el texto: un corte entre pedazos
+ * puede caer en medio de un carácter UTF-8.
+ *
+ * No es thread-safe: lo usa el único hilo que lee las respuestas de una conexión.
+ */
+
+public class ResponseAssembler {
+    private final Map<Integer, ByteArrayOutputStream> partial = new HashMap<>();
+
+    /**
+     * Agrega el payload de una trama RESPONSE.
+     *
+     * @return el texto completo si era el último pedazo, o null si faltan más
+     */
+
+    public String add(Frame header, byte[] payload) {
+        ByteArrayOutputStream pieces = partial.get(header.getRequestId());
+        if (header.hasMore()) {
+            if (pieces == null) {
+                pieces = new ByteArrayOutputStream(payload.length * 2);
+                partial.put(header.getRequestId(), pieces);
+            }
+            pieces.write(payload, 0, payload.length);
+            return null;
+        }
+        if (pieces == null) return new String(payload, StandardCharsets.UTF_8);
+
+        partial.remove(header.getRequestId());
+        pieces.write(payload, 0, payload.length);
+        return new String(pieces.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+package Protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Clase Tls
+ * ----------------------
+ * Contextos TLS del servidor y de los clientes.
+ *
+ * - Solo TLS 1.3 y 1.2.
+ * - El servidor usa un keystore local (PKCS12 o JKS) y guarda las sesiones en
+ *   una caché con tamaño y duración configurables. En TLS 1.3 el JDK además
+ *   entrega tickets de sesión, así un cliente que vuelve a conectar se salta
+ *   el handshake completo (sin certificados ni firmas).
+ * - Los clientes reanudan sesiones solo si reutilizan el mismo SSLContext:
+ *   clientContextFromSystem devuelve siempre el mismo para todo el proceso.
+ *
+ * Para crear un keystore de prueba (el mismo archivo sirve como truststore del cliente):
+ *   keytool -genkeypair -alias sgs -keyalg EC -groupname secp256r1 -validity 365
+ *           -dname CN=localhost -ext SAN=dns:localhost,ip:127.0.0.1
+ *           -storetype PKCS12 -keystore data/server.p12 -storepass changeit
+ *
+ * Opciones del cliente (propiedades del sistema, las mismas claves que usa el
+ * servidor con prefijo "sgs." para que Main pueda levantar ambos):
+ *   sgs.tls.enabled=true, sgs.tls.truststore=ruta, sgs.tls.truststore_password=clave,
+ *   sgs.tls.verify_hostname=false (solo para pruebas).
+ */
+
+public class Tls {
+    private static final String[] PROTOCOLS = { "TLSv1.3", "TLSv1.2" };
+    private static SSLContext systemClientContext;
+
+    private Tls() {
+    }
+
+    /**
+     * Contexto del servidor con el certificado del keystore.
+     *
+     * @param cacheSize      sesiones guardadas para reanudar (0 = sin límite)
+     * @param timeoutSeconds cuánto tiempo se puede reanudar una sesión
+     */
+
+    public static SSLContext serverContext(String keystore, char[] password, int cacheSize, int timeoutSeconds)
+            throws IOException, GeneralSecurityException {
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(loadKeyStore(keystore, password), password);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), null, null);
+        context.getServerSessionContext().setSessionCacheSize(cacheSize);
+        context.getServerSessionContext().setSessionTimeout(timeoutSeconds);
+        return context;
+    }
+
+    /**
+     * Contexto de cliente que confía en los certificados del truststore, o en los
+     * del JDK si truststore es null.
+     */
+
+    public static SSLContext clientContext(String truststore, char[] password) throws IOException, GeneralSecurityException {
+        if (truststore == null) return SSLContext.getDefault();
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(loadKeyStore(truststore, password));
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+
+    /**
+     * Contexto de cliente según las propiedades "sgs.tls.*", compartido por todo el
+     * proceso para reanudar sesiones.
+     *
+     * @return el contexto, o null si sgs.tls.enabled no es true
+     */
+
+    public static synchronized SSLContext clientContextFromSystem() throws IOException {
+        if (!Boolean.getBoolean("sgs.tls.enabled")) return null;
+        if (systemClientContext == null) {
+            String password = System.getProperty("sgs.tls.truststore_password", "changeit");
+            try {
+                systemClientContext = clientContext(System.getProperty("sgs.tls.truststore"), password.toCharArray());
+            } catch (GeneralSecurityException e) {
+                throw new IOException("No se pudo crear el contexto TLS: " + e.getMessage(), e);
+            }
+        }
+        return systemClientContext;
+    }
+
+    /**
+     * Abre una conexión TLS y completa el handshake. Pasar host y puerto es lo
+     * que permite reanudar la sesión anterior con ese servidor.
+     */
+
+    public static SSLSocket connect(SSLContext context, String host, int port, int timeoutMs) throws IOException {
+        Socket plain = new Socket();
+        try {
+            plain.connect(new InetSocketAddress(host, port), timeoutMs);
+            plain.setTcpNoDelay(true);   // el handshake son varios mensajes chicos seguidos
+            SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(plain, host, port, true);
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setProtocols(supported(socket.getSupportedProtocols()));
+            if (!System.getProperty("sgs.tls.verify_hostname", "true").equalsIgnoreCase("false")) {
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            }
+            socket.setSSLParameters(parameters);
+            socket.startHandshake();
+            return socket;
+        } catch (IOException e) {
+            plain.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Restringe un socket de servidor a TLS 1.3 / 1.2.
+     */
+
+    public static void configure(SSLServerSocket serverSocket) {
+        serverSocket.setEnabledProtocols(supported(serverSocket.getSupportedProtocols()));
+    }
+
+    private static String[] supported(String[] available) {
+        return Arrays.stream(PROTOCOLS).filter(Arrays.asList(available)::contains).toArray(String[]::new);
+    }
+
+    private static KeyStore loadKeyStore(String file, char[] password) throws IOException, GeneralSecurityException {
+        if (!Files.exists(Paths.get(file))) {
+            throw new IOException("No existe el keystore " + file);
+        }
+        // PKCS12 o JKS: KeyStore.getInstance(File, ...) detecta el tipo
+        return KeyStore.getInstance(Paths.get(file).toFile(), password);
+    }
+}
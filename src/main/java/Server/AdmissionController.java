@@ -0,0 +1,267 @@
+package Server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clase AdmissionController
+ * ----------------------
+ * Control de admisión del servidor: decide si hay capacidad para atender
+ * algo antes de empezar a hacerlo, en lugar de aceptar todo y degradarse.
+ *
+ * Límites (configurables):
+ * - admission.max_connections: conexiones abiertas a la vez.
+ * - admission.max_uploads: solicitudes con FASTA procesándose a la vez.
+ * - admission.max_lookups: el resto de comandos ejecutándose a la vez.
+ * - admission.max_inflight_fasta_bytes (256 MB por defecto): memoria que
+ *   pueden ocupar a la vez los FASTA que se están recibiendo o procesando.
+ *   Los FASTA no se tienen enteros en memoria (se escriben a disco mientras
+ *   llegan y la detección los recorre por pedazos), así que cada uno cuenta
+ *   a lo sumo UPLOAD_MEMORY_BYTES aunque pese varios GB; un FASTA grande
+ *   nunca se rechaza solo por su tamaño.
+ *
+ * Cuando un límite está lleno se responde de inmediato con
+ * "ERROR 503 BUSY retry_after_ms:N" para que el cliente reintente más tarde.
+ *
+ * Además cada cliente tiene su ritmo máximo de solicitudes y de bytes subidos
+ * (RateLimiter); quien lo supera recibe "ERROR 429 RATE_LIMITED retry_after_ms:N".
+ */
+
+public class AdmissionController {
+    // Lo que un FASTA puede ocupar en memoria: lo encolado sin escribir en modo NIO
+    // (FastaWriter.PAUSE_BYTES) más los pedazos de la detección, con margen
+    static final long UPLOAD_MEMORY_BYTES = 8L * 1024 * 1024;
+
+    private final Semaphore connections;
+    private final int maxConnections;
+    private final Semaphore uploads;
+    private final Semaphore lookups;
+    private final long maxInflightBytes;
+    private final AtomicLong inflightBytes = new AtomicLong();
+    private final long retryAfterMs;
+    private final AtomicLong rejected = new AtomicLong();
+    private final RateLimiter rateLimiter;
+
+    /**
+     * Permiso concedido por el controlador. Se libera una sola vez con close().
+     */
+
+    public static class Permit implements AutoCloseable {
+        private final Semaphore semaphore;
+        private final AtomicLong bytesCounter;
+        private long bytes;
+        private boolean released;
+
+        Permit(Semaphore semaphore, AtomicLong bytesCounter, long bytes) {
+            this.semaphore = semaphore;
+            this.bytesCounter = bytesCounter;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) return;
+            released = true;
+            semaphore.release();
+            if (bytes > 0) bytesCounter.addAndGet(-bytes);
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        synchronized void addBytes(long more) {
+            bytes += more;
+        }
+    }
+
+    /**
+     * Crea el controlador con los límites de la configuración.
+     *
+     * @param config configuración del servidor
+     */
+
+    public AdmissionController(ServerConfig config) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.maxConnections = config.getInt("admission.max_connections", 2000);
+        this.connections = new Semaphore(maxConnections);
+        this.uploads = new Semaphore(config.getInt("admission.max_uploads", cores));
+        this.lookups = new Semaphore(config.getInt("admission.max_lookups", cores * 8));
+        this.maxInflightBytes = config.getLong("admission.max_inflight_fasta_bytes", 256L * 1024 * 1024);
+        this.retryAfterMs = config.getLong("admission.retry_after_ms", 500);
+        this.rateLimiter = new RateLimiter(config);
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Toma la ficha de solicitud del cliente (comandos sin FASTA; los que traen
+     * FASTA la toman en admitFasta).
+     *
+     * @return null si puede seguir, o la respuesta 429
+     */
+
+    public String throttle(Request request) {
+        long waitMs = rateLimiter.tryRequest(request.getClient());
+        return waitMs == 0 ? null : rateLimitedResponse(waitMs);
+    }
+
+    /**
+     * Reserva un lugar para una conexión nueva.
+     *
+     * @return true si se admitió; quien la admitió debe llamar releaseConnection al cerrarla
+     */
+
+    public boolean tryAdmitConnection() {
+        if (connections.tryAcquire()) return true;
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void releaseConnection() {
+        connections.release();
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Intenta admitir una subida de FASTA: un lugar de subida más la memoria
+     * que ocupará (ver memoryFor).
+     *
+     * @param nbytes tamaño anunciado del FASTA
+     * @return permiso, o null si no hay capacidad
+     */
+
+    public Permit tryAdmitUpload(long nbytes) {
+        long bytes = memoryFor(nbytes);
+        if (!uploads.tryAcquire()) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        if (!tryReserveBytes(bytes)) {
+            uploads.release();
+            rejected.incrementAndGet();
+            return null;
+        }
+        return new Permit(uploads, inflightBytes, bytes);
+    }
+
+    /**
+     * Memoria que se le cuenta a un FASTA de nbytes: los chicos pueden quedar
+     * enteros en los buffers; los grandes nunca ocupan más de UPLOAD_MEMORY_BYTES.
+     */
+
+    static long memoryFor(long nbytes) {
+        return Math.max(0, Math.min(nbytes, UPLOAD_MEMORY_BYTES));
+    }
+
+    /**
+     * Reserva la memoria de nbytes más de FASTA a nombre de una solicitud (o de un lote).
+     * El primer FASTA toma un lugar de subida; los siguientes de un mismo lote
+     * solo agregan su memoria al permiso que ya tiene. El ritmo del cliente sí
+     * se cobra por los nbytes completos. Si no hay capacidad, la solicitud
+     * queda marcada con su respuesta de rechazo y no se vuelve a intentar.
+     *
+     * @return true si la solicitud sigue admitida y el FASTA se debe recibir
+     */
+
+    public boolean admitFasta(Request request, long nbytes) {
+        if (request.getRejection() != null) return false;
+
+        Permit permit = request.getPermit();
+        // Ritmo del cliente: una solicitud (solo el primer FASTA de un lote) y sus bytes
+        long waitMs = permit == null ? rateLimiter.tryRequest(request.getClient()) : 0;
+        if (waitMs == 0) waitMs = rateLimiter.tryUpload(request.getClient(), nbytes);
+        if (waitMs > 0) {
+            request.setRejection(rateLimitedResponse(waitMs));
+            return false;
+        }
+        if (permit == null) {
+            permit = tryAdmitUpload(nbytes);
+            if (permit == null) {
+                request.setRejection(rejectionFor(memoryFor(nbytes)));
+                return false;
+            }
+            request.setPermit(permit);
+            return true;
+        }
+        long bytes = memoryFor(nbytes);
+        if (!tryReserveBytes(bytes)) {
+            rejected.incrementAndGet();
+            request.setRejection(rejectionFor(permit.getBytes() + bytes));
+            return false;
+        }
+        permit.addBytes(bytes);
+        return true;
+    }
+
+    private boolean tryReserveBytes(long bytes) {
+        while (true) {
+            long current = inflightBytes.get();
+            if (current + bytes > maxInflightBytes) {
+                return false;
+            }
+            if (inflightBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Intenta admitir un comando sin FASTA (consultas, listados, eliminaciones...).
+     *
+     * @return permiso, o null si no hay capacidad
+     */
+
+    public Permit tryAdmitLookup() {
+        if (lookups.tryAcquire()) {
+            return new Permit(lookups, inflightBytes, 0);
+        }
+        rejected.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Respuesta para una subida que no fue admitida.
+     * Si la memoria pedida (ver memoryFor) no cabe ni con el presupuesto vacío,
+     * reintentar no sirve: 413. Solo pasa si admission.max_inflight_fasta_bytes
+     * se configuró por debajo de UPLOAD_MEMORY_BYTES, o con lotes muy grandes.
+     *
+     * @param bytes memoria pedida, no el tamaño del FASTA
+     */
+
+    public String rejectionFor(long bytes) {
+        if (bytes > maxInflightBytes) {
+            return "ERROR 413 FASTA_TOO_LARGE max_bytes:" + maxInflightBytes;
+        }
+        return busyResponse();
+    }
+
+    public String busyResponse() {
+        return "ERROR 503 BUSY retry_after_ms:" + retryAfterMs;
+    }
+
+    public String rateLimitedResponse(long waitMs) {
+        return "ERROR 429 RATE_LIMITED retry_after_ms:" + waitMs;
+    }
+
+    /**
+     * Respuesta a las solicitudes que llegan mientras el servidor se apaga.
+     */
+
+    public String shuttingDownResponse() {
+        return "ERROR 503 SHUTTING_DOWN retry_after_ms:" + retryAfterMs;
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getInflightBytes() {
+        return inflightBytes.get();
+    }
+}
@@ -0,0 +1,77 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Clase ChannelTransfer
+ * ----------------------
+ * Recepción de FASTA (socket -> archivo) sin pasar por arreglos del heap.
+ *
+ * El SocketChannel lee a un ByteBuffer directo grande y de ahí se escribe al
+ * FileChannel. Con buffers de 1 MB hay una llamada al sistema por megabyte en
+ * lugar de una cada 4 KB, y los bytes nunca se copian a un byte[].
+ * (El envío del lado del cliente usa FileChannel.transferTo, que en Linux es sendfile.)
+ *
+ * Los buffers directos se crean a medida que se necesitan y se guardan para
+ * reutilizarlos, hasta "transfer.buffers" de "transfer.buffer_bytes" cada uno;
+ * los que sobran se descartan.
+ */
+
+public class ChannelTransfer {
+    private final int bufferBytes;
+    private final BlockingQueue<ByteBuffer> pool;
+
+    public ChannelTransfer(ServerConfig config) {
+        this(config.getInt("transfer.buffer_bytes", 1024 * 1024),
+             config.getInt("transfer.buffers", Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    public ChannelTransfer(int bufferBytes, int buffers) {
+        this.bufferBytes = Math.max(64 * 1024, bufferBytes);
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, buffers));
+    }
+
+    /**
+     * Copia exactamente count bytes (o hasta fin de flujo) de un canal de lectura a uno de escritura.
+     *
+     * @return bytes copiados; menos que count si el origen se cerró antes
+     */
+
+    public long copy(ReadableByteChannel source, WritableByteChannel target, long count) throws IOException {
+        ByteBuffer buffer = borrow();
+        try {
+            long copied = 0;
+            while (copied < count) {
+                buffer.clear();
+                if (count - copied < buffer.capacity()) {
+                    buffer.limit((int) (count - copied));
+                }
+                int read = source.read(buffer);
+                if (read == -1) break;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                copied += read;
+            }
+            return copied;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private ByteBuffer borrow() {
+        ByteBuffer buffer = pool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffer.clear();
+        pool.offer(buffer);
+    }
+}
@@ -1,52 +1,126 @@
 package Server;
 
+import Diagnostics.FastaReceiveEvent;
+import Logging.LogContext;
 import Logging.LogManager;
-import Model.Patient;
-import Model.Disease;
-import Model.DetectionReport;
-import Storage.CsvManager;
-import validation.FastaValidator;
+import Protocol.Compression;
+import Protocol.Frame;
+import Protocol.FrameCodec;
+import Storage.UploadSession;
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLSocket;
 
 /**
  * La clase "ConnectionHandler vendría siendo la clase controladora
- * ConnectionHandler maneja la comunicación entre el servidor y un cliente conectado. 
+ * ConnectionHandler maneja la comunicación entre el servidor y un cliente conectado.
  * Implementa Runnable, ya que cada cliente se gestiona en un hilo independiente.
+ *
+ * Lee cada solicitud completa (comando, metadata y FASTA) y se la entrega a
+ * RequestProcessor, que es quien ejecuta la lógica de cada comando.
+ *
+ * Habla dos protocolos:
+ * - Texto (por defecto): líneas terminadas en "\n" y el FASTA como bytes crudos.
+ *   Las líneas y los bytes se leen del mismo flujo con buffer, así el buffer
+ *   nunca se "come" bytes del FASTA.
+ * - Binario: si la primera línea es "PROTOCOL BINARY 1", se contesta
+ *   "OK PROTOCOL BINARY 1" y desde ahí todo va en tramas (ver Protocol.Frame).
+ *   Si la línea pide además "COMPRESSION codec", la respuesta dice cuál se usará
+ *   para los FASTA con FLAG_COMPRESSED.
+ *
+ * Los FASTA comprimidos (ver Protocol.Compression) se descomprimen a medida que
+ * llegan, antes de escribirlos; el archivo recibido queda siempre sin comprimir.
+ *
+ * Si el socket tiene SocketChannel (el servidor acepta con ServerSocketChannel)
+ * y se le pasa un ChannelTransfer, los bytes del FASTA van del canal al
+ * FileChannel del temporal con buffers directos, sin pasar por el heap.
+ *
+ * En binario se admite pipelining: el cliente puede enviar muchas solicitudes
+ * sin esperar respuestas. Este hilo solo lee; cada solicitud completa se
+ * ejecuta en el pool compartido y su RESPONSE sale apenas termina, con su
+ * requestId, aunque sea en otro orden. Las solicitudes sobre un mismo paciente
+ * (Request.getPatientKey) se ejecutan en el orden en que llegaron.
+ *
+ * La conexión se anota en ConnectionRegistry con sus bytes y solicitudes. Si el
+ * registro la cierra (inactiva o trabada a mitad de una solicitud), la lectura
+ * bloqueada falla y el hilo termina.
  */
 
 public class ConnectionHandler implements Runnable {
+    private static final int MAX_LINE_BYTES = 64 * 1024;   // Límite de una línea de texto
+    private static final int IO_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_IN_FLIGHT = 64;            // Solicitudes en pipeline antes de dejar de leer
+
     private Socket socket;                      // Representa la conexión con el cliente
-    private BufferedReader inputStream;         //Flujo de entrada para recibir datos del cliente
+    private SocketInput bufferedInput;          //Buffer de entrada (se vacía antes de leer directo del canal)
+    private DataInputStream inputStream;        //Flujo de entrada (bytes) para recibir datos del cliente
+    private ReadableByteChannel channel;        //Canal del socket, si se recibe con ChannelTransfer
+    private ChannelTransfer transfer;
+    private FairScheduler pipeline;             //Pool donde corren las solicitudes en pipeline (binario)
+    private String client;                      //Dirección del cliente (límites de ritmo y reparto del pool)
+    private final ReentrantLock writeLock = new ReentrantLock();   //Una trama RESPONSE a la vez
+    private OutputStream rawOutput;             //Flujo de salida en bytes (tramas binarias)
     private PrintWriter outputStream;           //Flujo de salida para enviar datos al cliente
-    private DiseaseDatabase diseaseDatabase;    //Administrador de operaciones sobre el CSV que almacena pacientes y reportes
-    private CsvManager csvManager;
+    private RequestProcessor processor;         //Lógica de los comandos del protocolo
     private LogManager logManager;
-    
+    private ConnectionRegistry.Connection stats; //Contadores de la conexión en el registro
+    private boolean binary;                     //Se negoció el protocolo binario
+    private String codec = Compression.IDENTITY; //Compresión negociada para las tramas FASTA_START
+    private final Frame frame = new Frame();    //Encabezado de la trama actual (se reutiliza)
+    private final byte[] copyBuffer = new byte[IO_BUFFER_BYTES];
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(128);
+
     /**
      * Constructor: inicializa el handler de conexión.
-     * 
-     * @param socket          Socket del cliente
-     * @param diseaseDatabase Base de datos de enfermedades
-     * @param csvManager      Gestor de almacenamiento CSV
+     *
+     * @param socket    Socket del cliente
+     * @param processor Procesador de solicitudes compartido por todas las conexiones
+     */
+
+    public ConnectionHandler(Socket socket, RequestProcessor processor){
+        this(socket, processor, null, null);
+    }
+
+    /**
+     * Constructor con recepción por canales y pipelining.
+     *
+     * @param transfer copia de FASTA por canales; null para usar solo flujos
+     * @param pipeline pool (repartido por cliente) para ejecutar en paralelo las
+     *                 solicitudes binarias; null para ejecutarlas de a una en este hilo
      */
 
-    public ConnectionHandler(Socket socket, DiseaseDatabase diseaseDatabase,CsvManager csvManager){
+    public ConnectionHandler(Socket socket, RequestProcessor processor, ChannelTransfer transfer, FairScheduler pipeline){
         this.socket = socket;
-        this.diseaseDatabase = diseaseDatabase;
-        this.csvManager = csvManager; 
-        this.logManager = new LogManager("data/server.log");
+        this.processor = processor;
+        this.logManager = processor.getLogManager();
+        this.transfer = transfer;
+        this.pipeline = pipeline;
+        this.client = socket.getInetAddress().getHostAddress();
+        String mode = socket instanceof SSLSocket ? "text+tls" : "text";
+        this.stats = processor.getConnections().register(
+                String.valueOf(socket.getRemoteSocketAddress()), mode, socket::close);
+        this.channel = transfer != null && socket.getChannel() != null
+                ? stats.countChannel(socket.getChannel()) : null;
 
         try {
-            // Se crean los flujos de entrada/salida con codificación UTF-8
-            this.inputStream = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-            this.outputStream = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
-            
+            // Un solo flujo de entrada con buffer para líneas, tramas y bytes del FASTA
+            this.bufferedInput = new SocketInput(stats.countInput(socket.getInputStream()), IO_BUFFER_BYTES);
+            this.inputStream = new DataInputStream(bufferedInput);
+            this.rawOutput = new BufferedOutputStream(stats.countOutput(socket.getOutputStream()), IO_BUFFER_BYTES);
+            this.outputStream = new PrintWriter(new OutputStreamWriter(rawOutput, StandardCharsets.UTF_8), true);
+
             logManager.logInfo("Nueva conexión establecida con cliente: " + socket.getInetAddress());
         } catch (IOException e) {
             e.printStackTrace();
@@ -59,19 +133,44 @@ public class ConnectionHandler implements Runnable {
      * Método principal que se ejecuta en el hilo del cliente.
      * Se queda escuchando solicitudes hasta que el cliente cierre la conexión.
      */
-    
+
     @Override
     public void run() {
         try {
-            String request;
+            String request = readLine();
+
+            // Negociación del protocolo (solo como primera línea)
+            if (request != null && request.startsWith("PROTOCOL")) {
+                String compression = Frame.NEGOTIATION + " COMPRESSION ";
+                if (request.equals(Frame.NEGOTIATION) || request.startsWith(compression)) {
+                    String answer = "OK " + Frame.NEGOTIATION;
+                    if (request.startsWith(compression)) {
+                        codec = Compression.negotiate(request.substring(compression.length()));
+                        answer += " COMPRESSION " + codec;
+                    }
+                    outputStream.println(answer);
+                    logManager.logInfo("Protocolo binario negociado con " + socket.getInetAddress()
+                            + " (compresión: " + codec + ")");
+                    binary = true;
+                    stats.setMode(socket instanceof SSLSocket ? "binary+tls" : "binary");
+                    runBinary();
+                    return;
+                }
+                outputStream.println("ERROR 400 UNSUPPORTED_PROTOCOL");
+                request = readLine();
+            }
+
              // Lee continuamente las solicitudes del cliente
-            while ((request = inputStream.readLine()) != null) {
-                logManager.logInfo("Solicitud recibida: " + request);
+            while (request != null) {
                 processRequest(request);
+                request = readLine();
             }
         } catch (IOException e) {
-             logManager.logError("Error en handler: " + e.getMessage());
+            if (stats.getCloseReason() == null) {
+                logManager.logError("Error en handler: " + e.getMessage());
+            }
         } finally {
+            processor.getConnections().unregister(stats);
             try {
                // Cierra el socket al finalizar
                 socket.close();
@@ -84,359 +183,583 @@ public class ConnectionHandler implements Runnable {
 
     /**
     * Procesa las solicitudes que llegan desde el cliente.
-    * Cada solicitud se recibe como un String (request) y se analiza 
-    * para determinar qué operación del protocolo ejecutar.
-    * 
+    * Le asigna su ID de solicitud (así ya la lectura del FASTA queda en el log
+    * con él), termina de leerla (metadata y FASTA, si el comando los lleva)
+    * y la entrega al procesador.
+    *
     * @param request cadena con la solicitud enviada por el cliente.
     */
-    
-    public void processRequest(String request) {
-        // Crea paciente
-        if (request.startsWith("CREATE_PATIENT")) { // --> Crear un nuevo paciente (llama a handleCreatePatient)
-            logManager.logInfo("Procesando creación de paciente...");
-            handleCreatePatient();
-            
-         //Consultar paciente por ID    
-        } else if (request.startsWith("RETRIEVE_PATIENT")) { // --> Consultar un paciente por su ID.
-            String[] parts = request.split(" ");
-            if (parts.length == 2) {
-                logManager.logInfo("Consultando paciente ID: " + parts[1]);
-                handleRetrievePatient(parts[1]); // partes[1] es el ID
-            } else {
-                logManager.logError("Error 400: solicitud inválida en RETRIEVE_PATIENT");
-                outputStream.println("ERROR 400 BAD_REQUEST"); // El formato es inválido
-            }
-            
-        // Actualizar paciente
-        } else if (request.startsWith("UPDATE_PATIENT")) {  // --> Actualizar la información de un paciente existente.
-            logManager.logInfo("Actualización de paciente en proceso...");
-            handleUpdatePatient();  // Actualizar la información de un paciente existente
-           
-        // Eliminar paciente por el ID (borrado lógico)
-        } else if (request.startsWith("DELETE_PATIENT")) { // --> Eliminar (lógicamente) un paciente por su ID.
-            String[] parts = request.split(" ");
-            if (parts.length == 2) {
-                 logManager.logInfo("Eliminando paciente ID: " + parts[1]);
-                handleDeletePatient(parts[1]); // partes[1] es el ID.
-            } else {
-                logManager.logError("Error 400: solicitud inválida en DELETE_PATIENT");
-                outputStream.println("ERROR 400 BAD_REQUEST");
-            }
-            
-        // Comando no reconocido
-        } else {
-            logManager.logError("Comando desconocido recibido: " + request);
-            outputStream.println("ERROR 400 UNKNOWN_COMMAND");
+
+    public void processRequest(String request) throws IOException {
+        String requestId = LogContext.newRequestId();
+        LogContext.open(requestId, client);
+        logManager.logInfo("Solicitud recibida: " + request);
+        stats.setReading(true);
+        stats.requestStarted();
+        try {
+            Request complete = readRequest(request, requestId);
+            stats.setReading(false);
+            processor.process(complete, outputStream);
+        } finally {
+            stats.requestFinished();
+            LogContext.clear();
         }
     }
 
-     /**
-     * Crea un nuevo paciente a partir de la metadata y el archivo FASTA recibido.
-     * Valida formato, checksum, y almacena en el CSV.
+    /**
+     * Bucle del protocolo binario: una trama COMMAND abre cada solicitud y la
+     * respuesta vuelve en una trama RESPONSE con el mismo requestId.
+     * Una trama inesperada es un error de protocolo y cierra la conexión.
      */
-        private void handleCreatePatient() {
-            try {
-                logManager.logInfo("Iniciando creación de paciente...");
 
-                String line;
-                Patient patient = null;
-                String fastaChecksum = null;
-                long fastaSize = 0;
-
-                // Acumula la metadata recibida hasta "END_METADATA"
-                StringBuilder metadata = new StringBuilder();
-                while ((line = inputStream.readLine()) != null && !line.equals("END_METADATA")) {
-                    metadata.append(line).append("\n");
-
-                    if (line.startsWith("checksum_fasta:")) {
-                        fastaChecksum = line.split(":")[1].trim();
-                    }
-                    if (line.startsWith("file_size_bytes:")) {
-                        fastaSize = Long.parseLong(line.split(":")[1].trim());
-                    }
+    private void runBinary() throws IOException {
+        DataOutputStream out = new DataOutputStream(rawOutput);
+        KeyedSerialExecutor executor = pipeline != null ? new KeyedSerialExecutor(pipeline.forClient(client)) : null;
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        try {
+            while (FrameCodec.readHeader(inputStream, frame)) {
+                if (frame.getType() != Frame.TYPE_COMMAND) {
+                    throw new IOException("Se esperaba COMMAND y llegó " + frame);
                 }
-
-                // Validación del encabezado FASTA
-                String fastaHeader = inputStream.readLine();
-                if (fastaHeader == null || !fastaHeader.startsWith("START_FASTA")) {
-                    outputStream.println("ERROR 422 INVALID_FASTA_HEADER");
-                    logManager.logError("Fallo creación paciente: encabezado FASTA inválido.");
-                    return;
+                int requestId = frame.getRequestId();
+                stats.setReading(true);
+                String command = new String(FrameCodec.readPayload(inputStream, frame), StandardCharsets.UTF_8);
+                String logId = LogContext.newRequestId();
+                LogContext.open(logId, client);
+                logManager.logInfo("Solicitud recibida (#" + requestId + "): " + command);
+
+                stats.requestStarted();
+                Request request;
+                try {
+                    request = readRequest(command, logId);
+                } catch (IOException e) {
+                    stats.requestFinished();
+                    throw e;
+                } finally {
+                    LogContext.clear();
+                }
+                stats.setReading(false);
+                if (executor == null) {
+                    respond(out, requestId, request, false);
+                    continue;
                 }
 
-                long nbytes = Long.parseLong(fastaHeader.split(" ")[1]);
-                File patientFasta = new File("data/patient_" + System.currentTimeMillis() + ".fasta");
+                // Contrapresión: con MAX_IN_FLIGHT solicitudes pendientes se deja de leer
+                inFlight.acquireUninterruptibly();
+                try {
+                    executor.execute(request.getPatientKey(), () -> {
+                        try {
+                            respond(out, requestId, request, false);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }, () -> {
+                        // El pool ya no la aceptó (apagándose): 503 sin ejecutarla
+                        try {
+                            respond(out, requestId, request, true);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    respond(out, requestId, request, true);
+                    inFlight.release();
+                }
+            }
+        } finally {
+            // No cerrar el socket hasta que todas las respuestas pendientes se hayan escrito
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+        }
+    }
 
-                // Guardar archivo FASTA
-                try (FileOutputStream fos = new FileOutputStream(patientFasta)) {
-                    InputStream is = socket.getInputStream();
-                    byte[] buffer = new byte[4096];
-                    long remaining = nbytes;
+    /**
+     * Ejecuta (o rechaza con 503) una solicitud y escribe sus tramas RESPONSE.
+     * Puede llamarse desde varios hilos: la escritura de cada trama es atómica.
+     */
 
-                    while (remaining > 0) {
-                        int read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
-                        if (read == -1) break;
-                        fos.write(buffer, 0, read);
-                        remaining -= read;
-                    }
-                    fos.flush();
-                }
+    private void respond(DataOutputStream out, int requestId, Request request, boolean rejected) {
+        ResponseStream response = new ResponseStream(out, requestId);
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(response, StandardCharsets.UTF_8));
+        try {
+            if (rejected) {
+                processor.reject(request, writer);
+            } else {
+                processor.process(request, writer);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            writer.println("ERROR 500 SERVER_ERROR");
+        }
+        writer.flush();
+        try {
+            response.finish();
+        } catch (IOException e) {
+            logManager.logError("Error enviando respuesta #" + requestId + ": " + e.getMessage());
+        } finally {
+            stats.requestFinished();
+        }
+    }
 
-                // Validaciones
-                if (!FastaValidator.isValidFormat(patientFasta.getAbsolutePath())) {
-                    outputStream.println("ERROR 422 INVALID_FASTA");
-                    logManager.logError("Fallo creación paciente: archivo FASTA inválido.");
-                    return;
-                }
+    /**
+     * Respuesta de una solicitud en modo binario. Junta el texto hasta
+     * Frame.MAX_CONTROL_PAYLOAD bytes y lo envía como una trama RESPONSE con
+     * FLAG_MORE; finish envía el resto sin FLAG_MORE. Así una respuesta grande
+     * (LIST_PATIENTS, STATS, lotes) no supera el límite que aplica el cliente
+     * y tampoco queda entera en memoria.
+     */
 
-                String realChecksum = FastaValidator.calculateChecksum(patientFasta.getAbsolutePath());
-                if (fastaChecksum != null && !fastaChecksum.equals(realChecksum)) {
-                    outputStream.println("ERROR 422 CHECKSUM_MISMATCH");
-                    logManager.logError("Fallo creación paciente: checksum no coincide.");
-                    return;
-                }
+    private final class ResponseStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int requestId;
+        private final ByteArrayOutputStream piece = new ByteArrayOutputStream(256);
+        private IOException failure;   // Primer error de envío; después se descarta el resto
 
-                String documentID = null;
-                for (String metaLine : metadata.toString().split("\n")) {
-                    if (metaLine.startsWith("document_id:")) {
-                        documentID = metaLine.split(":")[1].trim();
-                        break;
-                    }
-                }
+        ResponseStream(DataOutputStream out, int requestId) {
+            this.out = out;
+            this.requestId = requestId;
+        }
 
-                if (documentID == null) {
-                    outputStream.println("ERROR 400 MISSING_DOCUMENT_ID");
-                    logManager.logError("Fallo creación paciente: falta document_id.");
-                    return;
-                }
+        @Override
+        public void write(int b) throws IOException {
+            piece.write(b);
+            if (piece.size() >= Frame.MAX_CONTROL_PAYLOAD) send(Frame.FLAG_MORE);
+        }
 
-                int patientId;
-                try {
-                    patientId = Integer.parseInt(documentID);
-                } catch (NumberFormatException e) {
-                    outputStream.println("ERROR 400 INVALID_DOCUMENT_ID");
-                    logManager.logError("Fallo creación paciente: document_id inválido.");
-                    return;
-                }
-                
-                // Validar duplicado de document_id
-                Patient existing = csvManager.getPatientById(documentID);
-                if (existing != null) {
-                    outputStream.println("ERROR 409 DUPLICATE_DOCUMENT_ID");
-                    logManager.logError("Fallo creación paciente: document_id duplicado (" + documentID + ")");
-                    return;
-                }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, Frame.MAX_CONTROL_PAYLOAD - piece.size());
+                piece.write(b, off, n);
+                off += n;
+                len -= n;
+                if (piece.size() >= Frame.MAX_CONTROL_PAYLOAD) send(Frame.FLAG_MORE);
+            }
+        }
 
+        /**
+         * Envía el último pedazo (puede estar vacío).
+         */
 
-                // Extraer más metadata
-                String fullName = null, ageStr = null, sex = null, email = null, notes = null;
-                for (String metaLine : metadata.toString().split("\n")) {
-                    if (metaLine.startsWith("full_name:")) fullName = metaLine.split(":")[1].trim();
-                    else if (metaLine.startsWith("age:")) ageStr = metaLine.split(":")[1].trim();
-                    else if (metaLine.startsWith("sex:")) sex = metaLine.split(":")[1].trim();
-                    else if (metaLine.startsWith("contact_email:")) email = metaLine.split(":")[1].trim();
-                    else if (metaLine.startsWith("clinical_notes:")) notes = metaLine.split(":")[1].trim();
-                }
+        void finish() throws IOException {
+            send(0);
+            if (failure != null) throw failure;
+        }
 
-                int age = 0;
+        private void send(int flags) {
+            if (failure == null) {
+                writeLock.lock();
                 try {
-                    age = Integer.parseInt(ageStr);
-                } catch (NumberFormatException e) {
-                    outputStream.println("ERROR 400 INVALID_AGE");
-                    logManager.logError("Fallo creación paciente: edad inválida.");
-                    return;
+                    FrameCodec.writeHeader(out, Frame.TYPE_RESPONSE, flags, requestId, piece.size());
+                    piece.writeTo(out);
+                    out.flush();
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    writeLock.unlock();
                 }
+            }
+            piece.reset();
+        }
+    }
 
-                patient = new Patient(fullName, documentID, age, sex, email,
-                        java.time.LocalDateTime.now(), notes, realChecksum, fastaSize);
-                patient.setPatientID(patientId);
+    /**
+     * Lee del socket el resto de la solicitud que empieza con la línea de comando dada.
+     * En texto la metadata son líneas hasta END_METADATA; en binario, tramas
+     * METADATA y FASTA_START/DATA con el mismo requestId.
+     *
+     * @param commandLine primera línea de la solicitud
+     * @param requestId   ID de la solicitud para el log
+     * @return solicitud completa, con el FASTA (si lo hay) ya guardado en un temporal
+     */
 
-                csvManager.appendPatient(patient);
-                outputStream.println("201 CREATED patient_id: " + patient.getPatientID());
-                logManager.logInfo("Paciente creado exitosamente con ID: " + patientId);
+    private Request readRequest(String commandLine, String requestId) throws IOException {
+        Request request = new Request(commandLine);
+        request.setClient(client);
+        request.setRequestId(requestId);
+        if (Request.isBatchCreate(commandLine)) {
+            readBatch(request);
+        } else if (Request.expectsMetadata(commandLine)) {
+            readItem(request, request);
+        } else if (Request.expectsChunk(commandLine)) {
+            readChunk(request);
+        }
+        return request;
+    }
 
-                // Detectar enfermedades
-                List<DetectionReport> reports = detectDiseases(patient, patientFasta.getAbsolutePath());
-                for (DetectionReport r : reports) {
-                    csvManager.appendReport(r);
-                    outputStream.println("DETECTION " + r.toString());
-                }
+    /**
+     * Lee los n pacientes de "CREATE_PATIENTS n". Si el lote no es válido o no hay
+     * capacidad, los pacientes se leen igual (y sus FASTA se descartan) para no
+     * perder el hilo del protocolo; el procesador responde el rechazo.
+     */
 
-            } catch (IOException e) {
-                e.printStackTrace();
-                logManager.logError("Error en creación de paciente: " + e.getMessage());
-                outputStream.println("ERROR 500 SERVER_ERROR");
+    private void readBatch(Request batch) throws IOException {
+        int n = batch.getBatchSize();
+        if (n < 0) {
+            batch.setRejection("ERROR 400 BAD_REQUEST");
+            return;
+        }
+        if (n > Request.MAX_BATCH_ITEMS) {
+            batch.setRejection("ERROR 413 BATCH_TOO_LARGE max_items:" + Request.MAX_BATCH_ITEMS);
+        }
+        try {
+            for (int i = 0; i < n; i++) {
+                Request item = new Request("CREATE_PATIENT");
+                batch.addItem(item);
+                readItem(batch, item);
             }
+        } catch (IOException e) {
+            // Lote cortado: no llega al procesador, así que se limpia aquí
+            batch.releasePermit();
+            processor.deleteUpload(batch);
+            throw e;
         }
-   
-        /**
-        * Actualiza la información de un paciente existente.
-        * Permite modificar metadata (nombre, edad, sexo, email, notas) 
-        * y opcionalmente reemplazar su archivo FASTA.
-        */
+    }
 
-        private void handleUpdatePatient() {
-            try {
-                logManager.logInfo("Iniciando actualización de paciente...");
-
-                String line;
-                String patientId = null;
-                Map<String, String> updates = new HashMap<>();
-                long fastaSize = 0;
-
-                while ((line = inputStream.readLine()) != null && !line.equals("END_METADATA")) {
-                    if (line.startsWith("patient_id:")) 
-                        patientId = line.split(":")[1].trim();
-                    else if (line.startsWith("file_size_bytes:")) 
-                        fastaSize = Long.parseLong(line.split(":")[1].trim());
-                    else {
-                        String[] parts = line.split(":");
-                        if (parts.length == 2) updates.put(parts[0].trim(), parts[1].trim());
-                    }
-                }
+    /**
+     * Lee "UPLOAD_CHUNK id n crc32c" y sus bytes, que se escriben directo en su
+     * posición del archivo de la sesión. Si la sesión o el pedazo no son válidos,
+     * o no hay capacidad, los bytes se descartan y el procesador responde el error.
+     */
 
-                if (patientId == null) {
-                    outputStream.println("ERROR 400 MISSING_PATIENT_ID");
-                    logManager.logError("Fallo actualización: falta patient_id.");
-                    return;
-                }
+    private void readChunk(Request request) throws IOException {
+        long nbytes = readFastaHeader(request);
+        if (nbytes < 0) return;
+        long rawBytes = Request.parseFastaRawLength(request.getFastaHeader());
+        if (!processor.getAdmission().admitFasta(request, rawBytes)) {
+            receive(Channels.newChannel(OutputStream.nullOutputStream()), nbytes);
+            return;
+        }
+        UploadSession.ChunkWriter chunk = processor.openChunk(request, rawBytes);
+        if (chunk == null) {
+            receive(Channels.newChannel(OutputStream.nullOutputStream()), nbytes);
+            return;
+        }
+        try {
+            receiveBody(request, chunk, nbytes);
+        } catch (IOException e) {
+            request.releasePermit();
+            throw e;
+        }
+        if (request.getRejection() == null) request.setChunk(chunk);
+    }
 
-                Patient p = csvManager.getPatientById(patientId);
-                if (p == null) {
-                    outputStream.println("ERROR 404 NOT_FOUND");
-                    logManager.logError("Fallo actualización: paciente no encontrado (ID " + patientId + ")");
-                    return;
-                }
+    /**
+     * Lee el encabezado del FASTA (línea START_FASTA o trama FASTA_START).
+     * Una trama con FLAG_COMPRESSED se anota como "START_FASTA max codec m", con
+     * max el tope de bytes comprimidos (las tramas DATA terminan antes, en FLAG_END).
+     *
+     * @return bytes anunciados en la red, o -1 si el encabezado de texto es inválido
+     */
 
-                for (Map.Entry<String, String> entry : updates.entrySet()) {
-                    String k = entry.getKey();
-                    String v = entry.getValue();
-                    switch (k) {
-                        case "full_name": p.setFullName(v); break;
-                        case "age": p.setAge(Integer.parseInt(v)); break;
-                        case "sex": p.setSex(v); break;
-                        case "contact_email": p.setContactEmail(v); break;
-                        case "clinical_notes": p.setClinicalNotes(v); break;
-                    }
-                }
+    private long readFastaHeader(Request item) throws IOException {
+        if (binary) {
+            nextFrame(Frame.TYPE_FASTA_START, frame.getRequestId());
+            boolean compressed = (frame.getFlags() & Frame.FLAG_COMPRESSED) != 0;
+            long nbytes = FrameCodec.decodeLength(FrameCodec.readPayload(inputStream, frame));
+            if (!compressed) {
+                item.setFastaHeader("START_FASTA " + nbytes);
+                return nbytes;
+            }
+            if (codec.equals(Compression.IDENTITY)) {
+                throw new IOException("FASTA comprimido sin haber negociado compresión: " + frame);
+            }
+            long maxBytes = Compression.maxCompressedBytes(nbytes);
+            item.setFastaHeader("START_FASTA " + maxBytes + " " + codec + " " + nbytes);
+            return maxBytes;
+        }
+        String fastaHeader = readLine();
+        item.setFastaHeader(fastaHeader);
+        return Request.parseFastaLength(fastaHeader);
+    }
 
-                if (fastaSize > 0) {
-                    String fastaHeader = inputStream.readLine();
-                    if (fastaHeader == null || !fastaHeader.startsWith("START_FASTA")) {
-                        outputStream.println("ERROR 422 INVALID_FASTA_HEADER");
-                        logManager.logError("Fallo actualización: encabezado FASTA inválido.");
-                        return;
-                    }
-                    long nbytes = Long.parseLong(fastaHeader.split(" ")[1]);
-                    File patientFasta = new File("data/patient_" + patientId + "_updated.fasta");
-                    try (FileOutputStream fos = new FileOutputStream(patientFasta)) {
-                        InputStream is = socket.getInputStream();
-                        byte[] buffer = new byte[4096];
-                        long remaining = nbytes;
-                        while (remaining > 0) {
-                            int read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
-                            if (read == -1) break;
-                            fos.write(buffer, 0, read);
-                            remaining -= read;
-                        }
-                        fos.flush();
-                    }
+    /**
+     * Lee la metadata y el FASTA (si corresponde) de una solicitud o de un paciente de un lote.
+     *
+     * @param owner solicitud que tiene el permiso de admisión (la misma o el lote)
+     * @param item  solicitud donde se guardan la metadata y el FASTA
+     */
 
-                    if (!FastaValidator.isValidFormat(patientFasta.getAbsolutePath())) {
-                        outputStream.println("ERROR 422 INVALID_FASTA");
-                        logManager.logError("Fallo actualización: archivo FASTA inválido.");
-                        return;
-                    }
+    private void readItem(Request owner, Request item) throws IOException {
+        if (binary) {
+            nextFrame(Frame.TYPE_METADATA, frame.getRequestId());
+            FrameCodec.decodeMetadata(FrameCodec.readPayload(inputStream, frame), item::putMetadata);
+        } else {
+            // Acumula la metadata recibida hasta "END_METADATA"
+            String line;
+            while ((line = readLine()) != null && !line.equals("END_METADATA")) {
+                item.addMetadataLine(line);
+            }
+        }
 
-                    String realChecksum = FastaValidator.calculateChecksum(patientFasta.getAbsolutePath());
-                    p.setChecksumFasta(realChecksum);
-                    p.setFileSizeBytes(fastaSize);
-                }
+        if (item.expectsFasta()) {
+            long nbytes = readFastaHeader(item);
+            if (nbytes >= 0) {
+                admitAndReceive(owner, item, nbytes);
+            }
+        }
+    }
 
-                csvManager.updatePatient(p);
-                outputStream.println("OK patient updated");
-                logManager.logInfo("Paciente actualizado exitosamente: ID " + patientId);
+    /**
+     * Lee el siguiente encabezado y verifica que sea del tipo y la solicitud esperados.
+     */
 
-            } catch (IOException e) {
-                e.printStackTrace();
-                logManager.logError("Error en actualización de paciente: " + e.getMessage());
-                outputStream.println("ERROR 500 SERVER_ERROR");
-            }
+    private void nextFrame(int type, int requestId) throws IOException {
+        if (!FrameCodec.readHeader(inputStream, frame)) {
+            throw new EOFException("Conexión cerrada esperando " + Frame.typeName(type));
+        }
+        if (frame.getType() != type || frame.getRequestId() != requestId) {
+            throw new IOException("Se esperaba " + Frame.typeName(type) + " #" + requestId + " y llegó " + frame);
         }
+    }
 
-        
-     /**
-     * Elimina (desactiva) un paciente del sistema según su ID.
+    /**
+     * Pide permiso de subida antes de recibir el FASTA. Si no hay capacidad,
+     * descarta los bytes (para no perder el hilo del protocolo) y deja la
+     * solicitud marcada como rechazada; el procesador responde sin ejecutarla.
      */
 
-    private void handleDeletePatient(String patientId) {
+    private void admitAndReceive(Request owner, Request item, long nbytes) throws IOException {
+        if (!processor.getAdmission().admitFasta(owner, Request.parseFastaRawLength(item.getFastaHeader()))) {
+            receive(Channels.newChannel(OutputStream.nullOutputStream()), nbytes);
+            return;
+        }
         try {
-            Patient p = csvManager.getPatientById(patientId);
-            if (p != null) {
-                csvManager.deactivatePatient(patientId);
-                outputStream.println("OK patient deleted");
-                logManager.logInfo("Paciente eliminado lógicamente: ID " + patientId);
+            receiveFasta(item, nbytes);
+        } catch (IOException e) {
+            owner.releasePermit();
+            throw e;
+        }
+    }
+
+    /**
+     * Guarda en un archivo temporal los bytes del FASTA que siguen al encabezado.
+     * Si el cliente corta antes de enviarlos todos, el temporal se borra y la
+     * solicitud no se procesa (se informa como error de lectura).
+     */
+
+    private void receiveFasta(Request request, long nbytes) throws IOException {
+        Path upload = processor.newUploadFile();
+        request.setFastaFile(upload);
+        request.setFastaBytesExpected(Request.parseFastaRawLength(request.getFastaHeader()));
+
+        try (FileChannel file = FileChannel.open(upload, StandardOpenOption.WRITE)) {
+            request.setFastaBytesReceived(receiveBody(request, file, nbytes));
+        } catch (IOException e) {
+            Files.deleteIfExists(upload);
+            throw e;
+        }
+    }
+
+    /**
+     * Recibe en el destino el cuerpo anunciado por el encabezado del FASTA,
+     * descomprimiéndolo si vino comprimido. Si los datos comprimidos no son
+     * válidos la solicitud queda rechazada con 422; como los bytes ya se leyeron,
+     * la conexión sigue.
+     *
+     * @return bytes sin comprimir escritos en el destino
+     * @throws EOFException si el cliente cortó antes de enviarlo completo
+     */
+
+    private long receiveBody(Request item, WritableByteChannel target, long nbytes) throws IOException {
+        FastaReceiveEvent event = new FastaReceiveEvent();
+        event.begin();
+        long received = decodeBody(item, target, nbytes);
+        String bodyCodec = Request.parseFastaCodec(item.getFastaHeader());
+        event.finish(item.getRequestId(), (binary ? "binary" : "text") + (socket instanceof SSLSocket ? "+tls" : ""), client,
+                bodyCodec == null ? Compression.IDENTITY : bodyCodec, received);
+        return received;
+    }
+
+    private long decodeBody(Request item, WritableByteChannel target, long nbytes) throws IOException {
+        String bodyCodec = Request.parseFastaCodec(item.getFastaHeader());
+        if (bodyCodec == null) {
+            long received = receive(target, nbytes);
+            if (received < nbytes) {
+                throw new EOFException("FASTA cortado: llegaron " + received + " de " + nbytes + " bytes");
+            }
+            return received;
+        }
+
+        try (Compression.Decoder decoder = Compression.decoder(bodyCodec, target,
+                Request.parseFastaRawLength(item.getFastaHeader()))) {
+            long received = receive(decoder, nbytes);
+            // En binario las tramas terminan en FLAG_END; nbytes es solo un tope
+            if (!binary && received < nbytes) {
+                throw new EOFException("FASTA cortado: llegaron " + received + " de " + nbytes + " bytes");
+            }
+            String error = decoder.finish();
+            if (error != null) {
+                logManager.logError("FASTA comprimido rechazado (" + item.getCommandLine() + "): " + error);
+                item.setRejection("ERROR 422 INVALID_COMPRESSED_FASTA");
             } else {
-                outputStream.println("ERROR 404 NOT_FOUND");
-                logManager.logError("Fallo eliminación: paciente no encontrado (ID " + patientId + ")");
+                processor.recordCompression(bodyCodec, decoder.getCompressedBytes(), decoder.getRawBytes());
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            logManager.logError("Error en eliminación de paciente: " + e.getMessage());
-            outputStream.println("ERROR 500 SERVER_ERROR");
+            return decoder.getRawBytes();
         }
     }
 
+    /**
+     * Copia hasta nbytes del FASTA al destino.
+     * En texto son bytes crudos; en binario, tramas DATA hasta completar el tamaño
+     * anunciado o hasta la trama marcada como última.
+     *
+     * @return bytes realmente recibidos
+     */
 
+    private long receive(WritableByteChannel target, long nbytes) throws IOException {
+        if (!binary) {
+            return copyBody(target, nbytes);
+        }
+
+        long received = 0;
+        int requestId = frame.getRequestId();
+        while (received < nbytes) {
+            nextFrame(Frame.TYPE_DATA, requestId);
+            int length = frame.getLength();
+            if (received + length > nbytes) {
+                throw new IOException("El FASTA #" + requestId + " supera los " + nbytes + " bytes anunciados");
+            }
+            if (copyBody(target, length) < length) {
+                throw new EOFException("Trama " + frame + " cortada");
+            }
+            received += length;
+            if (frame.isEnd()) break;
+        }
+        return received;
+    }
 
     /**
-     * Recupera la información de un paciente por su ID.
+     * Copia count bytes del cliente al destino: primero lo que ya quedó en el
+     * buffer de entrada y después, si hay canal, directo del SocketChannel.
+     *
+     * @return bytes copiados; menos que count si el cliente cerró antes
      */
-    
-    private void handleRetrievePatient(String patientId) {
-        Patient p = csvManager.getPatientById(patientId);
-        if (p != null) {
-            outputStream.println("OK\n" + p.toString());
-            logManager.logInfo("Paciente consultado: ID " + patientId);
-        } else {
-            outputStream.println("ERROR 404 NOT_FOUND");
-            logManager.logError("Fallo consulta: paciente no encontrado (ID " + patientId + ")");
+
+    private long copyBody(WritableByteChannel target, long count) throws IOException {
+        long copied = bufferedInput.drainTo(target, count);
+        if (copied == count) return copied;
+
+        if (channel != null) {
+            return copied + transfer.copy(channel, target, count - copied);
+        }
+
+        while (copied < count) {
+            int read = inputStream.read(copyBuffer, 0, (int) Math.min(copyBuffer.length, count - copied));
+            if (read == -1) break;
+            ByteBuffer chunk = ByteBuffer.wrap(copyBuffer, 0, read);
+            while (chunk.hasRemaining()) {
+                target.write(chunk);
+            }
+            copied += read;
         }
+        return copied;
     }
 
+    /**
+     * Lee una línea de texto (UTF-8, sin "\r\n") del mismo flujo con buffer
+     * de donde salen los bytes del FASTA.
+     *
+     * @return la línea, o null si el cliente cerró la conexión
+     */
+
+    private String readLine() throws IOException {
+        lineBuffer.reset();
+        int b;
+        while ((b = inputStream.read()) != -1 && b != '\n') {
+            lineBuffer.write(b);
+            if (lineBuffer.size() > MAX_LINE_BYTES) {
+                throw new IOException("Línea demasiado larga (más de " + MAX_LINE_BYTES + " bytes)");
+            }
+        }
+        if (b == -1 && lineBuffer.size() == 0) return null;
+
+        String line = lineBuffer.toString(StandardCharsets.UTF_8);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
 
     /**
-     * Compara la secuencia genética de un paciente contra todas las enfermedades
-     * almacenadas en la base de datos.
-     * @param patient
-     * @param fastaFilePath
-     * @return 
+     * Flujo de entrada con buffer que deja vaciar su buffer a un canal, para
+     * poder seguir leyendo directo del SocketChannel sin perder bytes ya leídos.
+     *
+     * No extiende BufferedInputStream porque sus read y fill son synchronized:
+     * en JDK 17-20 un hilo virtual bloqueado leyendo el socket (o escribiendo el
+     * FASTA al disco en drainTo) dentro de un monitor queda fijado a su hilo
+     * portador. Aquí no hace falta candado: el flujo lo lee un solo hilo, el de
+     * la conexión.
      */
 
-    public List<DetectionReport> detectDiseases(Patient patient, String fastaFilePath) {
-        List<DetectionReport> reports = new ArrayList<>();
+    private static class SocketInput extends InputStream {
+        private final InputStream in;
+        private final byte[] buf;
+        private int pos;     // Próximo byte a entregar
+        private int count;   // Bytes válidos en buf
 
-        try {
-            
-            // Leer y normalizar la secuencia genética del paciente
-            String content = new String(Files.readAllBytes(new File(fastaFilePath).toPath()));
-            String sequence = FastaValidator.normalize(content);
-
-            //  Comparar contra todas las enfermedades registradas
-            for (Disease d : diseaseDatabase.getAll()) {
-                if (sequence.contains(d.getSequence())) {
-                    reports.add(new DetectionReport(
-                            String.valueOf(patient.getPatientID()),
-                            d.getDiseaseId(),
-                            d.getSeverity(),
-                            "Coincidencia encontrada con " + d.getName()
-                    ));
-                }
+        SocketInput(InputStream in, int size) {
+            this.in = in;
+            this.buf = new byte[size];
+        }
+
+        /**
+         * Rellena el buffer con una lectura del socket.
+         *
+         * @return false si el cliente cerró la conexión
+         */
+
+        private boolean fill() throws IOException {
+            int read = in.read(buf, 0, buf.length);
+            if (read <= 0) return false;
+            pos = 0;
+            count = read;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= count && !fill()) return -1;
+            return buf[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            int available = count - pos;
+            if (available <= 0) {
+                // Lecturas grandes van directo al destino, sin pasar por el buffer
+                if (len >= buf.length) return in.read(b, off, len);
+                if (!fill()) return -1;
+                available = count;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            int n = Math.min(available, len);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (count - pos) + in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
         }
 
-        return reports;
+        /**
+         * Escribe en el destino hasta max bytes que ya estén en el buffer.
+         *
+         * @return bytes escritos
+         */
+
+        long drainTo(WritableByteChannel target, long max) throws IOException {
+            int n = (int) Math.min(max, count - pos);
+            if (n <= 0) return 0;
+            ByteBuffer chunk = ByteBuffer.wrap(buf, pos, n);
+            while (chunk.hasRemaining()) {
+                target.write(chunk);
+            }
+            pos += n;
+            return n;
+        }
     }
 }
@@ -0,0 +1,383 @@
+package Server;
+
+import Logging.LogManager;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clase ConnectionRegistry
+ * ----------------------
+ * Registro de las conexiones abiertas (de los dos modos) con lo que consume
+ * cada una: bytes recibidos y enviados, solicitudes, edad y última actividad.
+ * El comando "CONNECTIONS clave" (solo administración) lo muestra.
+ *
+ * Un hilo revisa el registro cada "connection.reap_interval_ms" (1000) y cierra:
+ * - Las conexiones sin solicitudes en curso ni actividad por más de
+ *   "connection.idle_timeout_ms" (10 min). Los clientes que quieren mantenerla
+ *   abierta envían PING (responde PONG).
+ * - Las que dejaron una solicitud a medio enviar por más de
+ *   "connection.read_timeout_ms" (60 s): un cliente caído a mitad de un FASTA
+ *   retiene un hilo, un temporal y su permiso de subida.
+ * - Si hay más de "connection.high_water" conexiones abiertas (por defecto el 90%
+ *   de admission.max_connections), las inactivas usadas hace más tiempo (LRU),
+ *   hasta volver a ese número. Lo mismo, de a una, cada vez que se rechaza una
+ *   conexión por falta de lugar: el cliente la encuentra al reintentar.
+ * Con 0 un tiempo límite queda desactivado.
+ *
+ * Las conexiones con solicitudes ejecutándose nunca se cierran por inactividad.
+ */
+
+public class ConnectionRegistry {
+    private final Map<Long, Connection> connections = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final long idleTimeoutMs;
+    private final long readTimeoutMs;
+    private final long reapIntervalMs;
+    private final int highWater;
+    private final LogManager logManager;
+    private final AtomicLong reapedIdle = new AtomicLong();
+    private final AtomicLong reapedStalled = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private ScheduledExecutorService reaper;
+
+    /**
+     * @param maxConnections límite de conexiones del control de admisión
+     */
+
+    public ConnectionRegistry(ServerConfig config, int maxConnections, LogManager logManager) {
+        this.idleTimeoutMs = config.getLong("connection.idle_timeout_ms", 10 * 60 * 1000);
+        this.readTimeoutMs = config.getLong("connection.read_timeout_ms", 60 * 1000);
+        this.reapIntervalMs = Math.max(10, config.getLong("connection.reap_interval_ms", 1000));
+        this.highWater = config.getInt("connection.high_water", Math.max(1, maxConnections * 9 / 10));
+        this.logManager = logManager;
+    }
+
+    /**
+     * Arranca el hilo que cierra las conexiones inactivas o trabadas.
+     */
+
+    public synchronized void start() {
+        if (reaper != null) return;
+        reaper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "connection-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::reap, reapIntervalMs, reapIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Agrega una conexión al registro.
+     *
+     * @param remote dirección del cliente
+     * @param mode   "text", "binary" o "nio" (se puede cambiar después)
+     * @param closer cómo cerrarla desde otro hilo
+     */
+
+    public Connection register(String remote, String mode, Closeable closer) {
+        Connection connection = new Connection(nextId.incrementAndGet(), remote, mode, closer);
+        connections.put(connection.id, connection);
+        return connection;
+    }
+
+    public void unregister(Connection connection) {
+        connections.remove(connection.id);
+    }
+
+    /**
+     * Conexiones abiertas, ordenadas por id.
+     */
+
+    public List<Connection> list() {
+        List<Connection> list = new ArrayList<>(connections.values());
+        list.sort(Comparator.comparingLong(c -> c.id));
+        return list;
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    /**
+     * Revisión periódica: tiempos límite y exceso de conexiones.
+     */
+
+    void reap() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : connections.values()) {
+            long quiet = now - connection.lastActivity;
+            if (connection.reading) {
+                if (readTimeoutMs > 0 && quiet > readTimeoutMs) {
+                    reapedStalled.incrementAndGet();
+                    connection.close("solicitud incompleta por " + quiet + " ms");
+                }
+            } else if (connection.isIdle() && idleTimeoutMs > 0 && quiet > idleTimeoutMs) {
+                reapedIdle.incrementAndGet();
+                connection.close("inactiva por " + quiet + " ms");
+            }
+        }
+        int excess = connections.size() - highWater;
+        if (excess > 0) evictIdle(excess);
+    }
+
+    /**
+     * Cierra todas las conexiones sin solicitudes en curso (al apagar el servidor).
+     */
+
+    public void closeIdle(String reason) {
+        for (Connection connection : connections.values()) {
+            if (connection.isIdle()) connection.close(reason);
+        }
+    }
+
+    /**
+     * Cierra todas las conexiones, estén o no en medio de una solicitud.
+     *
+     * @return cuántas había abiertas
+     */
+
+    public int closeAll(String reason) {
+        int count = 0;
+        for (Connection connection : connections.values()) {
+            connection.close(reason);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Detiene el hilo de revisión.
+     */
+
+    public synchronized void stop() {
+        if (reaper != null) reaper.shutdownNow();
+    }
+
+    /**
+     * Cierra las "count" conexiones inactivas usadas hace más tiempo.
+     *
+     * @return cuántas cerró
+     */
+
+    public int evictIdle(int count) {
+        List<Connection> idle = new ArrayList<>();
+        for (Connection connection : connections.values()) {
+            if (connection.isIdle() && connection.closeReason == null) idle.add(connection);
+        }
+        idle.sort(Comparator.comparingLong(c -> c.lastActivity));
+        int closed = 0;
+        for (Connection connection : idle) {
+            if (closed == count) break;
+            evicted.incrementAndGet();
+            connection.close("la menos usada con " + connections.size() + " conexiones abiertas");
+            closed++;
+        }
+        return closed;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public long getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public long getReapedIdle() {
+        return reapedIdle.get();
+    }
+
+    public long getReapedStalled() {
+        return reapedStalled.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * Una conexión registrada y sus contadores. Los actualiza el hilo (o bucle de
+     * E/S) de la conexión; el resto solo los lee.
+     */
+
+    public class Connection {
+        private final long id;
+        private final String remote;
+        private final long openedAt = System.currentTimeMillis();
+        private final Closeable closer;
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile String mode;
+        private volatile long lastActivity = openedAt;
+        private volatile boolean reading;          // Hay una solicitud a medio recibir
+        private volatile String closeReason;       // Por qué la cerró el servidor, o null
+
+        Connection(long id, String remote, String mode, Closeable closer) {
+            this.id = id;
+            this.remote = remote;
+            this.mode = mode;
+            this.closer = closer;
+        }
+
+        public void onRead(long n) {
+            bytesIn.addAndGet(n);
+            lastActivity = System.currentTimeMillis();
+        }
+
+        public void onWrite(long n) {
+            bytesOut.addAndGet(n);
+            lastActivity = System.currentTimeMillis();
+        }
+
+        /**
+         * Marca si hay una solicitud a medio recibir (se le aplica read_timeout_ms
+         * en lugar de idle_timeout_ms).
+         */
+
+        public void setReading(boolean reading) {
+            this.reading = reading;
+            lastActivity = System.currentTimeMillis();
+        }
+
+        /**
+         * Una solicitud más, en curso hasta requestFinished.
+         */
+
+        public void requestStarted() {
+            requests.incrementAndGet();
+            inFlight.incrementAndGet();
+        }
+
+        public void requestFinished() {
+            inFlight.decrementAndGet();
+            lastActivity = System.currentTimeMillis();
+        }
+
+        public void setMode(String mode) {
+            this.mode = mode;
+        }
+
+        boolean isIdle() {
+            return !reading && inFlight.get() == 0;
+        }
+
+        /**
+         * Cierra la conexión desde el servidor (el hilo de la conexión ve el socket cerrado).
+         */
+
+        void close(String reason) {
+            if (closeReason != null) return;
+            closeReason = reason;
+            logManager.logInfo("Cerrando conexión #" + id + " con " + remote + ": " + reason);
+            try {
+                closer.close();
+            } catch (IOException e) {
+                // ya estaba cerrada
+            }
+        }
+
+        /**
+         * Motivo si la cerró el servidor (inactividad, LRU), o null.
+         */
+
+        public String getCloseReason() {
+            return closeReason;
+        }
+
+        /**
+         * Flujo de entrada que cuenta los bytes leídos del socket.
+         */
+
+        public InputStream countInput(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b != -1) onRead(1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = in.read(b, off, len);
+                    if (n > 0) onRead(n);
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * Flujo de salida que cuenta los bytes escritos al socket.
+         */
+
+        public OutputStream countOutput(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    onWrite(1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    onWrite(len);
+                }
+            };
+        }
+
+        /**
+         * Canal que cuenta los bytes leídos (recepción de FASTA por ChannelTransfer).
+         */
+
+        public ReadableByteChannel countChannel(ReadableByteChannel channel) {
+            return new ReadableByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    int n = channel.read(dst);
+                    if (n > 0) onRead(n);
+                    return n;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return channel.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        }
+
+        /**
+         * Una línea de CONNECTIONS.
+         */
+
+        public String describe(long now) {
+            return "CONNECTION id:" + id + " remote:" + remote + " mode:" + mode
+                    + " age_ms:" + (now - openedAt) + " idle_ms:" + Math.max(0, now - lastActivity)
+                    + " requests:" + requests.get() + " in_flight:" + inFlight.get()
+                    + " reading:" + reading + " bytes_in:" + bytesIn.get() + " bytes_out:" + bytesOut.get();
+        }
+    }
+}
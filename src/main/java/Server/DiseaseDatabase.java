@@ -1,6 +1,7 @@
 package Server;
 
 
+import Diagnostics.DiseaseReloadEvent;
 import Model.Disease;
 import java.io.*;
 import java.nio.file.*;
@@ -20,6 +21,8 @@ public class DiseaseDatabase {
      */
     
     public void loadDiseases(String folderPath) {
+        DiseaseReloadEvent event = new DiseaseReloadEvent();
+        event.begin();
         diseases.clear();
 
         try {
@@ -33,6 +36,12 @@ public class DiseaseDatabase {
         } catch (IOException e) {
             System.err.println("Error cargando enfermedades: " + e.getMessage());
         }
+
+        long totalBases = 0;
+        for (Disease d : diseases) {
+            totalBases += d.getSequence().length();
+        }
+        event.finish(folderPath, diseases.size(), totalBases);
     }
 
     /**
@@ -0,0 +1,86 @@
+package Server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clase ExecutorFactory
+ * ----------------------
+ * Crea el ExecutorService que atiende las conexiones según el modo configurado
+ * en "server.executor":
+ * - "platform" (por defecto): un hilo del sistema operativo por cliente, con un máximo
+ *   de hilos y una cola acotada; si ambos se llenan, execute lanza RejectedExecutionException.
+ * - "virtual": un hilo virtual por cliente (Executors.newVirtualThreadPerTaskExecutor).
+ *   No necesita tope propio: las conexiones ya se limitan en AdmissionController.
+ *
+ * Los hilos virtuales existen desde Java 21. El proyecto compila para Java 17,
+ * así que el método se busca por reflexión; si la JVM no lo tiene se avisa y
+ * se usan hilos de plataforma.
+ */
+
+public class ExecutorFactory {
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    private ExecutorFactory() {
+    }
+
+    /**
+     * Crea el ejecutor de conexiones para el modo pedido.
+     *
+     * @param mode       "platform" o "virtual"
+     * @param maxThreads máximo de hilos de plataforma
+     * @param queueSize  conexiones que pueden esperar un hilo libre (0 = ninguna)
+     * @return ejecutor listo para recibir un Runnable por cliente
+     */
+
+    public static ExecutorService newConnectionExecutor(String mode, int maxThreads, int queueSize) {
+        if (VIRTUAL.equalsIgnoreCase(mode)) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) return virtual;
+            System.err.println("Esta JVM (" + Runtime.version() + ") no soporta hilos virtuales; se usan hilos de plataforma.");
+        }
+        return newBoundedExecutor(maxThreads, queueSize);
+    }
+
+    /**
+     * Pool de hilos de plataforma acotado: crea hilos hasta maxThreads, después encola
+     * hasta queueSize tareas y a partir de ahí rechaza. Los hilos ociosos se liberan a los 60 s.
+     */
+
+    public static ThreadPoolExecutor newBoundedExecutor(int maxThreads, int queueSize) {
+        int threads = Math.max(1, maxThreads);
+        BlockingQueue<Runnable> queue = queueSize > 0
+                ? new ArrayBlockingQueue<>(queueSize)
+                : new SynchronousQueue<>();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Indica si la JVM actual puede crear hilos virtuales.
+     */
+
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package Server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clase FairScheduler
+ * ----------------------
+ * Reparte un pool compartido entre clientes: cada cliente tiene su propia cola y
+ * las tareas se pasan al pool por turnos (deficit round robin), con un costo por
+ * tarea. Así un cliente con cien subidas encoladas no hace esperar a la consulta
+ * de otro: la consulta sale en el próximo turno.
+ *
+ * - Como mucho "maxRunning" tareas en el pool a la vez (su cantidad de hilos);
+ *   el resto espera aquí, hasta "maxQueued" en total (después, RejectedExecutionException).
+ * - Un cliente no ocupa más de la mitad de los lugares si otro está esperando;
+ *   si está solo, puede usarlos todos.
+ * - El costo de una tarea es 1 más un punto por MB de FASTA: entre dos clientes
+ *   que suben, el de archivos chicos no espera detrás de los grandes.
+ *
+ * Lo usan NioServer (pool de trabajadores) y las solicitudes en pipeline del
+ * protocolo binario. El cliente es la dirección IP, como en RateLimiter.
+ *
+ * Cada tarea trae su acción de rechazo: si al llegarle el turno el pool no la
+ * acepta (ej: se está apagando), se ejecuta esa acción (responder 503) y no la
+ * tarea. Así una tarea nunca corre en el hilo que la despacha, que puede ser
+ * el de un bucle de E/S.
+ */
+
+public class FairScheduler {
+    private static final long BYTES_PER_COST = 1024 * 1024;
+
+    private final Executor delegate;
+    private final int maxRunning;
+    private final int maxPerClient;
+    private final int maxQueued;
+    private final Map<String, ClientQueue> clients = new HashMap<>();   // Clientes con tareas en cola o corriendo
+    private final ArrayDeque<ClientQueue> ring = new ArrayDeque<>();    // Clientes con tareas en cola, por turno
+    private int running;
+    private int queued;
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();   // Tareas que tuvieron que esperar turno
+
+    /**
+     * @param delegate   pool que ejecuta las tareas
+     * @param maxRunning tareas en el pool a la vez (normalmente, sus hilos)
+     * @param maxQueued  tareas que pueden esperar turno en total
+     */
+
+    public FairScheduler(Executor delegate, int maxRunning, int maxQueued) {
+        this.delegate = delegate;
+        this.maxRunning = Math.max(1, maxRunning);
+        this.maxPerClient = Math.max(1, this.maxRunning / 2);
+        this.maxQueued = Math.max(1, maxQueued);
+    }
+
+    /**
+     * Costo de una solicitud para el reparto: 1, más uno por MB de FASTA.
+     */
+
+    public static long costOf(Request request) {
+        long bytes = Math.max(0, request.getFastaBytesReceived());
+        for (Request item : request.getItems()) {
+            bytes += Math.max(0, item.getFastaBytesReceived());
+        }
+        return 1 + bytes / BYTES_PER_COST;
+    }
+
+    /**
+     * Destino de tareas con acción de rechazo (ver execute).
+     */
+
+    @FunctionalInterface
+    public interface Submitter {
+        void execute(Runnable task, Runnable onRejected);
+    }
+
+    /**
+     * Envía todas sus tareas a nombre de un cliente, con costo 1 (para KeyedSerialExecutor).
+     */
+
+    public Submitter forClient(String client) {
+        return (task, onRejected) -> execute(client, 1, task, onRejected);
+    }
+
+    /**
+     * Encola una tarea del cliente y la pasa al pool cuando le toque.
+     *
+     * @param onRejected se ejecuta en lugar de la tarea si el pool no la acepta;
+     *                   corre en el hilo que despacha, así que debe ser breve
+     * @throws RejectedExecutionException si ya hay maxQueued tareas esperando
+     *         (entonces no se ejecuta ninguna de las dos)
+     */
+
+    public void execute(String client, long cost, Runnable task, Runnable onRejected) {
+        synchronized (this) {
+            if (queued >= maxQueued) {
+                throw new RejectedExecutionException("Cola del reparto llena (" + queued + " tareas)");
+            }
+            String key = client == null ? "" : client;
+            ClientQueue queue = clients.computeIfAbsent(key, ClientQueue::new);
+            if (queue.tasks.isEmpty()) ring.addLast(queue);
+            queue.tasks.addLast(new Task(task, onRejected, Math.max(1, cost)));
+            queued++;
+            if (running >= maxRunning) deferred.incrementAndGet();
+        }
+        dispatch();
+    }
+
+    /**
+     * Pasa al pool todas las tareas que entran, por turnos.
+     */
+
+    private void dispatch() {
+        while (true) {
+            Task task;
+            ClientQueue owner;
+            synchronized (this) {
+                if (running >= maxRunning) return;
+                owner = next();
+                if (owner == null) return;
+                task = owner.tasks.pollFirst();
+                queued--;
+                running++;
+                owner.running++;
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.runnable.run();
+                    } finally {
+                        finished(owner);
+                    }
+                });
+                dispatched.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                // El pool no la tomó (ej: apagándose): se rechaza, no se ejecuta en este hilo
+                try {
+                    task.onRejected.run();
+                } finally {
+                    finished(owner);
+                }
+            }
+        }
+    }
+
+    private void finished(ClientQueue owner) {
+        synchronized (this) {
+            running--;
+            owner.running--;
+            if (owner.running == 0 && owner.tasks.isEmpty()) clients.remove(owner.client);
+        }
+        dispatch();
+    }
+
+    /**
+     * Elige el cliente al que le toca (deficit round robin): cada visita a un
+     * cliente sin crédito suficiente le suma un punto; sale la primera tarea cuyo
+     * costo alcanza su crédito (en esa misma visita, así una tarea de costo 1 no
+     * pierde un turno solo en juntar crédito).
+     * Requiere el monitor.
+     */
+
+    private ClientQueue next() {
+        int size = ring.size();
+        if (size == 0) return null;
+        // Los que ya tienen la mitad de los lugares solo salen si no hay nadie más
+        boolean othersWaiting = false;
+        for (ClientQueue queue : ring) {
+            if (queue.running < maxPerClient) {
+                othersWaiting = true;
+                break;
+            }
+        }
+        while (true) {
+            ClientQueue queue = ring.pollFirst();
+            if (othersWaiting && queue.running >= maxPerClient) {
+                ring.addLast(queue);
+                continue;
+            }
+            Task head = queue.tasks.peekFirst();
+            if (queue.deficit < head.cost) {
+                queue.deficit++;
+                if (queue.deficit < head.cost) {
+                    ring.addLast(queue);
+                    continue;
+                }
+            }
+            queue.deficit -= head.cost;
+            if (queue.tasks.size() > 1) {
+                ring.addLast(queue);
+            } else {
+                queue.deficit = 0;   // sin cola no guarda crédito
+            }
+            return queue;
+        }
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    public long getDeferred() {
+        return deferred.get();
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final Runnable onRejected;
+        final long cost;
+
+        Task(Runnable runnable, Runnable onRejected, long cost) {
+            this.runnable = runnable;
+            this.onRejected = onRejected;
+            this.cost = cost;
+        }
+    }
+
+    private static class ClientQueue {
+        final String client;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        long deficit;
+        int running;
+
+        ClientQueue(String client) {
+            this.client = client;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Clase FastaWriter
+ * ----------------------
+ * Escribe los bytes de un FASTA recibido en modo NIO desde un pool aparte,
+ * para que el bucle de E/S nunca espere al disco ni a la descompresión.
+ *
+ * El bucle copia cada pedazo leído (submit) y sigue atendiendo a las demás
+ * conexiones; un hilo del pool escribe los pedazos en orden en el destino
+ * (archivo temporal, pedazo de una sesión o su Decoder). Al final (close)
+ * el mismo hilo ejecuta el cierre que indica RequestDecoder y completa
+ * getDone(): el trabajador que procesa la solicitud lo espera antes de empezar.
+ *
+ * Contrapresión: cuando hay más de PAUSE_BYTES sin escribir, isBackedUp
+ * avisa al bucle que deje de leer esa conexión; el pool llama a onDrained
+ * cuando baja de RESUME_BYTES.
+ *
+ * Si una escritura falla se descarta el resto y el cierre recibe el error.
+ */
+
+class FastaWriter implements Runnable {
+    static final int PAUSE_BYTES = 4 * 1024 * 1024;    // Sin escribir: dejar de leer la conexión
+    static final int RESUME_BYTES = 1024 * 1024;       // ...y volver a leer al bajar de aquí
+
+    /**
+     * Cierre que corre en el hilo del pool después de la última escritura.
+     */
+
+    interface Finisher {
+        /**
+         * @param failure error de escritura, o null si todo se escribió
+         */
+        void finish(IOException failure) throws IOException;
+    }
+
+    private final WritableByteChannel target;
+    private final Executor executor;
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private long queuedBytes;
+    private boolean scheduled;        // Hay una tarea en el pool (o encargada)
+    private Finisher finisher;        // Puesto por close
+    private Runnable onDrained;       // Se llama una vez al bajar de RESUME_BYTES
+    private IOException failure;
+
+    FastaWriter(WritableByteChannel target, Executor executor) {
+        this.target = target;
+        this.executor = executor;
+    }
+
+    /**
+     * Copia los bytes restantes de src y encarga su escritura. No bloquea.
+     */
+
+    void submit(ByteBuffer src) {
+        ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+        copy.put(src).flip();
+        boolean schedule;
+        synchronized (this) {
+            queue.add(copy);
+            queuedBytes += copy.remaining();
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) executor.execute(this);
+    }
+
+    /**
+     * Hay demasiados bytes sin escribir: conviene dejar de leer la conexión.
+     */
+
+    synchronized boolean isBackedUp() {
+        return queuedBytes > PAUSE_BYTES;
+    }
+
+    /**
+     * Acción a ejecutar (una vez, desde el pool) cuando lo pendiente baje de
+     * RESUME_BYTES. Si ya bajó, se ejecuta enseguida.
+     */
+
+    void whenDrained(Runnable action) {
+        synchronized (this) {
+            if (queuedBytes > RESUME_BYTES) {
+                onDrained = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * No llegan más bytes: después de escribir lo pendiente se ejecuta finisher
+     * y se completa getDone().
+     */
+
+    void close(Finisher finisher) {
+        boolean schedule;
+        synchronized (this) {
+            this.finisher = finisher;
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) executor.execute(this);
+    }
+
+    /**
+     * Se completa cuando el FASTA quedó escrito y cerrado (con o sin error).
+     */
+
+    CompletableFuture<Void> getDone() {
+        return done;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            ByteBuffer next;
+            Finisher closing = null;
+            Runnable drained = null;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    scheduled = false;
+                    if (finisher == null) return;
+                    closing = finisher;
+                    finisher = null;
+                    scheduled = true;   // Nadie más encarga tareas después de close
+                }
+            }
+            if (closing != null) {
+                finish(closing);
+                return;
+            }
+
+            int n = next.remaining();
+            if (failure == null) {
+                try {
+                    while (next.hasRemaining()) {
+                        target.write(next);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            synchronized (this) {
+                queuedBytes -= n;
+                if (onDrained != null && queuedBytes <= RESUME_BYTES) {
+                    drained = onDrained;
+                    onDrained = null;
+                }
+            }
+            if (drained != null) drained.run();
+        }
+    }
+
+    private void finish(Finisher closing) {
+        try {
+            closing.finish(failure);
+            done.complete(null);
+        } catch (IOException | RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package Server;
+
+import Diagnostics.DiseaseDetectionEvent;
+import Diagnostics.DiseaseReloadEvent;
+import Diagnostics.FastaReceiveEvent;
+import Diagnostics.FastaValidationEvent;
+import Diagnostics.StorageEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+/**
+ * Clase FlightRecording
+ * ----------------------
+ * Grabación continua de JFR (Java Flight Recorder) con los eventos propios del
+ * servidor (paquete Diagnostics) más los de la JVM (GC, locks, E/S, CPU).
+ *
+ * La grabación vive en disco y solo conserva lo último ("jfr.max_age_s",
+ * "jfr.max_size_mb"), así que puede quedar activa siempre: después de un
+ * incidente se vuelca a data/jfr con el comando "JFR_DUMP clave" (la misma
+ * clave que SHUTDOWN) o con "jcmd <pid> JFR.dump name=sgs". Al apagar (o si la
+ * JVM termina por otro motivo) la propia JFR la escribe en "sgs-<arranque>-exit.jfr".
+ *
+ * Cada evento propio tiene su umbral: solo se guardan las operaciones que
+ * tardaron más ("jfr.threshold.upload_ms", "validation_ms", "detection_ms",
+ * "storage_ms"; 0 = todas). La recarga de enfermedades se guarda siempre.
+ *
+ * "jfr.settings" elige la configuración de los eventos de la JVM: "default"
+ * (menos del 1% de costo), "profile" (más detalle) o "none" (solo los propios).
+ */
+
+public class FlightRecording {
+    public static final String NAME = "sgs";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Recording recording;
+    private final Path dumpDir;
+
+    private FlightRecording(Recording recording, Path dumpDir) {
+        this.recording = recording;
+        this.dumpDir = dumpDir;
+    }
+
+    /**
+     * Arranca la grabación si "jfr.enabled" está activo.
+     *
+     * @return la grabación, o null si está desactivada
+     */
+
+    public static FlightRecording start(ServerConfig config) throws IOException, ParseException {
+        if (!config.getBoolean("jfr.enabled", false)) return null;
+
+        String settings = config.getString("jfr.settings", "default");
+        Recording recording = settings.equals("none")
+                ? new Recording()
+                : new Recording(Configuration.getConfiguration(settings));
+        recording.setName(NAME);
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofSeconds(config.getLong("jfr.max_age_s", 15 * 60)));
+        recording.setMaxSize(config.getLong("jfr.max_size_mb", 100) * 1024 * 1024);
+        // Lo escribe la JFR al detenerla o al salir la JVM: su hook de salida puede
+        // correr antes que el nuestro y borrar los pedazos en disco
+        Path dumpDir = Paths.get(config.getString("jfr.dump_dir", "data/jfr"));
+        Files.createDirectories(dumpDir);
+        recording.setDestination(dumpDir.resolve(NAME + "-" + LocalDateTime.now().format(FILE_TIME) + "-exit.jfr"));
+        recording.setDumpOnExit(true);
+
+        enable(recording, FastaReceiveEvent.class, config.getLong("jfr.threshold.upload_ms", 20));
+        enable(recording, FastaValidationEvent.class, config.getLong("jfr.threshold.validation_ms", 10));
+        enable(recording, DiseaseDetectionEvent.class, config.getLong("jfr.threshold.detection_ms", 10));
+        enable(recording, StorageEvent.class, config.getLong("jfr.threshold.storage_ms", 5));
+        enable(recording, DiseaseReloadEvent.class, 0);
+
+        recording.start();
+        return new FlightRecording(recording, dumpDir);
+    }
+
+    private static void enable(Recording recording, Class<? extends Event> type, long thresholdMs) {
+        recording.enable(type).withThreshold(Duration.ofMillis(Math.max(0, thresholdMs)));
+    }
+
+    /**
+     * Vuelca lo grabado hasta ahora (sin detener la grabación) a
+     * "sgs-AAAAMMDD-HHMMSS.jfr" en la carpeta de volcados.
+     *
+     * @return ruta del archivo escrito
+     */
+
+    public synchronized Path dump() throws IOException {
+        Files.createDirectories(dumpDir);
+        Path file = dumpDir.resolve(NAME + "-" + LocalDateTime.now().format(FILE_TIME) + ".jfr");
+        for (int n = 1; Files.exists(file); n++) {
+            file = dumpDir.resolve(NAME + "-" + LocalDateTime.now().format(FILE_TIME) + "." + n + ".jfr");
+        }
+        recording.dump(file);
+        return file;
+    }
+
+    /**
+     * Al apagar: detiene la grabación, que queda escrita en su archivo "-exit".
+     * Si la JVM ya está saliendo, la JFR la escribió (o la está escribiendo) sola.
+     */
+
+    public synchronized void close() {
+        try {
+            recording.stop();
+            System.out.println("Grabación JFR guardada en " + recording.getDestination());
+        } catch (IllegalStateException e) {
+            // Ya detenida por el hook de la JFR
+        } finally {
+            recording.close();
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package Server;
+
+import Diagnostics.FastaReceiveEvent;
+import Logging.LogContext;
+import Logging.LogManager;
+import Model.DetectionReport;
+import Model.Patient;
+import Protocol.Compression;
+import Storage.CsvManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clase HttpGateway
+ * ----------------------
+ * Entrada HTTP/JSON para las integraciones (LIMS) que no hablan el protocolo de
+ * líneas. Comparte el RequestProcessor, el almacenamiento y la detección con los
+ * sockets: las llamadas que escriben se arman como una Request del protocolo y
+ * su respuesta de texto se pasa a JSON; las consultas leen de CsvManager con un
+ * permiso de consulta de AdmissionController, igual que RETRIEVE_PATIENT.
+ *
+ * Rutas:
+ *   GET    /patients/{id}                    paciente
+ *   GET    /patients?after=&limit=&q=        una página (seguir con after=next_cursor)
+ *   GET    /patients?document=X  (o email=X) búsqueda por índice
+ *   POST   /patients?document_id=&full_name=&age=&sex=&contact_email=&clinical_notes=[&checksum_fasta=]
+ *          con el FASTA como cuerpo -> 201 {"patient_id", "detections"}
+ *   PUT    /patients/{id}?campo=valor...     cuerpo opcional: FASTA nuevo
+ *   DELETE /patients/{id}
+ *   GET    /patients/{id}/reports            detecciones guardadas
+ *   GET    /stats                            contadores del servidor
+ *
+ * El FASTA se recibe en streaming a un temporal, con Content-Length o con
+ * "Transfer-Encoding: chunked"; en ese caso el tamaño se anuncia con
+ * file_size_bytes en la URL (como START_FASTA n) y se reserva en la admisión.
+ *
+ * Los errores del protocolo conservan su código como estado HTTP, con cuerpo
+ * {"error": "CODIGO", ...}; los 503 y los 429 (límite de ritmo del cliente,
+ * por dirección IP como en el protocolo de texto) agregan Retry-After.
+ *
+ * Opciones: "http.port" (0 = desactivado), "http.executor" ("virtual" por
+ * defecto; hilos de plataforma si la JVM no tiene virtuales), "http.max_threads",
+ * "http.backlog", "http.nodelay". Con "tls.enabled=true" atiende HTTPS con el mismo keystore.
+ */
+
+public class HttpGateway {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final int port;
+    private final RequestProcessor processor;
+    private final CsvManager csvManager;
+    private final AdmissionController admission;
+    private final LogManager logManager;
+    private final ServerConfig config;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();      // Respuestas 4xx/5xx
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();   // Llamadas en curso
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public HttpGateway(int port, RequestProcessor processor, CsvManager csvManager, ServerConfig config) {
+        this.port = port;
+        this.processor = processor;
+        this.csvManager = csvManager;
+        this.admission = processor.getAdmission();
+        this.logManager = processor.getLogManager();
+        this.config = config;
+    }
+
+    /**
+     * Abre el puerto HTTP (o HTTPS) y empieza a atender en su propio ejecutor.
+     */
+
+    public void start() throws IOException {
+        // El servidor del JDK escribe encabezados y cuerpo por separado: sin TCP_NODELAY
+        // Nagle y el ACK retrasado suman ~40 ms por respuesta (se lee al crear el primer servidor)
+        if (config.getBoolean("http.nodelay", true) && System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        InetSocketAddress address = new InetSocketAddress(port);
+        int backlog = config.getInt("http.backlog", 1024);
+        if (config.getBoolean("tls.enabled", false)) {
+            HttpsServer https = HttpsServer.create(address, backlog);
+            https.setHttpsConfigurator(new HttpsConfigurator(new TlsAcceptor(config, logManager).getContext()));
+            server = https;
+        } else {
+            server = HttpServer.create(address, backlog);
+        }
+        String mode = config.getString("http.executor", ExecutorFactory.VIRTUAL);
+        executor = ExecutorFactory.newConnectionExecutor(mode, config.getInt("http.max_threads", 200),
+                config.getInt("http.queue", 1000));
+        server.setExecutor(executor);
+        server.createContext("/patients", this::handlePatients);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+        System.out.println("Gateway HTTP escuchando en el puerto " + port + " (hilos " + mode + ")"
+                + (server instanceof HttpsServer ? " con TLS" : ""));
+    }
+
+    /**
+     * Espera hasta timeoutMs a que terminen las llamadas en curso y cierra el puerto.
+     * Las que llegan mientras tanto ya reciben 503 SHUTTING_DOWN del procesador.
+     * (HttpServer.stop(n) de Java 17 espera siempre los n segundos, por eso se
+     * cuentan las llamadas aquí y se detiene con 0.)
+     */
+
+    public void stop(long timeoutMs) throws InterruptedException {
+        if (server == null) return;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMs));
+        while (active.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        server.stop(0);
+        executor.shutdown();
+        executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    // ---------------------------------------------------------------- rutas
+
+    private void handlePatients(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        active.incrementAndGet();
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().split("/");   // "", "patients", id, "reports"
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            if (path.length == 2) {
+                if (method.equals("GET")) {
+                    lookup(exchange, () -> listPatients(exchange, query));
+                } else if (method.equals("POST")) {
+                    createPatient(exchange, query);
+                } else {
+                    sendError(exchange, "ERROR 405 METHOD_NOT_ALLOWED");
+                }
+            } else if (path.length == 3) {
+                String id = path[2];
+                switch (method) {
+                    case "GET":
+                        lookup(exchange, () -> sendPatient(exchange, csvManager.getPatientById(id)));
+                        break;
+                    case "PUT":
+                        updatePatient(exchange, id, query);
+                        break;
+                    case "DELETE":
+                        execute(exchange, newRequest(exchange, "DELETE_PATIENT " + id));
+                        break;
+                    default:
+                        sendError(exchange, "ERROR 405 METHOD_NOT_ALLOWED");
+                }
+            } else if (path.length == 4 && path[3].equals("reports") && method.equals("GET")) {
+                lookup(exchange, () -> sendReports(exchange, path[2]));
+            } else {
+                sendError(exchange, "ERROR 404 NOT_FOUND");
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            logManager.logError("Error en gateway HTTP: " + e.getMessage());
+            sendError(exchange, "ERROR 500 SERVER_ERROR");
+        } finally {
+            exchange.close();
+            active.decrementAndGet();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Json json = new Json()
+                    .field("connections_open", processor.getConnections().size())
+                    .field("admission_rejected", admission.getRejectedCount())
+                    .field("inflight_fasta_bytes", admission.getInflightBytes())
+                    .field("compressed_uploads", processor.getCompressedUploads())
+                    .field("compression_ratio", processor.getCompressionRatio())
+                    .field("http_requests", requests.get())
+                    .field("http_errors", errors.get())
+                    .field("http_uploaded_bytes", uploadedBytes.get())
+                    .field("ratelimit_clients", admission.getRateLimiter().getClientCount())
+                    .field("ratelimit_allowed_requests", admission.getRateLimiter().getAllowedRequests())
+                    .field("ratelimit_throttled_requests", admission.getRateLimiter().getThrottledRequests())
+                    .field("ratelimit_throttled_uploads", admission.getRateLimiter().getThrottledUploads())
+                    .field("ratelimit_throttled_upload_bytes", admission.getRateLimiter().getThrottledBytes())
+                    .field("draining", processor.isDraining());
+            send(exchange, 200, json.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // ---------------------------------------------------------------- consultas
+
+    @FunctionalInterface
+    private interface Lookup {
+        void run() throws IOException;
+    }
+
+    /**
+     * Ejecuta una consulta con un permiso de consulta, como las del protocolo.
+     */
+
+    private void lookup(HttpExchange exchange, Lookup action) throws IOException {
+        if (processor.isDraining()) {
+            sendError(exchange, admission.shuttingDownResponse());
+            return;
+        }
+        long waitMs = admission.getRateLimiter().tryRequest(clientOf(exchange));
+        if (waitMs > 0) {
+            sendError(exchange, admission.rateLimitedResponse(waitMs));
+            return;
+        }
+        AdmissionController.Permit permit = admission.tryAdmitLookup();
+        if (permit == null) {
+            logManager.logError("Servidor saturado, consulta HTTP rechazada: " + exchange.getRequestURI());
+            sendError(exchange, admission.busyResponse());
+            return;
+        }
+        long start = System.nanoTime();
+        String requestId = LogContext.newRequestId();
+        LogContext.open(requestId, clientOf(exchange));
+        exchange.getResponseHeaders().set("X-Request-Id", requestId);
+        try {
+            action.run();
+        } finally {
+            permit.close();
+            // Las consultas HTTP no pasan por RequestProcessor.process: se anotan aquí
+            long nanos = System.nanoTime() - start;
+            processor.getMetrics().recordCommand("HTTP_GET", nanos);
+            logManager.logRequest("HTTP_GET", nanos, 0, String.valueOf(exchange.getResponseCode()));
+            LogContext.clear();
+        }
+    }
+
+    private void listPatients(HttpExchange exchange, Map<String, String> query) throws IOException {
+        if (query.containsKey("document")) {
+            sendPatient(exchange, csvManager.getPatientByDocument(query.get("document")));
+            return;
+        }
+        if (query.containsKey("email")) {
+            sendPatient(exchange, csvManager.getPatientByEmail(query.get("email")));
+            return;
+        }
+        int after;
+        int limit;
+        try {
+            after = Integer.parseInt(query.getOrDefault("after", "0"));
+            limit = Integer.parseInt(query.getOrDefault("limit", "100"));
+        } catch (NumberFormatException e) {
+            sendError(exchange, "ERROR 400 BAD_REQUEST");
+            return;
+        }
+        if (limit <= 0 || limit > 1000) {
+            sendError(exchange, "ERROR 400 INVALID_LIMIT");
+            return;
+        }
+        String filter = query.get("q");
+        StringBuilder body = new StringBuilder("{\"patients\":[");
+        Integer next = csvManager.listPatients(after > 0 ? after : null, limit,
+                filter == null || filter.isBlank() ? null : filter.trim(), p -> {
+                    if (body.charAt(body.length() - 1) != '[') body.append(',');
+                    body.append(toJson(p));
+                });
+        body.append("],\"next_cursor\":").append(next).append('}');
+        send(exchange, 200, body.toString());
+    }
+
+    private void sendPatient(HttpExchange exchange, Patient patient) throws IOException {
+        if (patient == null) {
+            sendError(exchange, "ERROR 404 NOT_FOUND");
+        } else {
+            send(exchange, 200, toJson(patient));
+        }
+    }
+
+    private void sendReports(HttpExchange exchange, String patientId) throws IOException {
+        Patient patient = csvManager.getPatientById(patientId);
+        if (patient == null) {
+            sendError(exchange, "ERROR 404 NOT_FOUND");
+            return;
+        }
+        StringBuilder body = new StringBuilder("{\"patient_id\":").append(patient.getPatientID())
+                .append(",\"detections\":[");
+        List<DetectionReport> reports = csvManager.getReports(patientId);
+        for (int i = 0; i < reports.size(); i++) {
+            DetectionReport r = reports.get(i);
+            if (i > 0) body.append(',');
+            body.append(new Json()
+                    .field("disease_id", r.getDiseaseId())
+                    .field("severity", r.getSeverity())
+                    .field("detected_at", String.valueOf(r.getDetectedAt()))
+                    .field("description", r.getDescription()));
+        }
+        send(exchange, 200, body.append("]}").toString());
+    }
+
+    // ---------------------------------------------------------------- escrituras
+
+    /**
+     * Solicitud del protocolo a nombre del cliente del intercambio.
+     */
+
+    private static Request newRequest(HttpExchange exchange, String commandLine) {
+        Request request = new Request(commandLine);
+        request.setClient(clientOf(exchange));
+        request.setRequestId(LogContext.newRequestId());
+        exchange.getResponseHeaders().set("X-Request-Id", request.getRequestId());
+        return request;
+    }
+
+    private static String clientOf(HttpExchange exchange) {
+        return exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private void createPatient(HttpExchange exchange, Map<String, String> query) throws IOException {
+        Request request = newRequest(exchange, "CREATE_PATIENT");
+        query.forEach(request::putMetadata);
+        long nbytes = fastaLength(exchange, query);
+        if (nbytes < 0) {
+            sendError(exchange, "ERROR 411 LENGTH_REQUIRED");
+            return;
+        }
+        request.putMetadata("file_size_bytes", String.valueOf(nbytes));
+        receiveFasta(exchange, request, nbytes);
+        execute(exchange, request);
+    }
+
+    private void updatePatient(HttpExchange exchange, String id, Map<String, String> query) throws IOException {
+        Request request = newRequest(exchange, "UPDATE_PATIENT");
+        query.forEach(request::putMetadata);
+        request.putMetadata("patient_id", id);
+        request.getMetadata().remove("file_size_bytes");
+        long nbytes = fastaLength(exchange, query);
+        if (nbytes > 0) {
+            request.putMetadata("file_size_bytes", String.valueOf(nbytes));
+            receiveFasta(exchange, request, nbytes);
+        }
+        execute(exchange, request);
+    }
+
+    /**
+     * Bytes del FASTA del cuerpo: Content-Length, o file_size_bytes si viene en
+     * chunked. -1 si no se sabe; 0 si no hay cuerpo.
+     */
+
+    private static long fastaLength(HttpExchange exchange, Map<String, String> query) {
+        try {
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null) return Long.parseLong(length.trim());
+            if (exchange.getRequestHeaders().getFirst("Transfer-Encoding") == null) return 0;
+            return Long.parseLong(query.getOrDefault("file_size_bytes", "-1"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reserva los bytes en la admisión y guarda el cuerpo en un temporal, sin
+     * tenerlo entero en memoria. Si no hay capacidad o el cuerpo no coincide con
+     * lo anunciado, la solicitud queda rechazada y process responde el error.
+     */
+
+    private void receiveFasta(HttpExchange exchange, Request request, long nbytes) throws IOException {
+        if (processor.isDraining() || !admission.admitFasta(request, nbytes)) return;
+        Path upload = processor.newUploadFile();
+        request.setFastaFile(upload);
+        request.setFastaHeader("START_FASTA " + nbytes);
+        request.setFastaBytesExpected(nbytes);
+
+        FastaReceiveEvent event = new FastaReceiveEvent();
+        event.begin();
+        long received = 0;
+        byte[] buffer = new byte[BUFFER_BYTES];
+        try (InputStream in = exchange.getRequestBody(); OutputStream file = Files.newOutputStream(upload)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                received += n;
+                if (received > nbytes) break;
+                file.write(buffer, 0, n);
+            }
+        }
+        uploadedBytes.addAndGet(Math.min(received, nbytes));
+        request.setFastaBytesReceived(received);
+        event.finish(request.getRequestId(), "http", request.getClient(), Compression.IDENTITY, received);
+        if (received != nbytes) {
+            logManager.logError("FASTA HTTP de " + received + " bytes, se anunciaron " + nbytes);
+            request.setRejection("ERROR 400 FASTA_SIZE_MISMATCH");
+        }
+    }
+
+    /**
+     * Ejecuta la solicitud con el procesador del protocolo y traduce su respuesta.
+     */
+
+    private void execute(HttpExchange exchange, Request request) throws IOException {
+        StringWriter text = new StringWriter();
+        try (PrintWriter out = new PrintWriter(text)) {
+            processor.process(request, out);
+        }
+        send(exchange, Reply.of(text.toString()));
+    }
+
+    // ---------------------------------------------------------------- respuestas
+
+    /**
+     * Responde una línea "ERROR nnn CODIGO [clave:valor...]" como estado nnn y
+     * {"error": "CODIGO", "clave": valor...}.
+     */
+
+    private void sendError(HttpExchange exchange, String line) throws IOException {
+        send(exchange, Reply.of(line));
+    }
+
+    private void send(HttpExchange exchange, Reply reply) throws IOException {
+        if (reply.retryAfterSeconds > 0) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(reply.retryAfterSeconds));
+        }
+        send(exchange, reply.status, reply.json);
+    }
+
+    /**
+     * Respuesta HTTP armada completa a partir del texto del protocolo, antes de
+     * enviar nada: un dato inesperado no deja la respuesta a medias.
+     */
+
+    static class Reply {
+        final int status;
+        final String json;
+        final long retryAfterSeconds;   // 0 = sin Retry-After
+
+        private Reply(int status, String json, long retryAfterSeconds) {
+            this.status = status;
+            this.json = json;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        static Reply of(String text) {
+            String[] lines = text.split("\n");
+            String first = lines[0].trim();
+            if (first.startsWith("ERROR ")) {
+                return error(first);
+            } else if (first.startsWith("201 CREATED")) {
+                return new Reply(201, created(first, lines), 0);
+            } else {
+                return new Reply(200, new Json().field("status", "OK")
+                        .field("message", first.startsWith("OK") ? first.substring(2).trim() : first).toString(), 0);
+            }
+        }
+
+        /**
+         * "ERROR nnn CODIGO [clave:valor...]" (un estado ilegible queda como 500).
+         */
+
+        private static Reply error(String line) {
+            String[] parts = line.split(" ");
+            int status = 500;
+            if (parts.length > 1 && parts[1].matches("[1-5][0-9][0-9]")) status = Integer.parseInt(parts[1]);
+            Json json = new Json().field("error", parts.length > 2 ? parts[2] : "SERVER_ERROR");
+            long retryAfter = 0;
+            for (int i = 3; i < parts.length; i++) {
+                int colon = parts[i].indexOf(':');
+                if (colon <= 0) continue;
+                String key = parts[i].substring(0, colon);
+                String value = parts[i].substring(colon + 1);
+                if (key.equals("retry_after_ms") && isNumber(value)) {
+                    long ms = Long.parseLong(value);
+                    retryAfter = Math.max(1, (ms + 999) / 1000);
+                    json.field(key, ms);
+                } else {
+                    json.field(key, value);
+                }
+            }
+            return new Reply(status, json.toString(), retryAfter);
+        }
+
+        /**
+         * "201 CREATED patient_id: N" y una línea "DETECTION id,enfermedad,severidad,fecha,descripción"
+         * por hallazgo. patient_id y severity van como números, igual que en las consultas.
+         */
+
+        private static String created(String first, String[] lines) {
+            StringBuilder body = new StringBuilder("{\"patient_id\":")
+                    .append(number(first.substring(first.indexOf(':') + 1).trim())).append(",\"detections\":[");
+            boolean firstDetection = true;
+            for (String line : lines) {
+                if (!line.startsWith("DETECTION ")) continue;
+                String[] data = line.substring("DETECTION ".length()).trim().split(",", 5);
+                if (data.length < 5) continue;
+                if (!firstDetection) body.append(',');
+                firstDetection = false;
+                body.append(new Json()
+                        .field("disease_id", data[1])
+                        .raw("severity", number(data[2].trim()))
+                        .field("detected_at", data[3])
+                        .field("description", data[4]));
+            }
+            return body.append("]}").toString();
+        }
+
+        /**
+         * El número tal cual, o null si el texto no es un entero.
+         */
+
+        private static String number(String text) {
+            return isNumber(text) ? text : "null";
+        }
+
+        private static boolean isNumber(String text) {
+            try {
+                Long.parseLong(text);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, String json) throws IOException {
+        if (status >= 400) errors.incrementAndGet();
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String toJson(Patient p) {
+        return new Json()
+                .field("patient_id", p.getPatientID())
+                .field("full_name", p.getFullName())
+                .field("document_id", p.getDocumentID())
+                .field("age", p.getAge())
+                .field("sex", p.getSex())
+                .field("contact_email", p.getContactEmail())
+                .field("registration_date", String.valueOf(p.getRegistrationDate()))
+                .field("clinical_notes", p.getClinicalNotes())
+                .field("checksum_fasta", p.getChecksumFasta())
+                .field("file_size_bytes", p.getFileSizeBytes())
+                .toString();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return query;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    /**
+     * Objeto JSON plano armado campo por campo (el proyecto no usa librerías JSON).
+     */
+
+    static class Json {
+        private final StringBuilder text = new StringBuilder("{");
+
+        Json field(String name, String value) {
+            return raw(name, value == null ? "null" : quote(value));
+        }
+
+        Json field(String name, long value) {
+            return raw(name, String.valueOf(value));
+        }
+
+        Json field(String name, double value) {
+            return raw(name, Double.isFinite(value) ? String.valueOf(value) : "null");
+        }
+
+        Json field(String name, boolean value) {
+            return raw(name, String.valueOf(value));
+        }
+
+        Json raw(String name, String json) {
+            if (text.length() > 1) text.append(',');
+            text.append(quote(name)).append(':').append(json);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return text + "}";
+        }
+
+        static String quote(String value) {
+            StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            out.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+            return out.append('"').toString();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package Server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Clase KeyedSerialExecutor
+ * ----------------------
+ * Ejecuta tareas en un Executor compartido garantizando que las tareas con la
+ * misma clave corran de a una y en el orden en que se enviaron. Tareas con
+ * claves distintas (o sin clave) corren en paralelo.
+ *
+ * Lo usa ConnectionHandler para el pipelining: las solicitudes de un mismo
+ * paciente se aplican en orden, las demás pueden terminar en cualquier orden.
+ *
+ * Por cada clave activa hay una cola; la primera tarea se envía al pool y,
+ * al terminar, ese mismo hilo toma la siguiente de la cola. La clave se borra
+ * cuando su cola queda vacía, así el mapa solo tiene las claves en uso.
+ * Si el pool rechaza la primera, se ejecutan las acciones de rechazo de toda
+ * la cola de esa clave.
+ *
+ * Se usa una instancia por conexión, y solo el hilo lector de esa conexión
+ * envía tareas.
+ */
+
+public class KeyedSerialExecutor {
+    private final FairScheduler.Submitter delegate;
+    private final Map<String, ArrayDeque<Entry>> queues = new HashMap<>();
+
+    public KeyedSerialExecutor(FairScheduler.Submitter delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Envía una tarea.
+     *
+     * @param key        clave de orden (ej: ID de paciente), o null si no necesita orden
+     * @param task       tarea a ejecutar
+     * @param onRejected se ejecuta en lugar de la tarea si el pool la rechaza más tarde
+     * @throws java.util.concurrent.RejectedExecutionException si el pool
+     *         compartido no la acepta ahora; en ese caso la clave queda libre
+     */
+
+    public void execute(String key, Runnable task, Runnable onRejected) {
+        if (key == null) {
+            delegate.execute(task, onRejected);
+            return;
+        }
+
+        Entry first = new Entry(task, onRejected);
+        synchronized (queues) {
+            ArrayDeque<Entry> queue = queues.get(key);
+            if (queue != null) {
+                queue.add(first); // la corre quien esté atendiendo esta clave
+                return;
+            }
+            queues.put(key, new ArrayDeque<>());
+        }
+
+        try {
+            delegate.execute(() -> runChain(key, first, false), () -> runChain(key, first, true));
+        } catch (RuntimeException e) {
+            // Nadie va a atender la cola (sigue vacía: el único que envía es este hilo)
+            synchronized (queues) {
+                queues.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Ejecuta (o rechaza, si el pool no tomó la primera) las tareas de una clave
+     * hasta vaciar su cola.
+     */
+
+    private void runChain(String key, Entry first, boolean rejected) {
+        Entry next = first;
+        while (next != null) {
+            try {
+                (rejected ? next.onRejected : next.task).run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            synchronized (queues) {
+                ArrayDeque<Entry> queue = queues.get(key);
+                next = queue.poll();
+                if (next == null) queues.remove(key);
+            }
+        }
+    }
+
+    private static class Entry {
+        final Runnable task;
+        final Runnable onRejected;
+
+        Entry(Runnable task, Runnable onRejected) {
+            this.task = task;
+            this.onRejected = onRejected;
+        }
+    }
+}
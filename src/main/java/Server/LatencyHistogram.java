@@ -0,0 +1,102 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Clase LatencyHistogram
+ * ----------------------
+ * Histograma de latencias al estilo HdrHistogram: cubetas log-lineales (cada
+ * potencia de 2 se parte en 32), así cualquier percentil sale con un error
+ * relativo de a lo sumo ~3% entre 1 ns y ~18 minutos, con memoria fija (9 KB).
+ *
+ * record es un par de operaciones de bits y un incremento atómico, sin locks
+ * ni objetos nuevos: se puede llamar en cada solicitud. Los percentiles se
+ * calculan al leerlo (STATS, volcado Prometheus) recorriendo las cubetas.
+ */
+
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;                      // 32 cubetas por potencia de 2
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;                 // 2^40 ns ≈ 18 minutos
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Anota una duración en nanosegundos (las negativas cuentan como 0).
+     */
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(0, nanos), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // otro hilo anotó un máximo a la vez: reintentar
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Suma de todas las duraciones, en nanosegundos.
+     */
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Duración (ns) por debajo de la cual quedó la fracción "p" de las anotadas
+     * (ej: 0.99); el valor es el límite superior de su cubeta. 0 si está vacío.
+     */
+
+    public long percentile(double p) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highestValueOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Cubeta de un valor: los menores a 32 tienen la suya; el resto, por su
+     * exponente y los 5 bits siguientes al primero.
+     */
+
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);           // >= SUB_BITS
+        int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_COUNT;   // 0..31
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = index / SUB_COUNT - 1;                               // exponent - SUB_BITS
+        long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,234 @@
+package Server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Clase Metrics
+ * ----------------------
+ * Métricas del servidor: latencia por comando y por etapa (LatencyHistogram),
+ * bytes FASTA ingeridos, detecciones por enfermedad y los contadores de los
+ * demás componentes (compresión, TLS, conexiones, límites de ritmo, reparto de
+ * pools, log), que Server registra como "gauges".
+ *
+ * Etapas de una creación: "upload" (desde la línea de comando hasta el último
+ * byte del FASTA), "queue" (espera hasta ejecutarse), "validation", "checksum",
+ * "lookup" (duplicados), "storage" (mover el FASTA y escribir el CSV),
+ * "detection" y "reports".
+ *
+ * Se leen con el comando STATS y, con "metrics.prometheus_file", se vuelcan cada
+ * "metrics.dump_interval_ms" a un archivo en formato de texto de Prometheus
+ * (para el textfile collector de node_exporter). Con "metrics.enabled=false"
+ * no se anota nada.
+ */
+
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final boolean enabled;
+    private final long startedAt = System.nanoTime();
+    private final Map<String, LatencyHistogram> commands = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> stages = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> detections = new ConcurrentSkipListMap<>();
+    private final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final LongAdder bytesIngested = new LongAdder();
+    private ScheduledExecutorService dumper;
+    private Path dumpFile;
+
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Anota cuánto tardó un comando, desde que llegó su línea hasta que se respondió.
+     */
+
+    public void recordCommand(String command, long nanos) {
+        if (enabled) histogram(commands, command).record(nanos);
+    }
+
+    /**
+     * Anota cuánto tardó una etapa de un comando.
+     */
+
+    public void recordStage(String stage, long nanos) {
+        if (enabled) histogram(stages, stage).record(nanos);
+    }
+
+    /**
+     * Anota una etapa que empezó en "startNanos" (System.nanoTime) y terminó ahora.
+     */
+
+    public void stageSince(String stage, long startNanos) {
+        if (enabled) histogram(stages, stage).record(System.nanoTime() - startNanos);
+    }
+
+    public void addBytesIngested(long bytes) {
+        if (enabled && bytes > 0) bytesIngested.add(bytes);
+    }
+
+    public void recordDetection(String diseaseId) {
+        if (enabled) detections.computeIfAbsent(diseaseId, id -> new LongAdder()).increment();
+    }
+
+    /**
+     * Registra un valor de otro componente que STATS y el volcado leen al momento.
+     *
+     * @param name nombre en minúsculas con guiones bajos (ej: "connections_open")
+     */
+
+    public void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    private static LatencyHistogram histogram(Map<String, LatencyHistogram> map, String name) {
+        LatencyHistogram histogram = map.get(name);
+        return histogram != null ? histogram : map.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public long getBytesIngested() {
+        return bytesIngested.sum();
+    }
+
+    public long getRequestCount() {
+        long total = 0;
+        for (LatencyHistogram histogram : commands.values()) {
+            total += histogram.getCount();
+        }
+        return total;
+    }
+
+    // ---------------------------------------------------------------- STATS
+
+    /**
+     * Respuesta de STATS: "OK STATS uptime_s:… requests:… bytes_ingested:…",
+     * una línea COMMAND y STAGE por histograma (count, rate_per_s, p50_ms, p99_ms,
+     * p999_ms, max_ms, mean_ms), una DETECTIONS por enfermedad, una GAUGE por
+     * contador y "END_OF_LIST".
+     */
+
+    public void writeStats(PrintWriter out) {
+        double uptime = uptimeSeconds();
+        out.print("OK STATS uptime_s:" + (long) uptime + " requests:" + getRequestCount()
+                + " bytes_ingested:" + getBytesIngested() + "\n");
+        commands.forEach((name, h) -> out.print("COMMAND " + name + " " + describe(h, uptime) + "\n"));
+        stages.forEach((name, h) -> out.print("STAGE " + name + " " + describe(h, uptime) + "\n"));
+        detections.forEach((disease, n) -> out.print("DETECTIONS " + disease + " count:" + n.sum() + "\n"));
+        gauges.forEach((name, value) -> out.print("GAUGE " + name + ":" + format(value.getAsDouble()) + "\n"));
+        out.println("END_OF_LIST");
+    }
+
+    private static String describe(LatencyHistogram h, double uptime) {
+        long count = h.getCount();
+        return String.format(Locale.ROOT, "count:%d rate_per_s:%.2f p50_ms:%.3f p99_ms:%.3f p999_ms:%.3f max_ms:%.3f mean_ms:%.3f",
+                count, uptime > 0 ? count / uptime : 0, h.percentile(0.5) / 1e6, h.percentile(0.99) / 1e6,
+                h.percentile(0.999) / 1e6, h.getMax() / 1e6, count == 0 ? 0 : h.getSum() / 1e6 / count);
+    }
+
+    private double uptimeSeconds() {
+        return (System.nanoTime() - startedAt) / 1e9;
+    }
+
+    // ---------------------------------------------------------------- Prometheus
+
+    /**
+     * Todas las métricas en el formato de texto de Prometheus.
+     */
+
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder(4096);
+        summary(text, "sgs_command_latency_seconds", "Latencia por comando", "command", commands);
+        summary(text, "sgs_stage_latency_seconds", "Latencia por etapa", "stage", stages);
+        text.append("# HELP sgs_bytes_ingested_total Bytes FASTA recibidos\n")
+                .append("# TYPE sgs_bytes_ingested_total counter\n")
+                .append("sgs_bytes_ingested_total ").append(getBytesIngested()).append('\n');
+        text.append("# HELP sgs_detections_total Enfermedades detectadas\n")
+                .append("# TYPE sgs_detections_total counter\n");
+        detections.forEach((disease, n) -> text.append("sgs_detections_total{disease=\"").append(label(disease))
+                .append("\"} ").append(n.sum()).append('\n'));
+        text.append("# TYPE sgs_uptime_seconds gauge\nsgs_uptime_seconds ").append(format(uptimeSeconds())).append('\n');
+        gauges.forEach((name, value) -> text.append("# TYPE sgs_").append(name).append(" gauge\nsgs_").append(name)
+                .append(' ').append(format(value.getAsDouble())).append('\n'));
+        return text.toString();
+    }
+
+    private static void summary(StringBuilder text, String metric, String help, String label,
+                                Map<String, LatencyHistogram> histograms) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(metric).append(" summary\n");
+        histograms.forEach((name, h) -> {
+            String labels = label + "=\"" + label(name) + "\"";
+            for (double q : QUANTILES) {
+                text.append(metric).append('{').append(labels).append(",quantile=\"").append(q).append("\"} ")
+                        .append(format(h.percentile(q) / 1e9)).append('\n');
+            }
+            text.append(metric).append("_sum{").append(labels).append("} ").append(format(h.getSum() / 1e9)).append('\n');
+            text.append(metric).append("_count{").append(labels).append("} ").append(h.getCount()).append('\n');
+        });
+    }
+
+    private static String label(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? String.valueOf((long) value)
+                : String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    /**
+     * Empieza a volcar las métricas a "file" cada intervalMs (en un hilo propio).
+     * El archivo se reemplaza de una vez, nunca queda a medio escribir.
+     */
+
+    public synchronized void startDump(Path file, long intervalMs) {
+        if (dumper != null || intervalMs <= 0) return;
+        this.dumpFile = file;
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(this::dump, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Detiene el volcado periódico y deja un último volcado (al apagar).
+     */
+
+    public synchronized void stopDump() {
+        if (dumper == null) return;
+        dumper.shutdownNow();
+        dumper = null;
+        dump();
+    }
+
+    private void dump() {
+        try {
+            Path parent = dumpFile.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = dumpFile.resolveSibling(dumpFile.getFileName() + ".tmp");
+            Files.write(tmp, toPrometheus().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, dumpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudieron volcar las métricas en " + dumpFile + ": " + e.getMessage());
+        }
+    }
+}
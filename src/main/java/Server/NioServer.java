@@ -0,0 +1,589 @@
+package Server;
+
+import Logging.LogManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Clase NioServer
+ * ----------------------
+ * Modo de servidor no bloqueante basado en ServerSocketChannel y Selector.
+ *
+ * En lugar de un hilo por cliente usa:
+ * - Un hilo que acepta conexiones y las reparte entre los bucles de E/S.
+ * - Unos pocos bucles de E/S (IoLoop), cada uno con su Selector y un único
+ *   buffer de lectura compartido por todas sus conexiones.
+ * - Un pool de trabajadores que ejecuta los comandos (detección, almacenamiento),
+ *   para que un comando lento nunca detenga un bucle de E/S.
+ * - Un pool chico ("nio.fasta_threads") que escribe al disco, y descomprime,
+ *   los FASTA recibidos (FastaWriter): el bucle solo copia los bytes y sigue.
+ *   Si una conexión acumula demasiados bytes sin escribir, se deja de leerla.
+ *
+ * Cada conexión guarda solo su decodificador (RequestDecoder), la cola de
+ * respuestas pendientes y las solicitudes en espera, así que la memoria y los
+ * hilos se mantienen estables aunque crezca el número de clientes. Las
+ * respuestas pasan al bucle en pedazos de RESPONSE_CHUNK_BYTES a medida que se
+ * generan (LIST_PATIENTS se envía mientras se recorre); el trabajador espera
+ * si la conexión ya tiene MAX_QUEUED_RESPONSE_BYTES sin enviar.
+ * Las solicitudes de una misma conexión se ejecutan de a una y en orden.
+ *
+ * El pool de trabajadores tiene una cola acotada ("nio.worker_queue"); si se
+ * llena, la solicitud se responde con "ERROR 503 BUSY" en lugar de esperar.
+ * Las solicitudes entran al pool por turnos entre clientes (FairScheduler):
+ * las subidas grandes de uno no demoran las consultas de los demás.
+ *
+ * Cada conexión se anota en ConnectionRegistry, que puede pedirle al bucle que
+ * la cierre si queda inactiva o trabada a mitad de una solicitud.
+ */
+
+public class NioServer {
+    private static final int READ_BUFFER_BYTES = 64 * 1024;   // Buffer de lectura por bucle de E/S
+    private static final int MAX_PENDING_REQUESTS = 32;       // Solicitudes en espera antes de dejar de leer
+    private static final int RESPONSE_CHUNK_BYTES = 64 * 1024;           // Pedazo de respuesta que pasa al bucle
+    private static final int MAX_QUEUED_RESPONSE_BYTES = 1024 * 1024;    // Sin enviar por conexión antes de esperar
+
+    private final int port;
+    private final RequestProcessor processor;
+    private final LogManager logManager;
+    private final AdmissionController admission;
+    private final IoLoop[] loops;
+    private final ExecutorService workers;
+    private final ExecutorService fastaWriters; // Escriben los FASTA recibidos (FastaWriter)
+    private final FairScheduler scheduler;      // Reparte los trabajadores entre clientes
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Reparto del pool de trabajadores entre clientes (sus contadores van a STATS).
+     */
+
+    public FairScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Constructor del servidor NIO.
+     *
+     * @param port      Puerto donde escuchará el servidor.
+     * @param processor Procesador de solicitudes compartido.
+     * @param config    Configuración ("nio.io_threads", "nio.workers", "nio.worker_queue"
+     *                  y "nio.fasta_threads").
+     */
+
+    public NioServer(int port, RequestProcessor processor, ServerConfig config) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.port = port;
+        this.processor = processor;
+        this.logManager = processor.getLogManager();
+        this.admission = processor.getAdmission();
+        this.loops = new IoLoop[Math.max(1, config.getInt("nio.io_threads", Math.max(1, cores / 2)))];
+        int nWorkers = Math.max(1, config.getInt("nio.workers", cores * 2));
+        int queue = Math.max(1, config.getInt("nio.worker_queue", 1024));
+        this.workers = ExecutorFactory.newBoundedExecutor(nWorkers, queue);
+        this.scheduler = new FairScheduler(workers, nWorkers, queue);
+        int nWriters = Math.max(1, config.getInt("nio.fasta_threads", Math.max(2, cores / 2)));
+        AtomicInteger writerNumber = new AtomicInteger();
+        this.fastaWriters = Executors.newFixedThreadPool(nWriters, task -> {
+            Thread thread = new Thread(task, "nio-fasta-" + writerNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Abre el canal del servidor, arranca los bucles de E/S y acepta conexiones
+     * en el hilo que llama (bloqueante) hasta que el canal se cierre.
+     */
+
+    public void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop();
+            Thread thread = new Thread(loops[i], "nio-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        System.out.println("Servidor NIO escuchando en el puerto " + port + " (" + loops.length + " bucles de E/S)");
+
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                if (!admission.tryAdmitConnection()) {
+                    processor.getConnections().evictIdle(1);
+                    rejectConnection(channel);
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                logManager.logInfo("Nueva conexión establecida con cliente: " + channel.socket().getInetAddress());
+
+                // Reparto round-robin entre los bucles de E/S
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (!serverChannel.isOpen()) break;
+                System.err.println("Error aceptando conexión: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deja de aceptar conexiones (start termina). Las abiertas siguen atendiéndose.
+     */
+
+    public void stop() {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            // ya estaba cerrado
+        }
+    }
+
+    /**
+     * Apaga el pool de trabajadores y espera a que terminen las solicitudes que ya tiene.
+     *
+     * @return true si terminaron a tiempo
+     */
+
+    public boolean awaitWorkers(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        workers.shutdown();
+        boolean finished = workers.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        // Los trabajadores esperan a los escritores de FASTA: estos se apagan después
+        fastaWriters.shutdown();
+        long left = Math.max(0, deadline - System.nanoTime());
+        return fastaWriters.awaitTermination(left, TimeUnit.NANOSECONDS) && finished;
+    }
+
+    /**
+     * Bucle de eventos: un Selector y las conexiones asignadas a él.
+     * Las demás hebras nunca tocan el Selector directamente; le encargan tareas.
+     */
+
+    private class IoLoop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile Thread thread;   // Hilo del bucle (no debe esperar a nadie)
+
+        IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                Connection connection = new Connection(this, channel);
+                try {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    admission.releaseConnection();
+                    processor.getConnections().unregister(connection.stats);
+                }
+            });
+        }
+
+        /**
+         * Encarga una tarea al hilo del bucle y lo despierta.
+         */
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            // Una tarea rota no puede dejar sin bucle a las demás conexiones
+                            logManager.logError("Error en tarea del bucle NIO: " + e);
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) continue;
+                        try {
+                            if (key.isReadable()) connection.onReadable(readBuffer);
+                            if (key.isValid() && key.isWritable()) connection.flush();
+                        } catch (IOException e) {
+                            logManager.logError("Error en conexión NIO: " + e.getMessage());
+                            closeAfterError(connection);
+                        } catch (RuntimeException e) {
+                            // Un error de programa se lleva solo esta conexión, no el hilo del bucle
+                            logManager.logError("Error inesperado en conexión NIO: " + e);
+                            closeAfterError(connection);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error en bucle de E/S: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Cierra una conexión que falló; si el cierre ordenado también falla, al
+         * menos se cierra el canal para que el cliente no quede esperando.
+         */
+
+        private void closeAfterError(Connection connection) {
+            try {
+                connection.close();
+            } catch (RuntimeException e) {
+                logManager.logError("Error al cerrar conexión NIO: " + e);
+                connection.key.cancel();
+                closeQuietly(connection.channel);
+            }
+        }
+    }
+
+    /**
+     * Estado de una conexión: decodificador, solicitudes en espera y respuestas por enviar.
+     * Los campos de lectura/escritura solo se usan desde el hilo de su IoLoop;
+     * la cola de solicitudes se protege con el monitor de la conexión.
+     */
+
+    private class Connection {
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private final RequestDecoder decoder;
+        private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+        private final ReentrantLock queuedLock = new ReentrantLock();
+        private final Condition queuedDrained = queuedLock.newCondition();
+        private long queuedBytes;      // Bytes en writeQueue sin enviar (protegido por queuedLock)
+        private final ArrayDeque<Request> pending = new ArrayDeque<>();
+        private final List<Request> completed = new ArrayList<>();
+        private final ConnectionRegistry.Connection stats;   // Contadores y cierre por inactividad
+        private SelectionKey key;
+        private boolean inFlight;      // Hay una solicitud ejecutándose en el pool
+        private boolean endOfStream;   // El cliente cerró su lado de la conexión
+
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            this.decoder = new RequestDecoder(processor, channel.socket().getInetAddress().getHostAddress(), fastaWriters);
+            // El registro cierra desde su hilo: el cierre se encarga al bucle
+            this.stats = processor.getConnections().register(
+                    String.valueOf(channel.socket().getRemoteSocketAddress()), "nio", () -> loop.execute(this::close));
+        }
+
+        void onReadable(ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read == -1) {
+                endOfStream = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                closeIfDone();
+                return;
+            }
+            stats.onRead(read);
+            buffer.flip();
+            decoder.decode(buffer, completed);
+
+            for (Request request : completed) {
+                stats.requestStarted();
+                enqueue(request);
+            }
+            completed.clear();
+            stats.setReading(decoder.isReading());
+
+            if (decoder.isBackedUp()) {
+                // El disco no da abasto con este FASTA: no leer más hasta que se ponga al día
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                decoder.whenDrained(() -> loop.execute(this::resumeReading));
+            }
+        }
+
+        /**
+         * En el hilo del bucle: vuelve a leer si no hay motivo para seguir en pausa
+         * (solicitudes en espera, FASTA sin escribir o el cliente ya cerró).
+         */
+
+        private void resumeReading() {
+            if (!key.isValid()) return;
+            boolean resume;
+            synchronized (this) {
+                resume = !endOfStream && pending.size() < MAX_PENDING_REQUESTS;
+            }
+            if (resume && !decoder.isBackedUp()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+
+        private void enqueue(Request request) {
+            boolean pause;
+            synchronized (this) {
+                pending.add(request);
+                pause = pending.size() >= MAX_PENDING_REQUESTS;
+                if (!inFlight) {
+                    inFlight = true;
+                    submitNext();
+                }
+            }
+            if (pause) {
+                // Contrapresión: no leer más hasta que el pool se ponga al día
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Envía al pool la siguiente solicitud en espera. Requiere el monitor de la conexión.
+         */
+
+        private void submitNext() {
+            Request request = pending.poll();
+            try {
+                scheduler.execute(request.getClient(), FairScheduler.costOf(request),
+                        () -> respond(request, false), () -> reject(request));
+            } catch (RejectedExecutionException e) {
+                reject(request);
+            }
+        }
+
+        /**
+         * Pool saturado o apagándose: se responde 503 sin ejecutar, cuando
+         * termine de escribirse su FASTA (la respuesta es corta: el bucle la puede encolar).
+         */
+
+        private void reject(Request request) {
+            request.uploadDone().whenComplete((done, error) -> respond(request, true));
+        }
+
+        /**
+         * Ejecuta (o rechaza) la solicitud, encola su respuesta y pasa a la siguiente.
+         */
+
+        private void respond(Request request, boolean rejected) {
+            ResponseStream response = new ResponseStream();
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(response, StandardCharsets.UTF_8));
+            try {
+                logManager.logInfo("Solicitud recibida: " + request.getCommandLine());
+                request.awaitUpload();
+                if (rejected) {
+                    processor.reject(request, out);
+                } else {
+                    processor.process(request, out);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                out.println("ERROR 500 SERVER_ERROR");
+            }
+            out.flush();
+            response.finish();
+            stats.requestFinished();
+
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    inFlight = false;
+                } else {
+                    submitNext();
+                }
+            }
+            loop.execute(this::afterResponse);
+        }
+
+        /**
+         * En el hilo del bucle: envía lo pendiente y reanuda la lectura si se había pausado.
+         */
+
+        private void afterResponse() {
+            if (!key.isValid()) return;
+            try {
+                flush();
+                resumeReading();
+                closeIfDone();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * En el hilo del bucle: envía los pedazos de una respuesta en curso.
+         */
+
+        private void flushFromLoop() {
+            if (!key.isValid()) return;
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void flush() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = writeQueue.peek()) != null) {
+                stats.onWrite(channel.write(buffer));
+                if (buffer.hasRemaining()) {
+                    // El socket está lleno: esperar OP_WRITE
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeQueue.poll();
+                released(buffer.capacity());
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            closeIfDone();
+        }
+
+        private void closeIfDone() {
+            boolean idle;
+            synchronized (this) {
+                idle = !inFlight && pending.isEmpty();
+            }
+            if (endOfStream && idle && writeQueue.isEmpty()) {
+                close();
+            }
+        }
+
+        void close() {
+            if (!channel.isOpen()) return;
+            decoder.close();
+            key.cancel();
+            closeQuietly(channel);
+            released(0); // despierta a un trabajador que esperaba lugar para su respuesta
+            admission.releaseConnection();
+            processor.getConnections().unregister(stats);
+            logManager.logInfo("Conexión cerrada con cliente.");
+        }
+
+        /**
+         * Anota un pedazo de respuesta en la cola. Fuera del hilo del bucle espera
+         * mientras la conexión tenga MAX_QUEUED_RESPONSE_BYTES sin enviar; el bucle
+         * nunca espera (solo encola respuestas cortas, como un 503).
+         */
+
+        private void queue(ByteBuffer piece) throws IOException {
+            queuedLock.lock();
+            try {
+                while (queuedBytes >= MAX_QUEUED_RESPONSE_BYTES && !loop.inLoop()) {
+                    if (!channel.isOpen()) throw new IOException("Conexión cerrada");
+                    queuedDrained.await(100, TimeUnit.MILLISECONDS);
+                }
+                queuedBytes += piece.capacity();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrumpido esperando para enviar la respuesta");
+            } finally {
+                queuedLock.unlock();
+            }
+            writeQueue.add(piece);
+        }
+
+        private void released(int bytes) {
+            queuedLock.lock();
+            try {
+                queuedBytes -= bytes;
+                queuedDrained.signalAll();
+            } finally {
+                queuedLock.unlock();
+            }
+        }
+
+        /**
+         * Respuesta de una solicitud: junta hasta RESPONSE_CHUNK_BYTES y pasa cada
+         * pedazo al bucle para enviarlo mientras se sigue generando el resto.
+         */
+
+        private final class ResponseStream extends OutputStream {
+            private final ByteArrayOutputStream piece = new ByteArrayOutputStream(256);
+
+            @Override
+            public void write(int b) throws IOException {
+                piece.write(b);
+                if (piece.size() >= RESPONSE_CHUNK_BYTES) send();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int n = Math.min(len, RESPONSE_CHUNK_BYTES - piece.size());
+                    piece.write(b, off, n);
+                    off += n;
+                    len -= n;
+                    if (piece.size() >= RESPONSE_CHUNK_BYTES) send();
+                }
+            }
+
+            private void send() throws IOException {
+                queue(ByteBuffer.wrap(piece.toByteArray()));
+                piece.reset();
+                loop.execute(Connection.this::flushFromLoop);
+            }
+
+            /**
+             * Encola lo que quedó; respond avisa después al bucle con afterResponse.
+             */
+
+            void finish() {
+                if (piece.size() == 0) return;
+                try {
+                    queue(ByteBuffer.wrap(piece.toByteArray()));
+                } catch (IOException e) {
+                    // la conexión se cerró: no hay a quién enviarlo
+                }
+                piece.reset();
+            }
+        }
+    }
+
+    /**
+     * Responde "ERROR 503 BUSY" a una conexión que no se puede atender y la cierra.
+     * El canal todavía es bloqueante, así que la escritura corta termina de una vez.
+     */
+
+    private void rejectConnection(SocketChannel channel) {
+        try {
+            channel.write(ByteBuffer.wrap((admission.busyResponse() + "\n").getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // el cliente ya se fue
+        }
+        closeQuietly(channel);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nada que hacer
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package Server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clase RateLimiter
+ * ----------------------
+ * Límites de ritmo por cliente con cubetas de fichas (token bucket): cada
+ * cliente tiene una cubeta de solicitudes y otra de bytes FASTA subidos, que se
+ * llenan a ritmo constante hasta su ráfaga máxima. Lo que no tiene fichas recibe
+ * "ERROR 429 RATE_LIMITED retry_after_ms:N", con el tiempo hasta que las haya.
+ *
+ * Opciones (0 = sin límite, que es lo predeterminado):
+ * - "ratelimit.requests_per_s" y "ratelimit.request_burst" (por defecto 2 s de ritmo).
+ * - "ratelimit.upload_bytes_per_s" y "ratelimit.upload_burst_bytes" (ídem).
+ *
+ * Un FASTA más grande que la ráfaga se admite con la cubeta llena y la deja en
+ * negativo: el cliente espera lo que corresponde antes de la próxima subida.
+ *
+ * El cliente es la dirección IP: el servidor no tiene identidades autenticadas,
+ * y una identidad declarada por el cliente permitiría saltarse el límite.
+ * Las cubetas sin uso por más de un minuto se descartan. El comando RATE_LIMITS
+ * muestra los contadores y las cubetas de cada cliente.
+ */
+
+public class RateLimiter {
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int PRUNE_EVERY = 1024;       // Cada cuántas consultas se descartan cubetas viejas
+
+    private final double requestRate;
+    private final double requestBurst;
+    private final double byteRate;
+    private final double byteBurst;
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong allowedRequests = new AtomicLong();
+    private final AtomicLong throttledRequests = new AtomicLong();
+    private final AtomicLong allowedBytes = new AtomicLong();
+    private final AtomicLong throttledUploads = new AtomicLong();
+    private final AtomicLong throttledBytes = new AtomicLong();
+
+    public RateLimiter(ServerConfig config) {
+        this.requestRate = Math.max(0, config.getLong("ratelimit.requests_per_s", 0));
+        this.requestBurst = Math.max(1, config.getLong("ratelimit.request_burst", (long) (requestRate * 2)));
+        this.byteRate = Math.max(0, config.getLong("ratelimit.upload_bytes_per_s", 0));
+        this.byteBurst = Math.max(1, config.getLong("ratelimit.upload_burst_bytes", (long) (byteRate * 2)));
+    }
+
+    public boolean isEnabled() {
+        return requestRate > 0 || byteRate > 0;
+    }
+
+    /**
+     * Toma una ficha de solicitud del cliente.
+     *
+     * @return 0 si la solicitud puede seguir, o los milisegundos a esperar
+     */
+
+    public long tryRequest(String client) {
+        if (requestRate <= 0 || client == null) return 0;
+        Client bucket = bucket(client);
+        long waitMs = bucket.used(bucket.requests.take(1, requestRate, requestBurst));
+        (waitMs == 0 ? allowedRequests : throttledRequests).incrementAndGet();
+        return waitMs;
+    }
+
+    /**
+     * Toma bytes de subida del cliente para un FASTA de "bytes" bytes.
+     *
+     * @return 0 si la subida puede seguir, o los milisegundos a esperar
+     */
+
+    public long tryUpload(String client, long bytes) {
+        if (byteRate <= 0 || client == null) return 0;
+        Client bucket = bucket(client);
+        long waitMs = bucket.used(bucket.bytes.take(bytes, byteRate, byteBurst));
+        if (waitMs == 0) {
+            allowedBytes.addAndGet(bytes);
+        } else {
+            throttledUploads.incrementAndGet();
+            throttledBytes.addAndGet(bytes);
+        }
+        return waitMs;
+    }
+
+    private Client bucket(String client) {
+        if (calls.incrementAndGet() % PRUNE_EVERY == 0) prune();
+        return clients.computeIfAbsent(client, key -> new Client(key, requestBurst, byteBurst));
+    }
+
+    /**
+     * Descarta las cubetas que no se usan hace rato.
+     */
+
+    private void prune() {
+        long now = System.nanoTime();
+        clients.values().removeIf(c -> now - c.lastUsed > IDLE_NANOS);
+    }
+
+    /**
+     * Cubetas de los clientes con actividad reciente, los más limitados primero.
+     */
+
+    public List<Client> list() {
+        List<Client> list = new ArrayList<>(clients.values());
+        list.sort(Comparator.comparingLong((Client c) -> c.throttled.get()).reversed());
+        return list;
+    }
+
+    public long getRequestsPerSecond() {
+        return (long) requestRate;
+    }
+
+    public long getUploadBytesPerSecond() {
+        return (long) byteRate;
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public long getAllowedRequests() {
+        return allowedRequests.get();
+    }
+
+    public long getThrottledRequests() {
+        return throttledRequests.get();
+    }
+
+    public long getAllowedBytes() {
+        return allowedBytes.get();
+    }
+
+    public long getThrottledUploads() {
+        return throttledUploads.get();
+    }
+
+    public long getThrottledBytes() {
+        return throttledBytes.get();
+    }
+
+    /**
+     * Una cubeta: fichas disponibles, recargadas según el tiempo transcurrido.
+     */
+
+    private static class Bucket {
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        Bucket(double burst) {
+            this.tokens = burst;
+        }
+
+        /**
+         * Toma "cost" fichas si hay (o la cubeta llena, si cost supera la ráfaga).
+         *
+         * @return 0 si las tomó, o milisegundos hasta que alcancen
+         */
+
+        synchronized long take(double cost, double rate, double burst) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * rate);
+            refilledAt = now;
+            double needed = Math.min(cost, burst);
+            if (tokens >= needed) {
+                tokens -= cost;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((needed - tokens) / rate * 1000));
+        }
+
+        synchronized double peek() {
+            return tokens;
+        }
+    }
+
+    /**
+     * Las cubetas de un cliente y cuántas veces se lo limitó.
+     */
+
+    public class Client {
+        private final String key;
+        private final Bucket requests;
+        private final Bucket bytes;
+        private volatile long lastUsed = System.nanoTime();
+        private final AtomicLong throttled = new AtomicLong();
+
+        Client(String key, double requestBurst, double byteBurst) {
+            this.key = key;
+            this.requests = new Bucket(requestBurst);
+            this.bytes = new Bucket(byteBurst);
+        }
+
+        long used(long waitMs) {
+            lastUsed = System.nanoTime();
+            if (waitMs > 0) throttled.incrementAndGet();
+            return waitMs;
+        }
+
+        /**
+         * Una línea de RATE_LIMITS.
+         */
+
+        public String describe() {
+            return "CLIENT key:" + key + " request_tokens:" + (long) requests.peek()
+                    + " upload_tokens:" + (long) bytes.peek() + " throttled:" + throttled.get();
+        }
+    }
+}
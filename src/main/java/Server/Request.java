@@ -0,0 +1,371 @@
+package Server;
+
+import Protocol.Compression;
+import Storage.UploadSession;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Clase Request
+ * ----------------------
+ * Una solicitud del protocolo ya leída por completo desde la red.
+ *
+ * Contiene:
+ * - La línea de comando (ej: "RETRIEVE_PATIENT 123").
+ * - La metadata "clave: valor" enviada hasta END_METADATA (CREATE/UPDATE).
+ * - El encabezado START_FASTA y el archivo temporal donde se guardó el FASTA, si lo hubo.
+ * - En CREATE_PATIENTS n, los n pacientes del lote como solicitudes CREATE_PATIENT
+ *   (items), cada una con su metadata y su FASTA. El lote comparte un solo permiso.
+ * - En UPLOAD_CHUNK, el pedazo ya escrito en su sesión de subida (chunk).
+ * - En modo NIO, la escritura de su FASTA, que puede seguir en curso cuando la
+ *   solicitud se entrega (ver FastaWriter y awaitUpload).
+ * - El cliente que la envió (dirección IP), para los límites de ritmo y el reparto.
+ * - Su ID de solicitud (LogContext), para juntar sus líneas del log y sus eventos.
+ *
+ * Así la lógica de cada comando (RequestProcessor) no depende de cómo se leyó
+ * la conexión: hilo bloqueante (ConnectionHandler) o bucle de eventos (NioServer).
+ */
+
+public class Request {
+    public static final int MAX_BATCH_ITEMS = 1000;   // Pacientes o IDs por lote
+
+    private final String commandLine;
+    private final long receivedAt = System.nanoTime();      // Cuándo llegó la línea de comando
+    private final List<Request> items = new ArrayList<>();   // Pacientes de un CREATE_PATIENTS
+    private String client;               // Dirección del cliente (null si no se conoce)
+    private String requestId;            // ID para el log (lo pone quien la recibe)
+    private final Map<String, String> metadata = new LinkedHashMap<>();
+    private String fastaHeader;          // Línea recibida después de la metadata (si se esperaba FASTA)
+    private Path fastaFile;              // Archivo temporal con los bytes del FASTA
+    private long fastaBytesExpected;
+    private long fastaBytesReceived;
+    private long fastaReceivedAt;        // Cuándo terminó de llegar el FASTA (System.nanoTime; 0 si no hubo)
+    private AdmissionController.Permit permit;   // Permiso de admisión reservado al leer la solicitud
+    private String rejection;            // Respuesta de rechazo si no fue admitida (ej: 503 BUSY)
+    private UploadSession.ChunkWriter chunk;     // Pedazo recibido (UPLOAD_CHUNK), o null si no se aceptó
+    private CompletableFuture<Void> upload;      // Escritura del FASTA en curso (modo NIO), o null
+
+    public Request(String commandLine) {
+        this.commandLine = commandLine;
+    }
+
+    /**
+     * Momento (System.nanoTime) en que llegó la línea de comando.
+     */
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * Indica si el comando viene seguido de un bloque de metadata terminado en END_METADATA.
+     */
+
+    public static boolean expectsMetadata(String commandLine) {
+        String name = commandName(commandLine);
+        return name.equals("CREATE_PATIENT") || name.equals("UPDATE_PATIENT");
+    }
+
+    /**
+     * Indica si es "UPLOAD_CHUNK id n crc32c": sin metadata, va directo el encabezado
+     * START_FASTA con los bytes del pedazo.
+     */
+
+    public static boolean expectsChunk(String commandLine) {
+        return commandName(commandLine).equals("UPLOAD_CHUNK");
+    }
+
+    /**
+     * Indica si es un lote "CREATE_PATIENTS n": n bloques de metadata, cada uno con su FASTA.
+     */
+
+    public static boolean isBatchCreate(String commandLine) {
+        return commandName(commandLine).equals("CREATE_PATIENTS");
+    }
+
+    /**
+     * Primera palabra de la línea de comando.
+     */
+
+    public static String commandName(String commandLine) {
+        String trimmed = commandLine.trim();
+        int space = trimmed.indexOf(' ');
+        return space < 0 ? trimmed : trimmed.substring(0, space);
+    }
+
+    /**
+     * Cantidad de pacientes anunciada en "CREATE_PATIENTS n", o -1 si falta o es inválida.
+     */
+
+    public int getBatchSize() {
+        String[] parts = commandLine.trim().split(" ");
+        try {
+            int n = parts.length == 2 ? Integer.parseInt(parts[1]) : -1;
+            return n >= 0 ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Indica si, después de la metadata, viene un encabezado START_FASTA con su archivo.
+     * CREATE_PATIENT siempre lo trae; UPDATE_PATIENT solo si anuncia file_size_bytes mayor a 0.
+     * Ninguno lo trae si usa "upload_id" (el FASTA ya se subió en pedazos).
+     */
+
+    public boolean expectsFasta() {
+        if (get("upload_id") != null) return false;
+        String name = commandName(commandLine);
+        if (name.equals("CREATE_PATIENT")) return true;
+        if (name.equals("UPDATE_PATIENT")) return getLong("file_size_bytes", 0) > 0;
+        return false;
+    }
+
+    /**
+     * Palabra n de la línea de comando (0 es el comando), o null si no existe.
+     */
+
+    public String getArgument(int n) {
+        String[] parts = commandLine.trim().split(" ");
+        return n < parts.length ? parts[n] : null;
+    }
+
+    /**
+     * ID de paciente al que afecta la solicitud, para ordenar solicitudes en pipeline.
+     * Los comandos sin un paciente concreto (LIST_PATIENTS, FIND_PATIENT_BY_EMAIL,
+     * BACKUP, los lotes...) devuelven null y no tienen orden garantizado entre sí.
+     */
+
+    public String getPatientKey() {
+        String[] parts = commandLine.trim().split(" ");
+        switch (parts[0]) {
+            case "RETRIEVE_PATIENT":
+            case "DELETE_PATIENT":
+            case "FIND_PATIENT_BY_DOCUMENT":   // el ID de paciente es el documento
+                return parts.length == 2 ? parts[1] : null;
+            case "UPDATE_PATIENT":
+                return get("patient_id");
+            case "CREATE_PATIENT":
+                return get("document_id");
+            case "UPLOAD_CHUNK":
+            case "UPLOAD_STATUS":
+            case "UPLOAD_COMMIT":
+            case "UPLOAD_ABORT":
+                // Los pasos de una misma subida, en orden (ej: el COMMIT después de sus pedazos)
+                return parts.length >= 2 ? "upload:" + parts[1] : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Agrega una línea "clave: valor" de la metadata. Las líneas sin ':' se ignoran.
+     */
+
+    public void addMetadataLine(String line) {
+        int idx = line.indexOf(':');
+        if (idx <= 0) return;
+        metadata.put(line.substring(0, idx).trim(), line.substring(idx + 1).trim());
+    }
+
+    /**
+     * Agrega un par de metadata ya separado (protocolo binario).
+     */
+
+    public void putMetadata(String key, String value) {
+        metadata.put(key, value);
+    }
+
+    /**
+     * Número de bytes anunciado en un encabezado "START_FASTA n" (o, comprimido,
+     * "START_FASTA n codec m"), o -1 si es inválido o el codec no está soportado.
+     * Es lo que viaja por la red.
+     */
+
+    public static long parseFastaLength(String fastaHeader) {
+        if (fastaHeader == null || !fastaHeader.startsWith("START_FASTA")) return -1;
+        String[] parts = fastaHeader.trim().split(" ");
+        try {
+            if (parts.length > 2 && (parts.length != 4 || !Compression.isSupported(parts[2])
+                    || Long.parseLong(parts[3]) < 0)) {
+                return -1;
+            }
+            return parts.length >= 2 ? Long.parseLong(parts[1]) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Codec de un encabezado "START_FASTA n codec m", o null si el FASTA va sin comprimir.
+     */
+
+    public static String parseFastaCodec(String fastaHeader) {
+        if (parseFastaLength(fastaHeader) < 0) return null;
+        String[] parts = fastaHeader.trim().split(" ");
+        return parts.length == 4 ? parts[2] : null;
+    }
+
+    /**
+     * Tamaño del FASTA sin comprimir (lo que se escribe en disco), o -1 si el encabezado es inválido.
+     */
+
+    public static long parseFastaRawLength(String fastaHeader) {
+        if (parseFastaCodec(fastaHeader) == null) return parseFastaLength(fastaHeader);
+        return Long.parseLong(fastaHeader.trim().split(" ")[3]);
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public void setClient(String client) {
+        this.client = client;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public String getCommandLine() {
+        return commandLine;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    public String get(String key) {
+        return metadata.get(key);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        try {
+            String value = metadata.get(key);
+            return value == null ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public List<Request> getItems() {
+        return items;
+    }
+
+    public void addItem(Request item) {
+        items.add(item);
+    }
+
+    public String getFastaHeader() {
+        return fastaHeader;
+    }
+
+    public void setFastaHeader(String fastaHeader) {
+        this.fastaHeader = fastaHeader;
+    }
+
+    public Path getFastaFile() {
+        return fastaFile;
+    }
+
+    public void setFastaFile(Path fastaFile) {
+        this.fastaFile = fastaFile;
+    }
+
+    public long getFastaBytesExpected() {
+        return fastaBytesExpected;
+    }
+
+    public void setFastaBytesExpected(long fastaBytesExpected) {
+        this.fastaBytesExpected = fastaBytesExpected;
+    }
+
+    public long getFastaBytesReceived() {
+        return fastaBytesReceived;
+    }
+
+    public void setFastaBytesReceived(long fastaBytesReceived) {
+        this.fastaBytesReceived = fastaBytesReceived;
+        this.fastaReceivedAt = System.nanoTime();
+    }
+
+    /**
+     * Momento (System.nanoTime) en que terminó de llegar el FASTA, o 0 si no trajo.
+     */
+
+    public long getFastaReceivedAt() {
+        return fastaReceivedAt;
+    }
+
+    public AdmissionController.Permit getPermit() {
+        return permit;
+    }
+
+    public void setPermit(AdmissionController.Permit permit) {
+        this.permit = permit;
+    }
+
+    /**
+     * Libera el permiso de admisión, si lo tiene. Se puede llamar más de una vez.
+     */
+
+    public void releasePermit() {
+        if (permit != null) permit.close();
+    }
+
+    public UploadSession.ChunkWriter getChunk() {
+        return chunk;
+    }
+
+    public void setChunk(UploadSession.ChunkWriter chunk) {
+        this.chunk = chunk;
+    }
+
+    public void setUpload(CompletableFuture<Void> upload) {
+        this.upload = upload;
+    }
+
+    /**
+     * Se completa cuando terminaron de escribirse los FASTA de la solicitud
+     * (el suyo y los de los pacientes del lote). Ya completo si no hay ninguno en curso.
+     */
+
+    public CompletableFuture<Void> uploadDone() {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        if (upload != null) pending.add(upload);
+        for (Request item : items) {
+            if (item.upload != null) pending.add(item.upload);
+        }
+        if (pending.isEmpty()) return CompletableFuture.completedFuture(null);
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Espera a que terminen de escribirse los FASTA de la solicitud.
+     * Si la escritura falló, la solicitud ya quedó con su rechazo (ERROR 500).
+     */
+
+    public void awaitUpload() {
+        try {
+            uploadDone().join();
+        } catch (RuntimeException e) {
+            // El cierre que falló ya dejó el rechazo en la solicitud
+        }
+    }
+
+    public String getRejection() {
+        return rejection;
+    }
+
+    public void setRejection(String rejection) {
+        this.rejection = rejection;
+    }
+}
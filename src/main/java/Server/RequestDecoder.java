@@ -0,0 +1,358 @@
+package Server;
+
+import Diagnostics.FastaReceiveEvent;
+import Logging.LogContext;
+import Protocol.Compression;
+import Storage.UploadSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Clase RequestDecoder
+ * ----------------------
+ * Arma solicitudes del protocolo de texto a partir de bytes que llegan en pedazos,
+ * sin bloquear y sin usar readLine. La usa NioServer, una instancia por conexión.
+ *
+ * Es una máquina de estados:
+ * - COMMAND:      espera la línea de comando.
+ * - METADATA:     acumula líneas "clave: valor" hasta END_METADATA.
+ * - FASTA_HEADER: espera la línea "START_FASTA n" (o "START_FASTA n codec m").
+ * - FASTA_BODY:   pasa los n bytes siguientes a un FastaWriter, que los escribe
+ *                 desde otro pool en el archivo temporal (o, en UPLOAD_CHUNK, en
+ *                 su posición del archivo de la sesión), descomprimiéndolos antes
+ *                 si vienen comprimidos. El bucle de E/S no espera al disco.
+ * - DISCARD:      descarta los n bytes de una subida que no fue admitida.
+ *
+ * En "CREATE_PATIENTS n" los estados METADATA a FASTA_BODY se repiten una vez por
+ * paciente; cada uno se agrega al lote y el lote se entrega cuando llega el último.
+ *
+ * Solo guarda en memoria la línea incompleta actual y los pedazos del FASTA que
+ * el pool todavía no escribió (acotados: ver isBackedUp). La solicitud se entrega
+ * apenas llega su último byte; quien la procesa espera su escritura con
+ * Request.awaitUpload.
+ */
+
+public class RequestDecoder {
+    private static final int MAX_LINE_BYTES = 64 * 1024;   // Límite de una línea de texto
+
+    private enum State { COMMAND, METADATA, FASTA_HEADER, FASTA_BODY, DISCARD }
+
+    private final RequestProcessor processor;
+    private final String client;    // Dirección del cliente, para los límites de ritmo
+    private final Executor writers; // Pool que escribe los FASTA (FastaWriter)
+    private State state = State.COMMAND;
+    private ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(128);
+    private Request current;
+    private Request batch;          // Lote en curso (CREATE_PATIENTS), o null
+    private int batchRemaining;     // Pacientes del lote que faltan por leer
+    private WritableByteChannel fastaChannel;   // Archivo temporal o pedazo de una sesión (o su Decoder)
+    private FastaWriter fastaWriter;            // Escritura del FASTA en curso
+    private FastaWriter lastWriter;             // Último FASTA recibido (puede seguir escribiéndose)
+    private FastaReceiveEvent fastaEvent;       // Desde el encabezado hasta el último byte del FASTA
+    private long remaining;
+
+    /**
+     * @param processor procesador compartido (admisión, archivos de subida, sesiones)
+     * @param client    dirección del cliente
+     * @param writers   pool donde se escriben los FASTA recibidos
+     */
+
+    public RequestDecoder(RequestProcessor processor, String client, Executor writers) {
+        this.processor = processor;
+        this.client = client;
+        this.writers = writers;
+    }
+
+    /**
+     * Hay demasiados bytes de FASTA sin escribir: la conexión debería dejar de
+     * leer hasta que whenDrained avise.
+     */
+
+    public boolean isBackedUp() {
+        return lastWriter != null && lastWriter.isBackedUp();
+    }
+
+    /**
+     * Ejecuta la acción (una vez, desde el pool de escritura) cuando lo pendiente
+     * del último FASTA baje lo suficiente; enseguida si no hay nada pendiente.
+     */
+
+    public void whenDrained(Runnable action) {
+        if (lastWriter == null) {
+            action.run();
+        } else {
+            lastWriter.whenDrained(action);
+        }
+    }
+
+    /**
+     * Hay una solicitud empezada (ya llegó su línea de comando) que todavía no está completa.
+     */
+
+    public boolean isReading() {
+        return state != State.COMMAND;
+    }
+
+    /**
+     * Consume todos los bytes disponibles del buffer.
+     *
+     * @param in        bytes recién leídos (modo lectura)
+     * @param completed lista donde se agregan las solicitudes que quedaron completas
+     */
+
+    public void decode(ByteBuffer in, List<Request> completed) throws IOException {
+        while (in.hasRemaining()) {
+            if (state == State.FASTA_BODY) {
+                int n = (int) Math.min(remaining, in.remaining());
+                ByteBuffer chunk = in.slice();
+                chunk.limit(n);
+                fastaWriter.submit(chunk);
+                in.position(in.position() + n);
+                remaining -= n;
+                if (remaining == 0) finishFasta(completed);
+                continue;
+            }
+            if (state == State.DISCARD) {
+                int n = (int) Math.min(remaining, in.remaining());
+                in.position(in.position() + n);
+                remaining -= n;
+                if (remaining == 0) complete(completed);
+                continue;
+            }
+
+            String line = readLine(in);
+            if (line == null) return; // faltan bytes para completar la línea
+            onLine(line, completed);
+        }
+    }
+
+    /**
+     * Indica si hay una solicitud a medio recibir (para saber si la conexión se cortó en medio).
+     */
+
+    public boolean isIdle() {
+        return state == State.COMMAND && lineBuffer.size() == 0;
+    }
+
+    /**
+     * Libera el archivo temporal y el permiso de admisión de un FASTA a medio recibir.
+     */
+
+    public void close() {
+        Request owner = batch != null ? batch : current;
+        if (owner != null) owner.releasePermit();
+        if (batch != null) processor.deleteUpload(batch);
+        if (fastaChannel == null) return;
+        // El archivo se cierra y se borra después de lo que el pool ya tenía encargado
+        WritableByteChannel channel = fastaChannel;
+        Path file = current.getFastaFile();
+        fastaWriter.close(failure -> {
+            channel.close();
+            if (file != null) Files.deleteIfExists(file);
+        });
+        fastaChannel = null;
+        fastaWriter = null;
+    }
+
+    private void onLine(String line, List<Request> completed) throws IOException {
+        switch (state) {
+            case COMMAND:
+                current = new Request(line);
+                current.setClient(client);
+                current.setRequestId(LogContext.newRequestId());
+                if (Request.isBatchCreate(line)) {
+                    startBatch(completed);
+                } else if (Request.expectsMetadata(line)) {
+                    state = State.METADATA;
+                } else if (Request.expectsChunk(line)) {
+                    state = State.FASTA_HEADER;
+                } else {
+                    complete(completed);
+                }
+                break;
+
+            case METADATA:
+                if (!line.equals("END_METADATA")) {
+                    current.addMetadataLine(line);
+                } else if (current.expectsFasta()) {
+                    state = State.FASTA_HEADER;
+                } else {
+                    complete(completed);
+                }
+                break;
+
+            case FASTA_HEADER:
+                current.setFastaHeader(line);
+                long nbytes = Request.parseFastaLength(line);
+                if (nbytes < 0) {
+                    complete(completed); // el procesador responde 422
+                    break;
+                }
+                long rawBytes = Request.parseFastaRawLength(line);
+                if (!processor.getAdmission().admitFasta(batch != null ? batch : current, rawBytes)) {
+                    // Sin capacidad: se descartan los bytes y el procesador responde el rechazo
+                    remaining = nbytes;
+                    state = State.DISCARD;
+                    if (remaining == 0) complete(completed);
+                    break;
+                }
+                current.setFastaBytesExpected(rawBytes);
+                if (Request.expectsChunk(current.getCommandLine())) {
+                    UploadSession.ChunkWriter chunk = processor.openChunk(current, rawBytes);
+                    if (chunk == null) {
+                        // Sesión o pedazo inválido: el procesador responde el error
+                        remaining = nbytes;
+                        state = State.DISCARD;
+                        if (remaining == 0) complete(completed);
+                        break;
+                    }
+                    current.setChunk(chunk);
+                    fastaChannel = chunk;
+                } else {
+                    Path upload = processor.newUploadFile();
+                    current.setFastaFile(upload);
+                    fastaChannel = FileChannel.open(upload, StandardOpenOption.WRITE);
+                }
+                String codec = Request.parseFastaCodec(line);
+                if (codec != null) {
+                    fastaChannel = Compression.decoder(codec, fastaChannel, rawBytes);
+                }
+                fastaWriter = new FastaWriter(fastaChannel, writers);
+                lastWriter = fastaWriter;
+                current.setUpload(fastaWriter.getDone());
+                remaining = nbytes;
+                state = State.FASTA_BODY;
+                fastaEvent = new FastaReceiveEvent();
+                fastaEvent.begin();
+                if (remaining == 0) finishFasta(completed);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Llegó el último byte del FASTA: la solicitud se entrega ya y el cierre
+     * (verificar la descompresión, cerrar el archivo, el evento JFR) corre en el
+     * pool después de la última escritura.
+     */
+
+    private void finishFasta(List<Request> completed) {
+        Request request = current;
+        String requestId = (batch != null ? batch : current).getRequestId();
+        WritableByteChannel channel = fastaChannel;
+        FastaReceiveEvent event = fastaEvent;
+        String codec = Request.parseFastaCodec(current.getFastaHeader());
+        fastaWriter.close(failure -> {
+            LogContext.open(requestId, client);
+            try {
+                if (failure != null) {
+                    processor.getLogManager().logError("Error escribiendo FASTA (" + request.getCommandLine() + "): " + failure.getMessage());
+                    request.setRejection("ERROR 500 SERVER_ERROR");
+                } else if (channel instanceof Compression.Decoder) {
+                    Compression.Decoder decoder = (Compression.Decoder) channel;
+                    String error = decoder.finish();
+                    if (error != null) {
+                        // Los bytes ya se consumieron: se rechaza solo esta solicitud
+                        processor.getLogManager().logError("FASTA comprimido rechazado (" + request.getCommandLine() + "): " + error);
+                        request.setRejection("ERROR 422 INVALID_COMPRESSED_FASTA");
+                    } else {
+                        processor.recordCompression(codec, decoder.getCompressedBytes(), decoder.getRawBytes());
+                    }
+                }
+            } finally {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    if (request.getRejection() == null) request.setRejection("ERROR 500 SERVER_ERROR");
+                }
+                request.setFastaBytesReceived(request.getFastaBytesExpected());
+                event.finish(requestId, "nio", client, codec == null ? Compression.IDENTITY : codec, request.getFastaBytesExpected());
+                LogContext.clear();
+            }
+        });
+        fastaChannel = null;
+        fastaWriter = null;
+        fastaEvent = null;
+        complete(completed);
+    }
+
+    /**
+     * Empieza a leer "CREATE_PATIENTS n". Un lote inválido se entrega de inmediato;
+     * uno demasiado grande se lee igual (y se descarta) para no perder el hilo del protocolo.
+     */
+
+    private void startBatch(List<Request> completed) {
+        int n = current.getBatchSize();
+        if (n < 0) {
+            current.setRejection("ERROR 400 BAD_REQUEST");
+            complete(completed);
+            return;
+        }
+        if (n > Request.MAX_BATCH_ITEMS) {
+            current.setRejection("ERROR 413 BATCH_TOO_LARGE max_items:" + Request.MAX_BATCH_ITEMS);
+        }
+        if (n == 0) {
+            complete(completed);
+            return;
+        }
+        batch = current;
+        batchRemaining = n;
+        current = new Request("CREATE_PATIENT");
+        state = State.METADATA;
+    }
+
+    private void complete(List<Request> completed) {
+        if (batch != null) {
+            // Terminó un paciente del lote: se pasa al siguiente o se entrega el lote
+            batch.addItem(current);
+            if (--batchRemaining > 0) {
+                current = new Request("CREATE_PATIENT");
+                state = State.METADATA;
+                return;
+            }
+            current = batch;
+            batch = null;
+        }
+        completed.add(current);
+        current = null;
+        state = State.COMMAND;
+    }
+
+    /**
+     * Acumula bytes hasta encontrar un salto de línea.
+     *
+     * @return la línea sin "\r\n", o null si todavía no llegó completa
+     */
+
+    private String readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                byte[] bytes = lineBuffer.toByteArray();
+                int length = bytes.length;
+                if (length > 0 && bytes[length - 1] == '\r') length--;
+                String line = new String(bytes, 0, length, StandardCharsets.UTF_8);
+                // No conservar buffers grandes en conexiones inactivas
+                lineBuffer = lineBuffer.size() > 1024 ? new ByteArrayOutputStream(128) : lineBuffer;
+                lineBuffer.reset();
+                return line;
+            }
+            lineBuffer.write(b);
+            if (lineBuffer.size() > MAX_LINE_BYTES) {
+                throw new IOException("Línea demasiado larga (más de " + MAX_LINE_BYTES + " bytes)");
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,1477 @@
+package Server;
+
+import Diagnostics.DiseaseDetectionEvent;
+import Logging.LogContext;
+import Logging.LogManager;
+import Model.Patient;
+import Model.Disease;
+import Model.DetectionReport;
+import Protocol.Compression;
+import Storage.BackupManager;
+import Storage.CsvManager;
+import Storage.UploadManager;
+import Storage.UploadSession;
+import validation.FastaValidator;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Clase RequestProcessor
+ * ----------------------
+ * Ejecuta los comandos del protocolo sobre una solicitud ya leída (Request)
+ * y escribe la respuesta en un PrintWriter.
+ *
+ * No sabe nada de sockets: la comparten el modo bloqueante (ConnectionHandler,
+ * un hilo por cliente) y el modo de bucle de eventos (NioServer). Es segura
+ * para usar desde varios hilos a la vez, porque no guarda estado por solicitud.
+ *
+ * Mientras el servidor se apaga (startDraining) las solicitudes que llegan
+ * reciben "ERROR 503 SHUTTING_DOWN retry_after_ms:N"; las que ya estaban
+ * llegando o ejecutándose terminan normalmente.
+ *
+ * Cada solicitud anota en Metrics su latencia (por comando) y la de sus etapas
+ * (recepción, espera, validación, checksum, almacenamiento, detección); el
+ * comando STATS las muestra.
+ */
+
+public class RequestProcessor {
+    private static final int DEFAULT_PAGE_SIZE = 100;  // Pacientes por página en LIST_PATIENTS
+    private static final int MAX_PAGE_SIZE = 1000;     // Límite superior de una página
+    private static final Path UPLOAD_DIR = Paths.get("data/uploads");
+    private static final Path FASTA_DIR = Paths.get("data");
+    private static final AtomicLong FASTA_SEQUENCE = new AtomicLong();   // Sufijo único de los FASTA guardados
+    // Comandos con histograma propio; el resto se agrupa en "OTHER" (para no crear uno por línea inválida)
+    private static final Set<String> COMMANDS = Set.of("CREATE_PATIENT", "CREATE_PATIENTS", "RETRIEVE_PATIENT",
+            "RETRIEVE_PATIENTS", "UPDATE_PATIENT", "DELETE_PATIENT", "LIST_PATIENTS", "FIND_PATIENT_BY_DOCUMENT",
+            "FIND_PATIENT_BY_EMAIL", "COMPRESSION", "UPLOAD_OPEN", "UPLOAD_CHUNK", "UPLOAD_STATUS", "UPLOAD_COMMIT",
+            "UPLOAD_ABORT", "CONNECTIONS", "RATE_LIMITS", "STATS", "SHUTDOWN", "JFR_DUMP", "BACKUP", "PING");
+
+    private DiseaseDatabase diseaseDatabase;
+    private CsvManager csvManager;
+    private BackupManager backupManager;
+    private LogManager logManager;
+    private AdmissionController admission;
+    private UploadManager uploads;
+    private ConnectionRegistry connections;
+    private Metrics metrics;
+    private final AtomicLong compressedUploads = new AtomicLong();    // FASTA recibidos comprimidos
+    private final AtomicLong compressedWireBytes = new AtomicLong();  // ...bytes que viajaron por la red
+    private final AtomicLong compressedRawBytes = new AtomicLong();   // ...y bytes una vez descomprimidos
+    private volatile boolean draining;          // El servidor se está apagando
+    private volatile long drainingSince;        // System.nanoTime de cuando empezó a apagarse
+    private String adminToken;                  // Clave de SHUTDOWN, BACKUP, CONNECTIONS y JFR_DUMP (null = desactivados)
+    private LongConsumer shutdownAction;        // Apaga el servidor con el plazo dado (ms, -1 = por defecto)
+    private FlightRecording flightRecording;    // Grabación JFR para JFR_DUMP (null = desactivada)
+
+    // Validación y detección en paralelo de los lotes (CREATE_PATIENTS)
+    private final ExecutorService batchWorkers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "batch-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Constructor del procesador de solicitudes.
+     *
+     * @param diseaseDatabase Base de datos de enfermedades
+     * @param csvManager      Gestor de almacenamiento CSV
+     * @param backupManager   Gestor de respaldos en caliente
+     * @param logManager      Log del servidor
+     * @param admission       Control de admisión (límites de concurrencia y de bytes FASTA)
+     * @param uploads         Sesiones de subida en pedazos
+     * @param connections     Registro de conexiones abiertas (comando CONNECTIONS)
+     * @param metrics         Latencias y contadores (comando STATS)
+     */
+
+    public RequestProcessor(DiseaseDatabase diseaseDatabase, CsvManager csvManager,
+                            BackupManager backupManager, LogManager logManager,
+                            AdmissionController admission, UploadManager uploads,
+                            ConnectionRegistry connections, Metrics metrics) {
+        this.diseaseDatabase = diseaseDatabase;
+        this.csvManager = csvManager;
+        this.backupManager = backupManager;
+        this.logManager = logManager;
+        this.admission = admission;
+        this.uploads = uploads;
+        this.connections = connections;
+        this.metrics = metrics;
+    }
+
+    public LogManager getLogManager() {
+        return logManager;
+    }
+
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    public ConnectionRegistry getConnections() {
+        return connections;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Habilita el comando "SHUTDOWN clave [plazo_ms]". La misma clave habilita
+     * "BACKUP clave" y "CONNECTIONS clave".
+     *
+     * @param adminToken clave que debe enviar el cliente; null o vacía lo deja desactivado
+     * @param action     apaga el servidor (se llama después de responder)
+     */
+
+    public void setShutdownAction(String adminToken, LongConsumer action) {
+        this.adminToken = adminToken;
+        this.shutdownAction = action;
+    }
+
+    /**
+     * Habilita el comando "JFR_DUMP clave" (con la misma clave que SHUTDOWN).
+     */
+
+    public void setFlightRecording(FlightRecording flightRecording) {
+        this.flightRecording = flightRecording;
+    }
+
+    /**
+     * Desde ahora las solicitudes nuevas se rechazan con 503 SHUTTING_DOWN.
+     */
+
+    public void startDraining() {
+        drainingSince = System.nanoTime();
+        draining = true;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Espera a que terminen los lotes en curso y libera sus hilos.
+     */
+
+    public void shutdown(long timeoutMs) throws InterruptedException {
+        batchWorkers.shutdown();
+        batchWorkers.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Crea un archivo temporal donde recibir los bytes de un FASTA.
+     * Si la solicitud falla se borra; si tiene éxito se mueve a su nombre final.
+     */
+
+    public Path newUploadFile() throws IOException {
+        Files.createDirectories(UPLOAD_DIR);
+        return Files.createTempFile(UPLOAD_DIR, "upload-", ".part");
+    }
+
+    /**
+     * Borra los temporales de subidas que quedaron de una ejecución anterior
+     * (un corte del proceso antes de terminar de recibirlos). Se llama al arrancar.
+     *
+     * @return cuántos borró
+     */
+
+    public int deleteStaleUploads() throws IOException {
+        if (!Files.isDirectory(UPLOAD_DIR)) return 0;
+        int deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(UPLOAD_DIR, "upload-*.part")) {
+            for (Path file : stream) {
+                if (Files.deleteIfExists(file)) deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Anota un FASTA recibido comprimido: deja su tasa de compresión en el log y
+     * la suma a los totales (getCompressionRatio).
+     */
+
+    public void recordCompression(String codec, long wireBytes, long rawBytes) {
+        compressedUploads.incrementAndGet();
+        compressedWireBytes.addAndGet(wireBytes);
+        compressedRawBytes.addAndGet(rawBytes);
+        logManager.logInfo(String.format("FASTA comprimido (%s): %d -> %d bytes, tasa %.2f (acumulada %.2f en %d subidas)",
+                codec, wireBytes, rawBytes, ratio(rawBytes, wireBytes), getCompressionRatio(), compressedUploads.get()));
+    }
+
+    /**
+     * Bytes sin comprimir / bytes en la red de todos los FASTA recibidos comprimidos (0 si no hubo).
+     */
+
+    public double getCompressionRatio() {
+        return ratio(compressedRawBytes.get(), compressedWireBytes.get());
+    }
+
+    public long getCompressedUploads() {
+        return compressedUploads.get();
+    }
+
+    private static double ratio(long rawBytes, long wireBytes) {
+        return wireBytes == 0 ? 0 : (double) rawBytes / wireBytes;
+    }
+
+    /**
+     * Prepara la escritura del pedazo de "UPLOAD_CHUNK id n crc32c" en su sesión.
+     *
+     * @param nbytes bytes anunciados para el pedazo
+     * @return destino de los bytes, o null si la sesión no existe o el pedazo no
+     *         es válido (el procesador responde el error al ejecutar la solicitud)
+     */
+
+    public UploadSession.ChunkWriter openChunk(Request request, long nbytes) throws IOException {
+        UploadSession session = uploads.get(request.getArgument(1));
+        if (session == null || parseCrc(request.getArgument(3)) < 0) return null;
+        try {
+            return session.openChunk(Integer.parseInt(request.getArgument(2)), nbytes);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+    * Procesa una solicitud que llegó desde el cliente.
+    * Se analiza la línea de comando para determinar qué operación del protocolo ejecutar.
+    *
+    * @param request solicitud completa enviada por el cliente.
+    * @param out     flujo donde se escribe la respuesta.
+    */
+
+    public void process(Request request, PrintWriter out) {
+        String command = request.getCommandLine();
+        if (request.getRequestId() == null) request.setRequestId(LogContext.newRequestId());
+        LogContext.open(request.getRequestId(), request.getClient());
+        long bytes = recordReceive(request);
+        StatusWriter status = new StatusWriter(out);
+        out = status;
+        try {
+            // Rechazada al leerla (subida sin capacidad): se responde sin ejecutar nada
+            if (request.getRejection() != null) {
+                logManager.logError("Solicitud rechazada (" + request.getRejection() + "): " + command);
+                out.println(request.getRejection());
+                return;
+            }
+
+            // Keep-alive: no ocupa lugar de consulta, así responde aunque el servidor esté lleno
+            if (Request.commandName(command).equals("PING")) { // --> PING
+                out.println("PONG");
+                return;
+            }
+
+            // Apagándose: lo que llegó después de empezar a apagar se rechaza
+            if (draining && request.getReceivedAt() - drainingSince >= 0) {
+                logManager.logError("Servidor apagándose, solicitud rechazada: " + command);
+                out.println(admission.shuttingDownResponse());
+                return;
+            }
+
+            // Las subidas ya traen su permiso; el resto pide uno de consulta
+            if (request.getPermit() == null) {
+                String throttled = admission.throttle(request);
+                if (throttled != null) {
+                    logManager.logError("Cliente " + request.getClient() + " limitado (" + throttled + "): " + command);
+                    out.println(throttled);
+                    return;
+                }
+                AdmissionController.Permit permit = admission.tryAdmitLookup();
+                if (permit == null) {
+                    reject(request, out);
+                    return;
+                }
+                request.setPermit(permit);
+            }
+            dispatch(request, command, out);
+        } finally {
+            request.releasePermit();
+            // El temporal solo sobrevive si el comando lo movió a su nombre final
+            deleteUpload(request);
+            status.flush();
+            long nanos = System.nanoTime() - request.getReceivedAt();
+            metrics.recordCommand(commandLabel(command), nanos);
+            logManager.logRequest(commandLabel(command), nanos, bytes, status.outcome());
+            LogContext.clear();
+        }
+    }
+
+    /**
+     * PrintWriter que pasa todo al de la conexión y se queda con el comienzo de
+     * la primera línea de la respuesta: el resultado que va al log ("OK", "201",
+     * "ERROR 404"...). Es del procesador, así no hay que anotarlo en cada comando.
+     */
+
+    private static final class StatusWriter extends PrintWriter {
+        private static final int MAX_STATUS_CHARS = 64;
+        private final StringBuilder firstLine = new StringBuilder(32);
+        private boolean complete;
+
+        StatusWriter(PrintWriter out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) {
+            capture((char) c);
+            super.write(c);
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            for (int i = 0; i < len && !complete; i++) capture(buf[off + i]);
+            super.write(buf, off, len);
+        }
+
+        @Override
+        public void write(String s, int off, int len) {
+            for (int i = 0; i < len && !complete; i++) capture(s.charAt(off + i));
+            super.write(s, off, len);
+        }
+
+        private void capture(char c) {
+            if (complete) return;
+            if (c == '\n' || c == '\r' || firstLine.length() >= MAX_STATUS_CHARS) {
+                complete = true;
+            } else {
+                firstLine.append(c);
+            }
+        }
+
+        /**
+         * Primera palabra de la respuesta; con "ERROR", también el código.
+         */
+        String outcome() {
+            String[] words = firstLine.toString().trim().split(" ", 3);
+            if (words[0].isEmpty()) return null;
+            return words[0].equals("ERROR") && words.length > 1 ? "ERROR " + words[1] : words[0];
+        }
+    }
+
+    /**
+     * Anota la recepción de la solicitud: "upload" (hasta el último byte del
+     * FASTA, si trajo), "queue" (desde entonces hasta ahora) y los bytes ingeridos.
+     *
+     * @return bytes FASTA recibidos con la solicitud
+     */
+
+    private long recordReceive(Request request) {
+        long now = System.nanoTime();
+        long received = request.getReceivedAt();
+        long bytes = request.getFastaBytesReceived();
+        for (Request item : request.getItems()) {
+            bytes += item.getFastaBytesReceived();
+            if (item.getFastaReceivedAt() != 0) received = Math.max(received, item.getFastaReceivedAt());
+        }
+        if (request.getFastaReceivedAt() != 0) received = Math.max(received, request.getFastaReceivedAt());
+        if (received != request.getReceivedAt()) {
+            metrics.recordStage("upload", received - request.getReceivedAt());
+            logManager.logStage("upload", received - request.getReceivedAt(), null, bytes, "OK");
+        }
+        metrics.recordStage("queue", now - received);
+        metrics.addBytesIngested(bytes);
+        return bytes;
+    }
+
+    /**
+     * Anota una etapa que empezó en "startNanos": su histograma en Metrics y un
+     * evento DEBUG en el log con el paciente, los bytes y el resultado.
+     *
+     * @param patientId paciente, o null para el de la solicitud (LogContext)
+     * @param bytes     bytes procesados, o -1 si no aplica
+     */
+
+    private void stage(String stage, long startNanos, Object patientId, long bytes, String outcome) {
+        long nanos = System.nanoTime() - startNanos;
+        metrics.recordStage(stage, nanos);
+        logManager.logStage(stage, nanos, patientId, bytes, outcome);
+    }
+
+    private static String commandLabel(String command) {
+        String name = Request.commandName(command);
+        return COMMANDS.contains(name) ? name : "OTHER";
+    }
+
+    /**
+     * Responde "ERROR 503 BUSY" sin ejecutar la solicitud y libera lo que tenía reservado.
+     * La usan process y los servidores cuando su propia cola está llena.
+     */
+
+    public void reject(Request request, PrintWriter out) {
+        logManager.logError("Servidor saturado, solicitud rechazada: " + request.getCommandLine());
+        out.println(admission.busyResponse());
+        request.releasePermit();
+        deleteUpload(request);
+    }
+
+    private void dispatch(Request request, String command, PrintWriter out) {
+        // Lotes (antes que los comandos individuales, que empiezan igual)
+        if (Request.isBatchCreate(command)) { // --> CREATE_PATIENTS n, seguido de n pacientes
+            handleCreatePatients(request, out);
+
+        } else if (Request.commandName(command).equals("RETRIEVE_PATIENTS")) { // --> RETRIEVE_PATIENTS id1 id2 ...
+            handleRetrievePatients(command, out);
+
+        // Crea paciente
+        } else if (command.startsWith("CREATE_PATIENT")) { // --> Crear un nuevo paciente (llama a handleCreatePatient)
+            logManager.logInfo("Procesando creación de paciente...");
+            handleCreatePatient(request, out);
+
+         //Consultar paciente por ID
+        } else if (command.startsWith("RETRIEVE_PATIENT")) { // --> Consultar un paciente por su ID.
+            String[] parts = command.split(" ");
+            if (parts.length == 2) {
+                logManager.logInfo("Consultando paciente ID: " + parts[1]);
+                handleRetrievePatient(parts[1], out); // partes[1] es el ID
+            } else {
+                logManager.logError("Error 400: solicitud inválida en RETRIEVE_PATIENT");
+                out.println("ERROR 400 BAD_REQUEST"); // El formato es inválido
+            }
+
+        // Actualizar paciente
+        } else if (command.startsWith("UPDATE_PATIENT")) {  // --> Actualizar la información de un paciente existente.
+            logManager.logInfo("Actualización de paciente en proceso...");
+            handleUpdatePatient(request, out);  // Actualizar la información de un paciente existente
+
+        // Eliminar paciente por el ID (borrado lógico)
+        } else if (command.startsWith("DELETE_PATIENT")) { // --> Eliminar (lógicamente) un paciente por su ID.
+            String[] parts = command.split(" ");
+            if (parts.length == 2) {
+                 logManager.logInfo("Eliminando paciente ID: " + parts[1]);
+                handleDeletePatient(parts[1], out); // partes[1] es el ID.
+            } else {
+                logManager.logError("Error 400: solicitud inválida en DELETE_PATIENT");
+                out.println("ERROR 400 BAD_REQUEST");
+            }
+
+        // Listar pacientes paginados por ID
+        } else if (command.startsWith("LIST_PATIENTS")) { // --> LIST_PATIENTS [afterId] [limit] [filtro]
+            handleListPatients(command, out);
+
+        // Buscar paciente por documento o email (índices secundarios)
+        } else if (command.startsWith("FIND_PATIENT_BY_DOCUMENT")) { // --> FIND_PATIENT_BY_DOCUMENT documentID
+            String[] parts = command.split(" ");
+            if (parts.length == 2) {
+                logManager.logInfo("Buscando paciente por documento: " + parts[1]);
+                sendPatient(csvManager.getPatientByDocument(parts[1]), "documento " + parts[1], out);
+            } else {
+                logManager.logError("Error 400: solicitud inválida en FIND_PATIENT_BY_DOCUMENT");
+                out.println("ERROR 400 BAD_REQUEST");
+            }
+
+        } else if (command.startsWith("FIND_PATIENT_BY_EMAIL")) { // --> FIND_PATIENT_BY_EMAIL email
+            String[] parts = command.split(" ");
+            if (parts.length == 2) {
+                logManager.logInfo("Buscando paciente por email: " + parts[1]);
+                sendPatient(csvManager.getPatientByEmail(parts[1]), "email " + parts[1], out);
+            } else {
+                logManager.logError("Error 400: solicitud inválida en FIND_PATIENT_BY_EMAIL");
+                out.println("ERROR 400 BAD_REQUEST");
+            }
+
+        // Negociación de compresión de los FASTA (protocolo de texto)
+        } else if (Request.commandName(command).equals("COMPRESSION")) { // --> COMPRESSION deflate[,otro...]
+            String codec = Compression.negotiate(request.getArgument(1));
+            logManager.logInfo("Compresión negociada: " + codec);
+            out.println("OK COMPRESSION " + codec);
+
+        // Subidas en pedazos que se pueden retomar
+        } else if (Request.commandName(command).startsWith("UPLOAD_")) { // --> UPLOAD_OPEN/CHUNK/STATUS/COMMIT/ABORT
+            handleUpload(request, out);
+
+        // Conexiones abiertas y lo que consume cada una
+        } else if (Request.commandName(command).equals("CONNECTIONS")) { // --> CONNECTIONS clave
+            handleConnections(request, out);
+
+        // Límites de ritmo por cliente
+        } else if (Request.commandName(command).equals("RATE_LIMITS")) { // --> RATE_LIMITS
+            handleRateLimits(out);
+
+        // Latencias por comando y etapa, y contadores del servidor
+        } else if (Request.commandName(command).equals("STATS")) { // --> STATS
+            metrics.writeStats(out);
+
+        // Apagado ordenado (reinicios sin perder trabajo)
+        } else if (Request.commandName(command).equals("SHUTDOWN")) { // --> SHUTDOWN clave [plazo_ms]
+            handleShutdown(request, out);
+
+        } else if (Request.commandName(command).equals("JFR_DUMP")) { // --> JFR_DUMP clave
+            handleJfrDump(request, out);
+
+        // Respaldo incremental en caliente
+        } else if (Request.commandName(command).equals("BACKUP")) { // --> BACKUP clave
+            handleBackup(request, out);
+
+        // Negociación de protocolo fuera de lugar (o en un modo que no la soporta, como NIO):
+        // el cliente sigue en texto
+        } else if (command.startsWith("PROTOCOL")) {
+            logManager.logError("Negociación de protocolo no soportada aquí: " + command);
+            out.println("ERROR 400 UNSUPPORTED_PROTOCOL");
+
+        // Comando no reconocido
+        } else {
+            logManager.logError("Comando desconocido recibido: " + command);
+            out.println("ERROR 400 UNKNOWN_COMMAND");
+        }
+    }
+
+     /**
+     * Crea un nuevo paciente a partir de la metadata y el archivo FASTA recibido.
+     * Valida formato, checksum, y almacena en el CSV.
+     */
+        private void handleCreatePatient(Request request, PrintWriter out) {
+            try {
+                logManager.logInfo("Iniciando creación de paciente...");
+
+                NewPatient created = prepareNewPatient(request);
+                if (created.error != null) {
+                    out.println(created.error);
+                    return;
+                }
+                Patient patient = created.patient;
+                LogContext.setPatientId(patient.getPatientID());
+
+                // El FASTA pasa a su nombre definitivo antes de registrar al paciente
+                long storageStart = System.nanoTime();
+                File patientFasta = newFastaPath(patient.getPatientID()).toFile();
+                moveUpload(created.upload, created.session, patientFasta.toPath());
+
+                CsvManager.WriteResult result = csvManager.insertPatientIfAbsent(patient);
+                if (result != CsvManager.WriteResult.OK) {
+                    logManager.logStage("storage", System.nanoTime() - storageStart, null,
+                            patient.getFileSizeBytes(), result.name());
+                    Files.deleteIfExists(patientFasta.toPath());
+                    out.println(writeFailure(result, patient.getDocumentID(), patient.getContactEmail()));
+                    return;
+                }
+                csvManager.registerFasta(patientFasta.toPath());
+                stage("storage", storageStart, null, patient.getFileSizeBytes(), result.name());
+                out.println("201 CREATED patient_id: " + patient.getPatientID());
+                logManager.logInfo("Paciente creado exitosamente con ID: " + patient.getPatientID());
+
+                // Detectar enfermedades
+                List<DetectionReport> reports = detectDiseases(patient, patientFasta.getAbsolutePath());
+                long reportsStart = System.nanoTime();
+                for (DetectionReport r : reports) {
+                    csvManager.appendReport(r);
+                    out.println("DETECTION " + r.toString());
+                }
+                stage("reports", reportsStart, null, -1, "OK");
+
+            } catch (IOException e) {
+                e.printStackTrace();
+                logManager.logError("Error en creación de paciente: " + e.getMessage());
+                out.println("ERROR 500 SERVER_ERROR");
+            }
+        }
+
+    /**
+     * Paciente listo para insertar, o la respuesta de error si la solicitud no es válida.
+     */
+
+    private static class NewPatient {
+        Patient patient;
+        Path upload;
+        UploadSession session;   // Si el FASTA vino de una subida en pedazos (upload_id)
+        String error;
+
+        static NewPatient failed(String error) {
+            NewPatient created = new NewPatient();
+            created.error = error;
+            return created;
+        }
+    }
+
+    /**
+     * Valida la metadata y el FASTA de una creación (formato, checksum, documento,
+     * duplicado y edad) y arma el paciente. No escribe nada.
+     */
+
+    private NewPatient prepareNewPatient(Request request) throws IOException {
+        // Paciente de un lote cuyo FASTA no se pudo recibir (ej: datos comprimidos inválidos)
+        if (request.getRejection() != null) {
+            return NewPatient.failed(request.getRejection());
+        }
+        String fastaChecksum = request.get("checksum_fasta");
+        long fastaSize = request.getLong("file_size_bytes", 0);
+
+        // El FASTA llegó con la solicitud o ya se subió en pedazos (upload_id)
+        Path upload = request.getFastaFile();
+        UploadSession session = null;
+        if (request.get("upload_id") != null) {
+            session = uploads.get(request.get("upload_id"));
+            String error = checkUpload(session, request.get("upload_id"));
+            if (error != null) return NewPatient.failed(error);
+            upload = session.getDataFile();
+            fastaSize = session.getTotalBytes();
+        }
+
+        // Validación del encabezado FASTA
+        if (upload == null) {
+            logManager.logError("Fallo creación paciente: encabezado FASTA inválido.");
+            return NewPatient.failed("ERROR 422 INVALID_FASTA_HEADER");
+        }
+
+        // Validaciones
+        long validationStart = System.nanoTime();
+        boolean valid = FastaValidator.isValidFormat(upload.toString());
+        stage("validation", validationStart, request.get("document_id"), fastaSize, valid ? "OK" : "INVALID");
+        if (!valid) {
+            logManager.logError("Fallo creación paciente: archivo FASTA inválido.");
+            return NewPatient.failed("ERROR 422 INVALID_FASTA");
+        }
+
+        // El de una subida ya se verificó al confirmarla
+        String realChecksum = session != null ? session.getChecksum() : checksum(upload, request.get("document_id"));
+        if (fastaChecksum != null && !fastaChecksum.equalsIgnoreCase(realChecksum)) {
+            logManager.logError("Fallo creación paciente: checksum no coincide.");
+            return NewPatient.failed("ERROR 422 CHECKSUM_MISMATCH");
+        }
+
+        String documentID = request.get("document_id");
+        if (documentID == null) {
+            logManager.logError("Fallo creación paciente: falta document_id.");
+            return NewPatient.failed("ERROR 400 MISSING_DOCUMENT_ID");
+        }
+
+        int patientId;
+        try {
+            patientId = Integer.parseInt(documentID);
+        } catch (NumberFormatException e) {
+            logManager.logError("Fallo creación paciente: document_id inválido.");
+            return NewPatient.failed("ERROR 400 INVALID_DOCUMENT_ID");
+        }
+
+        // Validación rápida de duplicado (la definitiva es atómica al insertar)
+        long lookupStart = System.nanoTime();
+        Patient existing = csvManager.getPatientByDocument(documentID);
+        stage("lookup", lookupStart, documentID, -1, existing != null ? "DUPLICATE" : "OK");
+        if (existing != null) {
+            logManager.logError("Fallo creación paciente: document_id duplicado (" + documentID + ")");
+            return NewPatient.failed("ERROR 409 DUPLICATE_DOCUMENT_ID");
+        }
+
+        // Extraer más metadata
+        String fullName = request.get("full_name");
+        String ageStr = request.get("age");
+        String sex = request.get("sex");
+        String email = request.get("contact_email");
+        String notes = request.get("clinical_notes");
+
+        int age = 0;
+        try {
+            age = Integer.parseInt(ageStr);
+        } catch (NumberFormatException e) {
+            logManager.logError("Fallo creación paciente: edad inválida.");
+            return NewPatient.failed("ERROR 400 INVALID_AGE");
+        }
+
+        NewPatient created = new NewPatient();
+        created.patient = new Patient(fullName, documentID, age, sex, email,
+                java.time.LocalDateTime.now(), notes, realChecksum, fastaSize);
+        created.patient.setPatientID(patientId);
+        created.upload = upload;
+        created.session = session;
+        return created;
+    }
+
+    /**
+     * Checksum del FASTA recibido, anotando la etapa "checksum".
+     */
+
+    private String checksum(Path upload, String patientId) throws IOException {
+        long start = System.nanoTime();
+        String checksum = null;
+        try {
+            checksum = FastaValidator.calculateChecksum(upload.toString());
+            return checksum;
+        } finally {
+            stage("checksum", start, patientId, -1, checksum != null ? "OK" : "ERROR");
+        }
+    }
+
+    /**
+     * Error a responder si la subida de "upload_id" no se puede usar, o null.
+     */
+
+    private String checkUpload(UploadSession session, String uploadId) {
+        if (session == null) {
+            logManager.logError("Subida no encontrada: " + uploadId);
+            return "ERROR 404 UPLOAD_NOT_FOUND";
+        }
+        if (!session.isCommitted()) {
+            logManager.logError("Subida sin confirmar: " + uploadId);
+            return "ERROR 409 UPLOAD_NOT_COMMITTED missing:" + session.missingRanges();
+        }
+        return null;
+    }
+
+    /**
+     * Nombre definitivo para el FASTA de un paciente:
+     * "data/patient_<id>_<milisegundos>_<secuencia>.fasta". Las creaciones y
+     * actualizaciones corren en paralelo (pipelining, NIO, HTTP, hilos virtuales),
+     * así que el nombre no puede depender solo de la hora.
+     */
+
+    private static Path newFastaPath(int patientId) {
+        return FASTA_DIR.resolve("patient_" + patientId + "_" + System.currentTimeMillis()
+                + "_" + FASTA_SEQUENCE.incrementAndGet() + ".fasta");
+    }
+
+    /**
+     * Mueve el FASTA recibido a su nombre final. Si vino de una sesión de subida,
+     * primero la toma (una sola solicitud puede usarla) y al final la cierra; si
+     * el archivo no se pudo mover, la sesión se devuelve para reintentar.
+     * Nunca reemplaza un archivo existente: si el nombre ya está en uso falla
+     * (FileAlreadyExistsException) en lugar de pisar el genoma de otro paciente.
+     */
+
+    private void moveUpload(Path upload, UploadSession session, Path target) throws IOException {
+        if (session != null && !uploads.claim(session)) {
+            throw new IOException("La subida " + session.getId() + " ya la usó otra solicitud");
+        }
+        try {
+            Files.move(upload, target);
+        } catch (IOException | RuntimeException e) {
+            if (session != null) uploads.release(session);
+            throw e;
+        }
+        if (session != null) uploads.finish(session);
+    }
+
+    /**
+     * Crea varios pacientes en una sola solicitud ("CREATE_PATIENTS n").
+     *
+     * Los pacientes se validan en paralelo, los válidos se guardan con una sola
+     * escritura por shard (CsvManager.insertPatientsIfAbsent) y la detección de
+     * enfermedades también corre en paralelo; los reportes se guardan juntos.
+     * Un paciente inválido no impide crear los demás.
+     *
+     * Respuesta: "OK n", por cada paciente "ITEM i 201 CREATED patient_id: X"
+     * (seguido de sus "ITEM i DETECTION ...") o "ITEM i ERROR ...", y "END_BATCH".
+     */
+
+    private void handleCreatePatients(Request batch, PrintWriter out) {
+        List<Request> items = batch.getItems();
+        int n = items.size();
+        if (n == 0 || n != batch.getBatchSize()) {
+            logManager.logError("Error 400: solicitud inválida en CREATE_PATIENTS");
+            out.println("ERROR 400 BAD_REQUEST");
+            return;
+        }
+        logManager.logInfo("Creando lote de " + n + " pacientes...");
+
+        // 1. Validación en paralelo (formato, checksum, metadata)
+        String[] status = new String[n];
+        List<CompletableFuture<NewPatient>> validations = new ArrayList<>(n);
+        for (Request item : items) {
+            validations.add(CompletableFuture.supplyAsync(LogContext.wrap(() -> {
+                try {
+                    return prepareNewPatient(item);
+                } catch (IOException e) {
+                    logManager.logError("Error en creación de paciente: " + e.getMessage());
+                    return NewPatient.failed("ERROR 500 SERVER_ERROR");
+                }
+            }), batchWorkers));
+        }
+
+        // 2. Los FASTA válidos pasan a su nombre definitivo y se insertan todos juntos
+        List<Patient> patients = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        List<Path> fastas = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            NewPatient created = validations.get(i).join();
+            if (created.error != null) {
+                status[i] = created.error;
+                continue;
+            }
+            try {
+                Path patientFasta = newFastaPath(created.patient.getPatientID());
+                moveUpload(created.upload, created.session, patientFasta);
+                patients.add(created.patient);
+                positions.add(i);
+                fastas.add(patientFasta);
+            } catch (IOException e) {
+                logManager.logError("Error en creación de paciente: " + e.getMessage());
+                status[i] = "ERROR 500 SERVER_ERROR";
+            }
+        }
+
+        long storageStart = System.nanoTime();
+        CsvManager.WriteResult[] results = csvManager.insertPatientsIfAbsent(patients);
+        long storedBytes = 0;
+        for (Patient patient : patients) {
+            storedBytes += patient.getFileSizeBytes();
+        }
+        stage("storage", storageStart, null, storedBytes, patients.size() + " patients");
+
+        // 3. Detección en paralelo sobre los pacientes creados
+        Map<Integer, CompletableFuture<List<DetectionReport>>> detections = new HashMap<>();
+        for (int k = 0; k < patients.size(); k++) {
+            Patient patient = patients.get(k);
+            Path patientFasta = fastas.get(k);
+            int i = positions.get(k);
+            if (results[k] != CsvManager.WriteResult.OK) {
+                deleteQuietly(patientFasta);
+                status[i] = writeFailure(results[k], patient.getDocumentID(), patient.getContactEmail());
+                continue;
+            }
+            csvManager.registerFasta(patientFasta);
+            status[i] = "201 CREATED patient_id: " + patient.getPatientID();
+            logManager.logInfo("Paciente creado exitosamente con ID: " + patient.getPatientID());
+            detections.put(i, CompletableFuture.supplyAsync(LogContext.wrap(
+                    () -> detectDiseases(patient, patientFasta.toAbsolutePath().toString())), batchWorkers));
+        }
+
+        List<DetectionReport> allReports = new ArrayList<>();
+        Map<Integer, List<DetectionReport>> reportsByItem = new HashMap<>();
+        for (Map.Entry<Integer, CompletableFuture<List<DetectionReport>>> entry : detections.entrySet()) {
+            List<DetectionReport> reports = entry.getValue().join();
+            reportsByItem.put(entry.getKey(), reports);
+            allReports.addAll(reports);
+        }
+        long reportsStart = System.nanoTime();
+        csvManager.appendReports(allReports);
+        stage("reports", reportsStart, null, -1, "OK");
+
+        out.println("OK " + n);
+        for (int i = 0; i < n; i++) {
+            out.println("ITEM " + i + " " + status[i]);
+            for (DetectionReport r : reportsByItem.getOrDefault(i, Collections.emptyList())) {
+                out.println("ITEM " + i + " DETECTION " + r.toString());
+            }
+        }
+        out.println("END_BATCH");
+        logManager.logInfo("Lote de pacientes terminado: " + detections.size() + " de " + n + " creados");
+    }
+
+    /**
+     * Consulta varios pacientes por ID en una sola solicitud ("RETRIEVE_PATIENTS id1 id2 ...").
+     *
+     * Respuesta: "OK n", por cada ID "ITEM i OK" seguido del paciente, o
+     * "ITEM i ERROR 404 NOT_FOUND", y al final "END_BATCH".
+     */
+
+    private void handleRetrievePatients(String command, PrintWriter out) {
+        String[] parts = command.trim().split("\\s+");
+        int n = parts.length - 1;
+        if (n == 0) {
+            logManager.logError("Error 400: solicitud inválida en RETRIEVE_PATIENTS");
+            out.println("ERROR 400 BAD_REQUEST");
+            return;
+        }
+        if (n > Request.MAX_BATCH_ITEMS) {
+            logManager.logError("Error 413: RETRIEVE_PATIENTS con " + n + " IDs");
+            out.println("ERROR 413 BATCH_TOO_LARGE max_items:" + Request.MAX_BATCH_ITEMS);
+            return;
+        }
+
+        logManager.logInfo("Consultando lote de " + n + " pacientes");
+        out.print("OK " + n + "\n");
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            Patient p = csvManager.getPatientById(parts[i + 1]);
+            if (p != null) {
+                out.print("ITEM " + i + " OK\n" + p.toString() + "\n");
+                found++;
+            } else {
+                out.print("ITEM " + i + " ERROR 404 NOT_FOUND\n");
+            }
+        }
+        out.println("END_BATCH");
+        logManager.logInfo("Lote consultado: " + found + " de " + n + " encontrados");
+    }
+
+        /**
+        * Actualiza la información de un paciente existente.
+        * Permite modificar metadata (nombre, edad, sexo, email, notas)
+        * y opcionalmente reemplazar su archivo FASTA.
+        */
+
+        private void handleUpdatePatient(Request request, PrintWriter out) {
+            try {
+                logManager.logInfo("Iniciando actualización de paciente...");
+
+                String patientId = request.get("patient_id");
+                String uploadId = request.get("upload_id");
+                long fastaSize = request.getLong("file_size_bytes", 0);
+
+                if (patientId == null) {
+                    out.println("ERROR 400 MISSING_PATIENT_ID");
+                    logManager.logError("Fallo actualización: falta patient_id.");
+                    return;
+                }
+                LogContext.setPatientId(patientId);
+
+                Patient p = csvManager.getPatientById(patientId);
+                if (p == null) {
+                    out.println("ERROR 404 NOT_FOUND");
+                    logManager.logError("Fallo actualización: paciente no encontrado (ID " + patientId + ")");
+                    return;
+                }
+
+                for (Map.Entry<String, String> entry : request.getMetadata().entrySet()) {
+                    String k = entry.getKey();
+                    String v = entry.getValue();
+                    switch (k) {
+                        case "full_name": p.setFullName(v); break;
+                        case "age": p.setAge(Integer.parseInt(v)); break;
+                        case "sex": p.setSex(v); break;
+                        case "contact_email": p.setContactEmail(v); break;
+                        case "clinical_notes": p.setClinicalNotes(v); break;
+                    }
+                }
+
+                if (fastaSize > 0 || uploadId != null) {
+                    Path upload = request.getFastaFile();
+                    UploadSession session = null;
+                    if (uploadId != null) {
+                        session = uploads.get(uploadId);
+                        String error = checkUpload(session, uploadId);
+                        if (error != null) {
+                            out.println(error);
+                            return;
+                        }
+                        upload = session.getDataFile();
+                        fastaSize = session.getTotalBytes();
+                    }
+                    if (upload == null) {
+                        out.println("ERROR 422 INVALID_FASTA_HEADER");
+                        logManager.logError("Fallo actualización: encabezado FASTA inválido.");
+                        return;
+                    }
+
+                    long validationStart = System.nanoTime();
+                    boolean valid = FastaValidator.isValidFormat(upload.toString());
+                    stage("validation", validationStart, null, fastaSize, valid ? "OK" : "INVALID");
+                    if (!valid) {
+                        out.println("ERROR 422 INVALID_FASTA");
+                        logManager.logError("Fallo actualización: archivo FASTA inválido.");
+                        return;
+                    }
+
+                    // Se recibió en un archivo temporal y pasa con un move a un nombre nuevo,
+                    // así un respaldo en curso nunca ve un FASTA a medio escribir.
+                    String realChecksum = session != null ? session.getChecksum() : checksum(upload, patientId);
+                    File patientFasta = newFastaPath(p.getPatientID()).toFile();
+                    moveUpload(upload, session, patientFasta.toPath());
+                    p.setChecksumFasta(realChecksum);
+                    p.setFileSizeBytes(fastaSize);
+                    csvManager.registerFasta(patientFasta.toPath());
+                }
+
+                long storageStart = System.nanoTime();
+                CsvManager.WriteResult result = csvManager.updatePatient(p);
+                stage("storage", storageStart, null, -1, result.name());
+                if (result == CsvManager.WriteResult.NOT_FOUND) {
+                    out.println("ERROR 404 NOT_FOUND");
+                    logManager.logError("Fallo actualización: paciente eliminado durante la actualización (ID " + patientId + ")");
+                    return;
+                }
+                if (result != CsvManager.WriteResult.OK) {
+                    out.println(writeFailure(result, p.getDocumentID(), p.getContactEmail()));
+                    return;
+                }
+                out.println("OK patient updated");
+                logManager.logInfo("Paciente actualizado exitosamente: ID " + patientId);
+
+            } catch (NumberFormatException e) {
+                out.println("ERROR 400 INVALID_AGE");
+                logManager.logError("Fallo actualización: edad inválida.");
+            } catch (IOException e) {
+                e.printStackTrace();
+                logManager.logError("Error en actualización de paciente: " + e.getMessage());
+                out.println("ERROR 500 SERVER_ERROR");
+            }
+        }
+
+
+    /**
+     * Comandos de subida en pedazos:
+     *  UPLOAD_OPEN total_bytes [chunk_bytes] -> "OK UPLOAD_OPEN upload_id:X chunk_bytes:C chunks:N"
+     *    (413 si pasa de upload.max_bytes o de Integer.MAX_VALUE pedazos; 429 si
+     *    el cliente ya tiene upload.max_sessions_per_client sesiones abiertas)
+     *  UPLOAD_CHUNK id n crc32c + START_FASTA -> "OK CHUNK n received_bytes:R"
+     *  UPLOAD_STATUS id          -> "OK UPLOAD_STATUS upload_id:X ... missing:0,3-5 committed:false"
+     *  UPLOAD_COMMIT id sha256   -> "OK UPLOAD_COMMIT upload_id:X"
+     *  UPLOAD_ABORT id           -> "OK UPLOAD_ABORT upload_id:X"
+     * El CRC32C va en hexadecimal y los pedazos se numeran desde 0.
+     */
+
+    private void handleUpload(Request request, PrintWriter out) {
+        String name = Request.commandName(request.getCommandLine());
+        String id = request.getArgument(1);
+        try {
+            if (name.equals("UPLOAD_OPEN")) {
+                long total = Long.parseLong(id);
+                String chunkArg = request.getArgument(2);
+                int chunkBytes = chunkArg == null ? 0 : Integer.parseInt(chunkArg);
+                if (total <= 0 || chunkBytes < 0) {
+                    out.println("ERROR 400 BAD_REQUEST");
+                    return;
+                }
+                if (total > uploads.getMaxUploadBytes()) {
+                    out.println("ERROR 413 UPLOAD_TOO_LARGE max_bytes:" + uploads.getMaxUploadBytes());
+                    return;
+                }
+                if (UploadSession.chunkCount(total, uploads.chunkSizeFor(chunkBytes)) > Integer.MAX_VALUE) {
+                    out.println("ERROR 413 TOO_MANY_CHUNKS max_chunks:" + Integer.MAX_VALUE);
+                    return;
+                }
+                UploadSession session = uploads.open(request.getClient(), total, chunkBytes);
+                if (session == null) {
+                    logManager.logError("Cliente " + request.getClient() + " con demasiadas subidas abiertas");
+                    out.println("ERROR 429 TOO_MANY_UPLOADS max_sessions:" + uploads.getMaxSessionsPerClient());
+                    return;
+                }
+                logManager.logInfo("Subida abierta: " + session.getId() + " (" + total + " bytes)");
+                out.println("OK UPLOAD_OPEN upload_id:" + session.getId() + " chunk_bytes:" + session.getChunkBytes()
+                        + " chunks:" + session.getChunkCount());
+                return;
+            }
+
+            UploadSession session = uploads.get(id);
+            if (name.equals("UPLOAD_ABORT")) {
+                if (uploads.abort(id)) {
+                    logManager.logInfo("Subida cancelada: " + id);
+                    out.println("OK UPLOAD_ABORT upload_id:" + id);
+                } else {
+                    out.println("ERROR 404 UPLOAD_NOT_FOUND");
+                }
+                return;
+            }
+            if (session == null) {
+                logManager.logError("Subida no encontrada: " + request.getCommandLine());
+                out.println("ERROR 404 UPLOAD_NOT_FOUND");
+                return;
+            }
+
+            switch (name) {
+                case "UPLOAD_CHUNK":
+                    handleUploadChunk(request, session, out);
+                    break;
+                case "UPLOAD_STATUS":
+                    out.println("OK UPLOAD_STATUS upload_id:" + id + " total_bytes:" + session.getTotalBytes()
+                            + " chunk_bytes:" + session.getChunkBytes() + " received_bytes:" + session.receivedBytes()
+                            + " missing:" + session.missingRanges() + " committed:" + session.isCommitted());
+                    break;
+                case "UPLOAD_COMMIT":
+                    String sha256 = request.getArgument(2);
+                    if (sha256 == null) {
+                        out.println("ERROR 400 BAD_REQUEST");
+                        break;
+                    }
+                    UploadSession.Result result = session.commit(sha256);
+                    if (result == UploadSession.Result.OK) {
+                        logManager.logInfo("Subida confirmada: " + id);
+                        out.println("OK UPLOAD_COMMIT upload_id:" + id);
+                    } else if (result == UploadSession.Result.INCOMPLETE) {
+                        out.println("ERROR 409 UPLOAD_INCOMPLETE missing:" + session.missingRanges());
+                    } else {
+                        logManager.logError("Subida " + id + ": el SHA-256 no coincide");
+                        out.println("ERROR 422 CHECKSUM_MISMATCH");
+                    }
+                    break;
+                default:
+                    logManager.logError("Comando desconocido recibido: " + request.getCommandLine());
+                    out.println("ERROR 400 UNKNOWN_COMMAND");
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            logManager.logError("Error 400: solicitud inválida en " + name);
+            out.println("ERROR 400 BAD_REQUEST");
+        } catch (IOException e) {
+            e.printStackTrace();
+            logManager.logError("Error en subida " + id + ": " + e.getMessage());
+            out.println("ERROR 500 SERVER_ERROR");
+        }
+    }
+
+    /**
+     * Da por recibido el pedazo que ConnectionHandler / RequestDecoder ya escribió
+     * en la sesión, si llegó completo y con su CRC32C.
+     */
+
+    private void handleUploadChunk(Request request, UploadSession session, PrintWriter out) throws IOException {
+        UploadSession.ChunkWriter chunk = request.getChunk();
+        if (chunk == null) {
+            logManager.logError("Pedazo rechazado: " + request.getCommandLine());
+            out.println(Request.parseFastaLength(request.getFastaHeader()) < 0
+                    ? "ERROR 422 INVALID_FASTA_HEADER" : "ERROR 400 INVALID_CHUNK");
+            return;
+        }
+        switch (session.completeChunk(chunk, parseCrc(request.getArgument(3)))) {
+            case OK:
+                out.println("OK CHUNK " + chunk.getIndex() + " received_bytes:" + session.receivedBytes());
+                break;
+            case INCOMPLETE:
+                out.println("ERROR 400 INCOMPLETE_CHUNK");
+                break;
+            default:
+                logManager.logError("Pedazo " + chunk.getIndex() + " de la subida " + session.getId()
+                        + ": el CRC32C no coincide");
+                out.println("ERROR 422 CHUNK_CHECKSUM_MISMATCH");
+        }
+    }
+
+    /**
+     * CRC32C en hexadecimal, o -1 si falta o es inválido.
+     */
+
+    private static long parseCrc(String hex) {
+        try {
+            long crc = hex == null ? -1 : Long.parseLong(hex, 16);
+            return crc >= 0 && crc <= 0xFFFFFFFFL ? crc : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+     /**
+     * Elimina (desactiva) un paciente del sistema según su ID.
+     */
+
+    private void handleDeletePatient(String patientId, PrintWriter out) {
+        LogContext.setPatientId(patientId);
+        try {
+            Patient p = csvManager.getPatientById(patientId);
+            if (p != null) {
+                csvManager.deactivatePatient(patientId);
+                out.println("OK patient deleted");
+                logManager.logInfo("Paciente eliminado lógicamente: ID " + patientId);
+            } else {
+                out.println("ERROR 404 NOT_FOUND");
+                logManager.logError("Fallo eliminación: paciente no encontrado (ID " + patientId + ")");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logManager.logError("Error en eliminación de paciente: " + e.getMessage());
+            out.println("ERROR 500 SERVER_ERROR");
+        }
+    }
+
+
+
+    /**
+     * Recupera la información de un paciente por su ID.
+     */
+
+    private void handleRetrievePatient(String patientId, PrintWriter out) {
+        LogContext.setPatientId(patientId);
+        sendPatient(csvManager.getPatientById(patientId), "ID " + patientId, out);
+    }
+
+    /**
+     * Envía al cliente un paciente encontrado, o 404 si no existe.
+     *
+     * @param p     paciente (o null)
+     * @param query descripción de la búsqueda para el log
+     */
+
+    private void sendPatient(Patient p, String query, PrintWriter out) {
+        if (p != null) {
+            out.println("OK\n" + p.toString());
+            logManager.logInfo("Paciente consultado: " + query);
+        } else {
+            out.println("ERROR 404 NOT_FOUND");
+            logManager.logError("Fallo consulta: paciente no encontrado (" + query + ")");
+        }
+    }
+
+    /**
+     * Respuesta según el motivo por el que el almacenamiento rechazó la escritura:
+     * 409 para el índice único que ya tenía el valor, 500 si falló el disco.
+     */
+
+    private String writeFailure(CsvManager.WriteResult result, String documentID, String email) {
+        switch (result) {
+            case DUPLICATE_EMAIL:
+                logManager.logError("Fallo escritura de paciente: email duplicado (" + email + ")");
+                return "ERROR 409 DUPLICATE_EMAIL";
+            case DUPLICATE_ID:
+                logManager.logError("Fallo escritura de paciente: patient_id duplicado (" + documentID + ")");
+                return "ERROR 409 DUPLICATE_PATIENT_ID";
+            case FAILED:
+                logManager.logError("Fallo escritura de paciente: error de disco (" + documentID + ")");
+                return "ERROR 500 SERVER_ERROR";
+            default:
+                logManager.logError("Fallo escritura de paciente: document_id duplicado (" + documentID + ")");
+                return "ERROR 409 DUPLICATE_DOCUMENT_ID";
+        }
+    }
+
+    /**
+     * Lista pacientes activos en orden de ID, una página por solicitud.
+     * Formato: LIST_PATIENTS [afterId] [limit] [filtro]
+     * - afterId: cursor devuelto por la página anterior ("0" o "-" para empezar).
+     * - limit:   tamaño de página (por defecto 100, máximo 1000).
+     * - filtro:  texto opcional (puede contener espacios) buscado en nombre, documento, email y notas.
+     *
+     * Respuesta: "OK", una línea por paciente y al final "NEXT_CURSOR id" o "END_OF_LIST".
+     * Cada paciente se escribe a la salida apenas se lee del índice, sin armar la lista en memoria.
+     */
+
+    private void handleListPatients(String request, PrintWriter out) {
+        String[] parts = request.trim().split(" ", 4);
+        Integer afterId = null;
+        int limit = DEFAULT_PAGE_SIZE;
+        String filter = null;
+
+        try {
+            if (parts.length > 1 && !parts[1].equals("-")) {
+                int cursor = Integer.parseInt(parts[1]);
+                if (cursor > 0) afterId = cursor;
+            }
+            if (parts.length > 2) {
+                limit = Integer.parseInt(parts[2]);
+            }
+        } catch (NumberFormatException e) {
+            logManager.logError("Error 400: solicitud inválida en LIST_PATIENTS");
+            out.println("ERROR 400 BAD_REQUEST");
+            return;
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            logManager.logError("Error 400: tamaño de página inválido en LIST_PATIENTS (" + limit + ")");
+            out.println("ERROR 400 INVALID_LIMIT");
+            return;
+        }
+        if (parts.length > 3 && !parts[3].isBlank()) {
+            filter = parts[3].trim();
+        }
+
+        logManager.logInfo("Listando pacientes después de ID " + afterId + " (límite " + limit + ")");
+        out.print("OK\n");
+        Integer nextCursor = csvManager.listPatients(afterId, limit, filter,
+                p -> out.print(p.toString() + "\n"));
+        if (nextCursor != null) {
+            out.println("NEXT_CURSOR " + nextCursor);
+        } else {
+            out.println("END_OF_LIST");
+        }
+    }
+
+    /**
+     * Ejecuta un respaldo incremental en caliente de pacientes, reportes y FASTA.
+     * Responde con la carpeta creada. Requiere la clave de administración: el
+     * respaldo toma todos los candados del almacenamiento y el primero recorre
+     * todos los datos.
+     */
+
+    private void handleBackup(Request request, PrintWriter out) {
+        if (!isAdminToken(request.getArgument(1))) {
+            logManager.logError("BACKUP rechazado: clave inválida o comando desactivado");
+            out.println("ERROR 403 FORBIDDEN");
+            return;
+        }
+        try {
+            Path target = backupManager.incrementalBackup();
+            out.println("OK BACKUP " + target);
+            logManager.logInfo("Respaldo incremental creado en " + target);
+        } catch (IOException e) {
+            e.printStackTrace();
+            logManager.logError("Error creando respaldo: " + e.getMessage());
+            out.println("ERROR 500 SERVER_ERROR");
+        }
+    }
+
+    /**
+     * Apaga el servidor si la clave coincide con admin.token. Responde antes de
+     * empezar, porque el apagado espera a que termine esta misma solicitud.
+     */
+
+    private void handleShutdown(Request request, PrintWriter out) {
+        if (shutdownAction == null || !isAdminToken(request.getArgument(1))) {
+            logManager.logError("SHUTDOWN rechazado: clave inválida o comando desactivado");
+            out.println("ERROR 403 FORBIDDEN");
+            return;
+        }
+        long drainMs = -1;
+        if (request.getArgument(2) != null) {
+            try {
+                drainMs = Long.parseLong(request.getArgument(2));
+            } catch (NumberFormatException e) {
+                out.println("ERROR 400 BAD_REQUEST");
+                return;
+            }
+        }
+        logManager.logInfo("SHUTDOWN recibido, apagando el servidor");
+        out.println("OK SHUTDOWN");
+        shutdownAction.accept(drainMs);
+    }
+
+    /**
+     * Compara la clave recibida con admin.token en tiempo constante.
+     */
+
+    private boolean isAdminToken(String token) {
+        return adminToken != null && token != null
+                && MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8),
+                                         token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Vuelca la grabación JFR continua a data/jfr (sin detenerla) y responde
+     * "OK JFR_DUMP ruta". 404 si no hay grabación activa.
+     */
+
+    private void handleJfrDump(Request request, PrintWriter out) {
+        if (!isAdminToken(request.getArgument(1))) {
+            logManager.logError("JFR_DUMP rechazado: clave inválida o comando desactivado");
+            out.println("ERROR 403 FORBIDDEN");
+            return;
+        }
+        if (flightRecording == null) {
+            out.println("ERROR 404 JFR_DISABLED");
+            return;
+        }
+        try {
+            Path file = flightRecording.dump();
+            logManager.logInfo("Grabación JFR volcada en " + file);
+            out.println("OK JFR_DUMP " + file);
+        } catch (IOException e) {
+            logManager.logError("Error volcando la grabación JFR: " + e.getMessage());
+            out.println("ERROR 500 SERVER_ERROR");
+        }
+    }
+
+    /**
+     * Lista las conexiones abiertas: una línea CONNECTION por cada una (bytes
+     * recibidos y enviados, solicitudes, edad, inactividad) y al final END_OF_LIST.
+     * Requiere la clave de administración: muestra la dirección de cada cliente.
+     */
+
+    private void handleConnections(Request request, PrintWriter out) {
+        if (!isAdminToken(request.getArgument(1))) {
+            logManager.logError("CONNECTIONS rechazado: clave inválida o comando desactivado");
+            out.println("ERROR 403 FORBIDDEN");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        out.print("OK CONNECTIONS open:" + connections.size()
+                + " idle_timeout_ms:" + connections.getIdleTimeoutMs()
+                + " read_timeout_ms:" + connections.getReadTimeoutMs()
+                + " reaped_idle:" + connections.getReapedIdle()
+                + " reaped_stalled:" + connections.getReapedStalled()
+                + " evicted:" + connections.getEvicted() + "\n");
+        for (ConnectionRegistry.Connection connection : connections.list()) {
+            out.print(connection.describe(now) + "\n");
+        }
+        out.println("END_OF_LIST");
+    }
+
+    /**
+     * Límites de ritmo y contadores: "OK RATE_LIMITS requests_per_s:… throttled_requests:…",
+     * una línea "CLIENT key:… request_tokens:… upload_tokens:… throttled:…" por
+     * cliente reciente (los más limitados primero) y "END_OF_LIST".
+     */
+
+    private void handleRateLimits(PrintWriter out) {
+        RateLimiter limiter = admission.getRateLimiter();
+        out.print("OK RATE_LIMITS requests_per_s:" + limiter.getRequestsPerSecond()
+                + " upload_bytes_per_s:" + limiter.getUploadBytesPerSecond()
+                + " clients:" + limiter.getClientCount()
+                + " allowed_requests:" + limiter.getAllowedRequests()
+                + " throttled_requests:" + limiter.getThrottledRequests()
+                + " allowed_upload_bytes:" + limiter.getAllowedBytes()
+                + " throttled_uploads:" + limiter.getThrottledUploads()
+                + " throttled_upload_bytes:" + limiter.getThrottledBytes() + "\n");
+        for (RateLimiter.Client client : limiter.list()) {
+            out.print(client.describe() + "\n");
+        }
+        out.println("END_OF_LIST");
+    }
+
+    /**
+     * Borra el FASTA temporal de una solicitud (y los de los pacientes de un lote), si todavía existen.
+     */
+
+    void deleteUpload(Request request) {
+        if (request.getFastaFile() != null) deleteQuietly(request.getFastaFile());
+        for (Request item : request.getItems()) {
+            deleteUpload(item);
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logManager.logError("No se pudo borrar el temporal " + file + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Compara la secuencia genética de un paciente contra todas las enfermedades
+     * almacenadas en la base de datos.
+     * @param patient
+     * @param fastaFilePath
+     * @return
+     */
+
+    public List<DetectionReport> detectDiseases(Patient patient, String fastaFilePath) {
+        List<DetectionReport> reports = new ArrayList<>();
+        long start = System.nanoTime();
+        DiseaseDetectionEvent event = new DiseaseDetectionEvent();
+        event.begin();
+        List<Disease> panel = diseaseDatabase.getAll();
+        long sequenceLength = 0;
+        String outcome = "ERROR";
+
+        try {
+
+            // Recorrer la secuencia normalizada por ventanas (el FASTA puede pesar
+            // varios GB); las ventanas se solapan lo justo para no perder una
+            // coincidencia que cruce de un pedazo al siguiente
+            int longest = 0;
+            for (Disease d : panel) {
+                longest = Math.max(longest, d.getSequence().length());
+            }
+            boolean[] found = new boolean[panel.size()];
+            sequenceLength = FastaValidator.scanNormalized(fastaFilePath, Math.max(0, longest - 1), window -> {
+                for (int i = 0; i < found.length; i++) {
+                    if (!found[i] && window.contains(panel.get(i).getSequence())) {
+                        found[i] = true;
+                    }
+                }
+            });
+
+            //  Reportar en el orden del panel
+            for (int i = 0; i < found.length; i++) {
+                Disease d = panel.get(i);
+                if (found[i]) {
+                    reports.add(new DetectionReport(
+                            String.valueOf(patient.getPatientID()),
+                            d.getDiseaseId(),
+                            d.getSeverity(),
+                            "Coincidencia encontrada con " + d.getName()
+                    ));
+                    metrics.recordDetection(d.getDiseaseId());
+                }
+            }
+            outcome = reports.size() + " matches";
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        stage("detection", start, patient.getPatientID(), sequenceLength, outcome);
+        event.finish(patient.getPatientID(), panel.size(), sequenceLength, reports.size());
+
+        return reports;
+    }
+}
@@ -1,11 +1,24 @@
 package Server;
 
+import Logging.LogManager;
+import Logging.LogRotation;
+import Storage.BackupManager;
 import Storage.CsvManager;
+import Storage.UploadManager;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Clase Server
@@ -18,15 +31,38 @@ import java.util.concurrent.Executors;
  * - Administra los pacientes y reportes usando CsvManager.
  * - Atiende múltiples clientes concurrentes mediante hilos (ExecutorService).
  * 
+ * Tiene dos modos, según "server.mode": "blocking" (por defecto), con un
+ * ConnectionHandler por cliente, y "nio" (NioServer), con pocos bucles de E/S
+ * y un pool de trabajadores. Con "http.port" se abre además HttpGateway.
+ * Las opciones de configuración se describen en ServerConfig.
  */
 
 
 public class Server {
+    private static final long DRAIN_POLL_MS = 50;         // Cada cuánto se revisa si terminaron las conexiones
+    private static final long SHUTDOWN_GRACE_MS = 2000;   // Espera mínima a los pools después del plazo
+
+    private ServerConfig config;                // Opciones leídas de data/server.properties
     private CsvManager csvManager; 
+    private BackupManager backupManager;        // Respaldos incrementales en caliente
     private int port;
-    private ServerSocket serverSocket;          // Socket de servidor (bloquea hasta recibir cliente)
+    private volatile ServerSocket serverSocket; // Socket de servidor (bloquea hasta recibir cliente)
+    private volatile NioServer nioServer;       // Servidor del modo "nio" (null en modo bloqueante)
     private ExecutorService executorService;    // Pool de hilos para clientes concurrentes
+    private ExecutorService pipelineExecutor;   // Pool para solicitudes binarias en pipeline (null si no hay)
+    private FairScheduler pipelineScheduler;    // Reparto de ese pool entre clientes
     private DiseaseDatabase diseaseDatabase;    // Base de enfermedades cargada al inicio
+    private RequestProcessor processor;         // Lógica de comandos compartida por las conexiones
+    private AdmissionController admission;      // Límites de conexiones, comandos y bytes en vuelo
+    private ChannelTransfer transfer;           // Recepción de FASTA por canales (null si está desactivada)
+    private TlsAcceptor tls;                    // Handshakes TLS (null si se escucha en texto plano)
+    private final Metrics metrics;              // Latencias y contadores (STATS, volcado Prometheus)
+    private FlightRecording flightRecording;    // Grabación JFR continua (null si jfr.enabled es false)
+    private ConnectionRegistry connections;     // Conexiones abiertas, tiempos límite y desalojo LRU
+    private HttpGateway httpGateway;            // Entrada HTTP/JSON (null si http.port no está configurado)
+    private long drainTimeoutMs;                // Plazo para terminar lo que está en curso al apagar
+    private final AtomicBoolean stopping = new AtomicBoolean();
+    private final CountDownLatch stopped = new CountDownLatch(1);
     
      /**
      * Constructor del servidor.
@@ -36,30 +72,149 @@ public class Server {
      */
 
     public Server(int port) {
+        this(port, ServerConfig.load());
+    }
+
+    /**
+     * Constructor del servidor con una configuración explícita.
+     * La cantidad de shards de pacientes se toma de "storage.shards" (por defecto 1).
+     *
+     * @param port   Puerto donde escuchará el servidor.
+     * @param config Configuración del servidor.
+     */
+
+    public Server(int port, ServerConfig config) {
         this.port = port;
-        this.executorService = Executors.newCachedThreadPool(); // Crea hilos dinamicamente
+        this.config = config;
+        this.admission = new AdmissionController(config);
+        this.transfer = config.getBoolean("transfer.zero_copy", true) ? new ChannelTransfer(config) : null;
+        int pipelineWorkers = config.getInt("pipeline.workers", Runtime.getRuntime().availableProcessors() * 2);
+        int pipelineQueue = Math.max(1, config.getInt("pipeline.queue", 1024));
+        this.pipelineExecutor = pipelineWorkers > 0
+                ? ExecutorFactory.newBoundedExecutor(pipelineWorkers, pipelineQueue)
+                : null;
+        this.pipelineScheduler = pipelineExecutor != null
+                ? new FairScheduler(pipelineExecutor, pipelineWorkers, pipelineQueue)
+                : null;
+        this.executorService = ExecutorFactory.newConnectionExecutor(
+                config.getString("server.executor", ExecutorFactory.PLATFORM),
+                config.getInt("server.max_threads", 1000),
+                config.getInt("server.queue", 0));
         this.diseaseDatabase = new DiseaseDatabase();
-        this.csvManager = new CsvManager("data/patients.csv", "data/reports.csv");
-
+        LogManager logManager = new LogManager("data/server.log",
+                config.getInt("log.buffer_entries", LogManager.DEFAULT_CAPACITY),
+                LogManager.Overflow.parse(config.getString("log.overflow", "block")),
+                config.getInt("log.sample_every", LogManager.DEFAULT_SAMPLE_EVERY),
+                new LogRotation(config.getLong("log.max_bytes", LogRotation.DEFAULT_MAX_BYTES),
+                        config.getBoolean("log.rotate_daily", true),
+                        config.getInt("log.max_files", LogRotation.DEFAULT_MAX_FILES),
+                        config.getInt("log.max_age_days", LogRotation.DEFAULT_MAX_AGE_DAYS),
+                        config.getBoolean("log.compress", true)),
+                LogManager.Format.parse(config.getString("log.format", "text")),
+                config.getInt("log.sample.info", 1),
+                config.getInt("log.sample.debug", 0));
+        try {
+            this.csvManager = new CsvManager("data/patients.csv", "data/reports.csv",
+                    config.getInt("storage.shards", 1));
+        } catch (IllegalStateException e) {
+            // Sin los datos completos no se arranca; quien creó el servidor recibe el error
+            logManager.logError("No se pudo abrir el almacenamiento: " + e.getMessage());
+            logManager.close();
+            executorService.shutdownNow();
+            if (pipelineExecutor != null) pipelineExecutor.shutdownNow();
+            throw e;
+        }
+        this.backupManager = new BackupManager(csvManager, "data/backups");
+        UploadManager uploads = new UploadManager("data/uploads/sessions",
+                config.getInt("upload.chunk_bytes", 8 * 1024 * 1024),
+                config.getInt("upload.max_chunk_bytes", 64 * 1024 * 1024),
+                config.getLong("upload.session_ttl_ms", 24L * 60 * 60 * 1000),
+                config.getLong("upload.max_bytes", UploadManager.DEFAULT_MAX_UPLOAD_BYTES),
+                config.getInt("upload.max_sessions_per_client", UploadManager.DEFAULT_MAX_SESSIONS_PER_CLIENT));
+        this.connections = new ConnectionRegistry(config, admission.getMaxConnections(), logManager);
+        this.metrics = new Metrics(config.getBoolean("metrics.enabled", true));
+        this.processor = new RequestProcessor(diseaseDatabase, csvManager, backupManager,
+                logManager, admission, uploads, connections, metrics);
+        registerGauges(logManager);
+        this.drainTimeoutMs = config.getLong("server.drain_timeout_ms", 25_000);
+        processor.setShutdownAction(config.getString("admin.token", null), drainMs -> {
+            // En otro hilo: el apagado espera a que termine la solicitud que lo pidió
+            new Thread(() -> shutdown(drainMs < 0 ? drainTimeoutMs : drainMs), "server-shutdown").start();
+        });
     }
 
      /**
      * Inicia el servidor:
-     * - Crea el ServerSocket en el puerto configurado.
      * - Carga la base de enfermedades desde el directorio data/diseases.
+     * - Crea el ServerSocket en el puerto configurado (o arranca NioServer en modo "nio").
      * - Pone al servidor en modo escucha para aceptar clientes.
      */
     
     public void start() {
         try {
-             // Se crea el socket del servidor en el puerto especificado
-            serverSocket = new ServerSocket(port);
-            System.out.println("Servidor escuchando en el puerto " + port);
+            startFlightRecording();
 
              // Cargar enfermedades antes de aceptar conexiones
             diseaseDatabase.loadDiseases("data/diseases"); 
             System.out.println("Base de enfermedades cargada: " + diseaseDatabase.getAll().size() + " enfermedades.");
 
+            int stale = processor.deleteStaleUploads();
+            if (stale > 0) {
+                processor.getLogManager().logInfo("Borrados " + stale + " temporales de subidas interrumpidas");
+            }
+            connections.start();
+            String metricsFile = config.getString("metrics.prometheus_file", null);
+            if (metricsFile != null) {
+                metrics.startDump(Paths.get(metricsFile), config.getLong("metrics.dump_interval_ms", 10_000));
+            }
+            if (config.getBoolean("server.shutdown_hook", true)) {
+                Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "server-shutdown-hook"));
+            }
+            int httpPort = config.getInt("http.port", 0);
+            if (httpPort > 0) {
+                httpGateway = new HttpGateway(httpPort, processor, csvManager, config);
+                httpGateway.start();
+                HttpGateway gateway = httpGateway;
+                metrics.gauge("http_requests", gateway::getRequests);
+                metrics.gauge("http_errors", gateway::getErrors);
+                metrics.gauge("http_uploaded_bytes", gateway::getUploadedBytes);
+            }
+
+            boolean tlsEnabled = config.getBoolean("tls.enabled", false);
+            if (config.getString("server.mode", "blocking").equalsIgnoreCase("nio")) {
+                if (tlsEnabled) {
+                    // Mejor no arrancar que aceptar en texto plano lo que se pidió cifrado
+                    System.err.println("Error al iniciar el servidor: el modo nio no soporta TLS (tls.enabled=true)");
+                    return;
+                }
+                nioServer = new NioServer(port, processor, config);
+                registerSchedulerGauges("nio", nioServer.getScheduler());
+                if (!stopping.get()) nioServer.start();
+                return;
+            }
+
+             // Se crea el socket del servidor en el puerto especificado
+             // (desde un canal, para que los sockets aceptados tengan SocketChannel)
+            if (tlsEnabled) {
+                tls = new TlsAcceptor(config, processor.getLogManager());
+                TlsAcceptor acceptor = tls;
+                metrics.gauge("tls_full_handshakes", acceptor::getFullHandshakes);
+                metrics.gauge("tls_resumed_handshakes", acceptor::getResumedHandshakes);
+                metrics.gauge("tls_failed_handshakes", acceptor::getFailedHandshakes);
+                metrics.gauge("tls_handshake_avg_ms", acceptor::getAverageHandshakeMs);
+                serverSocket = tls.bind(port);
+                transfer = null; // los sockets TLS no tienen canal
+            } else if (transfer != null) {
+                ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                serverChannel.bind(new InetSocketAddress(port));
+                serverSocket = serverChannel.socket();
+            } else {
+                serverSocket = new ServerSocket(port);
+            }
+            System.out.println("Servidor escuchando en el puerto " + port
+                    + " (hilos " + config.getString("server.executor", ExecutorFactory.PLATFORM) + ")"
+                    + (tls != null ? " con TLS" : ""));
+
             // Aceptar conexiones entrantes de clientes
             acceptConnections();
 
@@ -69,6 +224,59 @@ public class Server {
         }
     }
 
+    /**
+     * Arranca la grabación JFR si está configurada. Si falla, el servidor sigue sin ella.
+     */
+
+    private void startFlightRecording() {
+        try {
+            flightRecording = FlightRecording.start(config);
+            if (flightRecording != null) {
+                processor.setFlightRecording(flightRecording);
+                System.out.println("Grabación JFR activa (jcmd <pid> JFR.dump name=" + FlightRecording.NAME + ")");
+            }
+        } catch (IOException | ParseException | RuntimeException e) {
+            System.err.println("No se pudo iniciar la grabación JFR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Registra en Metrics los contadores de los demás componentes (STATS y volcado).
+     */
+
+    private void registerGauges(LogManager logManager) {
+        metrics.gauge("connections_open", connections::size);
+        metrics.gauge("connections_reaped_idle", connections::getReapedIdle);
+        metrics.gauge("connections_reaped_stalled", connections::getReapedStalled);
+        metrics.gauge("connections_evicted", connections::getEvicted);
+        metrics.gauge("admission_rejected", admission::getRejectedCount);
+        metrics.gauge("inflight_fasta_bytes", admission::getInflightBytes);
+        metrics.gauge("compressed_uploads", processor::getCompressedUploads);
+        metrics.gauge("compression_ratio", processor::getCompressionRatio);
+        RateLimiter limiter = admission.getRateLimiter();
+        metrics.gauge("ratelimit_clients", limiter::getClientCount);
+        metrics.gauge("ratelimit_allowed_requests", limiter::getAllowedRequests);
+        metrics.gauge("ratelimit_throttled_requests", limiter::getThrottledRequests);
+        metrics.gauge("ratelimit_throttled_uploads", limiter::getThrottledUploads);
+        metrics.gauge("ratelimit_throttled_upload_bytes", limiter::getThrottledBytes);
+        if (pipelineScheduler != null) registerSchedulerGauges("pipeline", pipelineScheduler);
+        metrics.gauge("log_pending", logManager::getPendingCount);
+        metrics.gauge("log_dropped", logManager::getDroppedCount);
+        metrics.gauge("log_sampled", logManager::getSampledCount);
+        metrics.gauge("log_level_sampled", logManager::getLevelSampledCount);
+        if (logManager.getRotation() != null) {
+            metrics.gauge("log_rotations", logManager.getRotation()::getRotations);
+        }
+        metrics.gauge("draining", () -> processor.isDraining() ? 1 : 0);
+    }
+
+    private void registerSchedulerGauges(String name, FairScheduler scheduler) {
+        metrics.gauge(name + "_running", scheduler::getRunning);
+        metrics.gauge(name + "_queued", scheduler::getQueued);
+        metrics.gauge(name + "_dispatched", scheduler::getDispatched);
+        metrics.gauge(name + "_deferred", scheduler::getDeferred);
+    }
+
      /**
      * Método principal del bucle de escucha.
      * Acepta conexiones entrantes y lanza un ConnectionHandler
@@ -78,24 +286,168 @@ public class Server {
      */
     
     private void acceptConnections() {
-        while (true) {
+        while (!stopping.get()) {
             try {
                 
                 // Esperar (bloqueante) a que un cliente se conecte
                 Socket socket = serverSocket.accept();
                 System.out.println("Nuevo cliente conectado.");
 
-                // Crear un manejador de la conexión para este cliente
-                ConnectionHandler handler = new ConnectionHandler(socket, diseaseDatabase, csvManager);
+                // Sin lugar para otra conexión: avisar y cerrar de inmediato,
+                // liberando una inactiva para cuando el cliente reintente
+                if (!admission.tryAdmitConnection()) {
+                    connections.evictIdle(1);
+                    rejectConnection(socket);
+                    continue;
+                }
 
-                // Ejecutar el handler en un hilo solo
-                executorService.submit(handler);
+                // Ejecutar el handler en un hilo solo; el lugar se devuelve al terminar
+                try {
+                    executorService.execute(() -> {
+                        try {
+                            // El handshake TLS corre aquí, no en el hilo que acepta
+                            if (tls != null && !tls.handshake(socket)) return;
+                            new ConnectionHandler(socket, processor, transfer, pipelineScheduler).run();
+                        } finally {
+                            admission.releaseConnection();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    admission.releaseConnection();
+                    rejectConnection(socket);
+                }
 
             } catch (IOException e) {
+                if (stopping.get()) break; // shutdown cerró el socket de servidor
                 e.printStackTrace();
                 System.err.println("Error aceptando conexión: " + e.getMessage());
             }
         }
     }
+
+    /**
+     * Apaga el servidor con el plazo configurado ("server.drain_timeout_ms").
+     */
+
+    public boolean shutdown() {
+        return shutdown(drainTimeoutMs);
+    }
+
+    /**
+     * Apaga el servidor sin perder trabajo:
+     * 1. Deja de aceptar conexiones; las solicitudes que lleguen desde ahora
+     *    reciben "ERROR 503 SHUTTING_DOWN" (el cliente reintenta en otra instancia).
+     * 2. Espera hasta drainMs a que terminen las solicitudes en curso, incluidas
+     *    las subidas a medio recibir, cerrando cada conexión apenas queda sin nada.
+     *    Las que no terminan a tiempo se cortan (sus temporales se borran).
+     * 3. Apaga los pools de hilos.
+     * 4. Fuerza al disco los CSV, los FASTA nuevos y el log.
+     *
+     * Se puede llamar desde cualquier hilo y más de una vez: las llamadas
+     * siguientes esperan a que termine la primera.
+     *
+     * @return true si todo terminó dentro del plazo, sin cortar conexiones
+     */
+
+    public boolean shutdown(long drainMs) {
+        if (!stopping.compareAndSet(false, true)) {
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+        LogManager log = processor.getLogManager();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, drainMs));
+        boolean clean = true;
+        try {
+            log.logInfo("Apagando el servidor: " + connections.size() + " conexiones abiertas, plazo " + drainMs + " ms");
+            processor.startDraining();
+            closeListener();
+            if (httpGateway != null) {
+                // Espera a las llamadas HTTP en curso dentro del mismo plazo
+                httpGateway.stop(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            }
+
+            while (connections.size() > 0 && System.nanoTime() < deadline) {
+                connections.closeIdle("apagado del servidor");
+                Thread.sleep(DRAIN_POLL_MS);
+            }
+            int cut = connections.closeAll("plazo de apagado vencido");
+            if (cut > 0) {
+                clean = false;
+                log.logError("Apagado: " + cut + " conexiones cortadas con solicitudes en curso");
+            }
+
+            long graceMs = Math.max(SHUTDOWN_GRACE_MS, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            executorService.shutdown();
+            if (pipelineExecutor != null) pipelineExecutor.shutdown();
+            // Un handler que estaba en la cola del pool puede registrarse recién ahora
+            long graceEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMs);
+            while (!executorService.awaitTermination(DRAIN_POLL_MS, TimeUnit.MILLISECONDS)
+                    && System.nanoTime() < graceEnd) {
+                connections.closeAll("apagado del servidor");
+            }
+            clean &= executorService.isTerminated();
+            if (pipelineExecutor != null) {
+                clean &= pipelineExecutor.awaitTermination(graceMs, TimeUnit.MILLISECONDS);
+            }
+            if (nioServer != null) clean &= nioServer.awaitWorkers(graceMs);
+            processor.shutdown(graceMs);
+            connections.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            clean = false;
+        } finally {
+            try {
+                long lsn = csvManager.sync();
+                log.logInfo("Almacenamiento forzado a disco (LSN " + lsn + ")");
+            } catch (IOException e) {
+                clean = false;
+                log.logError("Error forzando el almacenamiento a disco: " + e.getMessage());
+            }
+            metrics.stopDump();
+            if (flightRecording != null) flightRecording.close();
+            log.logInfo("Servidor apagado en " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms"
+                    + (clean ? "" : " (con solicitudes cortadas)"));
+            log.close();
+            stopped.countDown();
+        }
+        return clean;
+    }
+
+    /**
+     * Cierra el socket de servidor (o el canal del modo nio): start termina.
+     */
+
+    private void closeListener() {
+        if (nioServer != null) {
+            nioServer.stop();
+        }
+        ServerSocket listener = serverSocket;
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                // ya estaba cerrado
+            }
+        }
+    }
+
+    /**
+     * Responde "ERROR 503 BUSY" a una conexión que no se puede atender y la cierra.
+     */
+
+    private void rejectConnection(Socket socket) {
+        try (Socket s = socket) {
+            OutputStream out = s.getOutputStream();
+            out.write((admission.busyResponse() + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            // el cliente ya se fue
+        }
+    }
 }
 
@@ -0,0 +1,117 @@
+package Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Clase ServerConfig
+ * ----------------------
+ * Configuración del servidor leída al arrancar.
+ *
+ * Las opciones se buscan en este orden:
+ * - Valores fijados por código con set (herramientas y benchmarks).
+ * - Propiedad del sistema con prefijo "sgs." (ej: -Dsgs.storage.shards=8).
+ * - Archivo data/server.properties (ej: storage.shards=8).
+ * - Valor por defecto indicado por quien consulta.
+ *
+ * Opciones (el detalle y los valores por defecto están en la clase indicada):
+ * - server.mode (blocking o nio), server.executor, server.max_threads,
+ *   server.queue: cómo se atienden las conexiones (Server, ExecutorFactory).
+ * - server.drain_timeout_ms, server.shutdown_hook: apagado ordenado (Server).
+ * - admin.token: clave de BACKUP, CONNECTIONS, SHUTDOWN y JFR_DUMP.
+ * - admission.*: conexiones, comandos y memoria FASTA a la vez (AdmissionController).
+ * - ratelimit.*: solicitudes y bytes por segundo de cada cliente (RateLimiter).
+ * - pipeline.workers, pipeline.queue: pool compartido del protocolo binario (FairScheduler).
+ * - nio.*: bucles de E/S, trabajadores y escritores de FASTA del modo nio (NioServer).
+ * - transfer.*: recepción de FASTA sin copias al heap (ChannelTransfer).
+ * - storage.shards: archivos de pacientes (CsvManager, ShardMigrator).
+ * - upload.chunk_bytes, upload.max_chunk_bytes, upload.session_ttl_ms, upload.max_bytes,
+ *   upload.max_sessions_per_client: subidas en pedazos (UploadManager).
+ * - tls.*: TLS del modo bloqueante y su caché de sesiones (TlsAcceptor); el modo nio no lo admite.
+ * - connection.*: cierre de conexiones inactivas o trabadas (ConnectionRegistry).
+ * - log.buffer_entries, log.overflow (block, drop o sample, con log.sample_every):
+ *   buffer del escritor del log (LogManager).
+ * - log.max_bytes, log.rotate_daily, log.compress, log.max_files, log.max_age_days:
+ *   rotación del log (LogRotation).
+ * - log.format (text o json), log.sample.info, log.sample.debug: formato y
+ *   muestreo por solicitud (LogManager).
+ * - metrics.*: latencias, STATS y volcado para Prometheus (Metrics).
+ * - jfr.*: grabación JFR continua y umbrales de sus eventos (FlightRecording).
+ * - http.*: entrada HTTP/JSON (HttpGateway).
+ */
+
+public class ServerConfig {
+    public static final String DEFAULT_FILE = "data/server.properties";
+
+    private final Properties properties = new Properties();
+    private final Properties overrides = new Properties();
+
+    /**
+     * Crea una configuración a partir de un archivo de propiedades (puede no existir).
+     *
+     * @param file ruta del archivo de propiedades
+     */
+
+    public ServerConfig(String file) {
+        Path path = Paths.get(file);
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            } catch (IOException e) {
+                System.err.println("Error leyendo configuración " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Carga la configuración desde el archivo por defecto.
+     */
+
+    public static ServerConfig load() {
+        return new ServerConfig(DEFAULT_FILE);
+    }
+
+    /**
+     * Fija una opción por código; tiene prioridad sobre el sistema y el archivo.
+     *
+     * @return esta misma configuración, para encadenar llamadas
+     */
+
+    public ServerConfig set(String key, String value) {
+        overrides.setProperty(key, value);
+        return this;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = overrides.getProperty(key);
+        if (value == null) value = System.getProperty("sgs." + key);
+        if (value == null) value = properties.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + key + ", se usa " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + key + ", se usa " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, String.valueOf(defaultValue)));
+    }
+}
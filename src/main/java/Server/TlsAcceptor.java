@@ -0,0 +1,133 @@
+package Server;
+
+import Logging.LogManager;
+import Protocol.Tls;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Clase TlsAcceptor
+ * ----------------------
+ * Conexiones TLS del modo bloqueante (ver Protocol.Tls).
+ *
+ * El handshake no se hace en el hilo que acepta sino en el de la conexión,
+ * con un tiempo límite ("tls.handshake_timeout_ms"), así un cliente lento o
+ * malicioso no frena al resto. Cada handshake queda en el log con su duración
+ * y si fue completo o reanudado (con un ticket o la caché de sesiones).
+ *
+ * Opciones:
+ *   tls.keystore (data/server.p12), tls.keystore_password (changeit),
+ *   tls.session_cache_size (20000), tls.session_timeout_s (86400),
+ *   tls.handshake_timeout_ms (10000).
+ *
+ * Con TLS los sockets no tienen SocketChannel: los FASTA se reciben por el flujo
+ * cifrado, sin ChannelTransfer.
+ */
+
+public class TlsAcceptor {
+    private final SSLContext context;
+    private final int handshakeTimeoutMs;
+    private final LogManager logManager;
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong failedHandshakes = new AtomicLong();
+    private final AtomicLong handshakeNanos = new AtomicLong();
+
+    public TlsAcceptor(ServerConfig config, LogManager logManager) throws IOException {
+        this.logManager = logManager;
+        this.handshakeTimeoutMs = config.getInt("tls.handshake_timeout_ms", 10_000);
+        try {
+            this.context = Tls.serverContext(
+                    config.getString("tls.keystore", "data/server.p12"),
+                    config.getString("tls.keystore_password", "changeit").toCharArray(),
+                    config.getInt("tls.session_cache_size", 20_000),
+                    config.getInt("tls.session_timeout_s", 24 * 60 * 60));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo cargar el keystore TLS: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Abre el socket de servidor TLS en el puerto.
+     */
+
+    public ServerSocket bind(int port) throws IOException {
+        SSLServerSocket serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(port);
+        Tls.configure(serverSocket);
+        return serverSocket;
+    }
+
+    /**
+     * Completa el handshake de una conexión recién aceptada.
+     *
+     * @return false si falló (el socket queda cerrado)
+     */
+
+    public boolean handshake(Socket socket) {
+        SSLSocket ssl = (SSLSocket) socket;
+        long start = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        try {
+            ssl.setSoTimeout(handshakeTimeoutMs);
+            ssl.setTcpNoDelay(true);   // sin esto Nagle y el ACK retrasado suman ~40 ms por handshake
+            ssl.startHandshake();
+            ssl.setSoTimeout(0);
+        } catch (IOException e) {
+            failedHandshakes.incrementAndGet();
+            logManager.logError("Handshake TLS fallido con " + socket.getInetAddress() + ": " + e.getMessage());
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // ya estaba cerrado
+            }
+            return false;
+        }
+        long nanos = System.nanoTime() - start;
+        handshakeNanos.addAndGet(nanos);
+
+        // Una sesión reanudada conserva la fecha de creación de la original
+        SSLSession session = ssl.getSession();
+        boolean resumed = session.getCreationTime() < startMillis;
+        (resumed ? resumedHandshakes : fullHandshakes).incrementAndGet();
+        logManager.logInfo(String.format("Handshake TLS %s con %s: %s %s en %.1f ms",
+                resumed ? "reanudado" : "completo", socket.getInetAddress(),
+                session.getProtocol(), session.getCipherSuite(), nanos / 1e6));
+        return true;
+    }
+
+    /**
+     * Contexto TLS del keystore (lo usa también el gateway HTTPS).
+     */
+
+    public SSLContext getContext() {
+        return context;
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    public long getFailedHandshakes() {
+        return failedHandshakes.get();
+    }
+
+    /**
+     * Tiempo promedio de los handshakes exitosos, en milisegundos.
+     */
+
+    public double getAverageHandshakeMs() {
+        long count = fullHandshakes.get() + resumedHandshakes.get();
+        return count == 0 ? 0 : handshakeNanos.get() / 1e6 / count;
+    }
+}
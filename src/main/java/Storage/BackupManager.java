@@ -0,0 +1,178 @@
+package Storage;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BackupManager
+ * -------------------
+ * Genera respaldos en caliente de pacientes, reportes y archivos FASTA,
+ * sin detener el servidor.
+ * 
+ * Cada respaldo es incremental: solo copia lo que cambió desde el anterior.
+ *  Pacientes: filas modificadas (UPSERT) y desactivadas (DELETE), según el LSN.
+ *  Reportes: como el CSV solo crece, se copian los bytes agregados desde el último offset.
+ *  FASTA: los archivos registrados después del último LSN.
+ * 
+ * Cada respaldo queda en su propia carpeta con un manifest.properties que
+ * indica el rango de LSN y de bytes de reportes que cubre. Al crearse, el
+ * gestor continúa desde el manifiesto más reciente, así que después de un
+ * reinicio solo se copia lo nuevo. El primer respaldo es completo (desde LSN 0),
+ * y también lo es si el manifiesto no corresponde a los datos actuales.
+ */
+
+public class BackupManager {
+    private static final DateTimeFormatter FOLDER_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final CsvManager csvManager;
+    private final Path backupRoot;
+    private final ReentrantLock lock = new ReentrantLock();   // Un respaldo a la vez
+    private long lastLsn = 0;             // LSN cubierto por el último respaldo
+    private long lastReportsOffset = 0;   // Bytes de reportes ya respaldados
+
+    /**
+     * Constructor de BackupManager.
+     * 
+     * @param csvManager gestor de almacenamiento a respaldar
+     * @param backupRoot carpeta donde se crean los respaldos
+     */
+    
+    public BackupManager(CsvManager csvManager, String backupRoot) {
+        this.csvManager = csvManager;
+        this.backupRoot = Paths.get(backupRoot);
+        resumeFromLatest();
+    }
+
+    /**
+     * Toma el LSN y el offset de reportes del respaldo más reciente (las carpetas
+     * se ordenan por nombre, que es la fecha). Las carpetas sin manifiesto son
+     * respaldos que no terminaron y se ignoran. Si el manifiesto cubre un LSN
+     * que el gestor de almacenamiento no tiene (datos restaurados o diario
+     * borrado), o no se puede leer, el próximo respaldo es completo.
+     */
+
+    private void resumeFromLatest() {
+        if (!Files.isDirectory(backupRoot)) return;
+        List<Path> manifests = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(backupRoot, "backup-*")) {
+            for (Path dir : stream) {
+                Path manifest = dir.resolve("manifest.properties");
+                if (Files.exists(manifest)) manifests.add(manifest);
+            }
+            if (manifests.isEmpty()) return;
+            Collections.sort(manifests);
+            Properties manifest = new Properties();
+            try (InputStream in = Files.newInputStream(manifests.get(manifests.size() - 1))) {
+                manifest.load(in);
+            }
+            long lsn = Long.parseLong(manifest.getProperty("to_lsn"));
+            long reports = Long.parseLong(manifest.getProperty("reports_offset"))
+                    + Long.parseLong(manifest.getProperty("reports_bytes"));
+            if (lsn > csvManager.getLsn()) return;
+            lastLsn = lsn;
+            lastReportsOffset = reports;
+        } catch (IOException | RuntimeException e) {
+            // Sin un punto de partida confiable, el próximo respaldo es completo
+            lastLsn = 0;
+            lastReportsOffset = 0;
+        }
+    }
+
+    /**
+     * Ejecuta un respaldo incremental.
+     * Solo un respaldo a la vez; las escrituras del servidor siguen mientras se copian los datos.
+     * 
+     * @return carpeta del respaldo creado
+     */
+    
+    public Path incrementalBackup() throws IOException {
+        lock.lock();
+        try {
+            return backupLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path backupLocked() throws IOException {
+        String name = "backup-" + LocalDateTime.now().format(FOLDER_FORMAT);
+        Path target = backupRoot.resolve(name);
+        Files.createDirectories(target);
+
+        // Punto en el tiempo: filas cambiadas y FASTA congelados
+        StorageSnapshot snapshot = csvManager.snapshot(lastLsn, target.resolve("fasta"));
+
+        // Si el CSV de reportes fue recreado (más corto que antes) se respalda completo
+        long reportsFrom = snapshot.getReportsLength() < lastReportsOffset ? 0 : lastReportsOffset;
+
+        writePatientDelta(snapshot, target.resolve("patients.delta.csv"));
+        copyReportRange(reportsFrom, snapshot.getReportsLength(), target.resolve("reports.delta.csv"));
+        writeManifest(snapshot, reportsFrom, target.resolve("manifest.properties"));
+
+        lastLsn = snapshot.getToLsn();
+        lastReportsOffset = snapshot.getReportsLength();
+        return target;
+    }
+
+    /**
+     * Escribe las filas cambiadas con una columna extra de operación al inicio.
+     */
+    
+    private void writePatientDelta(StorageSnapshot snapshot, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("Operation,Patient ID,Document ID,Full Name,Age,Sex,Contact Email,"
+                    + "Registration Date,Clinical Notes,FASTA Checksum,File Size (bytes),Active");
+            writer.newLine();
+            for (Map.Entry<Integer, String> row : snapshot.getChangedRows().entrySet()) {
+                writer.write("UPSERT," + row.getValue());
+                writer.newLine();
+            }
+            for (Integer id : snapshot.getDeletedIds()) {
+                writer.write("DELETE," + id);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Copia un rango de bytes del CSV de reportes.
+     * El rango está fijado por la instantánea, así que las líneas agregadas
+     * después no se mezclan en este respaldo.
+     */
+    
+    private void copyReportRange(long from, long to, Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(csvManager.getReportsFile(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = from;
+            while (position < to) {
+                position += in.transferTo(position, to - position, out);
+            }
+        }
+    }
+
+    private void writeManifest(StorageSnapshot snapshot, long reportsFrom, Path file) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("created_at", LocalDateTime.now().toString());
+        manifest.setProperty("from_lsn", String.valueOf(snapshot.getFromLsn()));
+        manifest.setProperty("to_lsn", String.valueOf(snapshot.getToLsn()));
+        manifest.setProperty("full", String.valueOf(snapshot.getFromLsn() == 0));
+        manifest.setProperty("patients_changed", String.valueOf(snapshot.getChangedRows().size()));
+        manifest.setProperty("patients_deleted", String.valueOf(snapshot.getDeletedIds().size()));
+        manifest.setProperty("reports_offset", String.valueOf(reportsFrom));
+        manifest.setProperty("reports_bytes", String.valueOf(snapshot.getReportsLength() - reportsFrom));
+        manifest.setProperty("fasta_files", String.valueOf(snapshot.getFrozenFastas().size()));
+        try (OutputStream out = Files.newOutputStream(file)) {
+            manifest.store(out, "SecureGenomicServer backup");
+        }
+    }
+}
@@ -1,12 +1,23 @@
 package Storage;
 
+import Diagnostics.StorageEvent;
 import Model.Patient;
 import Model.DetectionReport;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * CsvManager
@@ -19,38 +30,116 @@ import java.util.*;
  *  Guardar pacientes y reportes de deteccion.
  *  Buscar, actualizar y desactivar pacientes.
  * 
- * Todos los métodos que escriben en archivos están con la función synchronized para
- * permitir uso seguro de múltiples hilos.
+ * Los pacientes se reparten en N shards (PatientShard) según su patientID.
+ * Cada shard tiene su propio archivo, su propio candado y su propio índice
+ * ordenado (skip list) de filas activas, así que las escrituras sobre shards
+ * distintos avanzan en paralelo. Con un solo shard se usa directamente el
+ * archivo de pacientes original; con más, los archivos van en la carpeta
+ * "shards" junto a él (ver ShardMigrator para partir un CSV existente).
+ * 
+ * También mantiene índices secundarios únicos y globales por documentID y por
+ * contactEmail (este último sin distinguir mayúsculas), consultables en O(1).
+ * La inserción reserva las claves con putIfAbsent antes de escribir, así que
+ * es atómica aunque los pacientes vivan en shards distintos.
+ * 
+ * Los candados son ReentrantLock (no synchronized) porque se mantienen durante
+ * operaciones de archivo: así un hilo virtual que espera E/S no queda fijado
+ * (pinned) a su hilo portador.
+ * 
+ * Cada modificación de un paciente o registro de un FASTA recibe un número de
+ * secuencia (LSN). Con él se pueden tomar instantáneas consistentes de solo lo
+ * que cambió desde un LSN dado (ver snapshot), que es lo que usa BackupManager
+ * para los respaldos incrementales en caliente. Los LSN se anotan en un diario
+ * (JOURNAL_FILE, junto a los datos) que se relee al arrancar, así que un
+ * respaldo después de reiniciar sigue siendo incremental.
+ * 
+ * Las escrituras no esperan al disco; sync las fuerza todas juntas (lo llama
+ * el servidor al apagarse).
+ * 
+ * Cada operación pública emite un evento JFR (StorageEvent) con las filas que
+ * leyó o escribió, para ver en una grabación cuáles tocan el disco de más.
  */
 
 public class CsvManager {
-    private Path patientsFile;
+    public static final String JOURNAL_FILE = "changes.log";
+
+    /**
+     * Resultado de una escritura que debe respetar los índices únicos.
+     */
+    public enum WriteResult {
+        OK,
+        DUPLICATE_ID,
+        DUPLICATE_DOCUMENT,
+        DUPLICATE_EMAIL,
+        NOT_FOUND,
+        FAILED
+    }
+
+    private Path dataDir;
     private Path reportsFile;
+    private PatientShard[] shards;
+    private final ReentrantLock reportsLock = new ReentrantLock();
+
+    // Índices secundarios únicos: documentID -> patientID y email (minúsculas) -> patientID
+    private final ConcurrentHashMap<String, Integer> byDocument = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> byEmail = new ConcurrentHashMap<>();
+
+    // Registro de cambios por LSN: solo se guarda el último LSN de cada paciente y de cada FASTA
+    private final ReentrantLock changeLock = new ReentrantLock();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentSkipListMap<Long, Integer> patientChanges = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Long> lastPatientChange = new HashMap<>();
+    private final ConcurrentSkipListMap<Long, Path> fastaChanges = new ConcurrentSkipListMap<>();
+    private final Map<Path, Long> lastFastaChange = new HashMap<>();
+    private long syncedLsn;     // Todo lo anterior a este LSN ya se forzó al disco (protegido por changeLock)
+    private Path journalFile;   // Diario de cambios: "P,lsn,patientID" o "F,lsn,ruta" por línea
 
      /**
-     * Constructor de CsvManager.
+     * Constructor de CsvManager con un solo shard (el archivo de pacientes original).
      * Crea los archivos CSV con encabezados si no existen.
      * 
      * @param patientsFilePath ruta del archivo de pacientes
      * @param reportsFilePath ruta del archivo de reportes
      */
-
+    
     public CsvManager(String patientsFilePath, String reportsFilePath) {
-        this.patientsFile = Paths.get(patientsFilePath);
+        this(patientsFilePath, reportsFilePath, 1);
+    }
+
+    /**
+     * Constructor de CsvManager con pacientes repartidos en varios shards.
+     * Los shards se cargan en paralelo.
+     * 
+     * @param patientsFilePath ruta del archivo de pacientes (con 1 shard se usa tal cual)
+     * @param reportsFilePath  ruta del archivo de reportes
+     * @param shardCount       cantidad de shards (1 o más)
+     * @throws IllegalStateException si los datos en disco se repartieron con otra
+     *         cantidad de shards (ver checkShardLayout) o no se pudieron leer o crear
+     */
+    
+    public CsvManager(String patientsFilePath, String reportsFilePath, int shardCount) {
+        Path patientsFile = Paths.get(patientsFilePath).toAbsolutePath();
+        this.dataDir = patientsFile.getParent();
         this.reportsFile = Paths.get(reportsFilePath);
+        this.journalFile = dataDir.resolve(JOURNAL_FILE);
+        this.shards = new PatientShard[Math.max(1, shardCount)];
 
         try {
+            checkShardLayout(patientsFile, shards.length);
             // Crear archivos si no existen
-            if (!Files.exists(patientsFile)) {
-                Files.createDirectories(patientsFile.getParent());
-                Files.createFile(patientsFile);
-                // Escribir encabezado
-                Files.write(patientsFile, Collections.singletonList(
-    "Patient ID,Document ID,Full Name,Age,Sex,Contact Email,Registration Date,Clinical Notes,File Size (bytes),FASTA Checksum,Active"));
-
+            if (shards.length == 1) {
+                shards[0] = new PatientShard(patientsFile);
+            } else {
+                Path shardDir = shardDirFor(patientsFile);
+                for (int i = 0; i < shards.length; i++) {
+                    shards[i] = new PatientShard(PatientShard.fileFor(shardDir, i));
+                }
+                if (!Files.exists(shardDir.resolve(ShardMigrator.MARKER_FILE))) {
+                    ShardMigrator.writeMarker(shardDir, shards.length, 0);
+                }
             }
             if (!Files.exists(reportsFile)) {
-                Files.createDirectories(reportsFile.getParent());
+                Files.createDirectories(reportsFile.toAbsolutePath().getParent());
                 Files.createFile(reportsFile);
                 // Escribir encabezado
                 Files.write(reportsFile, Collections.singletonList(
@@ -59,39 +148,325 @@ public class CsvManager {
 
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("No se pudieron crear los archivos de datos en " + dataDir, e);
         }
+
+        loadShards();
+        loadJournal();
     }
 
     /**
-     * Guarda un paciente en el archivo CSV.
-     * Reemplaza las comas en notas clínicas para evitar romper el formato CSV.
+     * Verifica que la cantidad de shards configurada sea la misma con la que se
+     * repartieron los datos. Si no, floorMod(id, N) mandaría a cada paciente a
+     * otro shard: las búsquedas darían 404 y se podrían repetir IDs.
+     *
+     * Con más de un shard, la carpeta de shards debe tener el marcador de
+     * ShardMigrator con la misma cantidad; si no hay marcador, solo se acepta una
+     * carpeta nueva (sin shards previos) y sin pacientes en el archivo original,
+     * y el marcador se escribe al crearla. Con un solo shard, la carpeta no debe
+     * tener una migración.
      *
-     * @param p objeto Patient a guardar
+     * @throws IllegalStateException si los datos no corresponden a la configuración
+     */
+
+    private static void checkShardLayout(Path patientsFile, int shardCount) throws IOException {
+        Path shardDir = shardDirFor(patientsFile);
+        int migrated = ShardMigrator.readShardCount(shardDir);
+        if (shardCount == 1) {
+            if (migrated > 0) {
+                throw new IllegalStateException("Los pacientes están repartidos en " + migrated + " shards ("
+                        + shardDir + "). Configure storage.shards=" + migrated + ".");
+            }
+            return;
+        }
+        if (migrated > 0) {
+            if (migrated != shardCount) {
+                throw new IllegalStateException("Los pacientes están repartidos en " + migrated + " shards ("
+                        + shardDir + ") pero storage.shards=" + shardCount + ". Configure storage.shards="
+                        + migrated + " o vuelva a migrar.");
+            }
+            return;
+        }
+        if (hasRows(patientsFile)) {
+            throw new IllegalStateException(patientsFile + " tiene pacientes que no están en los shards. "
+                    + "Ejecute Storage.ShardMigrator " + patientsFile + " " + shardCount + " para repartirlos.");
+        }
+        if (Files.isDirectory(shardDir)) {
+            try (DirectoryStream<Path> existing = Files.newDirectoryStream(shardDir, "patients-*.csv")) {
+                if (existing.iterator().hasNext()) {
+                    throw new IllegalStateException("La carpeta " + shardDir + " tiene shards sin el marcador "
+                            + ShardMigrator.MARKER_FILE + "; no se puede saber con cuántos se repartieron.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Indica si un CSV tiene alguna fila además del encabezado.
+     */
+
+    private static boolean hasRows(Path file) throws IOException {
+        if (!Files.exists(file)) return false;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            reader.readLine(); // encabezado
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Carpeta donde viven los shards de un archivo de pacientes.
      */
     
-    public synchronized void appendPatient(Patient p) {
-        String line = p.getPatientID() + "," +
-            p.getDocumentID() + "," +
-            p.getFullName() + "," +
-            p.getAge() + "," +
-            p.getSex() + "," +
-            p.getContactEmail() + "," +
-            p.getRegistrationDate() + "," +
-            p.getClinicalNotes().replace(",", ";") + "," +
-            p.getChecksumFasta() + "," +
-            p.getFileSizeBytes() + "," +
-            "true"; 
+    public static Path shardDirFor(Path patientsFile) {
+        return patientsFile.toAbsolutePath().resolveSibling("shards");
+    }
 
+    /**
+     * Shard al que pertenece un patientID.
+     * La misma función la usa ShardMigrator, así que no debe cambiar.
+     */
+    
+    public static int shardIndex(int patientId, int shardCount) {
+        return Math.floorMod(patientId, shardCount);
+    }
 
-        try (BufferedWriter writer = Files.newBufferedWriter(patientsFile, StandardOpenOption.APPEND)) {
-            writer.write(line);
-            writer.newLine();
+    private PatientShard shardFor(int patientId) {
+        return shards[shardIndex(patientId, shards.length)];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Carga todos los shards en paralelo y construye los índices secundarios.
+     * Se ejecuta una sola vez al construir el gestor. Si un shard no se puede
+     * leer, el gestor no se crea: arrancar sin esos pacientes daría 404 y
+     * permitiría repetir sus IDs y documentos.
+     *
+     * @throws IllegalStateException si algún shard no se pudo cargar
+     */
+    
+    private void loadShards() {
+        ExecutorService loader = Executors.newFixedThreadPool(
+                Math.min(shards.length, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (PatientShard shard : shards) {
+                pending.add(loader.submit(() -> {
+                    shard.load();
+                    for (Map.Entry<Integer, String> row : shard.after(null).entrySet()) {
+                        String[] parts = row.getValue().split(",");
+                        byDocument.putIfAbsent(parts[1], row.getKey());
+                        String email = emailKey(parts[5]);
+                        if (email != null) byEmail.putIfAbsent(email, row.getKey());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : pending) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("No se pudieron cargar los pacientes: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Carga de pacientes interrumpida", e);
+        } finally {
+            loader.shutdownNow();
+        }
+    }
+
+    /**
+     * Rehace el registro de cambios con el diario de la ejecución anterior y lo
+     * reescribe con solo el último LSN de cada paciente y de cada FASTA, para que
+     * no crezca con cada reinicio. Una línea incompleta (corte a mitad de una
+     * escritura) se ignora.
+     */
+
+    private void loadJournal() {
+        if (!Files.exists(journalFile)) return;
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                String[] parts = line.split(",", 3);
+                if (parts.length < 3) continue;
+                try {
+                    long lsn = Long.parseLong(parts[1]);
+                    if (parts[0].equals("P")) {
+                        putPatientChange(Integer.parseInt(parts[2]), lsn);
+                    } else if (parts[0].equals("F")) {
+                        putFastaChange(Paths.get(parts[2]), lsn);
+                    }
+                    if (lsn > sequence.get()) sequence.set(lsn);
+                } catch (NumberFormatException e) {
+                    // línea cortada: se descarta
+                }
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("No se pudo leer el diario de cambios " + journalFile, e);
+        }
+        syncedLsn = sequence.get();
+        if (lines > patientChanges.size() + fastaChanges.size()) {
+            compactJournal();
+        }
+    }
+
+    private void compactJournal() {
+        Map<Long, String> entries = new TreeMap<>();
+        patientChanges.forEach((lsn, id) -> entries.put(lsn, "P," + lsn + "," + id));
+        fastaChanges.forEach((lsn, path) -> entries.put(lsn, "F," + lsn + "," + path));
+        Path tmp = journalFile.resolveSibling(JOURNAL_FILE + ".tmp");
+        try {
+            Files.write(tmp, entries.values());
+            Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo compactar el diario de cambios " + journalFile, e);
         }
     }
 
+    /**
+     * Inserta un paciente solo si su ID, documentID y email no están en uso.
+     * El documento y el email se reservan con putIfAbsent antes de escribir, y el ID
+     * se verifica con el candado del shard tomado, por lo que dos creaciones
+     * concurrentes del mismo documento no pueden tener éxito a la vez.
+     * 
+     * @param p paciente a insertar
+     * @return OK si se guardó, el índice que ya tenía el valor, o FAILED si falló la escritura
+     */
+    
+    public WriteResult insertPatientIfAbsent(Patient p) {
+        StorageEvent event = StorageEvent.start("insertPatientIfAbsent");
+        WriteResult result = insertIfAbsent(p);
+        if (result == WriteResult.OK) event.scanned(1);
+        event.finish(shardIndex(p.getPatientID(), shards.length), result == WriteResult.OK ? 1 : 0, result.name());
+        return result;
+    }
+
+    private WriteResult insertIfAbsent(Patient p) {
+        int id = p.getPatientID();
+        String document = p.getDocumentID();
+        String email = emailKey(p.getContactEmail());
+
+        PatientShard shard = shardFor(id);
+        shard.getLock().lock();
+        try {
+            if (shard.get(id) != null) {
+                return WriteResult.DUPLICATE_ID;
+            }
+            if (document != null && byDocument.putIfAbsent(document, id) != null) {
+                return WriteResult.DUPLICATE_DOCUMENT;
+            }
+            if (email != null && byEmail.putIfAbsent(email, id) != null) {
+                if (document != null) byDocument.remove(document, id);
+                return WriteResult.DUPLICATE_EMAIL;
+            }
+            try {
+                shard.append(id, toCsvLine(p));
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (document != null) byDocument.remove(document, id);
+                if (email != null) byEmail.remove(email, id);
+                return WriteResult.FAILED;
+            }
+            recordPatientChange(id);
+            return WriteResult.OK;
+        } finally {
+            shard.getLock().unlock();
+        }
+    }
+
+    /**
+     * Inserta varios pacientes con las mismas reglas que insertPatientIfAbsent,
+     * pero con una sola escritura por shard.
+     *
+     * Los candados de los shards involucrados se toman en orden ascendente (así dos
+     * lotes no se bloquean entre sí). Cada paciente se valida por separado: los que
+     * tienen ID, documento o email en uso (o repetido dentro del mismo lote) quedan
+     * fuera y el resto se guarda. Si falla el disco de un shard, sus pacientes se
+     * marcan FAILED y se liberan sus reservas en los índices.
+     *
+     * @param patients pacientes a insertar
+     * @return resultado de cada paciente, en el mismo orden
+     */
+
+    public WriteResult[] insertPatientsIfAbsent(List<Patient> patients) {
+        StorageEvent event = StorageEvent.start("insertPatientsIfAbsent");
+        WriteResult[] results = new WriteResult[patients.size()];
+        TreeMap<Integer, List<Integer>> byShard = new TreeMap<>(); // shard -> posiciones en la lista
+        for (int i = 0; i < patients.size(); i++) {
+            int shard = shardIndex(patients.get(i).getPatientID(), shards.length);
+            byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(i);
+        }
+
+        for (int shard : byShard.keySet()) {
+            shards[shard].getLock().lock();
+        }
+        try {
+            for (Map.Entry<Integer, List<Integer>> entry : byShard.entrySet()) {
+                PatientShard shard = shards[entry.getKey()];
+                Map<Integer, String> rows = new LinkedHashMap<>();
+                List<Integer> reserved = new ArrayList<>();
+
+                for (int i : entry.getValue()) {
+                    Patient p = patients.get(i);
+                    int id = p.getPatientID();
+                    String document = p.getDocumentID();
+                    String email = emailKey(p.getContactEmail());
+
+                    if (shard.get(id) != null || rows.containsKey(id)) {
+                        results[i] = WriteResult.DUPLICATE_ID;
+                    } else if (document != null && byDocument.putIfAbsent(document, id) != null) {
+                        results[i] = WriteResult.DUPLICATE_DOCUMENT;
+                    } else if (email != null && byEmail.putIfAbsent(email, id) != null) {
+                        if (document != null) byDocument.remove(document, id);
+                        results[i] = WriteResult.DUPLICATE_EMAIL;
+                    } else {
+                        rows.put(id, toCsvLine(p));
+                        reserved.add(i);
+                    }
+                }
+                if (rows.isEmpty()) continue;
+
+                try {
+                    shard.appendAll(rows);
+                    event.scanned(rows.size());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    for (int i : reserved) {
+                        Patient p = patients.get(i);
+                        if (p.getDocumentID() != null) byDocument.remove(p.getDocumentID(), p.getPatientID());
+                        String email = emailKey(p.getContactEmail());
+                        if (email != null) byEmail.remove(email, p.getPatientID());
+                        results[i] = WriteResult.FAILED;
+                    }
+                    continue;
+                }
+                for (int i : reserved) {
+                    recordPatientChange(patients.get(i).getPatientID());
+                    results[i] = WriteResult.OK;
+                }
+            }
+        } finally {
+            for (int shard : byShard.descendingKeySet()) {
+                shards[shard].getLock().unlock();
+            }
+        }
+        int inserted = 0;
+        for (WriteResult result : results) {
+            if (result == WriteResult.OK) inserted++;
+        }
+        event.finish(byShard.size() == 1 ? byShard.firstKey() : -1, inserted,
+                inserted == results.length ? WriteResult.OK.name() : "PARTIAL");
+        return results;
+    }
+
     /**
      * Guarda un reporte de detección en el CSV de reportes.
      * Reemplaza comas en la descripción.
@@ -99,18 +474,83 @@ public class CsvManager {
      * @param r objeto DetectionReport a guardar
      */
     
-    public synchronized void appendReport(DetectionReport r) {
-        try (BufferedWriter writer = Files.newBufferedWriter(reportsFile, StandardOpenOption.APPEND)) {
-            String line = r.getPatientId() + "," +
-                          r.getDiseaseId() + "," +
-                          r.getSeverity() + "," +
-                          r.getDetectedAt().toLocalDate() + " " + r.getDetectedAt().toLocalTime().withNano(0) + "," +
-                          r.getDescription().replace(",", ";");
-            writer.write(line);
-            writer.newLine();
+    public void appendReport(DetectionReport r) {
+        appendReports(Collections.singletonList(r));
+    }
+
+    /**
+     * Guarda varios reportes de detección con una sola escritura del CSV de reportes.
+     * 
+     * @param reports reportes a guardar
+     */
+    
+    public void appendReports(List<DetectionReport> reports) {
+        if (reports.isEmpty()) return;
+        StorageEvent event = StorageEvent.start("appendReports");
+        String result = WriteResult.OK.name();
+        reportsLock.lock();
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(reportsFile, StandardOpenOption.APPEND)) {
+                for (DetectionReport r : reports) {
+                    writer.write(toReportLine(r));
+                    writer.newLine();
+                    event.scanned(1);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                result = WriteResult.FAILED.name();
+            }
+        } finally {
+            reportsLock.unlock();
+            event.finish(-1, 0, result);
+        }
+    }
+
+    /**
+     * Reportes de detección guardados para un paciente, en el orden en que se detectaron.
+     * Recorre el CSV de reportes completo (no tiene índice).
+     * 
+     * @param patientId ID del paciente
+     * @return reportes encontrados (vacía si no hay)
+     */
+    
+    public List<DetectionReport> getReports(String patientId) {
+        StorageEvent event = StorageEvent.start("getReports");
+        String result = WriteResult.OK.name();
+        List<DetectionReport> reports = new ArrayList<>();
+        String prefix = patientId.trim() + ",";
+        reportsLock.lock();
+        try (BufferedReader reader = Files.newBufferedReader(reportsFile)) {
+            reader.readLine(); // encabezado
+            String line;
+            while ((line = reader.readLine()) != null) {
+                event.scanned(1);
+                if (!line.startsWith(prefix)) continue;
+                String[] data = line.split(",", 5);
+                if (data.length < 5) continue;
+                try {
+                    reports.add(new DetectionReport(data[0], data[1], Integer.parseInt(data[2]),
+                            LocalDateTime.parse(data[3].replace(' ', 'T')), data[4]));
+                } catch (RuntimeException e) {
+                    // fila dañada: se saltea
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
+            result = WriteResult.FAILED.name();
+        } finally {
+            reportsLock.unlock();
         }
+        event.finish(-1, reports.size(), result);
+        return reports;
+    }
+
+    private static String toReportLine(DetectionReport r) {
+        return r.getPatientId() + "," +
+               r.getDiseaseId() + "," +
+               r.getSeverity() + "," +
+               r.getDetectedAt().toLocalDate() + " " + r.getDetectedAt().toLocalTime().withNano(0) + "," +
+               r.getDescription().replace(",", ";");
     }
 
     /**
@@ -122,119 +562,523 @@ public class CsvManager {
      */
     
     public Patient getPatientById(String id) {
-        try (BufferedReader reader = Files.newBufferedReader(patientsFile)) {
-            String line;
-            reader.readLine(); // saltar encabezado
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 11 && parts[0].equals(id) && parts[10].equals("true")) {
-                    return parsePatient(parts);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        return getPatientById(id, "getPatientById");
+    }
+
+    private Patient getPatientById(String id, String operation) {
+        StorageEvent event = StorageEvent.start(operation);
+        int patientId;
+        try {
+            patientId = Integer.parseInt(id.trim());
+        } catch (NumberFormatException e) {
+            event.finish(-1, 0, WriteResult.NOT_FOUND.name());
+            return null;
         }
-        return null;
+        String line = shardFor(patientId).get(patientId);
+        Patient patient = line == null ? null : parsePatient(line.split(","));
+        event.finish(shardIndex(patientId, shards.length), patient == null ? 0 : 1,
+                patient == null ? WriteResult.NOT_FOUND.name() : WriteResult.OK.name());
+        return patient;
     }
 
     /**
-     * Actualiza los datos de un paciente en el CSV.
+     * Busca un paciente activo por su documento de identidad usando el índice secundario.
+     * 
+     * @param documentID documento del paciente
+     * @return Patient encontrado o null
+     */
+    
+    public Patient getPatientByDocument(String documentID) {
+        Integer id = byDocument.get(documentID.trim());
+        if (id == null) {
+            StorageEvent.start("getPatientByDocument").finish(-1, 0, WriteResult.NOT_FOUND.name());
+            return null;
+        }
+        return getPatientById(String.valueOf(id), "getPatientByDocument");
+    }
+
+    /**
+     * Busca un paciente activo por su email (sin distinguir mayúsculas) usando el índice secundario.
+     * 
+     * @param email email de contacto
+     * @return Patient encontrado o null
+     */
+    
+    public Patient getPatientByEmail(String email) {
+        String key = emailKey(email);
+        Integer id = key == null ? null : byEmail.get(key);
+        if (id == null) {
+            StorageEvent.start("getPatientByEmail").finish(-1, 0, WriteResult.NOT_FOUND.name());
+            return null;
+        }
+        return getPatientById(String.valueOf(id), "getPatientByEmail");
+    }
+
+    /**
+     * Recorre en orden de ID los pacientes activos posteriores a un cursor.
+     * Mezcla las vistas ordenadas de todos los shards (sin copiarlas), por lo que
+     * la memoria usada depende del número de shards y no del tamaño de la cohorte.
+     * 
+     * @param afterId cursor: se devuelven IDs estrictamente mayores (null = desde el inicio)
+     * @param limit   máximo de pacientes a entregar
+     * @param filter  texto a buscar en nombre, documento, email o notas (null = sin filtro)
+     * @param sink    receptor de cada paciente encontrado
+     * @return ID del último paciente entregado si se llenó la página, o null si no hay más
+     */
+    
+    public Integer listPatients(Integer afterId, int limit, String filter, Consumer<Patient> sink) {
+        StorageEvent event = StorageEvent.start("listPatients");
+        String needle = filter == null ? null : filter.toLowerCase();
+
+        // Mezcla k-way: una cabeza por shard, ordenadas por ID
+        PriorityQueue<ShardCursor> heads = new PriorityQueue<>(Comparator.comparingInt(c -> c.current.getKey()));
+        for (PatientShard shard : shards) {
+            ShardCursor cursor = new ShardCursor(shard.after(afterId).entrySet().iterator());
+            if (cursor.advance()) heads.add(cursor);
+        }
+
+        int count = 0;
+        Integer lastId = null;
+        while (count < limit && !heads.isEmpty()) {
+            ShardCursor cursor = heads.poll();
+            Map.Entry<Integer, String> entry = cursor.current;
+            if (cursor.advance()) heads.add(cursor);
+            event.scanned(1);
+
+            Patient p = parsePatient(entry.getValue().split(","));
+            if (p == null || (needle != null && !matches(p, needle))) continue;
+            sink.accept(p);
+            lastId = entry.getKey();
+            count++;
+        }
+        event.finish(-1, count, WriteResult.OK.name());
+        return count >= limit ? lastId : null;
+    }
+
+    /**
+     * Posición de la mezcla dentro de un shard.
+     */
+    
+    private static class ShardCursor {
+        private final Iterator<Map.Entry<Integer, String>> iterator;
+        private Map.Entry<Integer, String> current;
+
+        ShardCursor(Iterator<Map.Entry<Integer, String>> iterator) {
+            this.iterator = iterator;
+        }
+
+        boolean advance() {
+            current = iterator.hasNext() ? iterator.next() : null;
+            return current != null;
+        }
+    }
+
+    /**
+     * Indica si alguno de los campos de texto del paciente contiene el filtro.
+     */
+    
+    private boolean matches(Patient p, String needle) {
+        return contains(p.getFullName(), needle)
+                || contains(p.getDocumentID(), needle)
+                || contains(p.getContactEmail(), needle)
+                || contains(p.getClinicalNotes(), needle);
+    }
+
+    private boolean contains(String field, String needle) {
+        return field != null && field.toLowerCase().contains(needle);
+    }
+
+    /**
+     * Actualiza los datos de un paciente en el CSV de su shard.
      * Sobrescribe la línea correspondiente.
+     * Si cambia el email, lo reserva antes para que no lo use otro paciente.
      * 
      * @param p objeto Patient con datos actualizados
+     * @return OK, NOT_FOUND si el paciente no está activo, DUPLICATE_EMAIL o FAILED
      */
     
-    public synchronized void updatePatient(Patient p) {
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader reader = Files.newBufferedReader(patientsFile)) {
-            String header = reader.readLine();
-            lines.add(header);
+    public WriteResult updatePatient(Patient p) {
+        StorageEvent event = StorageEvent.start("updatePatient");
+        WriteResult result = update(p, event);
+        event.finish(shardIndex(p.getPatientID(), shards.length), result == WriteResult.OK ? 1 : 0, result.name());
+        return result;
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts[0].equals(String.valueOf(p.getPatientID()))) {
-                    
-                    lines.add(
-                        p.getPatientID() + "," +
-                        p.getFullName() + "," +
-                        p.getDocumentID() + "," +
-                        p.getAge() + "," +
-                        p.getSex() + "," +
-                        p.getContactEmail() + "," +
-                        p.getRegistrationDate() + "," +
-                        p.getClinicalNotes().replace(",", ";") + "," +
-                        p.getChecksumFasta() + "," +
-                        p.getFileSizeBytes() + "," +
-                        "true"
-                      );
-                } else {
-                    lines.add(line);
+    private WriteResult update(Patient p, StorageEvent event) {
+        int id = p.getPatientID();
+        PatientShard shard = shardFor(id);
+        shard.getLock().lock();
+        try {
+            String previousLine = shard.get(id);
+            if (previousLine == null) {
+                return WriteResult.NOT_FOUND;
+            }
+            String previousEmail = emailKey(previousLine.split(",")[5]);
+            String newEmail = emailKey(p.getContactEmail());
+            boolean emailChanged = newEmail != null && !newEmail.equals(previousEmail);
+            if (emailChanged) {
+                Integer owner = byEmail.putIfAbsent(newEmail, id);
+                if (owner != null && owner != id) {
+                    return WriteResult.DUPLICATE_EMAIL;
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+
+            try {
+                shard.replace(id, toCsvLine(p));
+                event.scanned(shard.getLastRewriteRows());
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (emailChanged) byEmail.remove(newEmail, id);
+                return WriteResult.FAILED;
+            }
+            if (previousEmail != null && !previousEmail.equals(newEmail)) {
+                byEmail.remove(previousEmail, id);
+            }
+            recordPatientChange(id);
+            return WriteResult.OK;
+        } finally {
+            shard.getLock().unlock();
         }
+    }
+
 
-        //  ahora el reader ya está cerrado, se puede escribir sin bloquear
+    /**
+     * Desactiva un paciente en el CSV (borrado lógico).
+     * Cambia la columna "Active" a false.
+     * 
+     * @param id ID del paciente a desactivar
+     */
+    
+    public void deactivatePatient(String id) {
+        int patientId;
+        try {
+            patientId = Integer.parseInt(id.trim());
+        } catch (NumberFormatException e) {
+            return; // ID no numérico: nunca estuvo en el índice
+        }
+
+        StorageEvent event = StorageEvent.start("deactivatePatient");
+        String result = WriteResult.FAILED.name();
+        int deactivated = 0;
+        PatientShard shard = shardFor(patientId);
+        shard.getLock().lock();
         try {
-            Files.write(patientsFile, lines);
+            String removed = shard.deactivate(patientId);
+            event.scanned(shard.getLastRewriteRows());
+            deactivated = removed == null ? 0 : 1;
+            result = removed == null ? WriteResult.NOT_FOUND.name() : WriteResult.OK.name();
+            if (removed != null) {
+                String[] parts = removed.split(",");
+                byDocument.remove(parts[1], patientId);
+                String email = emailKey(parts[5]);
+                if (email != null) byEmail.remove(email, patientId);
+                recordPatientChange(patientId);   // Sin fila no hay cambio que respaldar
+            }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            shard.getLock().unlock();
+            event.finish(shardIndex(patientId, shards.length), deactivated, result);
         }
     }
 
+    /**
+     * Registra un archivo FASTA recién escrito (o reemplazado) para el próximo respaldo.
+     * El archivo debe estar completo: quien lo escribe lo mueve a su nombre final antes de llamar.
+     * 
+     * @param fastaFile ruta del FASTA del paciente
+     */
+    
+    public void registerFasta(Path fastaFile) {
+        recordFastaChange(fastaFile.toAbsolutePath());
+    }
 
     /**
-     * Desactiva un paciente en el CSV (borrado lógico).
-     * Cambia la columna "Active" a false.
+     * Toma una instantánea consistente de todo lo que cambió después de un LSN.
+     * Toma los candados de todos los shards (en orden) y el de reportes, así que
+     * representa un único punto en el tiempo; su costo depende de la cantidad de
+     * cambios, no del tamaño de los datos. Con sinceLsn = 0 la instantánea es completa.
      * 
-     * @param id ID del paciente a desactivar
+     * Los FASTA modificados se "congelan" con enlaces duros dentro de blobDir:
+     * como los escritores reemplazan archivos con move (nunca los truncan),
+     * el enlace conserva el contenido del momento de la instantánea. Si no se
+     * puede enlazar, el FASTA se copia después de soltar los candados, para no
+     * frenar todas las escrituras mientras se copian gigabytes.
+     * 
+     * @param sinceLsn LSN del respaldo anterior (0 = todo)
+     * @param blobDir  carpeta donde se dejan los FASTA congelados
+     * @return instantánea con filas cambiadas, pacientes eliminados, tamaño de reportes y FASTA
      */
     
-    public synchronized void deactivatePatient(String id) {
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader reader = Files.newBufferedReader(patientsFile)) {
-            String header = reader.readLine();
-            lines.add(header);
+    public StorageSnapshot snapshot(long sinceLsn, Path blobDir) throws IOException {
+        StorageEvent event = StorageEvent.start("snapshot");
+        Map<Path, Path> copies = new LinkedHashMap<>();
+        StorageSnapshot snapshot;
+        for (PatientShard shard : shards) {
+            shard.getLock().lock();
+        }
+        try {
+            reportsLock.lock();
+            changeLock.lock();
+            try {
+                snapshot = snapshotLocked(sinceLsn, blobDir, copies);
+            } finally {
+                changeLock.unlock();
+                reportsLock.unlock();
+            }
+        } finally {
+            for (int i = shards.length - 1; i >= 0; i--) {
+                shards[i].getLock().unlock();
+            }
+        }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length < 11) continue; // ignorar líneas corruptas
-                if (parts[0].equals(id)) {
-                    parts[10] = "false"; // marcar inactivo
-                    lines.add(String.join(",", parts));
-                } else {
-                    lines.add(line);
+        // Los FASTA que no se pudieron enlazar se copian ya sin candados: un FASTA
+        // registrado nunca se reescribe (cada versión tiene su propio nombre), así
+        // que la copia es igual a la que se habría hecho dentro de la instantánea.
+        for (Map.Entry<Path, Path> copy : copies.entrySet()) {
+            Files.copy(copy.getValue(), copy.getKey(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        event.scanned(snapshot.getChangedRows().size());
+        event.finish(-1, snapshot.getChangedRows().size() + snapshot.getDeletedIds().size(), WriteResult.OK.name());
+        return snapshot;
+    }
+
+    /**
+     * Fuerza al disco (fsync) todo lo escrito: los archivos de los shards, el de
+     * reportes, los FASTA cambiados desde el sync anterior y sus carpetas (los
+     * reemplazos con move son cambios de la carpeta).
+     * Toma los mismos candados que snapshot, así que primero espera a que termine
+     * cualquier escritura en curso: ningún archivo queda a medio reescribir.
+     * 
+     * @return LSN hasta el que todo quedó en disco
+     */
+    
+    public long sync() throws IOException {
+        StorageEvent event = StorageEvent.start("sync");
+        for (PatientShard shard : shards) {
+            shard.getLock().lock();
+        }
+        try {
+            reportsLock.lock();
+            changeLock.lock();
+            try {
+                long lsn = sequence.get();
+                Set<Path> dirs = new LinkedHashSet<>();
+                for (PatientShard shard : shards) {
+                    shard.sync();
+                    dirs.add(shard.getFile().toAbsolutePath().getParent());
                 }
+                force(reportsFile);
+                if (Files.exists(journalFile)) force(journalFile);
+                for (Path fasta : fastaChanges.tailMap(syncedLsn, false).values()) {
+                    if (!Files.exists(fasta)) continue;
+                    force(fasta);
+                    dirs.add(fasta.getParent());
+                }
+                for (Path dir : dirs) {
+                    forceDirectory(dir);
+                }
+                syncedLsn = lsn;
+                event.finish(-1, 0, WriteResult.OK.name());
+                return lsn;
+            } finally {
+                changeLock.unlock();
+                reportsLock.unlock();
+            }
+        } finally {
+            for (int i = shards.length - 1; i >= 0; i--) {
+                shards[i].getLock().unlock();
             }
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
         } catch (IOException e) {
-            e.printStackTrace();
+            // Algunos sistemas (Windows) no abren carpetas; ahí el move ya queda firme
+        }
+    }
+
+    /**
+     * Arma la instantánea con todos los candados tomados. Cada FASTA se congela
+     * con un enlace duro (instantáneo); los que no se pueden enlazar (sistema de
+     * archivos sin enlaces, otro disco) quedan en copies (destino -> origen) para
+     * copiarlos después de soltar los candados.
+     */
+
+    private StorageSnapshot snapshotLocked(long sinceLsn, Path blobDir, Map<Path, Path> copies) throws IOException {
+        long lsn = sequence.get();
+
+        Map<Integer, String> changedRows = new LinkedHashMap<>();
+        Set<Integer> deletedIds = new LinkedHashSet<>();
+        Set<Path> fastas = new LinkedHashSet<>();
+        if (sinceLsn == 0) {
+            // Respaldo completo: todas las filas activas y todos los FASTA de pacientes
+            for (PatientShard shard : shards) {
+                shard.copyActiveRows(changedRows);
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDir, "patient_*.fasta")) {
+                for (Path path : stream) {
+                    fastas.add(path.toAbsolutePath());
+                }
+            }
+        } else {
+            for (Integer id : patientChanges.tailMap(sinceLsn, false).values()) {
+                String line = shardFor(id).get(id);
+                if (line != null) {
+                    changedRows.put(id, line);
+                } else {
+                    deletedIds.add(id);
+                }
+            }
+        }
+        fastas.addAll(fastaChanges.tailMap(sinceLsn, false).values());
+
+        List<Path> blobs = new ArrayList<>();
+        Files.createDirectories(blobDir);
+        for (Path fasta : fastas) {
+            if (!Files.exists(fasta)) continue;
+            Path frozen = blobDir.resolve(fasta.getFileName());
+            try {
+                Files.createLink(frozen, fasta);
+            } catch (UnsupportedOperationException | IOException e) {
+                // sistema de archivos sin enlaces duros: se copia al salir
+                copies.put(frozen, fasta);
+            }
+            blobs.add(frozen);
+        }
+
+        return new StorageSnapshot(sinceLsn, lsn, changedRows, deletedIds, Files.size(reportsFile), blobs);
+    }
+
+    /**
+     * Devuelve la ruta del CSV de reportes (que solo crece por el final).
+     */
+    
+    public Path getReportsFile() {
+        return reportsFile;
+    }
+
+    /**
+     * Último LSN asignado (0 si nunca hubo cambios).
+     */
+
+    public long getLsn() {
+        return sequence.get();
+    }
+
+    /**
+     * Asigna un nuevo LSN al paciente y descarta su cambio anterior del registro.
+     */
+    
+    private void recordPatientChange(int patientId) {
+        changeLock.lock();
+        try {
+            long lsn = sequence.incrementAndGet();
+            putPatientChange(patientId, lsn);
+            journal("P," + lsn + "," + patientId);
+        } finally {
+            changeLock.unlock();
         }
+    }
 
-        // escribir después de cerrar el reader
+    private void putPatientChange(int patientId, long lsn) {
+        Long previous = lastPatientChange.put(patientId, lsn);
+        if (previous != null) patientChanges.remove(previous);
+        patientChanges.put(lsn, patientId);
+    }
+
+    /**
+     * Asigna un nuevo LSN al archivo FASTA y descarta su cambio anterior del registro.
+     */
+    
+    private void recordFastaChange(Path fastaFile) {
+        changeLock.lock();
         try {
-            Files.write(patientsFile, lines);
+            long lsn = sequence.incrementAndGet();
+            putFastaChange(fastaFile, lsn);
+            journal("F," + lsn + "," + fastaFile);
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    private void putFastaChange(Path fastaFile, long lsn) {
+        Long previous = lastFastaChange.put(fastaFile, lsn);
+        if (previous != null) fastaChanges.remove(previous);
+        fastaChanges.put(lsn, fastaFile);
+    }
+
+    /**
+     * Agrega una línea al diario de cambios (con changeLock tomado). Como los
+     * datos, no espera al disco: sync la fuerza. Si falla, el cambio sigue en
+     * memoria y solo se pierde para los respaldos de después de un reinicio.
+     */
+
+    private void journal(String line) {
+        try (BufferedWriter writer = Files.newBufferedWriter(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(line);
+            writer.newLine();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
- 
+
+    /**
+     * Normaliza un email para usarlo como clave del índice.
+     * Retorna null si no hay email (esos pacientes no participan en la unicidad).
+     */
+    
+    private static String emailKey(String email) {
+        if (email == null) return null;
+        String key = email.trim().toLowerCase();
+        return key.isEmpty() || key.equals("null") ? null : key;
+    }
+
+    /**
+     * Convierte un paciente en una línea CSV activa.
+     * El orden de columnas es el mismo del encabezado y el que espera parsePatient.
+     * 
+     * @param p paciente a serializar
+     * @return línea CSV sin salto de línea
+     */
+    
+    private String toCsvLine(Patient p) {
+        return p.getPatientID() + "," +
+            p.getDocumentID() + "," +
+            p.getFullName() + "," +
+            p.getAge() + "," +
+            p.getSex() + "," +
+            p.getContactEmail() + "," +
+            p.getRegistrationDate() + "," +
+            p.getClinicalNotes().replace(",", ";") + "," +
+            p.getChecksumFasta() + "," +
+            p.getFileSizeBytes() + "," +
+            "true";
+    }
+
     /**
      * Convierte un arreglo de campos CSV en un objeto Patient.
      * Maneja parseo de tipos numéricos y fechas.
      * Retorna null si ocurre algún error.
      * 
-     * @param parts 
-     * @return 
+     * @param parts
+     * @return
      */
     
     private Patient parsePatient(String[] parts) {
         try {
             Patient p = new Patient(
-                    parts[1],                      // fullName
-                    parts[2],                      // documentID
+                    parts[2],                      // fullName
+                    parts[1],                      // documentID
                     Integer.parseInt(parts[3]),    // age
                     parts[4],                      // sex
                     parts[5],                      // contactEmail
@@ -0,0 +1,218 @@
+package Storage;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PatientShard
+ * -------------------
+ * Una partición del almacenamiento de pacientes: un archivo CSV propio,
+ * su propio candado de escritura y su propio índice ordenado de filas activas.
+ *
+ * CsvManager decide a qué shard va cada paciente (por patientID) y toma el
+ * candado del shard antes de llamar a los métodos de escritura, así que
+ * escrituras sobre shards distintos no se bloquean entre sí.
+ */
+
+class PatientShard {
+    static final String HEADER =
+            "Patient ID,Document ID,Full Name,Age,Sex,Contact Email,Registration Date,Clinical Notes,File Size (bytes),FASTA Checksum,Active";
+
+    private final Path file;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Índice ordenado de pacientes activos del shard: patientID -> línea CSV (inmutable)
+    private final ConcurrentSkipListMap<Integer, String> activePatients = new ConcurrentSkipListMap<>();
+    private int lastRewriteRows;   // Filas de la última reescritura (para StorageEvent)
+
+    /**
+     * Crea el shard y su archivo con encabezado si no existe.
+     *
+     * @param file ruta del CSV del shard
+     */
+
+    PatientShard(Path file) throws IOException {
+        this.file = file;
+        if (!Files.exists(file)) {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            Files.write(file, Collections.singletonList(HEADER));
+        }
+    }
+
+    /**
+     * Ruta del archivo del shard número index dentro de una carpeta de shards.
+     * La usan tanto CsvManager como ShardMigrator.
+     */
+
+    static Path fileFor(Path shardDir, int index) {
+        return shardDir.resolve(String.format("patients-%02d.csv", index));
+    }
+
+    /**
+     * Carga en el índice las filas activas del archivo.
+     */
+
+    void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            reader.readLine(); // saltar encabezado
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length < 11 || !parts[10].equals("true")) continue;
+                try {
+                    activePatients.put(Integer.parseInt(parts[0]), line);
+                } catch (NumberFormatException e) {
+                    // ignorar líneas con ID corrupto
+                }
+            }
+        }
+    }
+
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    String get(int patientId) {
+        return activePatients.get(patientId);
+    }
+
+    /**
+     * Vista ordenada de las filas activas con ID mayor al cursor (null = todas).
+     */
+
+    ConcurrentNavigableMap<Integer, String> after(Integer afterId) {
+        return afterId == null ? activePatients : activePatients.tailMap(afterId, false);
+    }
+
+    /**
+     * Agrega una fila activa al final del archivo. Requiere el candado del shard.
+     */
+
+    void append(int patientId, String line) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardOpenOption.APPEND)) {
+            writer.write(line);
+            writer.newLine();
+        }
+        activePatients.put(patientId, line);
+    }
+
+    /**
+     * Agrega varias filas activas con una sola apertura y escritura del archivo.
+     * Requiere el candado del shard.
+     *
+     * @param rows patientID -> fila, en el orden en que se escriben
+     */
+
+    void appendAll(Map<Integer, String> rows) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardOpenOption.APPEND)) {
+            for (String line : rows.values()) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        activePatients.putAll(rows);
+    }
+
+    /**
+     * Reemplaza la fila de un paciente. Requiere el candado del shard.
+     */
+
+    void replace(int patientId, String updatedLine) throws IOException {
+        String id = String.valueOf(patientId);
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            lines.add(reader.readLine());
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                lines.add(parts[0].equals(id) ? updatedLine : line);
+            }
+        }
+        rewrite(lines);
+        activePatients.put(patientId, updatedLine);
+    }
+
+    /**
+     * Marca un paciente como inactivo (borrado lógico). Requiere el candado del shard.
+     *
+     * @return la fila activa que tenía el paciente, o null si no estaba activo
+     */
+
+    String deactivate(int patientId) throws IOException {
+        String id = String.valueOf(patientId);
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            lines.add(reader.readLine());
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length < 11) continue; // ignorar líneas corruptas
+                if (parts[0].equals(id)) {
+                    parts[10] = "false"; // marcar inactivo
+                    lines.add(String.join(",", parts));
+                } else {
+                    lines.add(line);
+                }
+            }
+        }
+        rewrite(lines);
+        return activePatients.remove(patientId);
+    }
+
+    /**
+     * Fuerza al disco el archivo del shard. Requiere el candado del shard.
+     */
+
+    void sync() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Filas (sin el encabezado) que leyó y reescribió el último replace o
+     * deactivate. Requiere el candado del shard.
+     */
+
+    int getLastRewriteRows() {
+        return lastRewriteRows;
+    }
+
+    /**
+     * Copia las filas activas del shard en el mapa recibido (para respaldos completos).
+     */
+
+    void copyActiveRows(Map<Integer, String> target) {
+        target.putAll(activePatients);
+    }
+
+    /**
+     * Reescribe el archivo de forma atómica: primero en un temporal y luego
+     * lo reemplaza con un move. Un lector (o un respaldo) nunca ve el archivo a medias.
+     */
+
+    private void rewrite(List<String> lines) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, lines);
+        lastRewriteRows = lines.size() - 1;
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
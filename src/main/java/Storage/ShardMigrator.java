@@ -0,0 +1,127 @@
+package Storage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+
+/**
+ * ShardMigrator
+ * -------------------
+ * Herramienta de línea de comandos que reparte un CSV de pacientes existente
+ * en N archivos de shard, usando la misma función de ruteo que CsvManager.
+ *
+ * Uso:
+ *   java -cp SecureGenomicServer.jar Storage.ShardMigrator [patients.csv] [shards]
+ *
+ * Por defecto lee data/patients.csv y crea data/shards/patients-NN.csv.
+ * El archivo original no se modifica. Se copian todas las filas (también las
+ * inactivas) para conservar el historial. Al terminar deja un archivo marcador
+ * en la carpeta de shards para que el servidor sepa que la migración ya se hizo
+ * y con cuántos shards: si storage.shards no coincide, el servidor no arranca.
+ * Debe ejecutarse con el servidor detenido.
+ */
+
+public class ShardMigrator {
+    static final String MARKER_FILE = "MIGRATED";
+
+    public static void main(String[] args) throws IOException {
+        Path patientsFile = Paths.get(args.length > 0 ? args[0] : "data/patients.csv");
+        int shardCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        if (shardCount < 2) {
+            System.err.println("La cantidad de shards debe ser al menos 2.");
+            System.exit(1);
+        }
+
+        Path shardDir = CsvManager.shardDirFor(patientsFile);
+        if (Files.exists(shardDir.resolve(MARKER_FILE))) {
+            System.err.println("La carpeta " + shardDir + " ya contiene una migración. Bórrela para repetirla.");
+            System.exit(1);
+        }
+        Files.createDirectories(shardDir);
+
+        long[] counts = migrate(patientsFile, shardDir, shardCount);
+
+        long total = 0;
+        for (int i = 0; i < shardCount; i++) {
+            System.out.println("Shard " + i + ": " + counts[i] + " filas");
+            total += counts[i];
+        }
+        writeMarker(shardDir, shardCount, total);
+        System.out.println("Migración terminada: " + total + " filas en " + shardCount + " shards ("
+                + shardDir + "). Configure storage.shards=" + shardCount + " en el servidor.");
+    }
+
+    /**
+     * Escribe el marcador de la carpeta de shards: "shards=N rows=M at=fecha".
+     * CsvManager lo lee al arrancar para verificar storage.shards.
+     */
+
+    static void writeMarker(Path shardDir, int shardCount, long rows) throws IOException {
+        Files.write(shardDir.resolve(MARKER_FILE), java.util.Collections.singletonList(
+                "shards=" + shardCount + " rows=" + rows + " at=" + LocalDateTime.now()));
+    }
+
+    /**
+     * Lee la cantidad de shards del marcador de la carpeta.
+     *
+     * @return la cantidad, o 0 si no hay marcador
+     * @throws IllegalStateException si el marcador existe pero no tiene "shards=N"
+     */
+
+    static int readShardCount(Path shardDir) throws IOException {
+        Path marker = shardDir.resolve(MARKER_FILE);
+        if (!Files.exists(marker)) return 0;
+        for (String field : new String(Files.readAllBytes(marker)).trim().split("\\s+")) {
+            if (field.startsWith("shards=")) {
+                try {
+                    int count = Integer.parseInt(field.substring("shards=".length()));
+                    if (count > 0) return count;
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+        throw new IllegalStateException("Marcador de shards inválido: " + marker);
+    }
+
+    /**
+     * Copia cada fila del CSV al shard que le corresponde según su patientID.
+     * Las líneas corruptas (ID no numérico) se descartan con un aviso.
+     *
+     * @return cantidad de filas escritas por shard
+     */
+
+    static long[] migrate(Path patientsFile, Path shardDir, int shardCount) throws IOException {
+        BufferedWriter[] writers = new BufferedWriter[shardCount];
+        long[] counts = new long[shardCount];
+        try (BufferedReader reader = Files.newBufferedReader(patientsFile)) {
+            for (int i = 0; i < shardCount; i++) {
+                writers[i] = Files.newBufferedWriter(PatientShard.fileFor(shardDir, i));
+                writers[i].write(PatientShard.HEADER);
+                writers[i].newLine();
+            }
+
+            String line;
+            reader.readLine(); // saltar encabezado
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", 2);
+                int patientId;
+                try {
+                    patientId = Integer.parseInt(parts[0].trim());
+                } catch (NumberFormatException e) {
+                    System.err.println("Fila ignorada (ID inválido): " + line);
+                    continue;
+                }
+                int shard = CsvManager.shardIndex(patientId, shardCount);
+                writers[shard].write(line);
+                writers[shard].newLine();
+                counts[shard]++;
+            }
+        } finally {
+            for (BufferedWriter writer : writers) {
+                if (writer != null) writer.close();
+            }
+        }
+        return counts;
+    }
+}
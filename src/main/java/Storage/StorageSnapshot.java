@@ -0,0 +1,65 @@
+package Storage;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * StorageSnapshot
+ * -------------------
+ * Vista congelada de los cambios del almacenamiento entre dos LSN.
+ * La crea CsvManager.snapshot y la consume BackupManager.
+ * 
+ * Contiene:
+ *  Las filas CSV de pacientes creados o modificados.
+ *  Los IDs de pacientes desactivados.
+ *  El tamaño del CSV de reportes en el momento de la instantánea.
+ *  Los FASTA cambiados, ya congelados en la carpeta del respaldo.
+ */
+
+public class StorageSnapshot {
+    private final long fromLsn;
+    private final long toLsn;
+    private final Map<Integer, String> changedRows;
+    private final Set<Integer> deletedIds;
+    private final long reportsLength;
+    private final List<Path> frozenFastas;
+
+    public StorageSnapshot(long fromLsn, long toLsn, Map<Integer, String> changedRows,
+                           Set<Integer> deletedIds, long reportsLength, List<Path> frozenFastas) {
+        this.fromLsn = fromLsn;
+        this.toLsn = toLsn;
+        this.changedRows = Collections.unmodifiableMap(changedRows);
+        this.deletedIds = Collections.unmodifiableSet(deletedIds);
+        this.reportsLength = reportsLength;
+        this.frozenFastas = Collections.unmodifiableList(frozenFastas);
+    }
+
+    // Getters
+
+    public long getFromLsn() {
+        return fromLsn;
+    }
+
+    public long getToLsn() {
+        return toLsn;
+    }
+
+    public Map<Integer, String> getChangedRows() {
+        return changedRows;
+    }
+
+    public Set<Integer> getDeletedIds() {
+        return deletedIds;
+    }
+
+    public long getReportsLength() {
+        return reportsLength;
+    }
+
+    public List<Path> getFrozenFastas() {
+        return frozenFastas;
+    }
+}
@@ -0,0 +1,208 @@
+package Storage;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * UploadManager
+ * -------------------
+ * Sesiones de subida en pedazos (ver UploadSession) que siguen vivas aunque se
+ * corte la conexión: el cliente pregunta qué pedazos faltan y los reenvía,
+ * desde la misma conexión o desde otra.
+ *
+ * Ciclo de una sesión:
+ *  open   -> se reciben pedazos en cualquier orden (y repetidos)
+ *  commit -> se verifica el SHA-256 del archivo completo
+ *  claim  -> CREATE_PATIENT / UPDATE_PATIENT con "upload_id" toma el archivo
+ *            y lo mueve a su nombre final (un rename, sin copiar bytes).
+ *
+ * Las sesiones se cargan del disco al arrancar. Las que pasan "ttlMillis" sin
+ * actividad se borran (se revisa al abrir una nueva).
+ *
+ * Cada subida reserva espacio en disco desde que se abre, así que hay un tamaño
+ * máximo por subida y una cantidad máxima de sesiones abiertas por cliente.
+ */
+
+public class UploadManager {
+    public static final long DEFAULT_MAX_UPLOAD_BYTES = 16L * 1024 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SESSIONS_PER_CLIENT = 4;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path dir;
+    private final int defaultChunkBytes;
+    private final int maxChunkBytes;
+    private final long ttlMillis;
+    private final long maxUploadBytes;
+    private final int maxSessionsPerClient;
+    private final ConcurrentHashMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private final ReentrantLock openLock = new ReentrantLock();   // Contar y abrir sesiones de un cliente juntos
+
+    /**
+     * Constructor de UploadManager.
+     *
+     * @param dir               carpeta de las sesiones
+     * @param defaultChunkBytes tamaño de pedazo si el cliente no pide uno
+     * @param maxChunkBytes     tamaño de pedazo máximo aceptado
+     * @param ttlMillis         tiempo sin actividad tras el cual se borra una sesión
+     */
+
+    public UploadManager(String dir, int defaultChunkBytes, int maxChunkBytes, long ttlMillis) {
+        this(dir, defaultChunkBytes, maxChunkBytes, ttlMillis, DEFAULT_MAX_UPLOAD_BYTES, DEFAULT_MAX_SESSIONS_PER_CLIENT);
+    }
+
+    /**
+     * Constructor de UploadManager con límites de tamaño y de sesiones.
+     *
+     * @param maxUploadBytes       tamaño máximo de una subida
+     * @param maxSessionsPerClient sesiones abiertas a la vez por cliente
+     */
+
+    public UploadManager(String dir, int defaultChunkBytes, int maxChunkBytes, long ttlMillis,
+                         long maxUploadBytes, int maxSessionsPerClient) {
+        this.dir = Paths.get(dir);
+        this.maxChunkBytes = Math.max(1, maxChunkBytes);
+        this.defaultChunkBytes = Math.max(1, Math.min(defaultChunkBytes, this.maxChunkBytes));
+        this.ttlMillis = ttlMillis;
+        this.maxUploadBytes = maxUploadBytes;
+        this.maxSessionsPerClient = Math.max(1, maxSessionsPerClient);
+        load();
+    }
+
+    public long getMaxUploadBytes() {
+        return maxUploadBytes;
+    }
+
+    public int getMaxSessionsPerClient() {
+        return maxSessionsPerClient;
+    }
+
+    /**
+     * Tamaño de pedazo que tendrá una sesión si el cliente pide chunkBytes
+     * (0 = el de la configuración; se acota al máximo).
+     */
+
+    public int chunkSizeFor(int chunkBytes) {
+        return chunkBytes <= 0 ? defaultChunkBytes : Math.min(chunkBytes, maxChunkBytes);
+    }
+
+    /**
+     * Abre una sesión nueva.
+     *
+     * @param owner      cliente que la abre
+     * @param totalBytes tamaño del archivo completo
+     * @param chunkBytes tamaño de pedazo pedido (ver chunkSizeFor)
+     * @return la sesión, o null si el cliente ya tiene maxSessionsPerClient abiertas
+     * @throws IllegalArgumentException si la subida pasa de maxUploadBytes o de Integer.MAX_VALUE pedazos
+     */
+
+    public UploadSession open(String owner, long totalBytes, int chunkBytes) throws IOException {
+        if (totalBytes > maxUploadBytes) {
+            throw new IllegalArgumentException("La subida de " + totalBytes + " bytes pasa del máximo de " + maxUploadBytes);
+        }
+        expireIdle();
+        Files.createDirectories(dir);
+        int size = chunkSizeFor(chunkBytes);
+        String client = owner == null ? "" : owner;
+        openLock.lock();
+        try {
+            long open = sessions.values().stream().filter(s -> s.getOwner().equals(client)).count();
+            if (open >= maxSessionsPerClient) return null;
+            while (true) {
+                String id = Long.toHexString(RANDOM.nextLong() & Long.MAX_VALUE);
+                if (sessions.containsKey(id)) continue;
+                UploadSession session = UploadSession.create(dir, id, client, totalBytes, size);
+                sessions.put(id, session);
+                return session;
+            }
+        } finally {
+            openLock.unlock();
+        }
+    }
+
+    /**
+     * Sesión activa con ese ID, o null.
+     */
+
+    public UploadSession get(String id) {
+        return id == null ? null : sessions.get(id);
+    }
+
+    /**
+     * Toma una sesión confirmada para usar su archivo. Solo una solicitud puede
+     * tomarla; después de mover el archivo se llama a finish (o a release si
+     * el archivo no se pudo mover).
+     *
+     * @return true si esta solicitud se quedó con la sesión
+     */
+
+    public boolean claim(UploadSession session) {
+        return session.isCommitted() && sessions.remove(session.getId(), session);
+    }
+
+    /**
+     * Devuelve una sesión tomada con claim cuyo archivo no se pudo mover, para
+     * que el cliente la pueda volver a usar.
+     */
+
+    public void release(UploadSession session) {
+        sessions.putIfAbsent(session.getId(), session);
+    }
+
+    /**
+     * Termina una sesión tomada con claim, cuyo archivo ya se movió.
+     */
+
+    public void finish(UploadSession session) {
+        session.deleteMetadata();
+    }
+
+    /**
+     * Cancela una sesión y borra lo recibido.
+     *
+     * @return false si no existía
+     */
+
+    public boolean abort(String id) {
+        UploadSession session = sessions.remove(id);
+        if (session == null) return false;
+        session.delete();
+        return true;
+    }
+
+    /**
+     * Borra las sesiones sin actividad por más de ttlMillis.
+     */
+
+    public void expireIdle() {
+        long limit = System.currentTimeMillis() - ttlMillis;
+        for (UploadSession session : sessions.values()) {
+            if (session.getLastActivity() < limit && sessions.remove(session.getId(), session)) {
+                session.delete();
+            }
+        }
+    }
+
+    private void load() {
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(f -> f.toString().endsWith(".properties")).forEach(meta -> {
+                try {
+                    UploadSession session = UploadSession.load(meta);
+                    if (Files.exists(session.getDataFile())) {
+                        sessions.put(session.getId(), session);
+                    } else {
+                        session.deleteMetadata(); // el archivo ya se había movido
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Sesión de subida ignorada (" + meta + "): " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
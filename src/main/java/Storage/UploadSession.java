@@ -0,0 +1,373 @@
+package Storage;
+
+import validation.FastaValidator;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.util.BitSet;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * UploadSession
+ * -------------------
+ * Una subida de FASTA en pedazos numerados que puede retomarse.
+ *
+ * Los bytes se escriben directo en su posición dentro de un solo archivo de
+ * datos (no hay archivos por pedazo ni se rearma nada al final). Un pedazo
+ * cuenta como recibido solo si llegó completo, su CRC32C coincide y ya se
+ * forzó al disco; entonces se anota su número en el archivo ".chunks".
+ *
+ * Junto al archivo de datos quedan:
+ *  "<id>.properties": cliente dueño, tamaño total, tamaño de pedazo y, al confirmarla, el SHA-256.
+ *  "<id>.chunks": un número de pedazo recibido por línea.
+ * Con ellos la sesión sobrevive a cortes de conexión y a reinicios del servidor.
+ */
+
+public class UploadSession {
+
+    /**
+     * Resultado de cerrar un pedazo o de confirmar la subida.
+     */
+    public enum Result {
+        OK,
+        INCOMPLETE,
+        CHECKSUM_MISMATCH
+    }
+
+    private final String id;
+    private final String owner;            // Cliente que la abrió (para el límite por cliente)
+    private final long totalBytes;
+    private final int chunkBytes;
+    private final int chunkCount;
+    private final Path dataFile;
+    private final Path metaFile;
+    private final Path chunksFile;
+    private final BitSet received = new BitSet();
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel data;              // Abierto mientras se reciben pedazos
+    private String checksum;               // SHA-256 verificado al confirmar, o null
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    private UploadSession(Path dir, String id, String owner, long totalBytes, int chunkBytes) {
+        long chunks = chunkCount(totalBytes, chunkBytes);
+        if (totalBytes <= 0 || chunks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Subida de " + totalBytes + " bytes en pedazos de " + chunkBytes);
+        }
+        this.id = id;
+        this.owner = owner;
+        this.totalBytes = totalBytes;
+        this.chunkBytes = chunkBytes;
+        this.chunkCount = (int) chunks;
+        this.dataFile = dir.resolve(id + ".fasta");
+        this.metaFile = dir.resolve(id + ".properties");
+        this.chunksFile = dir.resolve(id + ".chunks");
+    }
+
+    /**
+     * Cantidad de pedazos de una subida (puede pasar de Integer.MAX_VALUE: esas no se aceptan).
+     */
+
+    public static long chunkCount(long totalBytes, int chunkBytes) {
+        return (totalBytes + chunkBytes - 1) / chunkBytes;
+    }
+
+    /**
+     * Crea una sesión nueva con su archivo de datos vacío.
+     *
+     * @throws IllegalArgumentException si el tamaño no es positivo o necesita más de Integer.MAX_VALUE pedazos
+     */
+
+    static UploadSession create(Path dir, String id, String owner, long totalBytes, int chunkBytes) throws IOException {
+        UploadSession session = new UploadSession(dir, id, owner, totalBytes, chunkBytes);
+        Files.createFile(session.dataFile);
+        session.saveMeta();
+        return session;
+    }
+
+    /**
+     * Vuelve a cargar una sesión desde su "<id>.properties".
+     */
+
+    static UploadSession load(Path metaFile) throws IOException {
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(metaFile)) {
+            meta.load(in);
+        }
+        String name = metaFile.getFileName().toString();
+        UploadSession session = new UploadSession(metaFile.getParent(), name.substring(0, name.length() - ".properties".length()),
+                meta.getProperty("owner", ""), Long.parseLong(meta.getProperty("total_bytes")), Integer.parseInt(meta.getProperty("chunk_bytes")));
+        session.checksum = meta.getProperty("sha256");
+        if (Files.exists(session.chunksFile)) {
+            for (String line : Files.readAllLines(session.chunksFile)) {
+                if (!line.isBlank()) session.received.set(Integer.parseInt(line.trim()));
+            }
+        }
+        session.lastActivity = Files.getLastModifiedTime(metaFile).toMillis();
+        return session;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getChunkBytes() {
+        return chunkBytes;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public Path getDataFile() {
+        return dataFile;
+    }
+
+    /**
+     * SHA-256 verificado en la confirmación, o null si todavía no se confirmó.
+     */
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public boolean isCommitted() {
+        return checksum != null;
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Tamaño que debe tener el pedazo index (el último puede ser más corto).
+     */
+
+    public long chunkLength(int index) {
+        return Math.min(chunkBytes, totalBytes - (long) index * chunkBytes);
+    }
+
+    /**
+     * Prepara la escritura de un pedazo.
+     *
+     * @return destino para sus bytes, o null si el número o el tamaño no corresponden
+     *         o la subida ya se confirmó
+     */
+
+    public ChunkWriter openChunk(int index, long length) throws IOException {
+        if (index < 0 || index >= chunkCount || length != chunkLength(index) || isCommitted()) {
+            return null;
+        }
+        lock.lock();
+        try {
+            if (data == null) {
+                data = FileChannel.open(dataFile, StandardOpenOption.WRITE);
+            }
+            lastActivity = System.currentTimeMillis();
+            return new ChunkWriter(data, index, (long) index * chunkBytes, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Da por recibido un pedazo si llegó completo y con el CRC32C esperado.
+     */
+
+    public Result completeChunk(ChunkWriter chunk, long expectedCrc) throws IOException {
+        if (chunk.written != chunk.length) return Result.INCOMPLETE;
+        if (chunk.crc.getValue() != expectedCrc) return Result.CHECKSUM_MISMATCH;
+
+        lock.lock();
+        try {
+            if (!received.get(chunk.index)) {
+                chunk.channel.force(false);
+                try (BufferedWriter writer = Files.newBufferedWriter(chunksFile,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(String.valueOf(chunk.index));
+                    writer.newLine();
+                }
+                received.set(chunk.index);
+            }
+            lastActivity = System.currentTimeMillis();
+            return Result.OK;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes de los pedazos ya recibidos.
+     */
+
+    public long receivedBytes() {
+        lock.lock();
+        try {
+            long bytes = 0;
+            for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+                bytes += chunkLength(i);
+            }
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pedazos que faltan, como rangos "0,3-5,9", o "-" si no falta ninguno.
+     */
+
+    public String missingRanges() {
+        lock.lock();
+        try {
+            StringBuilder ranges = new StringBuilder();
+            int start = received.nextClearBit(0);
+            while (start < chunkCount) {
+                int next = received.nextSetBit(start);
+                int end = (next < 0 || next > chunkCount ? chunkCount : next) - 1;
+                if (ranges.length() > 0) ranges.append(',');
+                ranges.append(start);
+                if (end > start) ranges.append('-').append(end);
+                start = received.nextClearBit(end + 1);
+            }
+            return ranges.length() == 0 ? "-" : ranges.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Confirma la subida: todos los pedazos recibidos y el SHA-256 del archivo
+     * completo igual al esperado.
+     */
+
+    public Result commit(String expectedSha256) throws IOException {
+        lock.lock();
+        try {
+            if (isCommitted()) {
+                return checksum.equalsIgnoreCase(expectedSha256) ? Result.OK : Result.CHECKSUM_MISMATCH;
+            }
+            if (received.cardinality() < chunkCount) return Result.INCOMPLETE;
+            closeData();
+            String real = FastaValidator.calculateChecksum(dataFile.toString());
+            if (real == null || !real.equalsIgnoreCase(expectedSha256)) return Result.CHECKSUM_MISMATCH;
+            checksum = real;
+            saveMeta();
+            lastActivity = System.currentTimeMillis();
+            return Result.OK;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Borra los archivos de control; el de datos queda donde esté (ya movido o por borrar).
+     */
+
+    void deleteMetadata() {
+        lock.lock();
+        try {
+            closeData();
+            Files.deleteIfExists(metaFile);
+            Files.deleteIfExists(chunksFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Borra la sesión completa, datos incluidos.
+     */
+
+    void delete() {
+        deleteMetadata();
+        try {
+            Files.deleteIfExists(dataFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeData() throws IOException {
+        if (data != null) {
+            data.force(false);
+            data.close();
+            data = null;
+        }
+    }
+
+    private void saveMeta() throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty("owner", owner);
+        meta.setProperty("total_bytes", String.valueOf(totalBytes));
+        meta.setProperty("chunk_bytes", String.valueOf(chunkBytes));
+        if (checksum != null) meta.setProperty("sha256", checksum);
+        Path tmp = metaFile.resolveSibling(metaFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            meta.store(out, "Sesion de subida " + id);
+        }
+        Files.move(tmp, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Destino de los bytes de un pedazo: los escribe en su posición del archivo
+     * de datos (escritura posicional, segura entre hilos) y calcula su CRC32C.
+     */
+
+    public static class ChunkWriter implements WritableByteChannel {
+        private final FileChannel channel;
+        private final int index;
+        private final long offset;
+        private final long length;
+        private final CRC32C crc = new CRC32C();
+        private long written;
+
+        ChunkWriter(FileChannel channel, int index, long offset, long length) {
+            this.channel = channel;
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n = src.remaining();
+            if (written + n > length) {
+                throw new IOException("El pedazo " + index + " supera sus " + length + " bytes");
+            }
+            crc.update(src.duplicate());
+            while (src.hasRemaining()) {
+                channel.write(src, offset + written + (n - src.remaining()));
+            }
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // El archivo de datos es de la sesión; se cierra al confirmarla o borrarla
+        }
+    }
+}
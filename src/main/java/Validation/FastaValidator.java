@@ -1,16 +1,22 @@
 package validation;
 
+import Diagnostics.FastaValidationEvent;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.function.Consumer;
 
 /** Clase utilitaria para validar y procesar archivos FASTA.
  * 
  * Proporciona métodos estáticos para:
  * Verificar que un archivo FASTA tenga formato válido.
  * Calcular un checksum SHA-256 de un archivo FASTA.
- * Normaliza la secuencia de un archivo FASTA.
+ * Normaliza la secuencia de un archivo FASTA (entera o por pedazos).
  * 
  * Esta clase es útil en sistemas genómicos para garantizar la integridad
  * de los datos y para realizar comparaciones de secuencias de manera confiable.
@@ -29,6 +35,10 @@ public class FastaValidator {
      */
 
     public static boolean isValidFormat(String filePath) {
+        FastaValidationEvent event = new FastaValidationEvent();
+        event.begin();
+        long chars = 0;
+        boolean valid = false;
         try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath))) {
             String line = reader.readLine();
 
@@ -36,37 +46,57 @@ public class FastaValidator {
             if (line == null || !line.startsWith(">")) {
                 return false;
             }
+            chars += line.length() + 1;
 
             // Validar que las siguientes líneas contengan solo A, C, G, T, N
             while ((line = reader.readLine()) != null) {
+                chars += line.length() + 1;
                 line = line.toUpperCase().replaceAll("[^ACGTN]", "");
                 if (line.isEmpty()) continue; 
             }
 
+            valid = true;
             return true;
 
         } catch (IOException e) {
             System.err.println("Error leyendo FASTA: " + e.getMessage());
             return false;
+        } finally {
+            event.finish("format", chars, valid);
         }
     }
 
+    private static final int CHECKSUM_BUFFER = 1024 * 1024;   // Arreglo de lectura para el hash
+
     /**
      * Calcula el checksum SHA-256 de un archivo.
      * Esto permite verificar la integridad del archivo FASTA.
      * 
+     * Se lee con un FileChannel a un arreglo de 1 MB que se reutiliza y el hash
+     * se actualiza desde ese arreglo: una lectura por megabyte y una sola copia
+     * (la del canal al arreglo). Con un buffer directo habría la misma copia,
+     * porque MessageDigest.update(ByteBuffer) pasa los bytes a un arreglo temporal.
+     * (No se mapea el archivo porque en Windows un mapeo vivo impide moverlo después.)
+     * 
      * @param filePath ruta del archivo a procesar
      * @return cadena hexadecimal con el hash SHA-256, o null si ocurre un error
      */
     
     public static String calculateChecksum(String filePath) {
+        FastaValidationEvent event = new FastaValidationEvent();
+        event.begin();
+        long bytes = 0;
+        String checksum = null;
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            try (InputStream fis = Files.newInputStream(Paths.get(filePath))) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    digest.update(buffer, 0, bytesRead);
+            try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+                byte[] chunk = new byte[CHECKSUM_BUFFER];
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                int read;
+                while ((read = channel.read(buffer)) != -1) {
+                    bytes += read;
+                    digest.update(chunk, 0, read);
+                    buffer.clear();
                 }
             }
 
@@ -75,11 +105,14 @@ public class FastaValidator {
             for (byte b : hashBytes) {
                 hexString.append(String.format("%02x", b));
             }
-            return hexString.toString();
+            checksum = hexString.toString();
+            return checksum;
 
         } catch (IOException | NoSuchAlgorithmException e) {
             e.printStackTrace();
             return null;
+        } finally {
+            event.finish("checksum", bytes, checksum != null);
         }
     }
     
@@ -95,8 +128,65 @@ public class FastaValidator {
     
         public static String normalize(String fastaContent) {
             if (fastaContent == null) return "";
-            return fastaContent
+            FastaValidationEvent event = new FastaValidationEvent();
+            event.begin();
+            String sequence = fastaContent
                     .toUpperCase()
                     .replaceAll("[^ACGTN]", ""); // elimina cualquier cosa que no sea A,C,G,T,N
+            event.finish("normalize", fastaContent.length(), true);
+            return sequence;
         }   
+
+    private static final int NORMALIZE_CHUNK = 1024 * 1024;   // Caracteres leídos por pedazo
+
+    /**
+     * Normaliza un archivo FASTA por pedazos, sin tenerlo entero en memoria.
+     * Da la misma secuencia que normalize(contenido del archivo), pero la entrega
+     * en ventanas: cada una empieza con los últimos overlap caracteres de la
+     * anterior, así que una subsecuencia de hasta overlap + 1 caracteres siempre
+     * aparece completa en alguna ventana.
+     *
+     * @param filePath ruta del archivo FASTA
+     * @param overlap caracteres de la ventana anterior que se repiten al principio
+     * @param window recibe cada ventana (al menos una, aunque el archivo esté vacío)
+     * @return largo de la secuencia normalizada
+     * @throws IOException si no se puede leer el archivo
+     */
+
+    public static long scanNormalized(String filePath, int overlap, Consumer<String> window) throws IOException {
+        FastaValidationEvent event = new FastaValidationEvent();
+        event.begin();
+        long chars = 0;
+        long length = 0;
+        boolean ok = false;
+        // ISO-8859-1 da un carácter por byte y nunca falla: un byte no ASCII no es una base
+        try (Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(filePath)), StandardCharsets.ISO_8859_1)) {
+            char[] chunk = new char[NORMALIZE_CHUNK];
+            StringBuilder sequence = new StringBuilder();
+            int read;
+            boolean sent = false;
+            while ((read = reader.read(chunk)) != -1) {
+                chars += read;
+                int before = sequence.length();
+                for (int i = 0; i < read; i++) {
+                    char c = Character.toUpperCase(chunk[i]);
+                    if (c == 'A' || c == 'C' || c == 'G' || c == 'T' || c == 'N') {
+                        sequence.append(c);
+                    }
+                }
+                if (sequence.length() == before) continue;   // Pedazo sin bases (encabezado)
+                length += sequence.length() - before;
+                window.accept(sequence.toString());
+                sent = true;
+                if (sequence.length() > overlap) {
+                    sequence.delete(0, sequence.length() - overlap);
+                }
+            }
+            if (!sent) window.accept("");
+            ok = true;
+            return length;
+        } finally {
+            event.finish("normalize", chars, ok);
+        }
+    }
 }
@@ -0,0 +1,192 @@
+package Client;
+
+import Protocol.Frame;
+import Protocol.FrameCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase AsyncClientTest
+ * ----------------------
+ * Pool, tiempo límite, reintentos y espera entre reintentos del cliente
+ * asíncrono, contra un servidor de prueba que habla el protocolo binario y
+ * contesta cada comando con lo que diga el test (null = no contestar).
+ */
+
+class AsyncClientTest {
+
+    @TempDir
+    Path dir;
+
+    private ServerSocket server;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<String> commands = new CopyOnWriteArrayList<>();
+    private AsyncClient client;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (client != null) client.close();
+        if (server != null) server.close();
+    }
+
+    private int serve(Function<String, String> responder) throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread connection = new Thread(() -> handle(socket, responder));
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            } catch (IOException e) {
+                // servidor cerrado
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+
+    private void handle(Socket socket, Function<String, String> responder) {
+        try (socket) {
+            InputStream raw = socket.getInputStream();
+            while (raw.read() != '\n') {
+                // línea de negociación
+            }
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write(("OK " + Frame.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw));
+            Frame frame = new Frame();
+            while (FrameCodec.readHeader(in, frame)) {
+                byte[] payload = FrameCodec.readPayload(in, frame);
+                if (frame.getType() != Frame.TYPE_COMMAND) continue;
+                String command = new String(payload, StandardCharsets.UTF_8);
+                commands.add(command);
+                String answer = responder.apply(command);
+                if (answer == null) continue;
+                synchronized (out) {
+                    FrameCodec.writeText(out, Frame.TYPE_RESPONSE, frame.getRequestId(), answer);
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // el cliente cerró
+        }
+    }
+
+    private static Throwable failure(CompletableFuture<String> future) throws Exception {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    @Test
+    void requestsTakeThePoolConnectionsInTurn() throws Exception {
+        int port = serve(command -> "PONG");
+        client = new AsyncClient("localhost", port, 2, 5_000, 0);
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals("PONG", client.sendAsync("PING").get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, connections.get(), "las conexiones del pool se reutilizan");
+        assertEquals(6, commands.size());
+    }
+
+    @Test
+    void aRequestWithoutAnswerTimesOut() throws Exception {
+        int port = serve(command -> null);
+        client = new AsyncClient("localhost", port, 1, 200, 3);
+
+        // Una creación podría haberse aplicado: no se reintenta
+        assertInstanceOf(TimeoutException.class, failure(client.sendAsync("CREATE_PATIENT")));
+        assertEquals(1, commands.size());
+    }
+
+    @Test
+    void lostAnswersAreRetriedOnlyForQueries() throws Exception {
+        AtomicInteger seen = new AtomicInteger();
+        int port = serve(command -> seen.incrementAndGet() == 1 ? null : "OK " + command);
+        client = new AsyncClient("localhost", port, 1, 200, 2);
+
+        assertEquals("OK RETRIEVE_PATIENT 7", client.retrievePatientAsync("7").get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("RETRIEVE_PATIENT 7", "RETRIEVE_PATIENT 7"), commands);
+    }
+
+    @Test
+    void busyAnswersAreRetriedUntilMaxRetries() throws Exception {
+        AtomicInteger seen = new AtomicInteger();
+        int port = serve(command -> seen.incrementAndGet() <= 2 ? "ERROR 503 BUSY retry_after_ms:10" : "OK");
+        client = new AsyncClient("localhost", port, 1, 5_000, 3);
+        assertEquals("OK", client.sendAsync("LIST_PATIENTS").get(5, TimeUnit.SECONDS));
+        assertEquals(3, commands.size());
+
+        // Sin reintentos que queden, el futuro se completa con la última respuesta
+        seen.set(0);
+        try (AsyncClient once = new AsyncClient("localhost", server.getLocalPort(), 1, 5_000, 1)) {
+            assertEquals("ERROR 503 BUSY retry_after_ms:10", once.sendAsync("LIST_PATIENTS").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void backoffDoublesUpToACapAndJitterAddsAtMostHalf() {
+        assertEquals(200, AsyncClient.backoff(0));
+        assertEquals(400, AsyncClient.backoff(1));
+        assertEquals(200 << 6, AsyncClient.backoff(6));
+        assertEquals(200 << 6, AsyncClient.backoff(20));
+        for (int i = 0; i < 100; i++) {
+            long delay = AsyncClient.jitter(100);
+            assertTrue(delay >= 100 && delay <= 150, "espera " + delay);
+        }
+    }
+
+    @Test
+    void closingFailsRequestsWaitingForARetry() throws Exception {
+        int port = serve(command -> "ERROR 503 BUSY retry_after_ms:10000");
+        client = new AsyncClient("localhost", port, 1, 5_000, 3);
+
+        CompletableFuture<String> waiting = client.sendAsync("LIST_PATIENTS");
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (commands.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);   // la respuesta llegó y el reintento quedó programado
+        client.close();
+
+        assertInstanceOf(IOException.class, failure(waiting));
+        assertInstanceOf(IOException.class, failure(client.sendAsync("PING")));
+    }
+
+    @Test
+    void anEmptyFileIsNotUploadedInChunks() throws Exception {
+        int port = serve(command -> "OK");
+        client = new AsyncClient("localhost", port, 1, 5_000, 0);
+        Path empty = Files.createFile(dir.resolve("vacio.fasta"));
+
+        assertInstanceOf(IllegalArgumentException.class, failure(client.uploadResumableAsync(empty, null)));
+        assertTrue(commands.isEmpty());
+    }
+}
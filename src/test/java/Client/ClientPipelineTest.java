@@ -0,0 +1,96 @@
+package Client;
+
+import Protocol.Frame;
+import Protocol.FrameCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase ClientPipelineTest
+ * ----------------------
+ * Varias solicitudes seguidas en binario: el servidor de prueba contesta en
+ * orden inverso y parte una respuesta en pedazos intercalados con otra; cada
+ * receiveResponse(id) debe devolver la suya.
+ */
+
+class ClientPipelineTest {
+    private ServerSocket server;
+    private Client client;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (client != null) client.close();
+        if (server != null) server.close();
+    }
+
+    /**
+     * Espera tres comandos y los contesta: el tercero primero, luego el
+     * primero en dos pedazos con el segundo en medio.
+     */
+
+    private int serveReversed() throws IOException {
+        server = new ServerSocket(0);
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream raw = socket.getInputStream();
+                while (raw.read() != '\n') {
+                    // línea de negociación
+                }
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.write(("OK " + Frame.NEGOTIATION + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(raw));
+                List<Integer> ids = new ArrayList<>();
+                List<String> commands = new ArrayList<>();
+                Frame frame = new Frame();
+                while (ids.size() < 3 && FrameCodec.readHeader(in, frame)) {
+                    byte[] payload = FrameCodec.readPayload(in, frame);
+                    if (frame.getType() != Frame.TYPE_COMMAND) continue;
+                    ids.add(frame.getRequestId());
+                    commands.add(new String(payload, StandardCharsets.UTF_8));
+                }
+                FrameCodec.writeText(out, Frame.TYPE_RESPONSE, ids.get(2), "OK " + commands.get(2));
+                byte[] first = ("OK " + commands.get(0) + " ñandú").getBytes(StandardCharsets.UTF_8);
+                int cut = first.length - 3;   // Corta en medio de la "ú"
+                FrameCodec.writeFrame(out, Frame.TYPE_RESPONSE, Frame.FLAG_MORE, ids.get(0), first, 0, cut);
+                FrameCodec.writeText(out, Frame.TYPE_RESPONSE, ids.get(1), "OK " + commands.get(1));
+                FrameCodec.writeFrame(out, Frame.TYPE_RESPONSE, 0, ids.get(0), first, cut, first.length - cut);
+                out.flush();
+                in.read();   // Hasta que el cliente cierre
+            } catch (IOException e) {
+                // servidor cerrado
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server.getLocalPort();
+    }
+
+    @Test
+    void responsesArriveOutOfOrderButMatchTheirRequests() throws IOException {
+        client = new Client("test", "localhost", serveReversed(), true);
+        int[] ids = new int[3];
+        for (int i = 0; i < 3; i++) {
+            client.sendMetadata("RETRIEVE_PATIENT " + (i + 1));
+            ids[i] = client.getLastRequestId();
+        }
+        assertEquals(3, ids[2] - ids[0] + 1, "cada solicitud tiene su propio requestId");
+
+        assertEquals("OK RETRIEVE_PATIENT 1 ñandú", client.receiveResponse(ids[0]));
+        assertEquals("OK RETRIEVE_PATIENT 2", client.receiveResponse(ids[1]));
+        assertEquals("OK RETRIEVE_PATIENT 3", client.receiveResponse(ids[2]));
+    }
+}
@@ -0,0 +1,145 @@
+package Logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase LogManagerTest
+ * ----------------------
+ * Buffer circular del log: varios productores a la vez sin perder ni desordenar
+ * líneas, y las políticas BLOCK, DROP y SAMPLE con el buffer lleno. Para
+ * llenarlo, el test toma el lock del escritor y lo suelta después.
+ */
+
+class LogManagerTest {
+
+    @TempDir
+    Path dir;
+
+    private LogManager open(int capacity, LogManager.Overflow overflow, int sampleEvery) {
+        return new LogManager(dir.resolve("server.log").toString(), capacity, overflow, sampleEvery, null);
+    }
+
+    private List<String> lines(String marker) throws IOException {
+        return Files.readAllLines(dir.resolve("server.log")).stream()
+                .filter(line -> line.contains(marker))
+                .collect(Collectors.toList());
+    }
+
+    private static Thread start(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    void concurrentProducersKeepEveryLineInOrder() throws Exception {
+        LogManager log = open(64, LogManager.Overflow.BLOCK, 1);
+        int producers = 8;
+        int perProducer = 5_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(start(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    log.logInfo("msg p" + producer + " " + i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join(30_000);
+        }
+        log.close();
+
+        List<String> lines = lines("msg p");
+        assertEquals(producers * perProducer, lines.size());
+        assertEquals(0, log.getDroppedCount());
+        int[] next = new int[producers];
+        for (String line : lines) {
+            String[] parts = line.substring(line.indexOf("msg p") + 5).split(" ");
+            int producer = Integer.parseInt(parts[0]);
+            assertEquals(next[producer]++, Integer.parseInt(parts[1]), "orden del productor " + producer);
+        }
+    }
+
+    @Test
+    void blockWaitsForRoomInsteadOfLosing() throws Exception {
+        LogManager log = open(4, LogManager.Overflow.BLOCK, 1);
+        log.lock.lock();
+        Thread producer;
+        try {
+            for (int i = 0; i < 4; i++) {
+                log.logInfo("msg " + i);
+            }
+            producer = start(() -> log.logInfo("msg 4"));
+            producer.join(200);
+            assertTrue(producer.isAlive(), "con el buffer lleno el productor espera");
+        } finally {
+            log.lock.unlock();
+        }
+        producer.join(5_000);
+        assertFalse(producer.isAlive());
+        log.close();
+
+        assertEquals(5, lines("msg ").size());
+        assertEquals(0, log.getDroppedCount());
+    }
+
+    @Test
+    void dropDiscardsAndReportsTheLoss() throws Exception {
+        LogManager log = open(4, LogManager.Overflow.DROP, 1);
+        log.lock.lock();
+        try {
+            for (int i = 0; i < 10; i++) {
+                log.logInfo("msg " + i);
+            }
+        } finally {
+            log.lock.unlock();
+        }
+        log.close();
+
+        assertEquals(6, log.getDroppedCount());
+        assertEquals(List.of("msg 0", "msg 1", "msg 2", "msg 3"), lines("msg ").stream()
+                .map(line -> line.substring(line.indexOf("msg "))).collect(Collectors.toList()));
+        assertEquals(1, lines("Log saturado: 6 mensajes descartados (drop)").size());
+    }
+
+    @Test
+    void sampleThinsInfoPastHalfAndAlwaysKeepsErrors() throws Exception {
+        LogManager log = open(8, LogManager.Overflow.SAMPLE, 3);
+        log.lock.lock();
+        Thread lateError;
+        try {
+            // Entran los 5 primeros (hasta la mitad); después uno de cada 3: el 8.º, el 11.º...
+            for (int i = 1; i <= 13; i++) {
+                log.logInfo("info " + i);
+            }
+            assertEquals(6, log.getSampledCount());
+            log.logError("error 1");                       // Ocupa la última casilla
+            lateError = start(() -> log.logError("error 2"));   // Buffer lleno: espera
+            lateError.join(200);
+            assertTrue(lateError.isAlive(), "un ERROR espera lugar en vez de perderse");
+        } finally {
+            log.lock.unlock();
+        }
+        lateError.join(5_000);
+        log.close();
+
+        List<String> info = lines("info ").stream()
+                .map(line -> line.substring(line.indexOf("info "))).collect(Collectors.toList());
+        assertEquals(List.of("info 1", "info 2", "info 3", "info 4", "info 5", "info 8", "info 11"), info);
+        assertEquals(2, lines("error ").size());
+        assertEquals(0, log.getDroppedCount());
+        assertEquals(1, lines("Log saturado: 6 mensajes descartados (sample)").size());
+    }
+}
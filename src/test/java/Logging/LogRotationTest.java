@@ -0,0 +1,100 @@
+package Logging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase LogRotationTest
+ * ----------------------
+ * Rotación del log: cuándo rotar, nombres por día y número, compresión en
+ * segundo plano y retención por cantidad y por antigüedad.
+ */
+
+class LogRotationTest {
+
+    @TempDir
+    Path dir;
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String gunzip(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void rotatesBySizeOrDay() {
+        LogRotation rotation = new LogRotation(100, true, 0, 0, false);
+        LocalDate day = LocalDate.of(2026, 10, 19);
+
+        assertFalse(rotation.shouldRotate(0, day.minusDays(1), day), "un archivo vacío no se rota");
+        assertFalse(rotation.shouldRotate(99, day, day));
+        assertTrue(rotation.shouldRotate(100, day, day));
+        assertTrue(rotation.shouldRotate(1, day.minusDays(1), day));
+        assertFalse(new LogRotation(0, false, 0, 0, false).shouldRotate(Long.MAX_VALUE, day.minusDays(1), day));
+    }
+
+    @Test
+    void rotatedFilesAreNumberedAndCompressed() throws IOException {
+        LogRotation rotation = new LogRotation(100, true, 0, 0, true);
+        Path log = dir.resolve("server.log");
+        LocalDate day = LocalDate.of(2026, 10, 19);
+
+        Files.writeString(log, "primera\n");
+        rotation.rotate(log, day);
+        Files.writeString(log, "segunda\n");
+        rotation.rotate(log, day);
+        rotation.close(5000);
+
+        assertEquals(List.of("server-2026-10-19.1.log.gz", "server-2026-10-19.2.log.gz"), files());
+        assertEquals("primera\n", gunzip(dir.resolve("server-2026-10-19.1.log.gz")));
+        assertEquals("segunda\n", gunzip(dir.resolve("server-2026-10-19.2.log.gz")));
+        assertEquals(2, rotation.getRotations());
+        assertEquals(2, rotation.getCompressedFiles());
+    }
+
+    @Test
+    void retentionKeepsTheNewestAndDropsTheOld() throws IOException {
+        LocalDate today = LocalDate.now();
+        String recent = "server-" + today.minusDays(1);
+        String older = "server-" + today.minusDays(2);
+        String ancient = "server-" + today.minusDays(40);
+        for (String name : new String[] {recent + ".1.log.gz", recent + ".2.log.gz", older + ".1.log.gz",
+                ancient + ".1.log", "otro-" + today.minusDays(90) + ".1.log"}) {
+            Files.writeString(dir.resolve(name), "x");
+        }
+
+        LogRotation rotation = new LogRotation(0, true, 3, 30, true);
+        rotation.cleanUp(dir.resolve("server.log"));
+        rotation.close(5000);
+
+        // El de hace 40 días se comprime y después se borra por viejo; de los
+        // demás quedan los 3 más nuevos. Los archivos de otro log no se tocan.
+        assertEquals(List.of("otro-" + today.minusDays(90) + ".1.log",
+                older + ".1.log.gz", recent + ".1.log.gz", recent + ".2.log.gz"), files());
+
+        LogRotation fewer = new LogRotation(0, true, 1, 0, false);
+        Path log = Files.writeString(dir.resolve("server.log"), "hoy\n");
+        fewer.rotate(log, today);
+        fewer.close(5000);
+        assertEquals(List.of("otro-" + today.minusDays(90) + ".1.log", "server-" + today + ".1.log"), files());
+    }
+}
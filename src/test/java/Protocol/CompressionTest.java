@@ -0,0 +1,125 @@
+package Protocol;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase CompressionTest
+ * ----------------------
+ * Negociación del codec y viaje de ida y vuelta de un FASTA: compress lo parte
+ * en bloques, Decoder lo recibe en pedazos de cualquier tamaño y rechaza
+ * datos corruptos, incompletos o más grandes que lo anunciado.
+ */
+
+class CompressionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void negotiationPicksTheFirstSupportedCodec() {
+        assertEquals(Compression.DEFLATE, Compression.negotiate("deflate"));
+        assertEquals(Compression.DEFLATE, Compression.negotiate("zstd, deflate"));
+        assertEquals(Compression.IDENTITY, Compression.negotiate("zstd"));
+        assertEquals(Compression.IDENTITY, Compression.negotiate(null));
+        assertFalse(Compression.isSupported(Compression.IDENTITY));
+    }
+
+    private Path fasta(int lines) throws IOException {
+        StringBuilder text = new StringBuilder(">paciente\n");
+        for (int i = 0; i < lines; i++) {
+            text.append("ACGTTGCAACGTNNACGTACGGTACCA").append(i % 7).append('\n');
+        }
+        Path file = dir.resolve("p" + lines + ".fasta");
+        Files.writeString(file, text.toString());
+        return file;
+    }
+
+    private static byte[] compress(Path file) throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        boolean[] ended = {false};
+        try (FileChannel channel = FileChannel.open(file)) {
+            long total = Compression.compress(Compression.DEFLATE, channel, 0, channel.size(), (block, length, last) -> {
+                assertFalse(ended[0], "nada después del último bloque");
+                wire.write(block, 0, length);
+                ended[0] = last;
+            });
+            assertEquals(wire.size(), total);
+        }
+        assertTrue(ended[0]);
+        return wire.toByteArray();
+    }
+
+    /**
+     * Descomprime entregando los bytes de a `step` y devuelve el error de finish (null si ninguno).
+     */
+
+    private static String decode(byte[] wire, long rawBytes, int step, ByteArrayOutputStream raw) throws IOException {
+        Compression.Decoder decoder = Compression.decoder(Compression.DEFLATE, Channels.newChannel(raw), rawBytes);
+        for (int from = 0; from < wire.length; from += step) {
+            ByteBuffer piece = ByteBuffer.wrap(wire, from, Math.min(step, wire.length - from));
+            assertEquals(piece.remaining(), decoder.write(piece));
+        }
+        String error = decoder.finish();
+        if (error == null) assertEquals(wire.length, decoder.getCompressedBytes());
+        decoder.close();
+        return error;
+    }
+
+    @Test
+    void fastaRoundTripsInAnyPieceSize() throws IOException {
+        Path file = fasta(40_000);   // ~1.1 MB: varios bloques de 256 KB a la entrada
+        byte[] original = Files.readAllBytes(file);
+        byte[] wire = compress(file);
+        assertTrue(wire.length * 10 < original.length, "un FASTA se comprime mucho: " + wire.length);
+
+        for (int step : new int[] {1, 1000, wire.length}) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            assertNull(decode(wire, original.length, step, raw), "pedazos de " + step);
+            assertArrayEquals(original, raw.toByteArray());
+        }
+    }
+
+    @Test
+    void emptyFileRoundTrips() throws IOException {
+        Path empty = Files.createFile(dir.resolve("vacio.fasta"));
+        byte[] wire = compress(empty);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        assertNull(decode(wire, 0, 16, raw));
+        assertEquals(0, raw.size());
+    }
+
+    @Test
+    void badStreamsAreReportedByFinish() throws IOException {
+        Path file = fasta(2_000);
+        long size = Files.size(file);
+        byte[] wire = compress(file);
+
+        assertNotNull(decode(Arrays.copyOf(wire, wire.length / 2), size, 512, new ByteArrayOutputStream()),
+                "incompleto");
+        assertNotNull(decode(wire, size - 1, 512, new ByteArrayOutputStream()), "más grande que lo anunciado");
+        assertNotNull(decode(wire, size + 1, 512, new ByteArrayOutputStream()), "más chico que lo anunciado");
+        assertNotNull(decode(Arrays.copyOf(wire, wire.length + 3), size, 512, new ByteArrayOutputStream()),
+                "bytes de más al final");
+        assertNotNull(decode("esto no es deflate".getBytes(StandardCharsets.UTF_8), size, 4,
+                new ByteArrayOutputStream()), "corrupto");
+    }
+
+    @Test
+    void unknownCodecIsRefused() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Compression.decoder("zstd", Channels.newChannel(new ByteArrayOutputStream()), 10));
+    }
+}
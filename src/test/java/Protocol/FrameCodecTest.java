@@ -0,0 +1,113 @@
+package Protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase FrameCodecTest
+ * ----------------------
+ * Codificación de tramas del protocolo binario: encabezados, límites de largo,
+ * METADATA y respuestas en varios pedazos (ResponseAssembler).
+ */
+
+class FrameCodecTest {
+
+    private static DataInputStream input(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    void framesRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        FrameCodec.writeText(out, Frame.TYPE_COMMAND, 7, "RETRIEVE_PATIENT 12");
+        FrameCodec.writeFrame(out, Frame.TYPE_DATA, Frame.FLAG_END, 7, new byte[] {1, 2, 3, 4}, 1, 2);
+
+        DataInputStream in = input(bytes);
+        Frame header = new Frame();
+        assertTrue(FrameCodec.readHeader(in, header));
+        assertEquals(Frame.TYPE_COMMAND, header.getType());
+        assertEquals(7, header.getRequestId());
+        assertEquals("RETRIEVE_PATIENT 12", new String(FrameCodec.readPayload(in, header), StandardCharsets.UTF_8));
+
+        assertTrue(FrameCodec.readHeader(in, header));
+        assertEquals(Frame.TYPE_DATA, header.getType());
+        assertTrue(header.isEnd());
+        assertFalse(header.hasMore());
+        assertArrayEquals(new byte[] {2, 3}, FrameCodec.readPayload(in, header));
+
+        assertFalse(FrameCodec.readHeader(in, header), "fin limpio entre tramas");
+    }
+
+    @Test
+    void invalidHeadersAreRejected() throws IOException {
+        ByteArrayOutputStream wrongVersion = new ByteArrayOutputStream();
+        wrongVersion.write(new byte[] {2, Frame.TYPE_COMMAND, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0});
+        assertThrows(IOException.class, () -> FrameCodec.readHeader(input(wrongVersion), new Frame()));
+
+        // Una trama de control no puede pasar de MAX_CONTROL_PAYLOAD; un DATA sí puede
+        ByteArrayOutputStream tooLong = new ByteArrayOutputStream();
+        FrameCodec.writeHeader(new DataOutputStream(tooLong), Frame.TYPE_RESPONSE, 0, 1, Frame.MAX_CONTROL_PAYLOAD + 1);
+        assertThrows(IOException.class, () -> FrameCodec.readHeader(input(tooLong), new Frame()));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        FrameCodec.writeHeader(new DataOutputStream(data), Frame.TYPE_DATA, 0, 1, Frame.MAX_CONTROL_PAYLOAD + 1);
+        assertTrue(FrameCodec.readHeader(input(data), new Frame()));
+
+        ByteArrayOutputStream cut = new ByteArrayOutputStream();
+        FrameCodec.writeHeader(new DataOutputStream(cut), Frame.TYPE_DATA, 0, 1, 10);
+        cut.write(new byte[4]);
+        DataInputStream in = input(cut);
+        Frame header = new Frame();
+        FrameCodec.readHeader(in, header);
+        assertThrows(EOFException.class, () -> FrameCodec.skipPayload(in, header));
+    }
+
+    @Test
+    void metadataAndLengthRoundTrip() throws IOException {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("full_name", "José Núñez");
+        metadata.put("clinical_notes", "nota: con dos puntos");
+        metadata.put("vacío", "");
+
+        Map<String, String> decoded = new LinkedHashMap<>();
+        FrameCodec.decodeMetadata(FrameCodec.encodeMetadata(metadata), decoded::put);
+        assertEquals(metadata, decoded);
+
+        byte[] truncated = Arrays.copyOf(FrameCodec.encodeMetadata(metadata), 10);
+        assertThrows(IOException.class, () -> FrameCodec.decodeMetadata(truncated, (k, v) -> { }));
+
+        assertEquals(5_000_000_000L, FrameCodec.decodeLength(FrameCodec.encodeLength(5_000_000_000L)));
+        assertThrows(IOException.class, () -> FrameCodec.decodeLength(new byte[4]));
+
+        assertEquals(Map.of("age", "30", "sex", "F"),
+                FrameCodec.parseTextMetadata(List.of("age: 30", "sin separador", "sex:F", "END_METADATA", "x: 1")));
+    }
+
+    @Test
+    void interleavedResponsePiecesAreJoinedByRequest() {
+        // Texto cortado en medio de "ñ" (2 bytes en UTF-8): se junta antes de decodificar
+        byte[] text = "año 2024".getBytes(StandardCharsets.UTF_8);
+        ResponseAssembler assembler = new ResponseAssembler();
+
+        assertNull(assembler.add(new Frame(Frame.TYPE_RESPONSE, Frame.FLAG_MORE, 1, 2), Arrays.copyOfRange(text, 0, 2)));
+        assertEquals("OK", assembler.add(new Frame(Frame.TYPE_RESPONSE, 0, 2, 2), "OK".getBytes(StandardCharsets.UTF_8)));
+        assertNull(assembler.add(new Frame(Frame.TYPE_RESPONSE, Frame.FLAG_MORE, 1, 3), Arrays.copyOfRange(text, 2, 5)));
+        assertEquals("año 2024", assembler.add(new Frame(Frame.TYPE_RESPONSE, 0, 1, 4), Arrays.copyOfRange(text, 5, text.length)));
+
+        // El mismo requestId se puede volver a usar después de completarse
+        assertEquals("PONG", assembler.add(new Frame(Frame.TYPE_RESPONSE, 0, 1, 4), "PONG".getBytes(StandardCharsets.UTF_8)));
+    }
+}
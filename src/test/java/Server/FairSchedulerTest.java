@@ -0,0 +1,98 @@
+package Server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase FairSchedulerTest
+ * ----------------------
+ * Reparto por turnos entre clientes (deficit round robin). El pool es un
+ * ManualExecutor, así el orden es determinista.
+ */
+
+class FairSchedulerTest {
+    private final ManualExecutor pool = new ManualExecutor();
+    private final List<String> log = new ArrayList<>();
+
+    private void submit(FairScheduler scheduler, String client, long cost, String name) {
+        scheduler.execute(client, cost, () -> log.add(name), () -> log.add("503 " + name));
+    }
+
+    @Test
+    void anotherClientDoesNotWaitBehindABacklog() {
+        FairScheduler scheduler = new FairScheduler(pool, 2, 100);
+        for (int i = 1; i <= 5; i++) {
+            submit(scheduler, "A", 1, "a" + i);
+        }
+        submit(scheduler, "B", 1, "b1");
+        assertEquals(2, scheduler.getRunning(), "A está solo: puede usar los dos lugares");
+        assertEquals(4, scheduler.getQueued());
+
+        pool.runAll();
+
+        assertEquals(List.of("a1", "a2", "b1", "a3", "a4", "a5"), log);
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    void costlyTasksGetProportionallyFewerTurns() {
+        FairScheduler scheduler = new FairScheduler(pool, 1, 100);
+        submit(scheduler, "X", 1, "x");   // Ocupa el único lugar mientras se encola el resto
+        for (int i = 1; i <= 3; i++) {
+            submit(scheduler, "A", 4, "a" + i);
+        }
+        for (int i = 1; i <= 8; i++) {
+            submit(scheduler, "B", 1, "b" + i);
+        }
+
+        pool.runAll();
+
+        // Después de la primera vuelta, cuatro tareas de costo 1 por cada una de costo 4
+        assertEquals(List.of("x", "b1", "b2", "b3", "a1", "b4", "b5", "b6", "b7", "a2", "b8", "a3"), log);
+    }
+
+    @Test
+    void queueIsBoundedAndRejectedPoolAnswersWithoutRunning() {
+        FairScheduler bounded = new FairScheduler(pool, 1, 2);
+        submit(bounded, "A", 1, "a1");
+        submit(bounded, "A", 1, "a2");
+        submit(bounded, "A", 1, "a3");
+        assertThrows(RejectedExecutionException.class, () -> submit(bounded, "B", 1, "b1"));
+        pool.runAll();
+        assertEquals(List.of("a1", "a2", "a3"), log);
+
+        log.clear();
+        FairScheduler closed = new FairScheduler(task -> {
+            throw new RejectedExecutionException("apagándose");
+        }, 1, 10);
+        submit(closed, "A", 1, "a1");
+        assertEquals(List.of("503 a1"), log, "la tarea no corre en el hilo que despacha");
+        assertEquals(0, closed.getRunning());
+    }
+
+    @Test
+    void keyedTasksQueuedBehindARejectedOneAreRejectedToo() {
+        ManualExecutor later = new ManualExecutor();
+        boolean[] closed = {false};
+        FairScheduler scheduler = new FairScheduler(task -> {
+            if (closed[0]) throw new RejectedExecutionException("apagándose");
+            later.execute(task);
+        }, 1, 10);
+        KeyedSerialExecutor keyed = new KeyedSerialExecutor(scheduler.forClient("A"));
+
+        keyed.execute("X", () -> log.add("x0"), () -> log.add("503 x0"));   // Ocupa el único lugar
+        keyed.execute("P", () -> log.add("p1"), () -> log.add("503 p1"));
+        keyed.execute("P", () -> log.add("p2"), () -> log.add("503 p2"));
+        closed[0] = true;
+        later.runAll();
+
+        assertEquals(List.of("x0", "503 p1", "503 p2"), log);
+        assertEquals(0, scheduler.getRunning());
+    }
+}
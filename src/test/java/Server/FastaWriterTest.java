@@ -0,0 +1,82 @@
+package Server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase FastaWriterTest
+ * ----------------------
+ * Escritura de FASTA fuera del bucle NIO: orden de los pedazos, contrapresión
+ * (isBackedUp / whenDrained) y el cierre después de la última escritura.
+ * El "pool" es un ManualExecutor que el test ejecuta a mano.
+ */
+
+class FastaWriterTest {
+    private final ManualExecutor pool = new ManualExecutor();
+
+    @Test
+    void writesInOrderAndResumesReadingOnceDrained() {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        FastaWriter writer = new FastaWriter(Channels.newChannel(file), pool);
+        byte[] piece = new byte[1024 * 1024];
+        for (int i = 0; i < 5; i++) {
+            Arrays.fill(piece, (byte) i);
+            writer.submit(ByteBuffer.wrap(piece));   // Se copia: el arreglo se puede reutilizar
+        }
+        assertTrue(writer.isBackedUp());
+        assertEquals(1, pool.size(), "una sola tarea para todos los pedazos");
+
+        AtomicBoolean resumed = new AtomicBoolean();
+        writer.whenDrained(() -> resumed.set(true));
+        assertFalse(resumed.get());
+        AtomicReference<IOException> seen = new AtomicReference<>(new IOException("sin cerrar"));
+        writer.close(seen::set);
+        pool.runAll();
+
+        assertTrue(resumed.get());
+        assertFalse(writer.isBackedUp());
+        assertTrue(writer.getDone().isDone() && !writer.getDone().isCompletedExceptionally());
+        assertNull(seen.get());
+        byte[] written = file.toByteArray();
+        assertEquals(5 * piece.length, written.length);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, written[i * piece.length]);
+            assertEquals(i, written[(i + 1) * piece.length - 1]);
+        }
+    }
+
+    @Test
+    void writeFailureReachesTheFinisher() {
+        WritableByteChannel broken = new WritableByteChannel() {
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("disco lleno");
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        FastaWriter writer = new FastaWriter(broken, pool);
+        writer.submit(ByteBuffer.wrap(new byte[10]));
+        writer.submit(ByteBuffer.wrap(new byte[10]));
+        AtomicReference<IOException> seen = new AtomicReference<>();
+        writer.close(seen::set);
+        pool.runAll();
+
+        assertEquals("disco lleno", seen.get().getMessage());
+        assertTrue(writer.getDone().isDone());
+    }
+}
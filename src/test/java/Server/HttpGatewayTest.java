@@ -0,0 +1,67 @@
+package Server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase HttpGatewayTest
+ * ----------------------
+ * Traducción de las respuestas del protocolo de texto a estado HTTP y JSON.
+ */
+
+class HttpGatewayTest {
+
+    @Test
+    void createdPatientAndDetectionsUseNumbers() {
+        HttpGateway.Reply reply = HttpGateway.Reply.of("201 CREATED patient_id: 42\n"
+                + "DETECTION 42,D001,8,2026-01-01T10:00,Coincidencia \"exacta\"\n");
+
+        assertEquals(201, reply.status);
+        assertEquals("{\"patient_id\":42,\"detections\":[{\"disease_id\":\"D001\",\"severity\":8,"
+                + "\"detected_at\":\"2026-01-01T10:00\",\"description\":\"Coincidencia \\\"exacta\\\"\"}]}", reply.json);
+        assertEquals(0, reply.retryAfterSeconds);
+    }
+
+    @Test
+    void unreadableSeverityDoesNotLoseTheCreatedPatient() {
+        HttpGateway.Reply reply = HttpGateway.Reply.of("201 CREATED patient_id: 7\n"
+                + "DETECTION 7,D002,alta,2026-01-01T10:00,sin severidad\n"
+                + "DETECTION corta\n");
+
+        assertEquals(201, reply.status);
+        assertEquals("{\"patient_id\":7,\"detections\":[{\"disease_id\":\"D002\",\"severity\":null,"
+                + "\"detected_at\":\"2026-01-01T10:00\",\"description\":\"sin severidad\"}]}", reply.json);
+    }
+
+    @Test
+    void errorsKeepTheirStatusAndAddRetryAfter() {
+        HttpGateway.Reply busy = HttpGateway.Reply.of("ERROR 503 SERVER_BUSY retry_after_ms:1500");
+        assertEquals(503, busy.status);
+        assertEquals("{\"error\":\"SERVER_BUSY\",\"retry_after_ms\":1500}", busy.json);
+        assertEquals(2, busy.retryAfterSeconds);
+
+        HttpGateway.Reply notFound = HttpGateway.Reply.of("ERROR 404 NOT_FOUND\n");
+        assertEquals(404, notFound.status);
+        assertEquals("{\"error\":\"NOT_FOUND\"}", notFound.json);
+        assertEquals(0, notFound.retryAfterSeconds);
+
+        HttpGateway.Reply garbled = HttpGateway.Reply.of("ERROR x");
+        assertEquals(500, garbled.status);
+        assertEquals("{\"error\":\"SERVER_ERROR\"}", garbled.json);
+    }
+
+    @Test
+    void otherRepliesAreOk() {
+        HttpGateway.Reply reply = HttpGateway.Reply.of("OK patient deleted\n");
+        assertEquals(200, reply.status);
+        assertEquals("{\"status\":\"OK\",\"message\":\"patient deleted\"}", reply.json);
+    }
+
+    @Test
+    void jsonEscapesControlCharacters() {
+        assertEquals("\"a\\\\b\\n\\t\\u0001\"", HttpGateway.Json.quote("a\\b\n\t\u0001"));
+        assertEquals("{\"name\":null,\"ratio\":null,\"ok\":true}", new HttpGateway.Json()
+                .field("name", (String) null).field("ratio", Double.NaN).field("ok", true).toString());
+    }
+}
@@ -0,0 +1,98 @@
+package Server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase KeyedSerialExecutorTest
+ * ----------------------
+ * Solicitudes en pipeline: las de un mismo paciente se ejecutan en el orden de
+ * llegada y las de otros pacientes no esperan detrás de ellas.
+ */
+
+class KeyedSerialExecutorTest {
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+    private final List<String> log = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private KeyedSerialExecutor executor() {
+        return new KeyedSerialExecutor((task, onRejected) -> pool.execute(task));
+    }
+
+    private void submit(KeyedSerialExecutor executor, String key, String name, CountDownLatch gate, CountDownLatch done) {
+        executor.execute(key, () -> {
+            try {
+                if (gate != null) gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            log.add(name);
+            done.countDown();
+        }, () -> log.add("503 " + name));
+    }
+
+    @Test
+    void samePatientRunsInArrivalOrderWhileOthersOvertake() throws InterruptedException {
+        KeyedSerialExecutor executor = executor();
+        CountDownLatch slowCreate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+
+        submit(executor, "7", "create 7", slowCreate, done);
+        submit(executor, "7", "retrieve 7", null, done);
+        submit(executor, "8", "retrieve 8", null, done);
+        submit(executor, null, "list", null, done);
+
+        // Las de otros pacientes terminan aunque la creación del 7 siga esperando
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (log.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(log.containsAll(List.of("retrieve 8", "list")), log.toString());
+        assertFalse(log.contains("retrieve 7"), "no se adelanta a la creación del mismo paciente");
+
+        slowCreate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(log.indexOf("create 7") < log.indexOf("retrieve 7"));
+    }
+
+    @Test
+    void manyTasksOfOneKeyKeepTheirOrder() throws InterruptedException {
+        KeyedSerialExecutor executor = executor();
+        CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 200; i++) {
+            submit(executor, "p", String.valueOf(i), null, done);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(String.valueOf(i), log.get(i));
+        }
+    }
+
+    @Test
+    void patientKeyFollowsTheCommand() {
+        assertEquals("7", new Request("RETRIEVE_PATIENT 7").getPatientKey());
+        assertEquals("7", new Request("DELETE_PATIENT 7").getPatientKey());
+        assertEquals("upload:u1", new Request("UPLOAD_CHUNK u1 3").getPatientKey());
+        assertNull(new Request("LIST_PATIENTS").getPatientKey());
+
+        Request update = new Request("UPDATE_PATIENT");
+        update.putMetadata("patient_id", "9");
+        assertEquals("9", update.getPatientKey());
+        Request create = new Request("CREATE_PATIENT");
+        create.putMetadata("document_id", "CC-1");
+        assertEquals("CC-1", create.getPatientKey());
+    }
+}
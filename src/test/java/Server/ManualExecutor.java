@@ -0,0 +1,35 @@
+package Server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Clase ManualExecutor
+ * ----------------------
+ * "Pool" para tests: guarda las tareas en una cola y las ejecuta cuando el
+ * test llama a runAll, así el orden es determinista.
+ */
+
+class ManualExecutor implements Executor {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Ejecuta las tareas pendientes, incluidas las que se encolen mientras tanto.
+     */
+
+    void runAll() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    int size() {
+        return tasks.size();
+    }
+}
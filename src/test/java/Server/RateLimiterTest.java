@@ -0,0 +1,60 @@
+package Server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase RateLimiterTest
+ * ----------------------
+ * Cubetas de fichas por cliente: ráfaga, tiempo de espera informado, cubetas
+ * separadas por cliente y subidas más grandes que la ráfaga.
+ */
+
+class RateLimiterTest {
+
+    private static RateLimiter limiter(String... options) {
+        ServerConfig config = new ServerConfig("no-existe.properties");
+        for (int i = 0; i < options.length; i += 2) {
+            config.set(options[i], options[i + 1]);
+        }
+        return new RateLimiter(config);
+    }
+
+    @Test
+    void disabledByDefault() {
+        RateLimiter limiter = limiter();
+        assertFalse(limiter.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.tryRequest("10.0.0.1"));
+        }
+        assertEquals(0, limiter.tryUpload("10.0.0.1", Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    void requestsBeyondTheBurstWait() {
+        RateLimiter limiter = limiter("ratelimit.requests_per_s", "1");   // Ráfaga: 2 s de ritmo
+
+        assertEquals(0, limiter.tryRequest("10.0.0.1"));
+        assertEquals(0, limiter.tryRequest("10.0.0.1"));
+        long waitMs = limiter.tryRequest("10.0.0.1");
+        assertTrue(waitMs > 900 && waitMs <= 1000, "espera " + waitMs);
+
+        assertEquals(0, limiter.tryRequest("10.0.0.2"), "otro cliente tiene su propia cubeta");
+        assertEquals(0, limiter.tryRequest(null), "sin dirección no se limita");
+        assertEquals(3, limiter.getAllowedRequests());
+        assertEquals(1, limiter.getThrottledRequests());
+        assertTrue(limiter.list().get(0).describe().startsWith("CLIENT key:10.0.0.1 "));
+    }
+
+    @Test
+    void uploadLargerThanTheBurstIsPaidAfterwards() {
+        RateLimiter limiter = limiter("ratelimit.upload_bytes_per_s", "1000", "ratelimit.upload_burst_bytes", "2000");
+
+        assertEquals(0, limiter.tryUpload("10.0.0.1", 5000), "con la cubeta llena se admite");
+        long waitMs = limiter.tryUpload("10.0.0.1", 1);
+        assertTrue(waitMs > 2900 && waitMs <= 3001, "espera " + waitMs);   // 2000 - 5000 = -3000; falta 3001
+        assertEquals(5000, limiter.getAllowedBytes());
+        assertEquals(1, limiter.getThrottledUploads());
+    }
+}
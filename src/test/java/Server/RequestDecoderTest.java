@@ -0,0 +1,209 @@
+package Server;
+
+import Logging.LogManager;
+import Protocol.Compression;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase RequestDecoderTest
+ * ----------------------
+ * Máquina de estados del modo NIO: líneas partidas en cualquier byte, metadatos,
+ * cuerpos FASTA (que pueden contener saltos de línea), subidas rechazadas que se
+ * descartan, lotes CREATE_PATIENTS y FASTA comprimidos. Los FASTA se escriben
+ * en el mismo hilo.
+ */
+
+class RequestDecoderTest {
+    private static final String FASTA = ">p1\nACGTACGT\nNNNN\n";
+
+    @TempDir
+    Path dir;
+
+    private final List<Path> uploads = new ArrayList<>();
+    private LogManager log;   // Solo para los tests que registran en el log
+
+    @AfterEach
+    void deleteUploads() throws IOException {
+        for (Path upload : uploads) {
+            Files.deleteIfExists(upload);
+        }
+        if (log != null) log.close();
+    }
+
+    private static RequestDecoder decoder(int maxUploads) {
+        return new RequestDecoder(processor(maxUploads, null), "127.0.0.1", Runnable::run);
+    }
+
+    private static RequestProcessor processor(int maxUploads, LogManager log) {
+        ServerConfig config = new ServerConfig("no-existe.properties")
+                .set("admission.max_uploads", String.valueOf(maxUploads));
+        return new RequestProcessor(null, null, null, log, new AdmissionController(config), null, null, null);
+    }
+
+    private static String create(String document) {
+        byte[] fasta = FASTA.getBytes(StandardCharsets.UTF_8);
+        return "CREATE_PATIENT\nfull_name: Ana\ndocument_id: " + document + "\nEND_METADATA\n"
+                + "START_FASTA " + fasta.length + "\n" + FASTA;
+    }
+
+    /**
+     * Entrega los bytes de a `step` por vez, como si llegaran en lecturas separadas.
+     */
+
+    private static List<Request> feed(RequestDecoder decoder, String text, int step) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        List<Request> completed = new ArrayList<>();
+        for (int from = 0; from < bytes.length; from += step) {
+            decoder.decode(ByteBuffer.wrap(bytes, from, Math.min(step, bytes.length - from)), completed);
+        }
+        return completed;
+    }
+
+    private String uploaded(Request request) throws IOException {
+        request.awaitUpload();
+        uploads.add(request.getFastaFile());
+        return Files.readString(request.getFastaFile());
+    }
+
+    @Test
+    void linesSplitAtAnyByteAreJoined() throws IOException {
+        RequestDecoder decoder = decoder(1);
+        List<Request> requests = feed(decoder, "RETRIEVE_PATIENT 5\r\nLIST_PATIENTS\n", 1);
+
+        assertEquals(2, requests.size());
+        assertEquals("RETRIEVE_PATIENT 5", requests.get(0).getCommandLine());
+        assertEquals("LIST_PATIENTS", requests.get(1).getCommandLine());
+        assertNotEquals(requests.get(0).getRequestId(), requests.get(1).getRequestId());
+        assertTrue(decoder.isIdle());
+    }
+
+    @Test
+    void createReadsMetadataAndFastaBody() throws IOException {
+        for (int step : new int[] {1, 7, 4096}) {
+            RequestDecoder decoder = decoder(1);
+            List<Request> requests = feed(decoder, create("D1") + "PING\n", step);
+
+            assertEquals(2, requests.size(), "lecturas de " + step + " bytes");
+            Request create = requests.get(0);
+            assertEquals("D1", create.get("document_id"));
+            assertNull(create.getRejection());
+            assertEquals(FASTA, uploaded(create));
+            create.releasePermit();
+            assertEquals("PING", requests.get(1).getCommandLine());
+        }
+    }
+
+    @Test
+    void partialRequestIsReported() throws IOException {
+        RequestDecoder decoder = decoder(1);
+        String text = create("D1");
+        assertTrue(feed(decoder, text.substring(0, text.length() - 3), 64).isEmpty());
+        assertTrue(decoder.isReading());
+        assertFalse(decoder.isIdle());
+        decoder.close();
+    }
+
+    @Test
+    void rejectedUploadIsDiscardedWithoutLosingTheStream() throws IOException {
+        RequestDecoder decoder = decoder(0);   // Sin lugares de subida
+        List<Request> requests = feed(decoder, create("D1") + "PING\n", 5);
+
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(0).getRejection().startsWith("ERROR 503 BUSY"));
+        assertNull(requests.get(0).getFastaFile());
+        assertEquals("PING", requests.get(1).getCommandLine());
+    }
+
+    @Test
+    void batchIsDeliveredOnceWithAllItems() throws IOException {
+        RequestDecoder decoder = decoder(1);
+        String items = create("D1").substring("CREATE_PATIENT\n".length())
+                + create("D2").substring("CREATE_PATIENT\n".length());
+        List<Request> requests = feed(decoder, "CREATE_PATIENTS 2\n" + items, 3);
+
+        assertEquals(1, requests.size());
+        Request batch = requests.get(0);
+        assertEquals(2, batch.getItems().size());
+        assertEquals("D2", batch.getItems().get(1).get("document_id"));
+        for (Request item : batch.getItems()) {
+            assertEquals(FASTA, uploaded(item));
+        }
+        batch.releasePermit();
+    }
+
+    @Test
+    void compressedFastaIsInflatedWhileReceived() throws IOException {
+        StringBuilder text = new StringBuilder(">p1\n");
+        for (int i = 0; i < 2000; i++) {
+            text.append("ACGTACGTNNACGGTA\n");
+        }
+        Path original = dir.resolve("p1.fasta");
+        Files.writeString(original, text);
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        try (FileChannel file = FileChannel.open(original)) {
+            Compression.compress(Compression.DEFLATE, file, 0, file.size(),
+                    (block, length, last) -> wire.write(block, 0, length));
+        }
+        byte[] head = ("CREATE_PATIENT\ndocument_id: D1\nEND_METADATA\nSTART_FASTA " + wire.size()
+                + " deflate " + text.length() + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(head);
+        stream.write(wire.toByteArray());
+        stream.write("PING\n".getBytes(StandardCharsets.UTF_8));
+
+        log = new LogManager(dir.resolve("server.log").toString());
+        RequestProcessor processor = processor(1, log);
+        RequestDecoder decoder = new RequestDecoder(processor, "127.0.0.1", Runnable::run);
+        byte[] bytes = stream.toByteArray();
+        List<Request> requests = new ArrayList<>();
+        for (int from = 0; from < bytes.length; from += 100) {
+            decoder.decode(ByteBuffer.wrap(bytes, from, Math.min(100, bytes.length - from)), requests);
+        }
+
+        assertEquals(2, requests.size());
+        Request create = requests.get(0);
+        assertEquals(text.toString(), uploaded(create));
+        assertNull(create.getRejection());
+        assertEquals(text.length(), create.getFastaBytesExpected(), "la admisión cuenta el tamaño sin comprimir");
+        create.releasePermit();
+        assertEquals(1, processor.getCompressedUploads());
+        assertTrue(processor.getCompressionRatio() > 5);
+        assertEquals("PING", requests.get(1).getCommandLine());
+    }
+
+    @Test
+    void corruptCompressedFastaRejectsOnlyThatRequest() throws IOException {
+        String garbage = "no es deflate";
+        log = new LogManager(dir.resolve("server.log").toString());
+        RequestDecoder decoder = new RequestDecoder(processor(1, log), "127.0.0.1", Runnable::run);
+        List<Request> requests = feed(decoder, "CREATE_PATIENT\ndocument_id: D1\nEND_METADATA\nSTART_FASTA "
+                + garbage.length() + " deflate 100\n" + garbage + "PING\n", 7);
+
+        assertEquals(2, requests.size());
+        uploaded(requests.get(0));
+        assertEquals("ERROR 422 INVALID_COMPRESSED_FASTA", requests.get(0).getRejection());
+        requests.get(0).releasePermit();
+        assertEquals("PING", requests.get(1).getCommandLine());
+    }
+
+    @Test
+    void overlongLineIsAnError() {
+        RequestDecoder decoder = decoder(1);
+        String line = "X".repeat(70 * 1024);
+        assertThrows(IOException.class, () -> feed(decoder, line, 8192));
+    }
+}
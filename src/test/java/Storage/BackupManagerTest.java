@@ -0,0 +1,99 @@
+package Storage;
+
+import Model.DetectionReport;
+import Model.Patient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase BackupManagerTest
+ * ----------------------
+ * Respaldos incrementales: el primero es completo y los siguientes llevan solo
+ * las filas, los bytes de reportes y los FASTA que cambiaron desde el anterior.
+ */
+
+class BackupManagerTest {
+
+    @TempDir
+    Path dir;
+
+    private CsvManager csv;
+    private BackupManager backups;
+
+    @BeforeEach
+    void setUp() {
+        csv = new CsvManager(dir.resolve("patients.csv").toString(), dir.resolve("reports.csv").toString());
+        backups = new BackupManager(csv, dir.resolve("backups").toString());
+        assertEquals(CsvManager.WriteResult.OK, csv.insertPatientIfAbsent(PatientFixtures.patient(1)));
+        assertEquals(CsvManager.WriteResult.OK, csv.insertPatientIfAbsent(PatientFixtures.patient(2)));
+    }
+
+    private static List<String> delta(Path backup) throws IOException {
+        List<String> lines = Files.readAllLines(backup.resolve("patients.delta.csv"));
+        return lines.subList(1, lines.size());   // sin encabezado
+    }
+
+    private static Properties manifest(Path backup) throws IOException {
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(backup.resolve("manifest.properties"))) {
+            manifest.load(in);
+        }
+        return manifest;
+    }
+
+    @Test
+    void firstBackupIsFull() throws IOException {
+        Path fasta = Files.writeString(dir.resolve("patient_1_1_1.fasta"), ">p1\nACGT\n");
+
+        Path full = backups.incrementalBackup();
+
+        assertEquals("true", manifest(full).getProperty("full"));
+        List<String> rows = delta(full);
+        assertEquals(2, rows.size());
+        assertTrue(rows.get(0).startsWith("UPSERT,1,"));
+        assertTrue(rows.get(1).startsWith("UPSERT,2,"));
+        assertEquals(Files.readString(fasta), Files.readString(full.resolve("fasta").resolve(fasta.getFileName())));
+    }
+
+    @Test
+    void laterBackupsCarryOnlyChanges() throws IOException {
+        backups.incrementalBackup();
+
+        Patient updated = PatientFixtures.patient(1);
+        updated.setFullName("Renombrado");
+        assertEquals(CsvManager.WriteResult.OK, csv.updatePatient(updated));
+        csv.deactivatePatient("2");
+        csv.deactivatePatient("99");   // no existe: no debe aparecer
+        csv.appendReport(new DetectionReport("1", "D1", 3, "coincidencia"));
+        Path fasta = Files.writeString(dir.resolve("patient_1_2_2.fasta"), ">p1\nGGGG\n");
+        csv.registerFasta(fasta);
+
+        Path incremental = backups.incrementalBackup();
+
+        Properties manifest = manifest(incremental);
+        assertEquals("false", manifest.getProperty("full"));
+        List<String> rows = delta(incremental);
+        assertEquals(2, rows.size());
+        assertTrue(rows.get(0).startsWith("UPSERT,1,DOC1,Renombrado,"));
+        assertEquals("DELETE,2", rows.get(1));
+        List<String> reports = Files.readAllLines(incremental.resolve("reports.delta.csv"));
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).startsWith("1,D1,3,"));
+        assertEquals(">p1\nGGGG\n", Files.readString(incremental.resolve("fasta").resolve(fasta.getFileName())));
+
+        Path empty = backups.incrementalBackup();
+        assertTrue(delta(empty).isEmpty());
+        assertEquals("0", manifest(empty).getProperty("reports_bytes"));
+        assertEquals("0", manifest(empty).getProperty("fasta_files"));
+    }
+}
@@ -0,0 +1,97 @@
+package Storage;
+
+import Model.Patient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase BatchInsertTest
+ * ----------------------
+ * Inserción de lotes (CREATE_PATIENTS): cada paciente tiene su propio
+ * resultado, en el orden del lote, y los rechazados no dejan reservas en los
+ * índices de documento y email.
+ */
+
+class BatchInsertTest {
+
+    @TempDir
+    Path dir;
+
+    private CsvManager open() {
+        return new CsvManager(dir.resolve("patients.csv").toString(), dir.resolve("reports.csv").toString(), 2);
+    }
+
+    private static Patient patient(int id, String document, String email) {
+        Patient p = PatientFixtures.patient(id);
+        p.setDocumentID(document);
+        p.setContactEmail(email);
+        return p;
+    }
+
+    @Test
+    void eachPatientGetsItsOwnResult() {
+        CsvManager csv = open();
+        assertEquals(CsvManager.WriteResult.OK, csv.insertPatientIfAbsent(PatientFixtures.patient(1)));
+
+        CsvManager.WriteResult[] results = csv.insertPatientsIfAbsent(List.of(
+                PatientFixtures.patient(2),
+                patient(1, "OTRO1", "otro1@x.com"),     // ID ya guardado
+                patient(3, "DOC1", "otro3@x.com"),      // documento de otro paciente
+                patient(4, "DOC4", "P1@X.COM"),         // email de otro paciente (sin distinguir mayúsculas)
+                patient(5, "DOC2", "otro5@x.com"),      // documento repetido dentro del lote
+                patient(2, "DOC6", "otro6@x.com"),      // ID repetido dentro del lote
+                PatientFixtures.patient(7)));
+
+        assertArrayEquals(new CsvManager.WriteResult[]{
+                CsvManager.WriteResult.OK,
+                CsvManager.WriteResult.DUPLICATE_ID,
+                CsvManager.WriteResult.DUPLICATE_DOCUMENT,
+                CsvManager.WriteResult.DUPLICATE_EMAIL,
+                CsvManager.WriteResult.DUPLICATE_DOCUMENT,
+                CsvManager.WriteResult.DUPLICATE_ID,
+                CsvManager.WriteResult.OK}, results);
+
+        for (int id : new int[]{1, 2, 7}) {
+            assertNotNull(csv.getPatientById(String.valueOf(id)), "paciente " + id);
+        }
+        for (int id : new int[]{3, 4, 5}) {
+            assertNull(csv.getPatientById(String.valueOf(id)), "paciente " + id);
+        }
+        assertEquals("Paciente 1", csv.getPatientById("1").getFullName(), "el duplicado no pisa al guardado");
+    }
+
+    @Test
+    void rejectedPatientsLeaveNoReservations() {
+        CsvManager csv = open();
+        assertEquals(CsvManager.WriteResult.OK, csv.insertPatientIfAbsent(PatientFixtures.patient(1)));
+
+        CsvManager.WriteResult[] results = csv.insertPatientsIfAbsent(List.of(
+                patient(4, "DOC4", "p1@x.com")));
+        assertEquals(CsvManager.WriteResult.DUPLICATE_EMAIL, results[0]);
+
+        // El documento del rechazado quedó libre
+        assertEquals(CsvManager.WriteResult.OK, csv.insertPatientIfAbsent(patient(5, "DOC4", "p5@x.com")));
+        assertEquals(5, csv.getPatientByDocument("DOC4").getPatientID());
+    }
+
+    @Test
+    void aBatchSurvivesARestart() {
+        CsvManager csv = open();
+        CsvManager.WriteResult[] results = csv.insertPatientsIfAbsent(List.of(
+                PatientFixtures.patient(1), PatientFixtures.patient(2), PatientFixtures.patient(3)));
+        for (CsvManager.WriteResult result : results) {
+            assertEquals(CsvManager.WriteResult.OK, result);
+        }
+
+        CsvManager reopened = open();
+        for (int id = 1; id <= 3; id++) {
+            assertEquals("DOC" + id, reopened.getPatientById(String.valueOf(id)).getDocumentID());
+        }
+        assertEquals(2, reopened.getPatientByEmail("p2@x.com").getPatientID());
+    }
+}
@@ -0,0 +1,75 @@
+package Storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase CsvManagerListTest
+ * ----------------------
+ * Paginación de LIST_PATIENTS sobre el índice ordenado: orden por ID aunque el
+ * CSV esté desordenado, cursor, filtro y pacientes desactivados.
+ */
+
+class CsvManagerListTest {
+
+    @TempDir
+    Path dir;
+
+    private CsvManager manager(int... ids) throws IOException {
+        PatientFixtures.writeCsv(dir.resolve("patients.csv"), ids);
+        return new CsvManager(dir.resolve("patients.csv").toString(), dir.resolve("reports.csv").toString());
+    }
+
+    static List<Integer> page(CsvManager csv, Integer afterId, int limit, String filter, Integer[] next) {
+        List<Integer> ids = new ArrayList<>();
+        next[0] = csv.listPatients(afterId, limit, filter, p -> ids.add(p.getPatientID()));
+        return ids;
+    }
+
+    @Test
+    void pagesFollowIdOrder() throws IOException {
+        CsvManager csv = manager(7, 2, 9, 4, 1, 8, 3);
+        Integer[] next = new Integer[1];
+
+        assertEquals(List.of(1, 2, 3), page(csv, null, 3, null, next));
+        assertEquals(3, next[0]);
+        assertEquals(List.of(4, 7, 8), page(csv, next[0], 3, null, next));
+        assertEquals(8, next[0]);
+        assertEquals(List.of(9), page(csv, next[0], 3, null, next));
+        assertNull(next[0], "la última página no tiene cursor");
+    }
+
+    @Test
+    void filterAndDeactivationAreApplied() throws IOException {
+        CsvManager csv = manager(1, 2, 3, 4, 5, 6);
+        csv.deactivatePatient("4");
+        Integer[] next = new Integer[1];
+
+        assertEquals(List.of(1, 2, 3, 5, 6), page(csv, null, 10, null, next));
+        assertEquals(List.of(2, 6), page(csv, null, 10, "CONTROL", next));
+        assertNull(csv.getPatientById("4"));
+        assertEquals(List.of(5, 6), page(csv, 4, 10, null, next), "el cursor puede ser un ID desactivado");
+    }
+
+    @Test
+    void deactivatingAnUnknownPatientRecordsNoChange() throws IOException {
+        CsvManager csv = manager(1);
+        assertEquals(CsvManager.WriteResult.OK, csv.insertPatientIfAbsent(PatientFixtures.patient(2)));
+        long before = csv.snapshot(0, dir.resolve("blobs")).getToLsn();
+
+        csv.deactivatePatient("99");
+        csv.deactivatePatient("no-numerico");
+
+        StorageSnapshot since = csv.snapshot(before, dir.resolve("blobs"));
+        assertEquals(before, since.getToLsn());
+        assertTrue(since.getDeletedIds().isEmpty());
+        assertTrue(since.getChangedRows().isEmpty());
+    }
+}
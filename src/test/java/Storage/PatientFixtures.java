@@ -0,0 +1,48 @@
+package Storage;
+
+import Model.Patient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clase PatientFixtures
+ * ----------------------
+ * Pacientes de prueba para los tests de almacenamiento. Los pares llevan la
+ * nota "control anual" y los impares "urgente", para probar filtros.
+ */
+
+final class PatientFixtures {
+    static final String HEADER = "Patient ID,Document ID,Full Name,Age,Sex,Contact Email,"
+            + "Registration Date,Clinical Notes,File Size (bytes),FASTA Checksum,Active";
+
+    private PatientFixtures() {
+    }
+
+    static Patient patient(int id) {
+        Patient p = new Patient("Paciente " + id, "DOC" + id, 30, "F", "p" + id + "@x.com",
+                LocalDateTime.of(2024, 1, 1, 0, 0), id % 2 == 0 ? "control anual" : "urgente", "abc", 10);
+        p.setPatientID(id);
+        return p;
+    }
+
+    /**
+     * Escribe un CSV de pacientes, en el formato de CsvManager, con los IDs en el orden dado.
+     */
+
+    static void writeCsv(Path file, int... ids) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (int id : ids) {
+            Patient p = patient(id);
+            lines.add(id + "," + p.getDocumentID() + "," + p.getFullName() + "," + p.getAge() + "," + p.getSex() + ","
+                    + p.getContactEmail() + "," + p.getRegistrationDate() + "," + p.getClinicalNotes() + ","
+                    + p.getChecksumFasta() + "," + p.getFileSizeBytes() + ",true");
+        }
+        Files.write(file, lines);
+    }
+}
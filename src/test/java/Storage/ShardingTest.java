@@ -0,0 +1,129 @@
+package Storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase ShardingTest
+ * ----------------------
+ * Reparto de pacientes en shards: cada ID va al archivo floorMod(id, N), un CSV
+ * existente se migra con ShardMigrator, y el servidor no arranca si storage.shards
+ * no coincide con el marcador de la migración o un shard no se puede leer.
+ */
+
+class ShardingTest {
+
+    @TempDir
+    Path dir;
+
+    private String patients() {
+        return dir.resolve("patients.csv").toString();
+    }
+
+    private String reports() {
+        return dir.resolve("reports.csv").toString();
+    }
+
+    private Path shardDir() {
+        return CsvManager.shardDirFor(dir.resolve("patients.csv"));
+    }
+
+    private static void insert(CsvManager csv, int id) {
+        assertEquals(CsvManager.WriteResult.OK, csv.insertPatientIfAbsent(PatientFixtures.patient(id)));
+    }
+
+    private static long rows(Path file) throws IOException {
+        return Files.readAllLines(file).size() - 1;   // sin encabezado
+    }
+
+    @Test
+    void patientsAreRoutedByIdAndReloaded() throws IOException {
+        CsvManager csv = new CsvManager(patients(), reports(), 4);
+        for (int id = 1; id <= 10; id++) {
+            insert(csv, id);
+        }
+
+        // IDs 1..10 módulo 4: shard 0 -> 4,8; 1 -> 1,5,9; 2 -> 2,6,10; 3 -> 3,7
+        long[] expected = {2, 3, 3, 2};
+        for (int i = 0; i < 4; i++) {
+            assertEquals(expected[i], rows(PatientShard.fileFor(shardDir(), i)), "shard " + i);
+        }
+        assertEquals(4, ShardMigrator.readShardCount(shardDir()));
+
+        CsvManager reloaded = new CsvManager(patients(), reports(), 4);
+        for (int id = 1; id <= 10; id++) {
+            assertNotNull(reloaded.getPatientById(String.valueOf(id)), "paciente " + id);
+        }
+        assertEquals("DOC7", reloaded.getPatientByDocument("DOC7").getDocumentID());
+    }
+
+    @Test
+    void pagesFollowIdOrderAcrossShards() {
+        CsvManager csv = new CsvManager(patients(), reports(), 3);
+        for (int id : new int[] {7, 2, 9, 4, 1, 8, 3}) {
+            insert(csv, id);
+        }
+        Integer[] next = new Integer[1];
+
+        assertEquals(List.of(1, 2, 3), CsvManagerListTest.page(csv, null, 3, null, next));
+        assertEquals(List.of(4, 7, 8), CsvManagerListTest.page(csv, next[0], 3, null, next));
+        assertEquals(List.of(9), CsvManagerListTest.page(csv, next[0], 3, null, next));
+        assertNull(next[0], "la última página no tiene cursor");
+    }
+
+    @Test
+    void migrationSplitsAnExistingCsv() throws IOException {
+        CsvManager single = new CsvManager(patients(), reports());
+        for (int id = 1; id <= 7; id++) {
+            insert(single, id);
+        }
+
+        ShardMigrator.main(new String[] {patients(), "3"});
+
+        assertEquals(3, ShardMigrator.readShardCount(shardDir()));
+        assertTrue(Files.readString(shardDir().resolve(ShardMigrator.MARKER_FILE)).startsWith("shards=3 rows=7 "));
+        CsvManager sharded = new CsvManager(patients(), reports(), 3);
+        for (int id = 1; id <= 7; id++) {
+            assertNotNull(sharded.getPatientById(String.valueOf(id)), "paciente " + id);
+        }
+    }
+
+    @Test
+    void startupRefusesAShardCountThatDoesNotMatchTheData() throws IOException {
+        insert(new CsvManager(patients(), reports(), 4), 1);
+
+        assertThrows(IllegalStateException.class, () -> new CsvManager(patients(), reports(), 2));
+        assertThrows(IllegalStateException.class, () -> new CsvManager(patients(), reports(), 1));
+        assertNotNull(new CsvManager(patients(), reports(), 4).getPatientById("1"));
+    }
+
+    @Test
+    void startupRefusesUnmigratedPatientsOrUnmarkedShards() throws IOException {
+        insert(new CsvManager(patients(), reports()), 1);
+        assertThrows(IllegalStateException.class, () -> new CsvManager(patients(), reports(), 3));
+
+        Files.delete(dir.resolve("patients.csv"));
+        Files.createDirectories(shardDir());
+        Files.writeString(PatientShard.fileFor(shardDir(), 0), PatientShard.HEADER + "\n");
+        assertThrows(IllegalStateException.class, () -> new CsvManager(patients(), reports(), 3));
+    }
+
+    @Test
+    void startupFailsWhenAShardCannotBeRead() throws IOException {
+        // Bytes que no son UTF-8: el shard no se puede leer y no se arranca con los pacientes a medias
+        Files.write(dir.resolve("patients.csv"), (PatientShard.HEADER + "\n").getBytes());
+        Files.write(dir.resolve("patients.csv"), new byte[] {'1', ',', (byte) 0xFF, (byte) 0xFE, '\n'},
+                StandardOpenOption.APPEND);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> new CsvManager(patients(), reports()));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+}
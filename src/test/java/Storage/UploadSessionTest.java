@@ -0,0 +1,164 @@
+package Storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase UploadSessionTest
+ * ----------------------
+ * Subidas en pedazos que se retoman: CRC32C por pedazo, pedazos faltantes,
+ * recarga desde disco (como tras un reinicio), confirmación con SHA-256,
+ * claim único (y devolución si el archivo no se pudo mover), límites de tamaño
+ * y de sesiones por cliente, y vencimiento de sesiones inactivas.
+ */
+
+class UploadSessionTest {
+    private static final byte[] FASTA = ">p1\nACGTACGTAC\nGGGG\n".getBytes(StandardCharsets.US_ASCII);   // 20 bytes
+
+    private static final String CLIENT = "10.0.0.1";
+
+    @TempDir
+    Path dir;
+
+    private UploadManager manager() {
+        return new UploadManager(dir.toString(), 8, 8, 60_000);
+    }
+
+    private static byte[] chunk(UploadSession session, int index) {
+        int from = index * session.getChunkBytes();
+        return Arrays.copyOfRange(FASTA, from, (int) (from + session.chunkLength(index)));
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static UploadSession.Result send(UploadSession session, int index, byte[] bytes, long crc) throws IOException {
+        UploadSession.ChunkWriter writer = session.openChunk(index, bytes.length);
+        // En dos escrituras, como llegan de la red
+        writer.write(ByteBuffer.wrap(bytes, 0, bytes.length / 2));
+        writer.write(ByteBuffer.wrap(bytes, bytes.length / 2, bytes.length - bytes.length / 2));
+        return session.completeChunk(writer, crc);
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+
+    @Test
+    void chunksAreCheckedAndCountedOnlyWhenValid() throws Exception {
+        UploadSession session = manager().open(CLIENT, FASTA.length, 0);
+        assertEquals(3, session.getChunkCount());
+        assertEquals(4, session.chunkLength(2));
+        assertNull(session.openChunk(3, 8));
+        assertNull(session.openChunk(0, 7));
+
+        byte[] last = chunk(session, 2);
+        assertEquals(UploadSession.Result.OK, send(session, 2, last, crc(last)));
+        byte[] first = chunk(session, 0);
+        assertEquals(UploadSession.Result.CHECKSUM_MISMATCH, send(session, 0, first, crc(first) ^ 1));
+        UploadSession.ChunkWriter partial = session.openChunk(0, 8);
+        partial.write(ByteBuffer.wrap(first, 0, 3));
+        assertEquals(UploadSession.Result.INCOMPLETE, session.completeChunk(partial, crc(first)));
+        assertThrows(IOException.class, () -> session.openChunk(1, 8).write(ByteBuffer.wrap(new byte[9])));
+
+        assertEquals("0-1", session.missingRanges());
+        assertEquals(4, session.receivedBytes());
+        assertEquals(UploadSession.Result.INCOMPLETE, session.commit(sha256(FASTA)));
+    }
+
+    @Test
+    void sessionSurvivesARestartAndCommitsOnce() throws Exception {
+        UploadSession before = manager().open(CLIENT, FASTA.length, 0);
+        byte[] middle = chunk(before, 1);
+        assertEquals(UploadSession.Result.OK, send(before, 1, middle, crc(middle)));
+        assertEquals(UploadSession.Result.OK, send(before, 1, middle, crc(middle)), "reenviar un pedazo no cambia nada");
+
+        UploadManager restarted = manager();
+        UploadSession session = restarted.get(before.getId());
+        assertNotNull(session);
+        assertEquals("0,2", session.missingRanges());
+        for (int i : new int[] {0, 2}) {
+            byte[] bytes = chunk(session, i);
+            assertEquals(UploadSession.Result.OK, send(session, i, bytes, crc(bytes)));
+        }
+        assertEquals("-", session.missingRanges());
+
+        assertEquals(UploadSession.Result.CHECKSUM_MISMATCH, session.commit(sha256(new byte[1])));
+        assertFalse(session.isCommitted());
+        assertFalse(restarted.claim(session));
+        assertEquals(UploadSession.Result.OK, session.commit(sha256(FASTA)));
+        assertArrayEquals(FASTA, Files.readAllBytes(session.getDataFile()));
+        assertNull(session.openChunk(0, 8), "no se aceptan pedazos después de confirmar");
+
+        assertTrue(restarted.claim(session));
+        assertFalse(restarted.claim(session));
+        assertNull(restarted.get(session.getId()));
+    }
+
+    @Test
+    void idleAndAbortedSessionsAreDeleted() throws IOException {
+        UploadManager expiring = new UploadManager(dir.toString(), 8, 8, -1);
+        UploadSession idle = expiring.open(CLIENT, FASTA.length, 0);
+        expiring.expireIdle();
+        assertNull(expiring.get(idle.getId()));
+        assertFalse(Files.exists(idle.getDataFile()));
+
+        UploadManager uploads = manager();
+        UploadSession aborted = uploads.open(CLIENT, FASTA.length, 4);
+        assertEquals(5, aborted.getChunkCount());
+        assertTrue(uploads.abort(aborted.getId()));
+        assertFalse(uploads.abort(aborted.getId()));
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void uploadsAreBoundedBySizeChunkCountAndSessionsPerClient() throws IOException {
+        UploadManager uploads = new UploadManager(dir.toString(), 8, 8, 60_000, 100, 2);
+        assertThrows(IllegalArgumentException.class, () -> uploads.open(CLIENT, 101, 0));
+        assertEquals(3L * Integer.MAX_VALUE, UploadSession.chunkCount(3L * Integer.MAX_VALUE, 1), "sin desbordar int");
+        UploadManager unbounded = new UploadManager(dir.resolve("grandes").toString(), 1, 1, 60_000, Long.MAX_VALUE, 2);
+        assertThrows(IllegalArgumentException.class, () -> unbounded.open(CLIENT, Integer.MAX_VALUE + 1L, 1));
+
+        assertNotNull(uploads.open(CLIENT, FASTA.length, 0));
+        assertNotNull(uploads.open(CLIENT, FASTA.length, 0));
+        assertNull(uploads.open(CLIENT, FASTA.length, 0), "tercera sesión del mismo cliente");
+        assertNotNull(uploads.open("10.0.0.2", FASTA.length, 0), "otro cliente tiene su propio límite");
+
+        // El dueño se guarda con la sesión: el límite sigue después de un reinicio
+        UploadManager restarted = new UploadManager(dir.toString(), 8, 8, 60_000, 100, 2);
+        assertNull(restarted.open(CLIENT, FASTA.length, 0));
+    }
+
+    @Test
+    void aReleasedSessionCanBeClaimedAgain() throws Exception {
+        UploadManager uploads = manager();
+        UploadSession session = uploads.open(CLIENT, FASTA.length, 0);
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            byte[] bytes = chunk(session, i);
+            send(session, i, bytes, crc(bytes));
+        }
+        assertEquals(UploadSession.Result.OK, session.commit(sha256(FASTA)));
+
+        assertTrue(uploads.claim(session));
+        uploads.release(session);   // el archivo no se pudo mover
+        assertSame(session, uploads.get(session.getId()));
+        assertTrue(uploads.claim(session));
+    }
+}
@@ -0,0 +1,53 @@
+package validation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clase FastaValidatorTest
+ * ----------------------
+ * Normalización por ventanas: la secuencia es la misma que con normalize y una
+ * coincidencia partida entre dos pedazos del archivo aparece en alguna ventana.
+ */
+
+class FastaValidatorTest {
+
+    private static final String MOTIF = "GATTACA";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchSplitAcrossAWindowBoundaryIsFound() throws IOException {
+        // El primer pedazo leído termina en la mitad del motivo
+        String header = ">p1\n";
+        int boundary = 1024 * 1024;
+        String content = header + "C".repeat(boundary - header.length() - 3) + MOTIF + "C".repeat(100) + "\n";
+        Path fasta = Files.writeString(dir.resolve("p1.fasta"), content);
+
+        List<String> windows = new ArrayList<>();
+        long length = FastaValidator.scanNormalized(fasta.toString(), MOTIF.length() - 1, windows::add);
+
+        assertEquals(2, windows.size());
+        assertFalse(windows.get(0).contains(MOTIF));
+        assertTrue(windows.get(1).contains(MOTIF), "la ventana repite el final de la anterior");
+        assertEquals(FastaValidator.normalize(content).length(), length);
+    }
+
+    @Test
+    void emptySequenceStillProducesOneWindow() throws IOException {
+        Path fasta = Files.writeString(dir.resolve("vacio.fasta"), ">p1\n");
+
+        List<String> windows = new ArrayList<>();
+        assertEquals(0, FastaValidator.scanNormalized(fasta.toString(), 6, windows::add));
+        assertEquals(List.of(""), windows);
+    }
+}